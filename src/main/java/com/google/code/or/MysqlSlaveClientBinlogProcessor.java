@@ -4,7 +4,6 @@ package com.google.code.or;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -14,14 +13,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.code.or.binlog.BinlogEventV4;
-import com.google.code.or.binlog.BinlogProcessor;
+import com.google.code.or.binlog.BinlogParserContext;
 import com.google.code.or.binlog.BinlogProcessorCallback;
+import com.google.code.or.binlog.BinlogRawEventCallback;
 import com.google.code.or.binlog.BinlogSimpleParser;
+import com.google.code.or.binlog.RawBinlogProcessor;
 import com.google.code.or.binlog.ext.XChecksum;
 import com.google.code.or.binlog.ext.XChecksumFactory;
 import com.google.code.or.binlog.ext.XChecksum.ChecksumType;
 import com.google.code.or.binlog.impl.BinlogSimpleParserImpl;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.BinlogRawEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
 import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
 import com.google.code.or.io.XInputStream;
 import com.google.code.or.io.impl.SocketFactoryImpl;
 import com.google.code.or.io.util.XDeserializer;
@@ -29,18 +34,15 @@ import com.google.code.or.net.Packet;
 import com.google.code.or.net.Transport;
 import com.google.code.or.net.TransportException;
 import com.google.code.or.net.impl.AuthenticatorImpl;
+import com.google.code.or.net.impl.QueryHelper;
 import com.google.code.or.net.impl.TransportImpl;
 import com.google.code.or.net.impl.packet.EOFPacket;
 import com.google.code.or.net.impl.packet.ErrorPacket;
 import com.google.code.or.net.impl.packet.OKPacket;
-import com.google.code.or.net.impl.packet.ResultSetFieldPacket;
-import com.google.code.or.net.impl.packet.ResultSetHeaderPacket;
-import com.google.code.or.net.impl.packet.ResultSetRowPacket;
 import com.google.code.or.net.impl.packet.command.ComBinlogDumpPacket;
 import com.google.code.or.net.impl.packet.command.ComPing;
-import com.google.code.or.net.impl.packet.command.ComQuery;
 
-public class MysqlSlaveClientBinlogProcessor implements BinlogProcessor {
+public class MysqlSlaveClientBinlogProcessor implements RawBinlogProcessor {
 	private static final Logger logger = LoggerFactory.getLogger(MysqlSlaveClientBinlogProcessor.class);
 	
 	private String masterHostname;
@@ -60,8 +62,10 @@ public class MysqlSlaveClientBinlogProcessor implements BinlogProcessor {
 
 	private XChecksum checksum;
 	private Map<String, String> variables;
+	private boolean allVariables; // SHOW GLOBAL VARIABLES rather than the settings only
 	
 	private BinlogSimpleParser parser;
+	private byte[] rawBuffer; // Reused by processOneRawEventRecord
 	
 	private ExecutorService pool;
 	
@@ -100,96 +104,59 @@ public class MysqlSlaveClientBinlogProcessor implements BinlogProcessor {
 		return transport;
 	}
 	
-	private void readSettings() throws Exception {
-		//
-		final ComQuery command = new ComQuery();
-		String cmd = "SHOW GLOBAL VARIABLES";
-		StringColumn sc = StringColumn.valueOf(cmd.getBytes("UTF-8"));
-		command.setSql(sc);
-		this.transport.getOutputStream().writePacket(command);
-		this.transport.getOutputStream().flush();
-
+	/**
+	 * Pipelines the settings queries, the session variables and the dump command, then reads their
+	 * responses in order. The checksum setting has a query of its own, it is unknown prior to 5.6.1.
+	 * With allVariables, SHOW GLOBAL VARIABLES replaces the settings queries. The variables are keyed
+	 * by their lower case name, with upper case values.
+	 */
+	private void setup() throws Exception {
 		//
-		Packet packet = transport.getInputStream().readPacket();
-		if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
-			final ErrorPacket error = ErrorPacket.valueOf(packet);// Consume
-			throw new TransportException(error);
+		if (this.allVariables) {
+			QueryHelper.writeQuery(this.transport, "SHOW GLOBAL VARIABLES");
+		} else {
+			QueryHelper.writeQuery(this.transport, QueryHelper.getVariablesQuery("server_id"));
+			QueryHelper.writeQuery(this.transport, QueryHelper.getVariablesQuery("binlog_checksum"));
 		}
+		QueryHelper.writeQuery(this.transport, "SET @master_binlog_checksum= '@@global.binlog_checksum'");
+		this.transport.getOutputStream().writePacket(getDumpCommand());
+		this.transport.getOutputStream().flush();
 
-		ResultSetHeaderPacket.valueOf(packet);
 		//
-		while (true) {
-			packet = transport.getInputStream().readPacket();
-			if (packet.getPacketBody()[0] == EOFPacket.PACKET_MARKER) {
-				EOFPacket.valueOf(packet);// Consume
-				break;
-			} else {
-				ResultSetFieldPacket.valueOf(packet);
+		this.variables.clear();
+		if (this.allVariables) {
+			this.variables.putAll(QueryHelper.readVariables(this.transport));
+		} else {
+			this.variables.putAll(QueryHelper.readRow(this.transport)); // Known on every server
+			try {
+				this.variables.putAll(QueryHelper.readRow(this.transport));
 			}
-		}
-
-		//
-		while (true) {
-			packet = transport.getInputStream().readPacket();
-			if (packet.getPacketBody()[0] == EOFPacket.PACKET_MARKER) {
-				EOFPacket.valueOf(packet);// Consume
-				break;
-			} else {
-				ResultSetRowPacket row = ResultSetRowPacket.valueOf(packet);
-				List<StringColumn> entry = row.getColumns();
-				// Lower Case Key
-				String configKey = entry.get(0).toString().toLowerCase();
-				// Upper Case Value
-				String configVal = entry.get(1).toString().toUpperCase();
-				variables.put(configKey, configVal);
+			catch (TransportException ex) {
+				// Servers prior to 5.6.1 have no binlog_checksum and hence no checksums
+				if (ex.getErrorCode() != QueryHelper.ER_UNKNOWN_SYSTEM_VARIABLE) throw ex;
 			}
 		}
-	}
+		QueryHelper.readOK(this.transport);
 
-	/**
-	 * 
-	 */
-	private void bindSettings() throws Exception {
 		// NONE | CRC32
 		this.checksum = XChecksumFactory.create(variables.get("binlog_checksum"));
 
-		if (this.checksum.getType() != ChecksumType.NONE) {
-			final ComQuery command = new ComQuery();
-			String cmd = "SET @master_binlog_checksum= '@@global.binlog_checksum'";
-			StringColumn sc = StringColumn.valueOf(cmd.getBytes("UTF-8"));
-			command.setSql(sc);
-			this.transport.getOutputStream().writePacket(command);
-			this.transport.getOutputStream().flush();
-
-			//
-			final Packet packet = this.transport.getInputStream().readPacket();
-			if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
-				final ErrorPacket error = ErrorPacket.valueOf(packet);
-				throw new TransportException(error);
-			}
+		//
+		final Packet packet = this.transport.getInputStream().readPacket();
+		if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
+			final ErrorPacket error = ErrorPacket.valueOf(packet);
+			throw new TransportException(error);
 		}
 	}
 
-	/**
-	 * 
-	 */
-	private void dumpBinlog() throws Exception {
-		//
+	private ComBinlogDumpPacket getDumpCommand() throws Exception {
 		final ComBinlogDumpPacket command = new ComBinlogDumpPacket();
 		// open-replicator-1.0.7: 0X00, alibaba canal:0X02, MySQL manual:// 0x01(BINLOG_DUMP_NON_BLOCK)
 		command.setBinlogFlag(0x02);
 		command.setServerId(this.serverId);
 		command.setBinlogPosition(getStartBinlogPosition());
 		command.setBinlogFileName(StringColumn.valueOf(getStartBinlogFileName().getBytes(this.encoding)));
-		this.transport.getOutputStream().writePacket(command);
-		this.transport.getOutputStream().flush();
-
-		//
-		final Packet packet = this.transport.getInputStream().readPacket();
-		if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
-			final ErrorPacket error = ErrorPacket.valueOf(packet);
-			throw new TransportException(error);
-		}
+		return command;
 	}
 
 	
@@ -201,11 +168,7 @@ public class MysqlSlaveClientBinlogProcessor implements BinlogProcessor {
 
 			this.transport.connect(this.masterHostname, this.masterPort);
 			
-			readSettings();
-
-			bindSettings();
-
-			dumpBinlog();
+			setup();
 			
 		    XInputStream is = this.transport.getInputStream();
 		    
@@ -240,20 +203,7 @@ public class MysqlSlaveClientBinlogProcessor implements BinlogProcessor {
     		is.setReadLimit(packetLength); // Ensure the packet boundary
 
     		//
-    		final int packetMarker = is.readInt(1);
-    		if (packetMarker != OKPacket.PACKET_MARKER) { // 0x00
-    			if ((byte) packetMarker == ErrorPacket.PACKET_MARKER) {
-    				final ErrorPacket packet = ErrorPacket.valueOf(packetLength, packetSequence, packetMarker, is);
-    				throw new RuntimeException(packet.toString());
-    			} 
-    			else if ((byte) packetMarker == EOFPacket.PACKET_MARKER) {
-    				final EOFPacket packet = EOFPacket.valueOf(packetLength, packetSequence, packetMarker, is);
-    				throw new RuntimeException(packet.toString());
-    			} 
-    			else {
-    				throw new RuntimeException("assertion failed, invalid packet marker: " + packetMarker);
-    			}
-    		}
+    		readPacketMarker(is, packetLength, packetSequence);
     		
     		boolean validated = true;
     		
@@ -294,6 +244,117 @@ public class MysqlSlaveClientBinlogProcessor implements BinlogProcessor {
 
 	}
 	
+	/**
+	 * Like processOneEventRecord, but only the event header is decoded, as well as table map and
+	 * rotate events to keep track of the tables. The raw event is read into a buffer that is reused
+	 * for the next event, the body is decoded on request of the callback only.
+	 */
+	@Override
+	public void processOneRawEventRecord(XInputStream is, BinlogRawEventCallback callback) {
+		try {
+			final int packetLength = is.readInt(3);
+			final int packetSequence = is.readInt(1);
+			is.setReadLimit(packetLength); // Ensure the packet boundary
+			readPacketMarker(is, packetLength, packetSequence);
+			
+			//
+			boolean validated = true;
+			final int length = packetLength - 1 - (this.checksum.getType() != ChecksumType.NONE ? 4 : 0);
+			if (this.rawBuffer == null || this.rawBuffer.length < length) {
+				this.rawBuffer = new byte[Math.max(length, 64 * 1024)];
+			}
+			is.read(this.rawBuffer, 0, length, this.checksum);
+			if (this.checksum.getType() != ChecksumType.NONE) {
+				try {
+					checksum.validateAndReset(is.readInt(4));// CRC32
+				}
+				catch (Exception ex) {
+					validated = false;
+				}
+			}
+			is.setReadLimit(0);
+			
+			//
+			final BinlogRawEvent event = new BinlogRawEvent(readHeader(this.rawBuffer), this.rawBuffer, length, this.parser);
+			final int type = event.getHeader().getEventType();
+			if (type == MySQLConstants.TABLE_MAP_EVENT) {
+				final TableMapEvent tme = (TableMapEvent) event.decode();
+				event.setTableId(tme.getTableId());
+				event.setDatabaseName(tme.getDatabaseName().toString());
+				event.setTableName(tme.getTableName().toString());
+			}
+			else if (type == MySQLConstants.ROTATE_EVENT) {
+				event.decode(); // The parser clears its table maps
+			}
+			else if (isRowEvent(type)) {
+				event.setTableId(getLong(this.rawBuffer, 19, 6));
+				final TableMapEvent tme = this.parser instanceof BinlogParserContext ?
+					((BinlogParserContext) this.parser).getTableMapEvent(event.getTableId()) : null;
+				if (tme != null) {
+					event.setDatabaseName(tme.getDatabaseName().toString());
+					event.setTableName(tme.getTableName().toString());
+				}
+			}
+			callback.onEvent(event, validated);
+		}
+		catch (Exception ex) {
+			if (!(ex instanceof SocketTimeoutException)) {
+				logger.error("Error [" + ex.getMessage() + "]", ex);
+			}
+			is.resetStream();
+			callback.onException(ex);
+		}
+	}
+	
+	private void readPacketMarker(XInputStream is, int packetLength, int packetSequence) throws IOException {
+		final int packetMarker = is.readInt(1);
+		if (packetMarker != OKPacket.PACKET_MARKER) { // 0x00
+			if ((byte) packetMarker == ErrorPacket.PACKET_MARKER) {
+				final ErrorPacket packet = ErrorPacket.valueOf(packetLength, packetSequence, packetMarker, is);
+				throw new RuntimeException(packet.toString());
+			} 
+			else if ((byte) packetMarker == EOFPacket.PACKET_MARKER) {
+				final EOFPacket packet = EOFPacket.valueOf(packetLength, packetSequence, packetMarker, is);
+				throw new RuntimeException(packet.toString());
+			} 
+			else {
+				throw new RuntimeException("assertion failed, invalid packet marker: " + packetMarker);
+			}
+		}
+	}
+	
+	private static BinlogEventV4HeaderImpl readHeader(byte[] data) {
+		final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
+		header.setTimestamp(getLong(data, 0, 4) * 1000L);
+		header.setEventType(data[4] & 0xFF);
+		header.setServerId(getLong(data, 5, 4));
+		header.setEventLength(getLong(data, 9, 4));
+		header.setNextPosition(getLong(data, 13, 4));
+		header.setFlags((int) getLong(data, 17, 2));
+		header.setTimestampOfReceipt(System.currentTimeMillis());
+		return header;
+	}
+	
+	private static boolean isRowEvent(int type) {
+		switch (type) {
+		case MySQLConstants.WRITE_ROWS_EVENT:
+		case MySQLConstants.UPDATE_ROWS_EVENT:
+		case MySQLConstants.DELETE_ROWS_EVENT:
+		case MySQLConstants.WRITE_ROWS_EVENT_V2:
+		case MySQLConstants.UPDATE_ROWS_EVENT_V2:
+		case MySQLConstants.DELETE_ROWS_EVENT_V2:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	private static long getLong(byte[] data, int offset, int length) {
+		long r = 0;
+		for (int i = length - 1; i >= 0; i--) r = (r << 8) | (data[offset + i] & 0xFF);
+		return r;
+	}
+	
 
 
 	public String getMasterHostname() {
@@ -346,9 +407,26 @@ public class MysqlSlaveClientBinlogProcessor implements BinlogProcessor {
 		this.checksum = checksum;
 	}
 
+	/**
+	 * The server_id and binlog_checksum of the master, or all of its global variables with
+	 * allVariables.
+	 */
 	public Map<String, String> getVariables() {
 		return variables;
 	}
+
+	public boolean isAllVariables() {
+		return allVariables;
+	}
+
+	/**
+	 * If set, every connect reads all global variables of the master with SHOW GLOBAL VARIABLES, for
+	 * callers of getVariables() that need more than the settings. It costs a result set of several
+	 * hundred rows per connect, so it is off by default.
+	 */
+	public void setAllVariables(boolean allVariables) {
+		this.allVariables = allVariables;
+	}
 	
 	public String getStartBinlogFileName() {
 		return startBinlogFileName;
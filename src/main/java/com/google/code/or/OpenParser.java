@@ -14,15 +14,26 @@
  */
 package com.google.code.or;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.code.or.binlog.BinlogEventListener;
 import com.google.code.or.binlog.BinlogParser;
 import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.CheckpointStore;
 import com.google.code.or.binlog.ext.XChecksum;
 import com.google.code.or.binlog.ext.XChecksum.ChecksumType;
+import com.google.code.or.binlog.impl.AbstractBinlogParser;
 import com.google.code.or.binlog.impl.FileBasedBinlogParser;
+import com.google.code.or.binlog.impl.MultiFileBinlogParser;
+import com.google.code.or.binlog.impl.dispatch.AsyncEventDispatcher;
+import com.google.code.or.binlog.impl.metrics.BinlogMetrics;
+import com.google.code.or.binlog.impl.metrics.LagTracker;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.Checkpoint;
 
 /**
  * 
@@ -32,8 +43,14 @@ public class OpenParser {
   //
   protected long stopPosition;
   protected long startPosition;
+  protected long startTimestamp;
+  protected String startGtid;
+  protected boolean follow;
   protected String binlogFileName;
   protected String binlogFilePath;
+  protected String binlogIndexFileName;
+  protected int parallelism = 4;
+  protected Collection<String> tableNames;
 
   //
   protected BinlogParser binlogParser;
@@ -42,6 +59,11 @@ public class OpenParser {
 
   //
   protected XChecksum checksum;
+  protected CheckpointStore checkpointStore;
+  protected AsyncEventDispatcher eventDispatcher;
+  protected BinlogMetrics metrics;
+  protected LagTracker lagTracker;
+  protected boolean stopOnListenerFailure = false;
 
   /**
 	 * 
@@ -57,8 +79,17 @@ public class OpenParser {
     }
 
     //
+    if (this.checkpointStore != null) loadCheckpoint();
     if (this.binlogParser == null) this.binlogParser = getDefaultBinlogParser();
     this.binlogParser.setEventListener(this.binlogEventListener);
+    if (this.binlogParser instanceof AbstractBinlogParser) {
+      final AbstractBinlogParser parser = (AbstractBinlogParser) this.binlogParser;
+      parser.setCheckpointStore(this.checkpointStore);
+      parser.setEventDispatcher(this.eventDispatcher);
+      parser.setMetrics(this.metrics);
+      parser.setLagTracker(this.lagTracker);
+      parser.setStopOnListenerFailure(this.stopOnListenerFailure);
+    }
     this.binlogParser.start();
   }
 
@@ -70,6 +101,8 @@ public class OpenParser {
 
     //
     this.binlogParser.stop(timeout, unit);
+    if (this.eventDispatcher != null) this.eventDispatcher.stop();
+    if (this.checkpointStore != null) this.checkpointStore.flush();
   }
 
   /**
@@ -91,6 +124,42 @@ public class OpenParser {
     this.startPosition = position;
   }
 
+  public long getStartTimestamp() {
+    return startTimestamp;
+  }
+
+  /**
+   * If set, in milliseconds, parsing starts at the first transaction of the binlog file committed
+   * at or after it, looked up in the sidecar index of the file, which is built on demand.
+   */
+  public void setStartTimestamp(long timestamp) {
+    this.startTimestamp = timestamp;
+  }
+
+  public String getStartGtid() {
+    return startGtid;
+  }
+
+  /**
+   * If set, e.g. to 3E11FA47-71CA-11E1-9E33-C80AA9429562:23, parsing starts at that transaction,
+   * looked up in the sidecar index of the binlog file.
+   */
+  public void setStartGtid(String gtid) {
+    this.startGtid = gtid;
+  }
+
+  public boolean isFollow() {
+    return follow;
+  }
+
+  /**
+   * If set, parsing of a single binlog file does not stop at its end but waits for more events and
+   * continues with the next binlog files, like tail -F.
+   */
+  public void setFollow(boolean follow) {
+    this.follow = follow;
+  }
+
   public String getBinlogFileName() {
     return binlogFileName;
   }
@@ -107,6 +176,99 @@ public class OpenParser {
     this.binlogFilePath = path;
   }
 
+  public String getBinlogIndexFileName() {
+    return binlogIndexFileName;
+  }
+
+  /**
+   * If set, e.g. to mysql-bin.index, all binlog files listed in the index file are parsed, starting
+   * at the binlog file name if one is set. The start position applies to the first file and the
+   * stop position to the last one. The checksum setting is then detected per file.
+   */
+  public void setBinlogIndexFileName(String name) {
+    this.binlogIndexFileName = name;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * The number of files decoded concurrently in index file mode.
+   */
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  public Collection<String> getTableNames() {
+    return tableNames;
+  }
+
+  /**
+   * In index file mode, skips the binlog files without row events of any of the given tables, e.g.
+   * test.orders, according to their sidecar indexes.
+   */
+  public void setTableNames(Collection<String> tableNames) {
+    this.tableNames = tableNames;
+  }
+
+  public CheckpointStore getCheckpointStore() {
+    return checkpointStore;
+  }
+
+  /**
+   * If set, parsing resumes from the last durable checkpoint, which overrides the binlog file name
+   * and start position, and every transaction the event listener returned from is acknowledged.
+   */
+  public void setCheckpointStore(CheckpointStore checkpointStore) {
+    this.checkpointStore = checkpointStore;
+  }
+
+  public AsyncEventDispatcher getEventDispatcher() {
+    return eventDispatcher;
+  }
+
+  /**
+   * If set, the event listener is called on the thread of the dispatcher, so that decoding goes on
+   * while the listener is busy, up to the capacity of the dispatcher.
+   */
+  public void setEventDispatcher(AsyncEventDispatcher eventDispatcher) {
+    this.eventDispatcher = eventDispatcher;
+  }
+
+  public BinlogMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * If set, the parser records its metrics to it.
+   */
+  public void setMetrics(BinlogMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public LagTracker getLagTracker() {
+    return lagTracker;
+  }
+
+  /**
+   * If set, the lag of the parsed transactions behind their commit is tracked by it.
+   */
+  public void setLagTracker(LagTracker lagTracker) {
+    this.lagTracker = lagTracker;
+  }
+
+  public boolean isStopOnListenerFailure() {
+    return stopOnListenerFailure;
+  }
+
+  /**
+   * If set, an exception of the event listener stops the parser rather than being logged.
+   */
+  public void setStopOnListenerFailure(boolean stopOnListenerFailure) {
+    this.stopOnListenerFailure = stopOnListenerFailure;
+  }
+
   public XChecksum getChecksum() {
     return checksum;
   }
@@ -137,12 +299,47 @@ public class OpenParser {
   /**
 	 * 
 	 */
-  protected FileBasedBinlogParser getDefaultBinlogParser() throws Exception {
+  protected void loadCheckpoint() throws Exception {
+    final Checkpoint checkpoint = this.checkpointStore.load();
+    if (checkpoint != null) {
+      this.binlogFileName = checkpoint.getPosition().getBinlogFileName();
+      this.startPosition = checkpoint.getPosition().getPosition();
+    }
+    final BinlogPosition position = this.binlogFileName == null ? null
+        : new BinlogPosition(this.binlogFileName, this.startPosition);
+    this.checkpointStore.reset(new Checkpoint(position, null));
+  }
+
+  protected AbstractBinlogParser getDefaultBinlogParser() throws Exception {
+    //
+    if (this.binlogIndexFileName != null) {
+      final File index = new File(this.binlogFilePath, this.binlogIndexFileName);
+      final List<String> names = MultiFileBinlogParser.readIndexFile(index);
+      while (this.binlogFileName != null && !names.isEmpty()
+          && BinlogPosition.compareFileNames(names.get(0), this.binlogFileName) < 0) {
+        names.remove(0);
+      }
+      final MultiFileBinlogParser r = new MultiFileBinlogParser();
+      r.setBinlogFilePath(this.binlogFilePath);
+      r.setBinlogFileNames(names);
+      r.setStartPosition(this.startPosition);
+      r.setStopPosition(this.stopPosition);
+      r.setParallelism(this.parallelism);
+      r.setTableNames(this.tableNames);
+      return r;
+    }
+
+    //
+    final FileBasedBinlogParser r;
     if (this.checksum.getType() == ChecksumType.NONE)
-      return BinlogParserFactory.createFileBinlogParser(startPosition, stopPosition,
+      r = BinlogParserFactory.createFileBinlogParser(startPosition, stopPosition,
           binlogFileName, binlogFilePath);
-
-    return BinlogParserFactory.createFileBinlogParserExt(startPosition, stopPosition,
-        binlogFileName, binlogFilePath, checksum);
+    else
+      r = BinlogParserFactory.createFileBinlogParserExt(startPosition, stopPosition,
+          binlogFileName, binlogFilePath, checksum);
+    r.setStartTimestamp(this.startTimestamp);
+    r.setStartGtid(this.startGtid);
+    r.setFollow(this.follow);
+    return r;
   }
 }
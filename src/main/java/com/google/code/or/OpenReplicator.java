@@ -14,6 +14,11 @@
  */
 package com.google.code.or;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -21,34 +26,59 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.code.or.binlog.BinlogEventListener;
 import com.google.code.or.binlog.BinlogParser;
 import com.google.code.or.binlog.BinlogParserFactory;
 import com.google.code.or.binlog.BinlogParserListener;
+import com.google.code.or.binlog.CheckpointStore;
 import com.google.code.or.binlog.ext.XChecksum;
 import com.google.code.or.binlog.ext.XChecksum.ChecksumType;
 import com.google.code.or.binlog.ext.XChecksumFactory;
+import com.google.code.or.binlog.impl.AbstractBinlogParser;
+import com.google.code.or.binlog.impl.FileBasedBinlogParser;
 import com.google.code.or.binlog.impl.ReplicationBasedBinlogParser;
+import com.google.code.or.binlog.impl.dispatch.AsyncEventDispatcher;
+import com.google.code.or.binlog.impl.metrics.BinlogMetrics;
+import com.google.code.or.binlog.impl.metrics.LagTracker;
+import com.google.code.or.binlog.impl.event.HeartbeatEvent;
+import com.google.code.or.binlog.impl.backup.BinlogBackupReceiver;
+import com.google.code.or.binlog.impl.backup.BinlogBackupWriter;
+import com.google.code.or.binlog.impl.relay.RelayLogReceiver;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.Checkpoint;
+import com.google.code.or.common.glossary.GtidSet;
 import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.XThreadFactory;
 import com.google.code.or.io.impl.SocketFactoryImpl;
 import com.google.code.or.net.Packet;
 import com.google.code.or.net.Transport;
 import com.google.code.or.net.TransportException;
+import com.google.code.or.net.TransportInputStream;
 import com.google.code.or.net.impl.AuthenticatorImpl;
+import com.google.code.or.net.impl.QueryHelper;
+import com.google.code.or.net.impl.SemiSyncAcknowledger;
 import com.google.code.or.net.impl.TransportImpl;
-import com.google.code.or.net.impl.packet.EOFPacket;
 import com.google.code.or.net.impl.packet.ErrorPacket;
-import com.google.code.or.net.impl.packet.ResultSetFieldPacket;
-import com.google.code.or.net.impl.packet.ResultSetHeaderPacket;
-import com.google.code.or.net.impl.packet.ResultSetRowPacket;
+import com.google.code.or.net.impl.packet.command.ComBinlogDumpGtidPacket;
 import com.google.code.or.net.impl.packet.command.ComBinlogDumpPacket;
-import com.google.code.or.net.impl.packet.command.ComQuery;
 
 /**
  * 
  * @author Jingqi Xu
  */
 public class OpenReplicator {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpenReplicator.class);
+
+  // The global variables read on connect, the checksum ones are unknown prior to 5.6.1
+  protected static final String[] SETTINGS = {"server_id"};
+  protected static final String[] CHECKSUM_SETTINGS = {"binlog_checksum"};
+
   //
   protected int port = 3306;
   protected String host;
@@ -57,10 +87,27 @@ public class OpenReplicator {
   protected long serverId = 6789;
   protected String binlogFileName;
   protected long binlogPosition = 4;
+  protected GtidSet gtidSet; // If set, the binlog is dumped by GTIDs
   protected String encoding = "utf-8";
   protected int level1BufferSize = 1024 * 1024;
   protected int level2BufferSize = 8 * 1024 * 1024;
   protected int socketReceiveBufferSize = 512 * 1024;
+  protected long heartbeatPeriod = 0; // milliseconds, 0 means no heartbeat
+  protected boolean autoReconnect = false;
+  protected int reconnectAttempts; // Since the last progress
+  protected long reconnectInterval;
+  protected BinlogPosition reconnectPosition; // The committed position when last reconnected
+  protected long reconnectInitialInterval = 100; // milliseconds
+  protected long reconnectMaxInterval = 30 * 1000; // milliseconds
+  protected int reconnectMaxAttempts = 0; // 0 means unlimited
+  protected boolean semiSync = false;
+  protected boolean semiSyncAutoAck = true;
+  protected long semiSyncAckWindow = 0; // milliseconds, 0 means no coalescing
+  protected String relayLogPath; // If set, events are relayed through local files
+  protected long relayLogSyncInterval = 100; // milliseconds
+  protected String backupPath; // If set, events are only written to local binlog files
+  protected long backupSyncInterval = 1000; // milliseconds
+  protected boolean stopOnListenerFailure = false;
   private String threadNm;
 
   //
@@ -70,8 +117,18 @@ public class OpenReplicator {
   protected final AtomicBoolean running = new AtomicBoolean(false);
 
   protected XChecksum checksum;
-
-  // VARBINARY -> VARBINARY : StringColumn -> StringColumn
+  protected boolean semiSyncMaster; // The master sends semi-sync headers
+  protected SemiSyncAcknowledger semiSyncAcknowledger;
+  protected RelayLogWriter relayLogWriter;
+  protected FileBasedBinlogParser relayLogParser; // Delivers the relayed events
+  protected BinlogPosition relayLogStart; // Segment and offset the relay log parser starts at
+  protected BinlogBackupWriter backupWriter;
+  protected CheckpointStore checkpointStore;
+  protected AsyncEventDispatcher eventDispatcher;
+  protected BinlogMetrics metrics;
+  protected LagTracker lagTracker;
+
+  // Lower case name -> upper case value, see SETTINGS
   protected Map<String, String> variables = new HashMap<String, String>();
 
   /**
@@ -83,28 +140,59 @@ public class OpenReplicator {
 
   public void start() throws Exception {
     //
+    if (this.checkpointStore != null) loadCheckpoint();
+    if (this.relayLogPath != null) openRelayLog();
+    if (this.backupPath != null) openBackup();
     if (this.transport == null) this.transport = getDefaultTransport();
     this.transport.connect(this.host, this.port);
 
     //
-    readSettings();
-
-    //
-    bindSettings();
-
-    //
-    dumpBinlog();
+    setup();
 
     //
     if (this.binlogParser == null) this.binlogParser = getDefaultBinlogParser();
-    this.binlogParser.setEventListener(this.binlogEventListener);
+    if (this.relayLogWriter == null) this.binlogParser.setEventListener(this.binlogEventListener);
     this.binlogParser.addParserListener(new BinlogParserListener.Adapter() {
+      //
+      private volatile Exception exception; // Of the session that is stopping
+
+      @Override
+      public void onException(BinlogParser parser, Exception exception) {
+        this.exception = exception;
+      }
+
       @Override
       public void onStop(BinlogParser parser) {
-        stopQuietly(0, TimeUnit.MILLISECONDS);
+        final Exception exception = this.exception;
+        this.exception = null;
+        if (isAutoReconnect() && isRunning() && isReconnectable(exception)) {
+          new XThreadFactory("open-replicator-reconnect", true).newThread(new Runnable() {
+            public void run() {
+              reconnect();
+            }
+          }).start();
+        } else {
+          stopQuietly(0, TimeUnit.MILLISECONDS);
+        }
       }
     });
+    if (this.binlogParser instanceof AbstractBinlogParser) {
+      final AbstractBinlogParser parser = (AbstractBinlogParser) this.binlogParser;
+      if (this.binlogFileName != null) { // Unknown until the fake rotate event in GTID mode
+        parser.setCommittedPosition(new BinlogPosition(this.binlogFileName, this.binlogPosition));
+      }
+      if (this.gtidSet != null) parser.setExecutedGtidSet(this.gtidSet);
+      if (this.relayLogWriter == null) { // The relay log parser delivers the events otherwise
+        parser.setCheckpointStore(this.checkpointStore);
+        parser.setEventDispatcher(this.eventDispatcher);
+        parser.setMetrics(this.metrics);
+        parser.setLagTracker(this.lagTracker);
+        parser.setStopOnListenerFailure(this.stopOnListenerFailure);
+      }
+    }
+    bindSemiSync(this.binlogParser);
     this.binlogParser.start();
+    if (this.relayLogWriter != null) startRelayLogParser();
 
     //
     if (!this.running.compareAndSet(false, true)) {
@@ -119,8 +207,14 @@ public class OpenReplicator {
     }
 
     //
+    if (this.semiSyncAcknowledger != null) this.semiSyncAcknowledger.stop();
     this.transport.disconnect();
     this.binlogParser.stop(timeout, unit);
+    if (this.relayLogParser != null) this.relayLogParser.stop(timeout, unit);
+    if (this.eventDispatcher != null) this.eventDispatcher.stop();
+    if (this.relayLogWriter != null) this.relayLogWriter.close();
+    if (this.backupWriter != null) this.backupWriter.close();
+    if (this.checkpointStore != null) this.checkpointStore.close();
   }
 
   public void stopQuietly(long timeout, TimeUnit unit) {
@@ -198,6 +292,19 @@ public class OpenReplicator {
     this.binlogFileName = binlogFileName;
   }
 
+  public GtidSet getGtidSet() {
+    return gtidSet;
+  }
+
+  /**
+   * Streams with COM_BINLOG_DUMP_GTID from the first transaction not contained in the given set,
+   * the binlog file name and position are then ignored. Reconnects resume from
+   * {@link #getExecutedGtidSet()}, so they work against any master of the replication topology.
+   */
+  public void setGtidSet(GtidSet gtidSet) {
+    this.gtidSet = gtidSet;
+  }
+
   public int getLevel1BufferSize() {
     return level1BufferSize;
   }
@@ -222,6 +329,253 @@ public class OpenReplicator {
     this.socketReceiveBufferSize = socketReceiveBufferSize;
   }
 
+  public long getHeartbeatPeriod() {
+    return heartbeatPeriod;
+  }
+
+  /**
+   * Asks the master to send a heartbeat event whenever nothing was sent for the given number of
+   * milliseconds. Must be set before {@link #start()}.
+   */
+  public void setHeartbeatPeriod(long heartbeatPeriod) {
+    this.heartbeatPeriod = heartbeatPeriod;
+  }
+
+  /**
+   * The wall clock time in milliseconds at which bytes were last received from the master, or 0 if
+   * not connected. With a heartbeat period configured, a value older than a couple of periods means
+   * the connection is stalled rather than idle.
+   */
+  public long getLastReceiptTime() {
+    if (this.transport == null || this.transport.getInputStream() == null) return 0;
+    return this.transport.getInputStream().getLastReadTime();
+  }
+
+  public boolean isSemiSync() {
+    return semiSync;
+  }
+
+  /**
+   * Registers as a semi-synchronous slave. Has no effect unless the semi-sync master plugin is
+   * installed on the master.
+   */
+  public void setSemiSync(boolean semiSync) {
+    this.semiSync = semiSync;
+  }
+
+  public boolean isSemiSyncAutoAck() {
+    return semiSyncAutoAck;
+  }
+
+  /**
+   * If set, a transaction is acknowledged as soon as the event listener returned from its last
+   * event. Otherwise the application calls {@link #acknowledge(BinlogPosition)} once it persisted
+   * the events up to a position.
+   */
+  public void setSemiSyncAutoAck(boolean semiSyncAutoAck) {
+    this.semiSyncAutoAck = semiSyncAutoAck;
+  }
+
+  public long getSemiSyncAckWindow() {
+    return semiSyncAckWindow;
+  }
+
+  /**
+   * ACKs within this many milliseconds are coalesced into one for the highest position. A window
+   * adds up to its length to the commit latency of the master.
+   */
+  public void setSemiSyncAckWindow(long semiSyncAckWindow) {
+    this.semiSyncAckWindow = semiSyncAckWindow;
+  }
+
+  /**
+   * Acknowledges every transaction up to the given position, see {@link #setSemiSyncAutoAck}.
+   */
+  public void acknowledge(BinlogPosition position) {
+    final SemiSyncAcknowledger acknowledger = this.semiSyncAcknowledger;
+    if (acknowledger != null) acknowledger.acknowledge(position);
+  }
+
+  public String getRelayLogPath() {
+    return relayLogPath;
+  }
+
+  /**
+   * If set, the received events are appended to relay log segments in this directory by the network
+   * thread, and the event listener is fed from these segments by a parser of its own, so a stalled
+   * listener never stalls the dump. On restart, the dump resumes after the last relayed event, and
+   * the listener resumes at the binlog file name and position, which the relay log must contain.
+   * Dumping by GTIDs is not supported.
+   */
+  public void setRelayLogPath(String relayLogPath) {
+    this.relayLogPath = relayLogPath;
+  }
+
+  public long getRelayLogSyncInterval() {
+    return relayLogSyncInterval;
+  }
+
+  /**
+   * The relay log is fsynced at most once per this many milliseconds, 0 means on every write.
+   */
+  public void setRelayLogSyncInterval(long relayLogSyncInterval) {
+    this.relayLogSyncInterval = relayLogSyncInterval;
+  }
+
+  public RelayLogWriter getRelayLogWriter() {
+    return relayLogWriter;
+  }
+
+  public String getBackupPath() {
+    return backupPath;
+  }
+
+  /**
+   * If set, the received events are not decoded and delivered but written byte for byte to files
+   * in this directory, named like the binlog files of the master. The dump starts at the beginning
+   * of the binlog file name, on restart it resumes at the end of the last file. Dumping by GTIDs is
+   * not supported, semi-sync acknowledgements are sent once the events are fsynced.
+   */
+  public void setBackupPath(String backupPath) {
+    this.backupPath = backupPath;
+  }
+
+  public long getBackupSyncInterval() {
+    return backupSyncInterval;
+  }
+
+  /**
+   * The backup files are fsynced at most once per this many milliseconds, 0 means on every write.
+   */
+  public void setBackupSyncInterval(long backupSyncInterval) {
+    this.backupSyncInterval = backupSyncInterval;
+  }
+
+  public BinlogBackupWriter getBackupWriter() {
+    return backupWriter;
+  }
+
+  public CheckpointStore getCheckpointStore() {
+    return checkpointStore;
+  }
+
+  /**
+   * If set, the binlog file name and position, or the GTID set when dumping by GTIDs, are taken
+   * from the last durable checkpoint on start, and every transaction the event listener returned
+   * from is acknowledged to the store.
+   */
+  public void setCheckpointStore(CheckpointStore checkpointStore) {
+    this.checkpointStore = checkpointStore;
+  }
+
+  public AsyncEventDispatcher getEventDispatcher() {
+    return eventDispatcher;
+  }
+
+  /**
+   * If set, the event listener is called on the thread of the dispatcher, so that reading from the
+   * master goes on while the listener is busy, up to the capacity of the dispatcher.
+   */
+  public void setEventDispatcher(AsyncEventDispatcher eventDispatcher) {
+    this.eventDispatcher = eventDispatcher;
+  }
+
+  public BinlogMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * If set, the parser delivering the events records its metrics to it, see
+   * {@link BinlogMetrics#register()} to expose them through JMX.
+   */
+  public void setMetrics(BinlogMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public LagTracker getLagTracker() {
+    return lagTracker;
+  }
+
+  /**
+   * If set, the replication lag of the delivered transactions is tracked by it. Heartbeats keep
+   * it current while the master is idle, see {@link #setHeartbeatPeriod(long)}.
+   */
+  public void setLagTracker(LagTracker lagTracker) {
+    this.lagTracker = lagTracker;
+  }
+
+  public boolean isStopOnListenerFailure() {
+    return stopOnListenerFailure;
+  }
+
+  /**
+   * If set, an exception of the event listener stops replication before the committed position
+   * moves past the event, rather than being logged, see
+   * {@link AbstractBinlogParser#setStopOnListenerFailure(boolean)}.
+   */
+  public void setStopOnListenerFailure(boolean stopOnListenerFailure) {
+    this.stopOnListenerFailure = stopOnListenerFailure;
+  }
+
+  public boolean isAutoReconnect() {
+    return autoReconnect;
+  }
+
+  /**
+   * If set, a broken connection is re-established with exponential backoff and the dump resumes
+   * from {@link #getCommittedPosition()}. The parser, its table map cache and the transport buffers
+   * are reused. Requires a {@link ReplicationBasedBinlogParser}. A failure of the event listener,
+   * see {@link #setStopOnListenerFailure(boolean)}, or of decoding an event stops replication
+   * instead, as it would fail again on the same event.
+   */
+  public void setAutoReconnect(boolean autoReconnect) {
+    this.autoReconnect = autoReconnect;
+  }
+
+  public long getReconnectInitialInterval() {
+    return reconnectInitialInterval;
+  }
+
+  public void setReconnectInitialInterval(long reconnectInitialInterval) {
+    this.reconnectInitialInterval = reconnectInitialInterval;
+  }
+
+  public long getReconnectMaxInterval() {
+    return reconnectMaxInterval;
+  }
+
+  public void setReconnectMaxInterval(long reconnectMaxInterval) {
+    this.reconnectMaxInterval = reconnectMaxInterval;
+  }
+
+  public int getReconnectMaxAttempts() {
+    return reconnectMaxAttempts;
+  }
+
+  public void setReconnectMaxAttempts(int reconnectMaxAttempts) {
+    this.reconnectMaxAttempts = reconnectMaxAttempts;
+  }
+
+  public GtidSet getExecutedGtidSet() {
+    if (this.relayLogParser != null) return this.relayLogParser.getExecutedGtidSet();
+    if (!(this.binlogParser instanceof AbstractBinlogParser)) return null;
+    return ((AbstractBinlogParser) this.binlogParser).getExecutedGtidSet();
+  }
+
+  /**
+   * The position after the last transaction delivered to the event listener.
+   */
+  public BinlogPosition getCommittedPosition() {
+    if (this.relayLogParser != null) return this.relayLogParser.getCommittedPosition();
+    if (!(this.binlogParser instanceof AbstractBinlogParser)) return null;
+    return ((AbstractBinlogParser) this.binlogParser).getCommittedPosition();
+  }
+
+  public HeartbeatEvent getLastHeartbeatEvent() {
+    if (!(this.binlogParser instanceof AbstractBinlogParser)) return null;
+    return ((AbstractBinlogParser) this.binlogParser).getLastHeartbeatEvent();
+  }
+
   /**
 	 * 
 	 */
@@ -261,96 +615,327 @@ public class OpenReplicator {
     return Collections.unmodifiableMap(this.variables);
   }
 
-  protected void readSettings() throws Exception {
+  /**
+   * Writes the settings queries, the session variables and the dump command in one go and then reads
+   * their responses in order, so the whole setup costs a single round-trip.
+   */
+  protected void setup() throws Exception {
     //
-    final ComQuery command = new ComQuery();
-    String cmd = "SHOW GLOBAL VARIABLES";
-    StringColumn sc = StringColumn.valueOf(cmd.getBytes("UTF-8"));
-    command.setSql(sc);
-    this.transport.getOutputStream().writePacket(command);
+    final List<String> commands = getSetupCommands();
+    QueryHelper.writeQuery(this.transport, QueryHelper.getVariablesQuery(SETTINGS));
+    QueryHelper.writeQuery(this.transport, QueryHelper.getVariablesQuery(CHECKSUM_SETTINGS));
+    if (this.semiSync) {
+      QueryHelper.writeQuery(this.transport,
+          "SHOW GLOBAL VARIABLES LIKE 'rpl_semi_sync_master_enabled'");
+    }
+    for (String command : commands) QueryHelper.writeQuery(this.transport, command);
+    this.transport.getOutputStream().writePacket(getDumpCommand());
     this.transport.getOutputStream().flush();
 
     //
-    Packet packet = transport.getInputStream().readPacket();
+    readSettings();
+    this.semiSyncMaster = this.semiSync && !QueryHelper.readRow(this.transport).isEmpty();
+    for (int i = 0; i < commands.size(); i++) QueryHelper.readOK(this.transport);
+    this.checksum = XChecksumFactory.create(variables.get("binlog_checksum")); // NONE | CRC32
+
+    // The first event (a fake rotate) is peeked at here, the binlog parser still delivers it
+    final TransportInputStream is = this.transport.getInputStream();
+    final Packet packet = is.readPacket();
     if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
-      final ErrorPacket error = ErrorPacket.valueOf(packet);// Consume
+      final ErrorPacket error = ErrorPacket.valueOf(packet);
       throw new TransportException(error);
     }
+    readFakeRotate(packet.getPacketBody());
+    is.unreadPacket(packet);
+  }
+
+  /**
+   * The master tells where the dump actually starts, which is only known up front when dumping by
+   * file name and position.
+   */
+  protected void readFakeRotate(byte[] body) throws Exception {
+    // 0x00 marker, semi-sync header, 19 bytes event header, 8 bytes position, file name, CRC32
+    final int offset = 1 + (this.semiSyncMaster ? 2 : 0);
+    if (body.length < offset + 27 || body[offset + 4] != MySQLConstants.ROTATE_EVENT) return;
+    final ByteBuffer buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+    final int eventLength = buffer.getInt(offset + 9);
+    final int checksumLength = this.checksum.getType() == ChecksumType.NONE ? 0 : 4;
+    final int end = Math.min(body.length, offset + eventLength - checksumLength);
+    if (end <= offset + 27) return;
+    this.binlogPosition = buffer.getLong(offset + 19);
+    this.binlogFileName = new String(body, offset + 27, end - offset - 27, this.encoding);
+  }
+
+  protected void readSettings() throws Exception {
+    this.variables.clear();
+    this.variables.putAll(QueryHelper.readRow(this.transport)); // Known on every server
+    try {
+      this.variables.putAll(QueryHelper.readRow(this.transport));
+    } catch (TransportException e) {
+      // Servers prior to 5.6.1 have no binlog_checksum and hence no checksums
+      if (e.getErrorCode() != QueryHelper.ER_UNKNOWN_SYSTEM_VARIABLE) throw e;
+    }
+  }
+
+  /**
+   * Setting @master_binlog_checksum tells the master this slave understands checksums, it is a user
+   * variable and therefore harmless on masters without checksum support.
+   */
+  protected List<String> getSetupCommands() {
+    final List<String> r = new ArrayList<String>();
+    r.add("SET @master_binlog_checksum= '@@global.binlog_checksum'");
+    if (this.semiSync) r.add("SET @rpl_semi_sync_slave = 1");
+
+    // The master expects the heartbeat period in nanoseconds
+    if (this.heartbeatPeriod > 0) {
+      final long period = TimeUnit.MILLISECONDS.toNanos(this.heartbeatPeriod);
+      r.add("SET @master_heartbeat_period = " + period);
+    }
+    return r;
+  }
+
+  protected Packet getDumpCommand() throws Exception {
+    //
+    if (this.gtidSet != null) {
+      final ComBinlogDumpGtidPacket command = new ComBinlogDumpGtidPacket();
+      command.setBinlogFlag(ComBinlogDumpGtidPacket.BINLOG_THROUGH_GTID);
+      command.setServerId(this.serverId);
+      command.setGtidSet(this.gtidSet);
+      return command;
+    }
 
-    ResultSetHeaderPacket.valueOf(packet);
     //
-    while (true) {
-      packet = transport.getInputStream().readPacket();
-      if (packet.getPacketBody()[0] == EOFPacket.PACKET_MARKER) {
-        EOFPacket.valueOf(packet);// Consume
+    final ComBinlogDumpPacket command = new ComBinlogDumpPacket();
+    command.setBinlogFlag(0x02);// open-replicator-1.0.7: 0X00, alibaba canal:0X02, MySQL manual:
+                                // 0x01(BINLOG_DUMP_NON_BLOCK)
+    command.setServerId(this.serverId);
+    command.setBinlogPosition(this.binlogPosition);
+    command.setBinlogFileName(StringColumn.valueOf(this.binlogFileName.getBytes(this.encoding)));
+    return command;
+  }
+
+  /**
+   * Only a lost or refused connection is worth a reconnect. A failed event listener or event decoder
+   * would fail again on the same event, and a parser stopped without an exception was stopped on
+   * purpose.
+   */
+  protected boolean isReconnectable(Exception exception) {
+    return exception instanceof IOException;
+  }
+
+  /**
+   * The backoff and the attempts carry over sessions that failed again before the committed
+   * position moved, so a master that drops every session is not hammered.
+   */
+  protected void reconnect() {
+    //
+    final BinlogPosition position = this.binlogParser instanceof AbstractBinlogParser
+        ? ((AbstractBinlogParser) this.binlogParser).getCommittedPosition() : null;
+    if (this.reconnectAttempts == 0 || position != null
+        && !position.equals(this.reconnectPosition)) {
+      this.reconnectAttempts = 0;
+      this.reconnectInterval = this.reconnectInitialInterval;
+    }
+    this.reconnectPosition = position;
+
+    //
+    while (isRunning()) {
+      if (this.reconnectMaxAttempts > 0 && this.reconnectAttempts >= this.reconnectMaxAttempts) {
+        LOGGER.error("giving up reconnecting after {} attempts", this.reconnectAttempts);
         break;
-      } else {
-        ResultSetFieldPacket.valueOf(packet);
+      }
+      if (this.reconnectAttempts++ > 0) {
+        try {
+          Thread.sleep(this.reconnectInterval);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        this.reconnectInterval = Math.min(this.reconnectInterval * 2, this.reconnectMaxInterval);
+      }
+
+      //
+      try {
+        doReconnect();
+        return;
+      } catch (Exception e) {
+        LOGGER.warn("failed to reconnect to host: " + this.host + ", port: " + this.port
+            + ", attempts: " + this.reconnectAttempts, e);
       }
     }
 
     //
-    while (true) {
-      packet = transport.getInputStream().readPacket();
-      if (packet.getPacketBody()[0] == EOFPacket.PACKET_MARKER) {
-        EOFPacket.valueOf(packet);// Consume
-        break;
-      } else {
-        ResultSetRowPacket row = ResultSetRowPacket.valueOf(packet);
-        List<StringColumn> entry = row.getColumns();
-        // Lower Case Key
-        String configKey = entry.get(0).toString().toLowerCase();
-        // Upper Case Value
-        String configVal = entry.get(1).toString().toUpperCase();
-        variables.put(configKey, configVal);
+    stopQuietly(0, TimeUnit.MILLISECONDS);
+  }
+
+  protected void doReconnect() throws Exception {
+    //
+    if (!(this.binlogParser instanceof ReplicationBasedBinlogParser)) {
+      throw new IllegalStateException("can not resume with binlog parser: " + this.binlogParser);
+    }
+    ReplicationBasedBinlogParser parser = (ReplicationBasedBinlogParser) this.binlogParser;
+
+    //
+    final BinlogPosition position = parser.getCommittedPosition();
+    if (this.gtidSet != null) this.gtidSet = parser.getExecutedGtidSet();
+    if (position != null) {
+      this.binlogFileName = position.getBinlogFileName();
+      this.binlogPosition = position.getPosition();
+    }
+    LOGGER.info("reconnecting to host: {}, port: {}, position: {}", new Object[] {this.host,
+        this.port, position});
+
+    //
+    final String serverId = this.variables.get("server_id");
+    final ChecksumType checksumType = this.checksum.getType();
+    this.transport.disconnect();
+    this.transport.connect(this.host, this.port);
+    setup();
+
+    // Checksum parsers are bound at construction time
+    if (checksumType != this.checksum.getType()) {
+      final ReplicationBasedBinlogParser p = getDefaultBinlogParser();
+      p.setVerbose(parser.isVerbose());
+      p.setEventFilter(parser.getEventFilter());
+      p.setEventListener(parser.getEventListener());
+      p.setParserListeners(parser.getParserListeners());
+      p.setClearTableMapEventsOnRotate(parser.isClearTableMapEventsOnRotate());
+      p.setNotifyHeartbeatEvents(parser.isNotifyHeartbeatEvents());
+      p.setCheckpointStore(parser.getCheckpointStore());
+      p.setEventDispatcher(parser.getEventDispatcher());
+      p.setMetrics(parser.getMetrics());
+      p.setLagTracker(parser.getLagTracker());
+      p.setStopOnListenerFailure(parser.isStopOnListenerFailure());
+      this.binlogParser = parser = p;
+    } else if (serverId == null || !serverId.equals(this.variables.get("server_id"))) {
+      parser.resetContext(); // Table ids are only meaningful on the same master
+    }
+    parser.setCommittedPosition(position);
+    parser.setBinlogFileName(this.binlogFileName);
+    if (this.semiSyncAcknowledger != null) this.semiSyncAcknowledger.reset();
+    bindSemiSync(parser);
+    parser.start();
+
+    // Raced with stop()
+    if (!isRunning()) {
+      this.transport.disconnect();
+      parser.stop(0, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Resumes from the last durable checkpoint, if any.
+   */
+  protected void loadCheckpoint() throws Exception {
+    final Checkpoint checkpoint = this.checkpointStore.load();
+    if (checkpoint != null) {
+      LOGGER.info("resuming from checkpoint: {}", checkpoint);
+      if (checkpoint.getPosition() != null) {
+        this.binlogFileName = checkpoint.getPosition().getBinlogFileName();
+        this.binlogPosition = checkpoint.getPosition().getPosition();
+      }
+      if (this.gtidSet != null && checkpoint.getGtidSet() != null) {
+        this.gtidSet = checkpoint.getGtidSet();
       }
     }
+    final BinlogPosition position = this.binlogFileName == null ? null
+        : new BinlogPosition(this.binlogFileName, this.binlogPosition);
+    this.checkpointStore.reset(new Checkpoint(position, this.gtidSet));
   }
 
   /**
-	 * 
-	 */
-  protected void bindSettings() throws Exception {
-    // NONE | CRC32
-    this.checksum = XChecksumFactory.create(variables.get("binlog_checksum"));
-
-    if (this.checksum.getType() != ChecksumType.NONE) {
-      final ComQuery command = new ComQuery();
-      String cmd = "SET @master_binlog_checksum= '@@global.binlog_checksum'";
-      StringColumn sc = StringColumn.valueOf(cmd.getBytes("UTF-8"));
-      command.setSql(sc);
-      this.transport.getOutputStream().writePacket(command);
-      this.transport.getOutputStream().flush();
+   * Opens the relay log and decides where the dump and the relay log parser start.
+   */
+  protected void openRelayLog() throws Exception {
+    //
+    if (this.gtidSet != null) throw new IllegalArgumentException("relay log requires a position");
+    this.relayLogWriter = new RelayLogWriter(new File(this.relayLogPath));
+    this.relayLogWriter.setSyncInterval(this.relayLogSyncInterval);
+    final BinlogPosition last = this.relayLogWriter.open();
+    if (last == null) { // Starts with the segment of the dump, before the receiver appends to it
+      this.relayLogWriter.rotate(this.binlogFileName);
+      this.relayLogStart = new BinlogPosition(this.binlogFileName, this.relayLogWriter.getLength());
+      return;
+    }
 
-      //
-      final Packet packet = this.transport.getInputStream().readPacket();
-      if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
-        final ErrorPacket error = ErrorPacket.valueOf(packet);
-        throw new TransportException(error);
-      }
+    //
+    final BinlogPosition start = new BinlogPosition(this.binlogFileName, this.binlogPosition);
+    final long offset = this.relayLogWriter.find(start);
+    if (offset < 0) {
+      this.relayLogWriter.close();
+      this.relayLogWriter = null;
+      throw new IllegalStateException("relay log: " + this.relayLogPath
+          + " does not contain position: " + start);
     }
+    this.relayLogStart = new BinlogPosition(start.getBinlogFileName(), offset);
+    this.binlogFileName = last.getBinlogFileName();
+    this.binlogPosition = last.getPosition();
   }
 
   /**
-	 * 
-	 */
-  protected void dumpBinlog() throws Exception {
+   * Opens the backup, the dump resumes at the end of its last file if there is one.
+   */
+  protected void openBackup() throws Exception {
     //
-    final ComBinlogDumpPacket command = new ComBinlogDumpPacket();
-    command.setBinlogFlag(0x02);// open-replicator-1.0.7: 0X00, alibaba canal:0X02, MySQL manual:
-                                // 0x01(BINLOG_DUMP_NON_BLOCK)
-    command.setServerId(this.serverId);
-    command.setBinlogPosition(this.binlogPosition);
-    command.setBinlogFileName(StringColumn.valueOf(this.binlogFileName.getBytes(this.encoding)));
-    this.transport.getOutputStream().writePacket(command);
-    this.transport.getOutputStream().flush();
+    if (this.gtidSet != null) throw new IllegalArgumentException("backup requires a position");
+    if (this.relayLogWriter != null) throw new IllegalArgumentException("relay log and backup");
+    this.backupWriter = new BinlogBackupWriter(new File(this.backupPath));
+    this.backupWriter.setSyncInterval(this.backupSyncInterval);
+    final BinlogPosition last = this.backupWriter.open();
+    if (last == null) {
+      this.binlogPosition = MySQLConstants.BINLOG_MAGIC.length;
+    } else {
+      this.binlogFileName = last.getBinlogFileName();
+      this.binlogPosition = last.getPosition();
+    }
+  }
 
+  protected void startRelayLogParser() throws Exception {
     //
-    final Packet packet = this.transport.getInputStream().readPacket();
-    if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
-      final ErrorPacket error = ErrorPacket.valueOf(packet);
-      throw new TransportException(error);
+    final BinlogPosition start = new BinlogPosition(this.binlogFileName, this.binlogPosition);
+    final FileBasedBinlogParser r;
+    final String name = this.relayLogStart.getBinlogFileName();
+    final long offset = this.relayLogStart.getPosition();
+    if (this.checksum.getType() == ChecksumType.NONE) {
+      r = BinlogParserFactory.createFileBinlogParser(offset, 0, name, this.relayLogPath);
+    } else {
+      r = BinlogParserFactory.createFileBinlogParserExt(offset, 0, name, this.relayLogPath,
+          this.checksum);
     }
+    r.setThreadFactory(new XThreadFactory("binlog-relay-parser", true));
+    r.setFollow(true);
+    r.setMmap(true);
+    r.setEventListener(this.binlogEventListener);
+    r.setCommittedPosition(start);
+    r.setCheckpointStore(this.checkpointStore);
+    r.setEventDispatcher(this.eventDispatcher);
+    r.setMetrics(this.metrics);
+    r.setLagTracker(this.lagTracker);
+    r.setStopOnListenerFailure(this.stopOnListenerFailure);
+    r.addParserListener(new BinlogParserListener.Adapter() {
+      @Override
+      public void onStop(BinlogParser parser) {
+        stopQuietly(0, TimeUnit.MILLISECONDS);
+      }
+    });
+    this.relayLogParser = r;
+    r.start();
+  }
+
+  protected void bindSemiSync(BinlogParser parser) {
+    //
+    if (this.semiSyncMaster && this.semiSyncAcknowledger == null) {
+      this.semiSyncAcknowledger = new SemiSyncAcknowledger(this.transport);
+      this.semiSyncAcknowledger.setWindow(this.semiSyncAckWindow);
+      this.semiSyncAcknowledger.setEncoding(this.encoding);
+    }
+    if (this.semiSyncMaster) this.semiSyncAcknowledger.start(); // Idempotent
+
+    //
+    if (!(parser instanceof ReplicationBasedBinlogParser)) return;
+    final ReplicationBasedBinlogParser p = (ReplicationBasedBinlogParser) parser;
+    p.setSemiSync(this.semiSyncMaster);
+    p.setSemiSyncAcknowledger(this.semiSyncAutoAck ? this.semiSyncAcknowledger : null);
   }
 
   protected Transport getDefaultTransport() throws Exception {
@@ -376,6 +961,18 @@ public class OpenReplicator {
   }
 
   protected ReplicationBasedBinlogParser getDefaultBinlogParser() throws Exception {
+    //
+    if (this.relayLogWriter != null || this.backupWriter != null) {
+      final boolean backup = this.backupWriter != null;
+      final RelayLogReceiver r = backup ? new BinlogBackupReceiver() : new RelayLogReceiver();
+      r.setTransport(this.transport);
+      r.setBinlogFileName(this.binlogFileName);
+      r.setWriter(backup ? this.backupWriter : this.relayLogWriter);
+      r.setChecksumLength(this.checksum.getType() == ChecksumType.NONE ? 0 : 4);
+      return r;
+    }
+
+    //
     if (checksum.getType() == ChecksumType.NONE)
       return BinlogParserFactory.createReplicationBinlogParser(this.transport, this.binlogFileName);
 
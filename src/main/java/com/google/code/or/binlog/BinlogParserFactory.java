@@ -22,8 +22,11 @@ import com.google.code.or.binlog.impl.ext.ReplicationBasedBinlogParserExt;
 import com.google.code.or.binlog.impl.parser.DeleteRowsEventParser;
 import com.google.code.or.binlog.impl.parser.DeleteRowsEventV2Parser;
 import com.google.code.or.binlog.impl.parser.FormatDescriptionEventParser;
+import com.google.code.or.binlog.impl.parser.GtidEventParser;
+import com.google.code.or.binlog.impl.parser.HeartbeatEventParser;
 import com.google.code.or.binlog.impl.parser.IncidentEventParser;
 import com.google.code.or.binlog.impl.parser.IntvarEventParser;
+import com.google.code.or.binlog.impl.parser.PreviousGtidsEventParser;
 import com.google.code.or.binlog.impl.parser.QueryEventParser;
 import com.google.code.or.binlog.impl.parser.RandEventParser;
 import com.google.code.or.binlog.impl.parser.RotateEventParser;
@@ -38,8 +41,11 @@ import com.google.code.or.binlog.impl.parser.XidEventParser;
 import com.google.code.or.binlog.impl.parser.ext.DeleteRowsEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.DeleteRowsEventV2ParserExt;
 import com.google.code.or.binlog.impl.parser.ext.FormatDescriptionEventParserExt;
+import com.google.code.or.binlog.impl.parser.ext.GtidEventParserExt;
+import com.google.code.or.binlog.impl.parser.ext.HeartbeatEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.IncidentEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.IntvarEventParserExt;
+import com.google.code.or.binlog.impl.parser.ext.PreviousGtidsEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.QueryEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.RandEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.RotateEventParserExt;
@@ -51,6 +57,7 @@ import com.google.code.or.binlog.impl.parser.ext.UserVarEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.WriteRowsEventParserExt;
 import com.google.code.or.binlog.impl.parser.ext.WriteRowsEventV2ParserExt;
 import com.google.code.or.binlog.impl.parser.ext.XidEventParserExt;
+import com.google.code.or.common.util.MySQLConstants;
 import com.google.code.or.net.Transport;
 
 /**
@@ -79,6 +86,10 @@ public class BinlogParserFactory {
     r.registgerEventParser(new UpdateRowsEventV2Parser());
     r.registgerEventParser(new DeleteRowsEventV2Parser());
     r.registgerEventParser(new FormatDescriptionEventParser());
+    r.registgerEventParser(new GtidEventParser());
+    r.registgerEventParser(new GtidEventParser(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT));
+    r.registgerEventParser(new PreviousGtidsEventParser());
+    r.registgerEventParser(new HeartbeatEventParser());
     //
     r.setTransport(transport);
     r.setBinlogFileName(binlogFileName);
@@ -105,6 +116,11 @@ public class BinlogParserFactory {
     r.registgerEventParser(new UpdateRowsEventV2ParserExt(checksum));
     r.registgerEventParser(new DeleteRowsEventV2ParserExt(checksum));
     r.registgerEventParser(new FormatDescriptionEventParserExt(checksum));
+    r.registgerEventParser(new GtidEventParserExt(checksum));
+    r.registgerEventParser(
+        new GtidEventParserExt(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT, checksum));
+    r.registgerEventParser(new PreviousGtidsEventParserExt(checksum));
+    r.registgerEventParser(new HeartbeatEventParserExt(checksum));
     //
     r.setTransport(transport);
     r.setBinlogFileName(binlogFileName);
@@ -132,6 +148,9 @@ public class BinlogParserFactory {
     r.registgerEventParser(new UpdateRowsEventV2Parser());
     r.registgerEventParser(new DeleteRowsEventV2Parser());
     r.registgerEventParser(new FormatDescriptionEventParser());
+    r.registgerEventParser(new GtidEventParser());
+    r.registgerEventParser(new GtidEventParser(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT));
+    r.registgerEventParser(new PreviousGtidsEventParser());
     //
     r.setStopPosition(stopPosition);
     r.setStartPosition(startPosition);
@@ -161,6 +180,10 @@ public class BinlogParserFactory {
     r.registgerEventParser(new UpdateRowsEventV2ParserExt(checksum));
     r.registgerEventParser(new DeleteRowsEventV2ParserExt(checksum));
     r.registgerEventParser(new FormatDescriptionEventParserExt(checksum));
+    r.registgerEventParser(new GtidEventParserExt(checksum));
+    r.registgerEventParser(
+        new GtidEventParserExt(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT, checksum));
+    r.registgerEventParser(new PreviousGtidsEventParserExt(checksum));
     //
     r.setStopPosition(stopPosition);
     r.setStartPosition(startPosition);
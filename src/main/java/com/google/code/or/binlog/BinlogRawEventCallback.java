@@ -0,0 +1,11 @@
+package com.google.code.or.binlog;
+
+import com.google.code.or.binlog.impl.event.BinlogRawEvent;
+
+/**
+ * Receives the events of {@link RawBinlogProcessor#processOneRawEventRecord} undecoded.
+ */
+public interface BinlogRawEventCallback {
+	void onEvent(BinlogRawEvent event, boolean validated);
+	void onException(Exception e);
+}
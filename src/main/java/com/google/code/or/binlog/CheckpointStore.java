@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog;
+
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.Checkpoint;
+
+/**
+ * Persists how far the event listener got. A binlog parser acknowledges every transaction once the
+ * listener returned from its last event, implementations are expected to make these durable in
+ * batches rather than one by one.
+ */
+public interface CheckpointStore {
+
+  /**
+   * Returns the last durable checkpoint, or null if there is none.
+   */
+  Checkpoint load() throws Exception;
+
+  /**
+   * Sets the checkpoint subsequent transactions are acknowledged on top of, e.g. where a dump
+   * starts. A GTID set given here is extended by the GTIDs of the acknowledged transactions.
+   */
+  void reset(Checkpoint checkpoint);
+
+  /**
+   * @param sourceId the source id of the GTID of the transaction, null if it has none
+   */
+  void acknowledge(BinlogPosition position, byte[] sourceId, long transactionId);
+
+  /**
+   * Makes the last acknowledged checkpoint durable.
+   */
+  void flush() throws Exception;
+
+  void close() throws Exception;
+}
@@ -0,0 +1,10 @@
+package com.google.code.or.binlog;
+
+import com.google.code.or.io.XInputStream;
+
+/**
+ * A {@link BinlogProcessor} that can also hand events over undecoded.
+ */
+public interface RawBinlogProcessor extends BinlogProcessor {
+	public void processOneRawEventRecord(XInputStream is, BinlogRawEventCallback callback);
+}
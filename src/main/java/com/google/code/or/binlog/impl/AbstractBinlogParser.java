@@ -28,15 +28,29 @@ import org.slf4j.LoggerFactory;
 
 import com.google.code.or.binlog.BinlogEventFilter;
 import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.CheckpointStore;
 import com.google.code.or.binlog.BinlogEventParser;
 import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogEventV4Header;
 import com.google.code.or.binlog.BinlogParser;
 import com.google.code.or.binlog.BinlogParserContext;
 import com.google.code.or.binlog.BinlogParserListener;
+import com.google.code.or.binlog.impl.dispatch.AsyncEventDispatcher;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.HeartbeatEvent;
+import com.google.code.or.binlog.impl.event.PreviousGtidsEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
 import com.google.code.or.binlog.impl.event.RotateEvent;
 import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.metrics.BinlogMetrics;
+import com.google.code.or.binlog.impl.metrics.LagTracker;
 import com.google.code.or.binlog.impl.parser.NopEventParser;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.GtidSet;
 import com.google.code.or.common.util.XThreadFactory;
+import com.google.code.or.io.XInputStream;
 
 /**
  * 
@@ -52,6 +66,15 @@ public abstract class AbstractBinlogParser implements BinlogParser {
   protected BinlogEventFilter eventFilter;
   protected BinlogEventListener eventListener;
   protected boolean clearTableMapEventsOnRotate = true;
+  protected boolean notifyHeartbeatEvents = false;
+  protected boolean stopOnListenerFailure = false;
+  protected volatile HeartbeatEvent lastHeartbeatEvent;
+  protected volatile BinlogPosition committedPosition;
+  protected final GtidSet executedGtidSet = new GtidSet();
+  protected CheckpointStore checkpointStore;
+  protected AsyncEventDispatcher eventDispatcher;
+  protected BinlogMetrics metrics;
+  protected LagTracker lagTracker;
   protected final List<BinlogParserListener> parserListeners;
   protected final AtomicBoolean verbose = new AtomicBoolean(false);
   protected final AtomicBoolean running = new AtomicBoolean(false);
@@ -93,6 +116,12 @@ public abstract class AbstractBinlogParser implements BinlogParser {
 
     //
     doStart();
+    if (this.eventDispatcher != null) {
+      this.eventDispatcher.setStopOnListenerFailure(this.stopOnListenerFailure);
+      this.eventDispatcher.start();
+    }
+    if (this.metrics != null) this.metrics.setEventDispatcher(this.eventDispatcher);
+    if (this.lagTracker != null) this.lagTracker.reset(); // Nothing in flight is completed any more
 
     //
     this.worker = this.threadFactory.newThread(new Task());
@@ -121,6 +150,7 @@ public abstract class AbstractBinlogParser implements BinlogParser {
         this.worker = null;
       }
     } finally {
+      drain();
       notifyOnStop();
     }
   }
@@ -168,6 +198,112 @@ public abstract class AbstractBinlogParser implements BinlogParser {
     this.clearTableMapEventsOnRotate = clearTableMapEventsOnRotate;
   }
 
+  public boolean isNotifyHeartbeatEvents() {
+    return notifyHeartbeatEvents;
+  }
+
+  public void setNotifyHeartbeatEvents(boolean notifyHeartbeatEvents) {
+    this.notifyHeartbeatEvents = notifyHeartbeatEvents;
+  }
+
+  public boolean isStopOnListenerFailure() {
+    return stopOnListenerFailure;
+  }
+
+  /**
+   * By default an exception of the event listener is logged and parsing goes on past the event. If
+   * set, it stops the parser instead, before the committed position moves past the event. It also
+   * applies to the event dispatcher, if any.
+   */
+  public void setStopOnListenerFailure(boolean stopOnListenerFailure) {
+    this.stopOnListenerFailure = stopOnListenerFailure;
+  }
+
+  /**
+   * Heartbeats are consumed by the parser unless {@link #isNotifyHeartbeatEvents()}, the latest one
+   * is kept here so that an idle master can be told apart from a stalled connection.
+   */
+  public HeartbeatEvent getLastHeartbeatEvent() {
+    return lastHeartbeatEvent;
+  }
+
+  /**
+   * The position right after the last transaction (XID or COMMIT/ROLLBACK query) or statement
+   * outside a transaction that was handed to the event listener. Resuming the dump from here never
+   * replays half a transaction. Events skipped by the event filter do not advance it.
+   */
+  public BinlogPosition getCommittedPosition() {
+    return committedPosition;
+  }
+
+  public void setCommittedPosition(BinlogPosition committedPosition) {
+    this.committedPosition = committedPosition;
+  }
+
+  /**
+   * The GTIDs of the committed transactions seen so far, including the ones announced by previous
+   * GTIDs events. Returns a copy.
+   */
+  public GtidSet getExecutedGtidSet() {
+    synchronized (this.executedGtidSet) {
+      return new GtidSet(this.executedGtidSet);
+    }
+  }
+
+  public void setExecutedGtidSet(GtidSet gtidSet) {
+    synchronized (this.executedGtidSet) {
+      this.executedGtidSet.clear();
+      if (gtidSet != null) this.executedGtidSet.addAll(gtidSet);
+    }
+  }
+
+  public CheckpointStore getCheckpointStore() {
+    return checkpointStore;
+  }
+
+  /**
+   * If set, every committed position is acknowledged to the store, see
+   * {@link #getCommittedPosition()}.
+   */
+  public void setCheckpointStore(CheckpointStore checkpointStore) {
+    this.checkpointStore = checkpointStore;
+  }
+
+  public AsyncEventDispatcher getEventDispatcher() {
+    return eventDispatcher;
+  }
+
+  /**
+   * If set, events are handed to the event listener on the thread of the dispatcher rather than on
+   * the parser thread. The committed position then only advances once the event listener returned
+   * from the events of a transaction.
+   */
+  public void setEventDispatcher(AsyncEventDispatcher eventDispatcher) {
+    this.eventDispatcher = eventDispatcher;
+  }
+
+  public BinlogMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * If set, the events, decode times and listener times of this parser are recorded to it.
+   */
+  public void setMetrics(BinlogMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public LagTracker getLagTracker() {
+    return lagTracker;
+  }
+
+  /**
+   * If set, the lag of every transaction delivered by this parser is tracked by it.
+   */
+  public void setLagTracker(LagTracker lagTracker) {
+    this.lagTracker = lagTracker;
+  }
+
   /**
 	 * 
 	 */
@@ -218,9 +354,40 @@ public abstract class AbstractBinlogParser implements BinlogParser {
     if (listeners != null) this.parserListeners.addAll(listeners);
   }
 
+  /**
+   * Parses the body of an event with the parser of its type, or skips it if the event filter does
+   * not accept it.
+   */
+  protected void parseEvent(XInputStream is, BinlogEventV4Header header, Context context)
+      throws Exception {
+    final BinlogMetrics metrics = this.metrics;
+    final long start = metrics == null ? 0 : System.nanoTime();
+    if (this.eventFilter != null && !this.eventFilter.accepts(header, context)) {
+      this.defaultParser.parse(is, header, context);
+    } else {
+      BinlogEventParser parser = getEventParser(header.getEventType());
+      if (parser == null) parser = this.defaultParser;
+      parser.parse(is, header, context);
+    }
+    if (metrics != null) {
+      metrics.recordDecodeTime(System.nanoTime() - start - context.takeListenerTime());
+    }
+  }
+
   /**
 	 * 
 	 */
+  private void drain() {
+    if (this.eventDispatcher == null) return;
+    try {
+      this.eventDispatcher.drain();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IllegalStateException e) {
+      // NOP, the event listener failed and the parser stopped for it, see stopOnListenerFailure
+    }
+  }
+
   private void notifyOnStart() {
     for (BinlogParserListener listener : this.parserListeners) {
       listener.onStart(this);
@@ -260,9 +427,13 @@ public abstract class AbstractBinlogParser implements BinlogParser {
     }
   }
 
-  protected class Context implements BinlogParserContext, BinlogEventListener {
+  protected class Context
+      implements BinlogParserContext, BinlogEventListener, AsyncEventDispatcher.Callback {
     //
     private String binlogFileName;
+    private boolean inTransaction;
+    private GtidEvent pendingGtidEvent;
+    private long listenerTime; // Of the event being parsed, in nanoseconds
     private final Map<Long, TableMapEvent> tableMapEvents = new HashMap<Long, TableMapEvent>();
 
     /**
@@ -289,10 +460,21 @@ public abstract class AbstractBinlogParser implements BinlogParser {
       return this;
     }
 
+    final void setInTransaction(boolean inTransaction) {
+      this.inTransaction = inTransaction;
+      this.pendingGtidEvent = null;
+    }
+
     public final TableMapEvent getTableMapEvent(long tableId) {
       return this.tableMapEvents.get(tableId);
     }
 
+    final long takeListenerTime() {
+      final long r = this.listenerTime;
+      this.listenerTime = 0;
+      return r;
+    }
+
     /**
 		 * 
 		 */
@@ -303,21 +485,135 @@ public abstract class AbstractBinlogParser implements BinlogParser {
       }
 
       //
-      if (event instanceof TableMapEvent) {
+      if (event instanceof HeartbeatEvent) {
+        AbstractBinlogParser.this.lastHeartbeatEvent = (HeartbeatEvent) event;
+        final LagTracker tracker = AbstractBinlogParser.this.lagTracker;
+        if (tracker != null) tracker.onHeartbeat((HeartbeatEvent) event);
+        if (!isNotifyHeartbeatEvents()) return;
+      } else if (event instanceof TableMapEvent) {
         final TableMapEvent tme = (TableMapEvent) event;
         this.tableMapEvents.put(tme.getTableId(), tme);
       } else if (event instanceof RotateEvent) {
         final RotateEvent re = (RotateEvent) event;
-        this.binlogFileName = re.getBinlogFileName().toString();
-        if (isClearTableMapEventsOnRotate()) this.tableMapEvents.clear();
+        final String name = re.getBinlogFileName().toString();
+        if (isClearTableMapEventsOnRotate() && !name.equals(this.binlogFileName)) {
+          this.tableMapEvents.clear();
+        }
+        this.binlogFileName = name;
+      }
+
+      //
+      final BinlogMetrics metrics = AbstractBinlogParser.this.metrics;
+      if (metrics != null) {
+        metrics.recordEvent(event);
+        if (event instanceof AbstractRowEvent) {
+          final AbstractRowEvent e = (AbstractRowEvent) event;
+          metrics.recordRows(String.valueOf(e.getDatabaseName()),
+              String.valueOf(e.getTableName()), BinlogMetrics.getRowCount(event));
+        }
+      }
+      final LagTracker lagTracker = AbstractBinlogParser.this.lagTracker;
+      if (lagTracker != null) lagTracker.onDecoded(event);
+      final long start = metrics == null ? 0 : System.nanoTime();
+
+      //
+      final AsyncEventDispatcher dispatcher = AbstractBinlogParser.this.eventDispatcher;
+      if (dispatcher != null) {
+        try {
+          dispatcher.dispatch(AbstractBinlogParser.this.eventListener, event,
+              this.binlogFileName, this);
+        } catch (InterruptedException e) { // Stops the parser before the event
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("interrupted while dispatching event: " + event, e);
+        }
+        if (metrics != null) {
+          final long elapsed = System.nanoTime() - start;
+          metrics.recordDispatchBlockedTime(elapsed);
+          this.listenerTime += elapsed;
+        }
+        return;
       }
 
       //
       try {
         AbstractBinlogParser.this.eventListener.onEvents(event);
       } catch (Exception e) {
+        if (isStopOnListenerFailure()) { // The committed position stays before the event
+          throw new RuntimeException("failed to notify binlog event listener, event: " + event, e);
+        }
         LOGGER.error("failed to notify binlog event listener, event: " + event, e);
       }
+      if (metrics != null) {
+        final long elapsed = System.nanoTime() - start;
+        metrics.recordListenerTime(elapsed);
+        this.listenerTime += elapsed;
+      }
+      if (lagTracker != null) lagTracker.onCompleted(event);
+
+      //
+      trackCommittedPosition(event, this.binlogFileName);
+    }
+
+    public void onDispatched(BinlogEventV4 event, String binlogFileName) {
+      final LagTracker lagTracker = AbstractBinlogParser.this.lagTracker;
+      if (lagTracker != null) lagTracker.onCompleted(event);
+      trackCommittedPosition(event, binlogFileName);
+    }
+
+    private void trackCommittedPosition(BinlogEventV4 event, String binlogFileName) {
+      //
+      if (event instanceof RotateEvent) {
+        final RotateEvent re = (RotateEvent) event;
+        if (!this.inTransaction) commit(binlogFileName, re.getBinlogPosition(), null);
+        return;
+      }
+
+      //
+      boolean commit = false;
+      if (event instanceof GtidEvent) {
+        final GtidEvent ge = (GtidEvent) event;
+        this.pendingGtidEvent = ge.isAnonymous() ? null : ge;
+      } else if (event instanceof PreviousGtidsEvent) {
+        final GtidSet set = ((PreviousGtidsEvent) event).getGtidSet();
+        synchronized (AbstractBinlogParser.this.executedGtidSet) {
+          AbstractBinlogParser.this.executedGtidSet.addAll(set);
+        }
+      } else if (event instanceof XidEvent) {
+        commit = true;
+      } else if (event instanceof QueryEvent) {
+        final String sql = ((QueryEvent) event).getSql().toString().trim();
+        if ("BEGIN".equalsIgnoreCase(sql)) {
+          this.inTransaction = true;
+        } else {
+          commit = !this.inTransaction || "COMMIT".equalsIgnoreCase(sql)
+              || "ROLLBACK".equalsIgnoreCase(sql);
+        }
+      }
+
+      //
+      if (commit) {
+        this.inTransaction = false;
+        final GtidEvent ge = this.pendingGtidEvent;
+        if (ge != null) {
+          synchronized (AbstractBinlogParser.this.executedGtidSet) {
+            AbstractBinlogParser.this.executedGtidSet.add(ge.getSourceId(), ge.getTransactionId());
+          }
+          this.pendingGtidEvent = null;
+        }
+        commit(binlogFileName, event.getHeader().getNextPosition(), ge);
+      }
+    }
+
+    private void commit(String binlogFileName, long position, GtidEvent ge) {
+      if (position <= 0 || binlogFileName == null) return; // Artificial events
+      final BinlogPosition p = new BinlogPosition(binlogFileName, position);
+      AbstractBinlogParser.this.committedPosition = p;
+      final CheckpointStore store = AbstractBinlogParser.this.checkpointStore;
+      if (store != null && ge == null) {
+        store.acknowledge(p, null, 0);
+      } else if (store != null) {
+        store.acknowledge(p, ge.getSourceId(), ge.getTransactionId());
+      }
     }
   }
 }
@@ -15,18 +15,24 @@
 package com.google.code.or.binlog.impl;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.code.or.binlog.BinlogEventParser;
 import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.index.BinlogIndex;
 import com.google.code.or.common.util.CodecUtils;
 import com.google.code.or.common.util.IOUtils;
 import com.google.code.or.common.util.MySQLConstants;
 import com.google.code.or.io.XInputStream;
 import com.google.code.or.io.impl.XInputStreamImpl;
+import com.google.code.or.io.util.DirectoryWatcher;
+import com.google.code.or.io.util.MappedFileInputStream;
 import com.google.code.or.io.util.RamdomAccessFileInputStream;
 
 /**
@@ -37,14 +43,24 @@ public class FileBasedBinlogParser extends AbstractBinlogParser {
   //
   private static final Logger LOGGER = LoggerFactory.getLogger(FileBasedBinlogParser.class);
 
+  //
+  protected static final int HEADER_LENGTH = 19;
+
   //
   protected XInputStream is;
   protected String binlogFileName;
   protected String binlogFilePath;
   protected long stopPosition = 0;
   protected long startPosition = 4;
+  protected long startTimestamp = 0; // In milliseconds, overrides the start position if set
+  protected String startGtid; // e.g. 3E11FA47-71CA-11E1-9E33-C80AA9429562:23, ditto
+  protected int indexInterval = BinlogIndex.DEFAULT_INTERVAL;
 
-
+  //
+  protected boolean follow = false;
+  protected long followInterval = 1000; // The longest wait between two checks, in milliseconds
+  protected volatile DirectoryWatcher watcher; // Closed by stop() to wake up a follow wait
+  protected boolean mmap = false;
 
   /**
 	 * 
@@ -53,12 +69,17 @@ public class FileBasedBinlogParser extends AbstractBinlogParser {
 
   @Override
   protected void doStart() throws Exception {
+    this.startPosition = seek(this.startPosition);
     this.is = open(this.binlogFilePath + "/" + this.binlogFileName);
   }
 
+  /**
+   * Only wakes up a follow wait. The input stream is closed by the parser thread once it left the
+   * loop, a memory mapped buffer must never be unmapped while it is being read.
+   */
   @Override
   protected void doStop(long timeout, TimeUnit unit) throws Exception {
-    IOUtils.closeQuietly(this.is);
+    IOUtils.closeQuietly(this.watcher);
   }
 
   /**
@@ -96,6 +117,62 @@ public class FileBasedBinlogParser extends AbstractBinlogParser {
     this.startPosition = startPosition;
   }
 
+  public long getStartTimestamp() {
+    return startTimestamp;
+  }
+
+  public void setStartTimestamp(long startTimestamp) {
+    this.startTimestamp = startTimestamp;
+  }
+
+  public String getStartGtid() {
+    return startGtid;
+  }
+
+  public void setStartGtid(String startGtid) {
+    this.startGtid = startGtid;
+  }
+
+  public boolean isFollow() {
+    return follow;
+  }
+
+  /**
+   * If set, the parser waits for the binlog file to grow at its end instead of stopping, and then
+   * continues with the next binlog file after a rotate or stop event, like tail -F. The next file
+   * is the one named by the rotate event, after a stop event the one listed next in the index file.
+   */
+  public void setFollow(boolean follow) {
+    this.follow = follow;
+  }
+
+  public long getFollowInterval() {
+    return followInterval;
+  }
+
+  public void setFollowInterval(long followInterval) {
+    this.followInterval = followInterval;
+  }
+
+  public boolean isMmap() {
+    return mmap;
+  }
+
+  /**
+   * If set, binlog files are read through memory mapped windows instead of read system calls.
+   */
+  public void setMmap(boolean mmap) {
+    this.mmap = mmap;
+  }
+
+  public int getIndexInterval() {
+    return indexInterval;
+  }
+
+  public void setIndexInterval(int indexInterval) {
+    this.indexInterval = indexInterval;
+  }
+
   /**
 	 * 
 	 */
@@ -103,58 +180,166 @@ public class FileBasedBinlogParser extends AbstractBinlogParser {
   protected void doParse() throws Exception {
     //
     final Context context = new Context(this.binlogFileName);
-    while (isRunning() && is.available() > 0) {
-      try {
-        //
-        final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
-        header.setTimestamp(is.readLong(4) * 1000L);
-        header.setEventType(is.readInt(1));
-        header.setServerId(is.readLong(4));
-        header.setEventLength(is.readInt(4));
-        header.setNextPosition(is.readLong(4));
-        header.setFlags(is.readInt(2));
-        header.setTimestampOfReceipt(System.currentTimeMillis());
-        is.setReadLimit((int) (header.getEventLength() - header.getHeaderLength())); // Ensure the
-                                                                                     // event
-                                                                                     // boundary
-        if (isVerbose() && LOGGER.isInfoEnabled()) {
-          LOGGER.info("read an event, header: {}", header);
-        }
+    try {
+      while (isRunning() && (this.follow || is.available() > 0)) {
+        try {
+          //
+          if (this.follow && !await(is, HEADER_LENGTH)) break;
+          final BinlogEventV4HeaderImpl header = readHeader(is);
+          if (this.follow && !await(is, header.getEventLength() - header.getHeaderLength())) break;
 
-        //
-        if (this.stopPosition > 0 && header.getPosition() > this.stopPosition) {
-          break;
-        }
+          // Ensure the event boundary
+          is.setReadLimit((int) (header.getEventLength() - header.getHeaderLength()));
+          if (isVerbose() && LOGGER.isInfoEnabled()) {
+            LOGGER.info("read an event, header: {}", header);
+          }
 
-        // Parse the event body
-        if (this.eventFilter != null && !this.eventFilter.accepts(header, context)) {
-          this.defaultParser.parse(is, header, context);
-        } else {
-          BinlogEventParser parser = getEventParser(header.getEventType());
-          if (parser == null) parser = this.defaultParser;
-          parser.parse(is, header, context);
-        }
+          //
+          if (this.stopPosition > 0 && header.getPosition() > this.stopPosition) {
+            break;
+          }
+
+          // Parse the event body
+          parseEvent(is, header, context);
+
+          // Ensure the packet boundary
+          if (is.available() != 0) {
+            throw new RuntimeException("assertion failed, available: " + is.available()
+                + ", event type: " + header.getEventType());
+          }
 
-        // Ensure the packet boundary
-        if (is.available() != 0) {
-          throw new RuntimeException("assertion failed, available: " + is.available()
-              + ", event type: " + header.getEventType());
+          // Continue with the next binlog file once it has been created
+          if (this.follow && isEndOfFile(header.getEventType())) {
+            final String rotated = context.getBinlogFileName(); // Set by the rotate event
+            final String name = awaitNextBinlogFile(this.binlogFileName,
+                this.binlogFileName.equals(rotated) ? null : rotated);
+            if (name == null) break;
+            IOUtils.closeQuietly(is);
+            this.binlogFileName = name;
+            this.startPosition = MySQLConstants.BINLOG_MAGIC.length;
+            this.is = open(this.binlogFilePath + "/" + name);
+            context.setBinlogFileName(name);
+          }
+        } finally {
+          is.setReadLimit(0);
         }
-      } catch (Exception e) {
-        IOUtils.closeQuietly(is);
-        throw e;
-      } finally {
-        is.setReadLimit(0);
+      }
+    } finally {
+      IOUtils.closeQuietly(this.watcher);
+      IOUtils.closeQuietly(this.is);
+    }
+  }
+
+  protected BinlogEventV4HeaderImpl readHeader(XInputStream is) throws Exception {
+    final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+    r.setTimestamp(is.readLong(4) * 1000L);
+    r.setEventType(is.readInt(1));
+    r.setServerId(is.readLong(4));
+    r.setEventLength(is.readInt(4));
+    r.setNextPosition(is.readLong(4));
+    r.setFlags(is.readInt(2));
+    r.setTimestampOfReceipt(System.currentTimeMillis());
+    return r;
+  }
+
+  /**
+   * Waits until the given number of bytes has been written, so that only complete events are
+   * read. Changes of the directory wake the wait up, polling at growing intervals covers platforms
+   * that watch files by polling. Returns false if the parser has been stopped.
+   */
+  protected boolean await(XInputStream is, long length) throws Exception {
+    long interval = 1;
+    while (true) {
+      if (!isRunning()) return false;
+      if (is.available() >= length) return true;
+      if (this.watcher == null) { // Checks again whether stopped meanwhile
+        this.watcher = new DirectoryWatcher(new File(getBinlogFilePath()));
+        continue;
+      }
+      if (!this.watcher.await(interval, TimeUnit.MILLISECONDS)) {
+        interval = Math.min(interval * 2, this.followInterval);
+      }
+    }
+  }
+
+  /**
+   * Returns the name of the binlog file after the given one, once it has been created, or null if
+   * the parser has been stopped. That is the file named by the rotate event if any, a stop event
+   * names none.
+   */
+  protected String awaitNextBinlogFile(String name, String rotated) throws Exception {
+    final File directory = new File(getBinlogFilePath());
+    long interval = 1;
+    while (isRunning()) {
+      final String next = rotated != null ? rotated : getNextBinlogFile(directory, name);
+      final int magic = MySQLConstants.BINLOG_MAGIC.length;
+      if (next != null && new File(directory, next).length() >= magic) return next;
+      if (this.watcher == null) { // Checks again whether stopped meanwhile
+        this.watcher = new DirectoryWatcher(directory);
+        continue;
+      }
+      if (!this.watcher.await(interval, TimeUnit.MILLISECONDS)) {
+        interval = Math.min(interval * 2, this.followInterval);
       }
     }
+    return null;
+  }
+
+  /**
+   * Returns the file listed after the given one in the index file, e.g. mysql-bin.index, or null if
+   * not listed yet. Only without an index file, the directory listing is used instead.
+   */
+  protected static String getNextBinlogFile(File directory, String name) throws IOException {
+    final String baseName = name.substring(0, name.lastIndexOf('.'));
+    final File index = new File(directory, baseName + ".index");
+    final List<String> names;
+    try {
+      names = index.exists() ? MultiFileBinlogParser.readIndexFile(index)
+          : MultiFileBinlogParser.listBinlogFiles(directory, baseName);
+    } catch (FileNotFoundException e) { // Being replaced by the master, e.g. on purge
+      return null;
+    }
+    final int i = names.indexOf(name);
+    return i < 0 || i + 1 >= names.size() ? null : names.get(i + 1);
+  }
+
+  protected static boolean isEndOfFile(int eventType) {
+    return eventType == MySQLConstants.ROTATE_EVENT || eventType == MySQLConstants.STOP_EVENT;
+  }
+
+  /**
+   * Returns the position of the transaction boundary to start parsing from, looked up in the
+   * sidecar index of the binlog file if a start timestamp or GTID is set.
+   */
+  protected long seek(long startPosition) throws Exception {
+    //
+    if (this.startGtid == null && this.startTimestamp <= 0) return startPosition;
+    final File file = new File(getBinlogFilePath(), getBinlogFileName());
+    if (this.startGtid == null) {
+      return BinlogIndex.seekTimestamp(file, this.startTimestamp, this.indexInterval);
+    }
+
+    //
+    final int index = this.startGtid.lastIndexOf(':');
+    if (index < 0) throw new IllegalArgumentException("invalid gtid: " + this.startGtid);
+    final String uuid = this.startGtid.substring(0, index).trim();
+    final long transactionId = Long.parseLong(this.startGtid.substring(index + 1).trim());
+    final long r = BinlogIndex.seekGtid(file, uuid, transactionId, this.indexInterval);
+    if (r < 0) throw new RuntimeException("gtid: " + this.startGtid + " not found in: " + file);
+    return r;
   }
 
   /**
 	 * 
 	 */
+  protected InputStream openInputStream(File file) throws Exception {
+    if (this.mmap) return new MappedFileInputStream(file);
+    return new RamdomAccessFileInputStream(file);
+  }
+
   protected XInputStream open(String path) throws Exception {
     //
-    final XInputStream is = new XInputStreamImpl(new RamdomAccessFileInputStream(new File(path)));
+    final XInputStream is = new XInputStreamImpl(openInputStream(new File(path)));
     try {
       // Check binlog magic
       final byte[] magic = is.readBytes(MySQLConstants.BINLOG_MAGIC.length);
@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.CheckpointStore;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.Checkpoint;
+import com.google.code.or.common.glossary.GtidSet;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * Keeps checkpoints in two files, e.g. checkpoint.0 and checkpoint.1, which are written in turns.
+ * Every record carries a sequence number and a CRC32, so a write torn by a crash leaves the other
+ * file, with the previous checkpoint, intact. Acknowledgements are coalesced: a background thread
+ * writes the latest one every flush interval, or as soon as flush transactions have been
+ * acknowledged, with one fsync.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileCheckpointStore.class);
+
+  //
+  private static final int MAGIC = 0x4F524350; // ORCP
+  private static final int VERSION = 1;
+
+  //
+  protected final File file;
+  protected long flushInterval = 1000; // milliseconds
+  protected int flushTransactions = 10000; // 0 means no limit
+  protected ThreadFactory threadFactory = new XThreadFactory("checkpoint-flusher", true);
+
+  //
+  private BinlogPosition position;
+  private GtidSet gtidSet;
+  private int pending; // Transactions acknowledged since the last flush
+  private boolean dirty;
+  private long sequence;
+  private Checkpoint durable;
+  private Thread worker;
+  private volatile boolean running;
+  private final Object flushLock = new Object();
+
+  /**
+	 * 
+	 */
+  public FileCheckpointStore(File file) {
+    this.file = file;
+  }
+
+  /**
+	 * 
+	 */
+  public File getFile() {
+    return file;
+  }
+
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+
+  public int getFlushTransactions() {
+    return flushTransactions;
+  }
+
+  public void setFlushTransactions(int flushTransactions) {
+    this.flushTransactions = flushTransactions;
+  }
+
+  public ThreadFactory getThreadFactory() {
+    return threadFactory;
+  }
+
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  public synchronized Checkpoint getDurable() {
+    return durable;
+  }
+
+  /**
+	 * 
+	 */
+  public synchronized Checkpoint load() throws IOException {
+    Record r = null;
+    for (int i = 0; i < 2; i++) {
+      final Record record = read(getSlot(i));
+      if (record != null && (r == null || record.sequence > r.sequence)) r = record;
+    }
+    if (r == null) return null;
+    this.sequence = Math.max(this.sequence, r.sequence);
+    return this.durable = r.checkpoint;
+  }
+
+  public synchronized void reset(Checkpoint checkpoint) {
+    this.position = checkpoint == null ? null : checkpoint.getPosition();
+    this.gtidSet = checkpoint == null || checkpoint.getGtidSet() == null ? null
+        : new GtidSet(checkpoint.getGtidSet());
+    this.pending = 0;
+    this.dirty = this.position != null;
+    if (!this.running) start();
+  }
+
+  public void acknowledge(BinlogPosition position, byte[] sourceId, long transactionId) {
+    synchronized (this) {
+      this.position = position;
+      this.dirty = true;
+      if (sourceId != null) {
+        if (this.gtidSet == null) this.gtidSet = new GtidSet();
+        this.gtidSet.add(sourceId, transactionId);
+      }
+      if (++this.pending == this.flushTransactions) this.notifyAll(); // Wakes the flusher up
+    }
+    if (!this.running) start();
+  }
+
+  public void flush() throws IOException {
+    synchronized (this.flushLock) { // Writes in turns
+      //
+      final Checkpoint checkpoint;
+      final long sequence;
+      synchronized (this) {
+        if (this.position == null || !this.dirty) return;
+        checkpoint = new Checkpoint(this.position,
+            this.gtidSet == null ? null : new GtidSet(this.gtidSet));
+        sequence = ++this.sequence;
+        this.pending = 0;
+        this.dirty = false;
+      }
+
+      //
+      write(getSlot((int) (sequence & 1)), sequence, checkpoint);
+      synchronized (this) {
+        this.durable = checkpoint;
+      }
+    }
+  }
+
+  public void close() throws IOException {
+    synchronized (this) {
+      this.running = false;
+      if (this.worker != null) {
+        this.worker.interrupt();
+        this.worker = null;
+      }
+    }
+    flush();
+  }
+
+  /**
+	 * 
+	 */
+  protected synchronized void start() {
+    if (this.running) return;
+    this.running = true;
+    this.worker = this.threadFactory.newThread(new Task());
+    this.worker.start();
+  }
+
+  protected File getSlot(int index) {
+    return new File(this.file.getPath() + "." + index);
+  }
+
+  private static Record read(File file) throws IOException {
+    //
+    if (!file.exists()) return null;
+    final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    final ByteBuffer buffer;
+    try {
+      if (channel.size() < 24 || channel.size() > Integer.MAX_VALUE) return null;
+      buffer = ByteBuffer.allocate((int) channel.size());
+      while (buffer.hasRemaining() && channel.read(buffer) > 0);
+      buffer.flip();
+    } finally {
+      channel.close();
+    }
+
+    //
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+    final long sequence = buffer.getLong();
+    final int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining() - 4) return null;
+    final CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, 20 + length);
+    if ((int) crc.getValue() != buffer.getInt(20 + length)) {
+      LOGGER.warn("invalid checksum of checkpoint file: {}", file);
+      return null;
+    }
+
+    //
+    final byte[] name = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(name);
+    final long position = buffer.getLong();
+    GtidSet gtidSet = null;
+    final int gtidSetLength = buffer.getInt();
+    if (gtidSetLength >= 0) {
+      final byte[] encoded = new byte[gtidSetLength];
+      buffer.get(encoded);
+      gtidSet = GtidSet.valueOf(encoded);
+    }
+    final BinlogPosition p = new BinlogPosition(new String(name, "UTF-8"), position);
+    return new Record(sequence, new Checkpoint(p, gtidSet));
+  }
+
+  private static void write(File file, long sequence, Checkpoint checkpoint) throws IOException {
+    //
+    final byte[] name = checkpoint.getPosition().getBinlogFileName().getBytes("UTF-8");
+    final byte[] gtidSet =
+        checkpoint.getGtidSet() == null ? null : checkpoint.getGtidSet().toByteArray();
+    final int length = 2 + name.length + 8 + 4 + (gtidSet == null ? 0 : gtidSet.length);
+    final ByteBuffer buffer = ByteBuffer.allocate(20 + length + 4);
+    buffer.putInt(MAGIC).putInt(VERSION).putLong(sequence).putInt(length);
+    buffer.putShort((short) name.length).put(name).putLong(checkpoint.getPosition().getPosition());
+    buffer.putInt(gtidSet == null ? -1 : gtidSet.length);
+    if (gtidSet != null) buffer.put(gtidSet);
+    final CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, buffer.position());
+    buffer.putInt((int) crc.getValue());
+    buffer.flip();
+
+    //
+    final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      while (buffer.hasRemaining()) channel.write(buffer);
+      channel.force(false);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+	 * 
+	 */
+  private static final class Record {
+    //
+    private final long sequence;
+    private final Checkpoint checkpoint;
+
+    /**
+		 * 
+		 */
+    public Record(long sequence, Checkpoint checkpoint) {
+      this.sequence = sequence;
+      this.checkpoint = checkpoint;
+    }
+  }
+
+  private class Task implements Runnable {
+
+    public void run() {
+      while (running) {
+        try {
+          synchronized (FileCheckpointStore.this) {
+            final long deadline = System.currentTimeMillis() + flushInterval;
+            long now = System.currentTimeMillis();
+            while (running && now < deadline
+                && (flushTransactions <= 0 || pending < flushTransactions)) {
+              FileCheckpointStore.this.wait(deadline - now);
+              now = System.currentTimeMillis();
+            }
+          }
+          flush();
+        } catch (InterruptedException e) {
+          break;
+        } catch (Exception e) {
+          LOGGER.error("failed to flush checkpoint to: " + file, e);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,374 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParser;
+import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.BinlogParserListener;
+import com.google.code.or.binlog.ext.XChecksumFactory;
+import com.google.code.or.binlog.impl.index.BinlogIndex;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * Parses a sequence of binlog files, e.g. all files listed in mysql-bin.index. Up to
+ * {@link #getParallelism()} files are decoded concurrently by their own
+ * {@link FileBasedBinlogParser}, each with its own table map cache and checksum setting, into
+ * bounded queues. The events are delivered to the event listener on the parser thread in strict
+ * file order, while the next files are prefetched.
+ * <p>
+ * If table names are set, files whose sidecar {@link BinlogIndex} shows no row events of these
+ * tables are skipped without being parsed. Missing or stale indexes are built on the way.
+ */
+public class MultiFileBinlogParser extends AbstractBinlogParser {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(MultiFileBinlogParser.class);
+
+  //
+  private static final Object EOF = new Object();
+
+  //
+  protected String binlogFilePath;
+  protected List<String> binlogFileNames = new ArrayList<String>();
+  protected long startPosition = 4; // Of the first file
+  protected long stopPosition = 0; // Of the last file
+  protected int parallelism = 4;
+  protected int queueCapacity = 8 * 1024; // Events per file
+  protected Collection<String> tableNames; // database.table, null for all
+  protected int indexInterval = BinlogIndex.DEFAULT_INTERVAL;
+
+  /**
+	 * 
+	 */
+  public MultiFileBinlogParser() {
+    super("binlog-multi-file-parser");
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    if (this.parallelism <= 0) throw new IllegalArgumentException("invalid parallelism");
+  }
+
+  @Override
+  protected void doStop(long timeout, TimeUnit unit) throws Exception {
+    // NOP, the segments are stopped by the parser thread
+  }
+
+  /**
+	 * 
+	 */
+  public String getBinlogFilePath() {
+    return binlogFilePath;
+  }
+
+  public void setBinlogFilePath(String path) {
+    this.binlogFilePath = path;
+  }
+
+  public List<String> getBinlogFileNames() {
+    return binlogFileNames;
+  }
+
+  public void setBinlogFileNames(List<String> names) {
+    this.binlogFileNames = names;
+  }
+
+  public long getStartPosition() {
+    return startPosition;
+  }
+
+  public void setStartPosition(long startPosition) {
+    this.startPosition = startPosition;
+  }
+
+  public long getStopPosition() {
+    return stopPosition;
+  }
+
+  public void setStopPosition(long stopPosition) {
+    this.stopPosition = stopPosition;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public Collection<String> getTableNames() {
+    return tableNames;
+  }
+
+  public void setTableNames(Collection<String> tableNames) {
+    this.tableNames = tableNames;
+  }
+
+  public int getIndexInterval() {
+    return indexInterval;
+  }
+
+  public void setIndexInterval(int indexInterval) {
+    this.indexInterval = indexInterval;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  protected void doParse() throws Exception {
+    //
+    final List<String> names = this.binlogFileNames;
+    final LinkedList<Segment> segments = new LinkedList<Segment>();
+    final Context context = new Context();
+    int next = 0;
+    try {
+      while (isRunning()) {
+        // Prefetch
+        while (next < names.size() && segments.size() < this.parallelism) {
+          if (!accepts(names.get(next))) {
+            next++;
+            continue;
+          }
+          segments.add(new Segment(next, names.size()));
+          segments.getLast().start();
+          next++;
+        }
+        if (segments.isEmpty()) {
+          break;
+        }
+
+        //
+        final Segment segment = segments.getFirst();
+        if (context.getBinlogFileName() == null) context.setBinlogFileName(segment.name);
+        final Object event = segment.queue.poll(100, TimeUnit.MILLISECONDS);
+        if (event == null) {
+          continue;
+        } else if (event == EOF) {
+          segments.removeFirst();
+          context.setBinlogFileName(null); // The next file
+          if (segment.exception != null) throw segment.exception;
+        } else {
+          context.onEvents((BinlogEventV4) event);
+        }
+      }
+    } finally {
+      for (Segment segment : segments) segment.stop();
+    }
+  }
+
+  /**
+	 * 
+	 */
+  protected FileBasedBinlogParser createFileParser(String name, long start, long stop)
+      throws Exception {
+    final String checksum = getChecksumType(new File(this.binlogFilePath, name));
+    final FileBasedBinlogParser r;
+    if ("NONE".equals(checksum)) {
+      r = BinlogParserFactory.createFileBinlogParser(start, stop, name, this.binlogFilePath);
+    } else {
+      r = BinlogParserFactory.createFileBinlogParserExt(start, stop, name, this.binlogFilePath,
+          XChecksumFactory.create(checksum));
+    }
+    r.setThreadFactory(new XThreadFactory("binlog-parser-" + name, true));
+    r.setEventFilter(this.eventFilter);
+    r.setVerbose(isVerbose());
+    r.setClearTableMapEventsOnRotate(isClearTableMapEventsOnRotate());
+    return r;
+  }
+
+  /**
+   * Returns false if the binlog file has no row events of any of the table names.
+   */
+  protected boolean accepts(String name) throws Exception {
+    if (this.tableNames == null) return true;
+    final File file = new File(this.binlogFilePath, name);
+    final BinlogIndex index = BinlogIndex.loadOrBuild(file, this.indexInterval);
+    final boolean r = index.containsAny(this.tableNames);
+    if (!r && isVerbose() && LOGGER.isInfoEnabled()) {
+      LOGGER.info("skip binlog file: {}, no events of tables: {}", name, this.tableNames);
+    }
+    return r;
+  }
+
+  /**
+   * Returns the binlog file names listed in the given index file, e.g. mysql-bin.index.
+   */
+  public static List<String> readIndexFile(File file) throws IOException {
+    final List<String> r = new ArrayList<String>();
+    final BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        line = line.trim();
+        if (line.length() > 0) r.add(new File(line).getName());
+      }
+    } finally {
+      reader.close();
+    }
+    return r;
+  }
+
+  /**
+   * Returns the names of the binlog files with the given base name in the directory, in order.
+   */
+  public static List<String> listBinlogFiles(File directory, final String baseName) {
+    final List<String> r = new ArrayList<String>();
+    final String[] names = directory.list();
+    if (names == null) return r;
+    for (String name : names) {
+      if (name.startsWith(baseName + ".") && BinlogPosition.getSequence(name) >= 0) r.add(name);
+    }
+    Collections.sort(r, new Comparator<String>() {
+      public int compare(String lhs, String rhs) {
+        return BinlogPosition.compareFileNames(lhs, rhs);
+      }
+    });
+    return r;
+  }
+
+  /**
+   * Reads the checksum algorithm of a binlog file from its format description event: NONE or
+   * CRC32. Servers prior to 5.6.1 never write checksums.
+   */
+  public static String getChecksumType(File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      // Magic number, event header, binlog version, server version
+      final int offset = MySQLConstants.BINLOG_MAGIC.length;
+      final byte[] header = new byte[19 + 2 + 50];
+      raf.seek(offset);
+      raf.readFully(header);
+      if (header[4] != MySQLConstants.FORMAT_DESCRIPTION_EVENT) return "NONE";
+      final long eventLength = (header[9] & 0xFFL) | (header[10] & 0xFFL) << 8
+          | (header[11] & 0xFFL) << 16 | (header[12] & 0xFFL) << 24;
+      if (!isChecksumAware(new String(header, 21, 50, "US-ASCII"))) return "NONE";
+
+      // The checksum algorithm precedes the checksum of the event itself
+      raf.seek(offset + eventLength - 5);
+      return raf.read() == 0 ? "NONE" : "CRC32";
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static boolean isChecksumAware(String version) {
+    final String[] tokens = version.trim().split("[^0-9]+", 4);
+    final int[] v = new int[3];
+    for (int i = 0; i < 3 && i < tokens.length; i++) {
+      if (tokens[i].length() > 0) v[i] = Integer.parseInt(tokens[i]);
+    }
+    if (v[0] != 5) return v[0] > 5;
+    if (v[1] != 6) return v[1] > 6;
+    return v[2] >= 1;
+  }
+
+  /**
+	 * 
+	 */
+  protected class Segment implements BinlogEventListener {
+    //
+    private final String name;
+    private final FileBasedBinlogParser parser;
+    private final BlockingQueue<Object> queue;
+    private volatile Exception exception;
+
+    /**
+		 * 
+		 */
+    public Segment(int index, int count) throws Exception {
+      this.name = binlogFileNames.get(index);
+      final long start = index == 0 ? startPosition : 4;
+      final long stop = index == count - 1 ? stopPosition : 0;
+      this.queue = new ArrayBlockingQueue<Object>(queueCapacity);
+      this.parser = createFileParser(this.name, start, stop);
+      this.parser.setEventListener(this);
+      this.parser.addParserListener(new BinlogParserListener.Adapter() {
+        @Override
+        public void onException(BinlogParser parser, Exception exception) {
+          Segment.this.exception = exception;
+        }
+
+        @Override
+        public void onStop(BinlogParser parser) {
+          put(EOF);
+        }
+      });
+    }
+
+    /**
+		 * 
+		 */
+    public void start() throws Exception {
+      if (isVerbose() && LOGGER.isInfoEnabled()) {
+        LOGGER.info("start parsing binlog file: {}", this.name);
+      }
+      this.parser.start();
+    }
+
+    public void stop() {
+      try {
+        this.parser.stop(0, TimeUnit.MILLISECONDS);
+      } catch (Exception e) {
+        LOGGER.warn("failed to stop binlog parser of file: " + this.name, e);
+      }
+    }
+
+    public void onEvents(BinlogEventV4 event) {
+      put(event);
+    }
+
+    private void put(Object event) {
+      try {
+        while (!this.queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+          if (!MultiFileBinlogParser.this.isRunning()) return; // Nobody is going to take it
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
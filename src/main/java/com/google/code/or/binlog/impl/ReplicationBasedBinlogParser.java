@@ -14,18 +14,24 @@
  */
 package com.google.code.or.binlog.impl;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.code.or.binlog.BinlogEventParser;
+import com.google.code.or.binlog.BinlogEventV4Header;
 import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.common.glossary.BinlogPosition;
 import com.google.code.or.io.XInputStream;
 import com.google.code.or.net.Transport;
+import com.google.code.or.net.TransportException;
+import com.google.code.or.net.TransportInputStream;
+import com.google.code.or.net.impl.SemiSyncAcknowledger;
 import com.google.code.or.net.impl.packet.EOFPacket;
 import com.google.code.or.net.impl.packet.ErrorPacket;
 import com.google.code.or.net.impl.packet.OKPacket;
+import com.google.code.or.net.impl.packet.SemiSyncAckPacket;
 
 /**
  * 
@@ -38,7 +44,9 @@ public class ReplicationBasedBinlogParser extends AbstractBinlogParser {
   //
   protected Transport transport;
   protected String binlogFileName;
-
+  protected Context context;
+  protected boolean semiSync;
+  protected SemiSyncAcknowledger semiSyncAcknowledger;
 
   /**
 	 * 
@@ -78,19 +86,88 @@ public class ReplicationBasedBinlogParser extends AbstractBinlogParser {
     this.binlogFileName = binlogFileName;
   }
 
+  public boolean isSemiSync() {
+    return semiSync;
+  }
+
+  /**
+   * Whether the master prefixes every event with the semi-sync header, i.e. the semi-sync master
+   * plugin is installed and @rpl_semi_sync_slave was set before the dump.
+   */
+  public void setSemiSync(boolean semiSync) {
+    this.semiSync = semiSync;
+  }
+
+  public SemiSyncAcknowledger getSemiSyncAcknowledger() {
+    return semiSyncAcknowledger;
+  }
+
+  /**
+   * If set, events the master wants acknowledged are acknowledged once the event listener returned.
+   */
+  public void setSemiSyncAcknowledger(SemiSyncAcknowledger acknowledger) {
+    this.semiSyncAcknowledger = acknowledger;
+  }
+
+  /**
+   * Drops the table map cache kept between runs, e.g. when resuming against a different master.
+   */
+  public void resetContext() {
+    this.context = null;
+  }
+
+  /**
+   * The context (and its table map cache) survives a stop and restart of this parser as long as the
+   * dump resumes in the same binlog file, so a reconnect does not need to rebuild it.
+   */
+  protected Context getContext() {
+    if (this.context == null || !this.binlogFileName.equals(this.context.getBinlogFileName())) {
+      this.context = new Context(this.binlogFileName);
+    } else {
+      this.context.setInTransaction(false); // Resumed at a transaction boundary
+    }
+    return this.context;
+  }
+
+  /**
+   * Returns the semi-sync flags of the event, or 0 if not in semi-sync mode.
+   */
+  protected int readSemiSyncHeader(XInputStream is) throws IOException {
+    if (!this.semiSync) return 0;
+    final int magic = is.readInt(1);
+    if ((byte) magic != SemiSyncAckPacket.PACKET_MARKER) {
+      throw new RuntimeException("assertion failed, invalid semi-sync magic number: " + magic);
+    }
+    return is.readInt(1);
+  }
+
+  protected void acknowledge(Context context, BinlogEventV4Header header, int semiSyncFlag)
+      throws InterruptedException {
+    if ((semiSyncFlag & SemiSyncAckPacket.ACK_REQUIRED) == 0) return;
+    if (this.semiSyncAcknowledger == null) return;
+    if (this.eventDispatcher != null) this.eventDispatcher.drain(); // Until the listener returned
+    final String name = context.getBinlogFileName();
+    this.semiSyncAcknowledger.acknowledge(new BinlogPosition(name, header.getNextPosition()));
+  }
+
   /**
 	 * 
 	 */
   @Override
   protected void doParse() throws Exception {
     //
-    final XInputStream is = this.transport.getInputStream();
-    final Context context = new Context(this.binlogFileName);
+    final TransportInputStream is = this.transport.getInputStream();
+    final Context context = getContext();
     while (isRunning()) {
       try {
-        // Parse packet
+        // Parse packet, the whole packet is read up front if measured, so that decoding does not wait
+        final long start = this.metrics == null ? 0 : System.nanoTime();
         final int packetLength = is.readInt(3);
         final int packetSequence = is.readInt(1);
+        if (this.metrics != null) {
+          is.prefetch(packetLength);
+          this.metrics.recordReadBlockedTime(System.nanoTime() - start);
+        }
         is.setReadLimit(packetLength); // Ensure the packet boundary
 
         //
@@ -99,15 +176,16 @@ public class ReplicationBasedBinlogParser extends AbstractBinlogParser {
           if ((byte) packetMarker == ErrorPacket.PACKET_MARKER) {
             final ErrorPacket packet =
                 ErrorPacket.valueOf(packetLength, packetSequence, packetMarker, is);
-            throw new RuntimeException(packet.toString());
+            throw new TransportException(packet); // The master ended the dump
           } else if ((byte) packetMarker == EOFPacket.PACKET_MARKER) {
             final EOFPacket packet =
                 EOFPacket.valueOf(packetLength, packetSequence, packetMarker, is);
-            throw new RuntimeException(packet.toString());
+            throw new TransportException(packet.toString());
           } else {
             throw new RuntimeException("assertion failed, invalid packet marker: " + packetMarker);
           }
         }
+        final int semiSyncFlag = readSemiSyncHeader(is);
 
         // Parse the event header
         final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
@@ -123,13 +201,8 @@ public class ReplicationBasedBinlogParser extends AbstractBinlogParser {
         }
 
         // Parse the event body
-        if (this.eventFilter != null && !this.eventFilter.accepts(header, context)) {
-          this.defaultParser.parse(is, header, context);
-        } else {
-          BinlogEventParser parser = getEventParser(header.getEventType());
-          if (parser == null) parser = this.defaultParser;
-          parser.parse(is, header, context);
-        }
+        parseEvent(is, header, context);
+        acknowledge(context, header, semiSyncFlag);
 
         // Ensure the packet boundary
 //        System.err.println(Integer.toString(is.available(), 2));
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.backup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.impl.relay.RelayLogReceiver;
+import com.google.code.or.common.util.MySQLConstants;
+
+/**
+ * Receives the events of a binlog dump and appends them to a {@link BinlogBackupWriter} without
+ * decoding them. Unlike a relay log, artificial events, i.e. the fake rotate event and the format
+ * description event sent at the start of every dump, as well as heartbeats, are not part of the
+ * binlog files of the master and are always dropped.
+ */
+public class BinlogBackupReceiver extends RelayLogReceiver {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(BinlogBackupReceiver.class);
+
+  /**
+	 * 
+	 */
+  public BinlogBackupReceiver() {
+    super("binlog-backup-receiver");
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  protected void append(byte[] event, int length) throws Exception {
+    //
+    final ByteBuffer buffer = ByteBuffer.wrap(event).order(ByteOrder.LITTLE_ENDIAN);
+    final int type = event[4] & 0xFF;
+    final long nextPosition = buffer.getInt(13) & 0xFFFFFFFFL;
+    final int flags = buffer.getShort(17) & 0xFFFF;
+    if (isVerbose() && LOGGER.isInfoEnabled()) {
+      LOGGER.info("received an event, type: {}, next position: {}", type, nextPosition);
+    }
+
+    //
+    if (type == MySQLConstants.ROTATE_EVENT) {
+      if (nextPosition == 0 || (flags & LOG_EVENT_ARTIFICIAL_F) != 0) {
+        rotate(getRotateFileName(event, length), buffer.getLong(19));
+      } else {
+        this.writer.append(event, 0, length);
+        rotate(getRotateFileName(event, length), MySQLConstants.BINLOG_MAGIC.length);
+      }
+    } else if (type != MySQLConstants.HEARTBEAT_LOG_EVENT && nextPosition != 0) {
+      this.writer.append(event, 0, length);
+    }
+  }
+
+  /**
+   * Only a dump that continues at the end of a backup file keeps it identical to the binlog file.
+   */
+  protected void rotate(String name, long position) throws Exception {
+    this.writer.rotate(name);
+    if (this.writer.getLength() != position) {
+      throw new RuntimeException("backup file: " + name + " has length: "
+          + this.writer.getLength() + ", can not continue at position: " + position);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.backup;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * Writes the raw events of a binlog dump to local files named like the binlog files of the master,
+ * e.g. for continuous backups like mysqlbinlog --read-from-remote-server --raw. A backup file is a
+ * relay log segment that starts at the beginning of the binlog file, so the offset of an event is
+ * its master position and a complete file is identical to the one of the master. For the same
+ * reason no position index is kept, the directory only holds the backup files.
+ */
+public class BinlogBackupWriter extends RelayLogWriter {
+
+  /**
+	 * 
+	 */
+  public BinlogBackupWriter(File directory) {
+    super(directory);
+    this.syncInterval = 1000;
+    this.bufferSize = 1024 * 1024;
+    this.indexed = false;
+    this.threadFactory = new XThreadFactory("binlog-backup-sync", true);
+  }
+
+  /**
+   * Opens the last file, if any, and drops a partially written event at its end. Returns the
+   * position at its end, to resume the dump from, or null if there is no file yet.
+   */
+  @Override
+  public synchronized BinlogPosition open() throws IOException {
+    super.open();
+    final String name = getBinlogFileName();
+    return name == null ? null : new BinlogPosition(name, getLength());
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.codec;
+
+import java.nio.charset.Charset;
+
+/**
+ * The binary format of {@link BinlogEventEncoder} and {@link BinlogEventDecoder}, a compact and
+ * stable replacement of Java serialization for shipping decoded events between processes.
+ * <p>
+ * A message holds one event: the format version, a kind, the event header and the body. Integers
+ * are varints, signed ones zigzag encoded, and every column value is preceded by a one byte tag.
+ * Table names are sent once per table id, along with its table map event or its first row event,
+ * later row events of the table only refer to the id. Encoder and decoder therefore keep a
+ * dictionary per stream, which must see the messages in order, and which is cleared by reset().
+ */
+public final class BinlogEventCodec {
+  //
+  public static final int VERSION = 1;
+  static final Charset CHARSET = Charset.forName("UTF-8"); // Of table names
+
+  // Event kinds
+  static final int TABLE_MAP = 1;
+  static final int WRITE_ROWS = 2;
+  static final int UPDATE_ROWS = 3;
+  static final int DELETE_ROWS = 4;
+  static final int WRITE_ROWS_V2 = 5;
+  static final int UPDATE_ROWS_V2 = 6;
+  static final int DELETE_ROWS_V2 = 7;
+  static final int QUERY = 8;
+  static final int XID = 9;
+  static final int ROTATE = 10;
+  static final int GTID = 11;
+
+  // Column tags, 0 is a null reference
+  static final int BIT = 1;
+  static final int BLOB = 2;
+  static final int DATE = 3;
+  static final int DATETIME = 4;
+  static final int DATETIME2 = 5;
+  static final int DECIMAL = 6;
+  static final int DOUBLE = 7;
+  static final int ENUM = 8;
+  static final int FLOAT = 9;
+  static final int INT24 = 10;
+  static final int LONG = 11;
+  static final int LONGLONG = 12;
+  static final int NULL = 13;
+  static final int SET = 14;
+  static final int SHORT = 15;
+  static final int STRING = 16;
+  static final int TIME = 17;
+  static final int TIME2 = 18;
+  static final int TIMESTAMP = 19;
+  static final int TIMESTAMP2 = 20;
+  static final int TINY = 21;
+  static final int YEAR = 22;
+
+  /**
+	 * 
+	 */
+  private BinlogEventCodec() {}
+}
@@ -0,0 +1,437 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.codec;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.StatusVariable;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.DeleteRowsEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEventV2;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Metadata;
+import com.google.code.or.common.glossary.OptionalMetadata;
+import com.google.code.or.common.glossary.Pair;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.BlobColumn;
+import com.google.code.or.common.glossary.column.DateColumn;
+import com.google.code.or.common.glossary.column.Datetime2Column;
+import com.google.code.or.common.glossary.column.DatetimeColumn;
+import com.google.code.or.common.glossary.column.DecimalColumn;
+import com.google.code.or.common.glossary.column.DoubleColumn;
+import com.google.code.or.common.glossary.column.EnumColumn;
+import com.google.code.or.common.glossary.column.FloatColumn;
+import com.google.code.or.common.glossary.column.Int24Column;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.LongLongColumn;
+import com.google.code.or.common.glossary.column.NullColumn;
+import com.google.code.or.common.glossary.column.SetColumn;
+import com.google.code.or.common.glossary.column.ShortColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.glossary.column.Time2Column;
+import com.google.code.or.common.glossary.column.TimeColumn;
+import com.google.code.or.common.glossary.column.Timestamp2Column;
+import com.google.code.or.common.glossary.column.TimestampColumn;
+import com.google.code.or.common.glossary.column.TinyColumn;
+import com.google.code.or.common.glossary.column.YearColumn;
+
+/**
+ * Decodes the events encoded by a {@link BinlogEventEncoder}, see {@link BinlogEventCodec}. A
+ * decoder is meant to be reused for all events of a stream. Not thread safe.
+ */
+public class BinlogEventDecoder {
+  //
+  private byte[] data;
+  private int offset;
+  private int limit;
+  private final Map<Long, String[]> tables = new HashMap<Long, String[]>(); // Received table names
+
+  /**
+   * Forgets the table names received so far, e.g. for a new stream.
+   */
+  public void reset() {
+    this.tables.clear();
+  }
+
+  /**
+	 * 
+	 */
+  public BinlogEventV4 decode(byte[] data) {
+    return decode(data, 0, data.length);
+  }
+
+  public BinlogEventV4 decode(byte[] data, int offset, int length) {
+    this.data = data;
+    this.offset = offset;
+    this.limit = offset + length;
+    try {
+      final BinlogEventV4 r = doDecode();
+      if (this.offset != this.limit) {
+        throw new IllegalArgumentException("trailing bytes: " + (this.limit - this.offset));
+      }
+      return r;
+    } finally {
+      this.data = null;
+    }
+  }
+
+  /**
+	 * 
+	 */
+  protected BinlogEventV4 doDecode() {
+    //
+    final int version = readByte();
+    if (version != BinlogEventCodec.VERSION) {
+      throw new IllegalArgumentException("unsupported format version: " + version);
+    }
+
+    //
+    final int kind = readByte();
+    final BinlogEventV4HeaderImpl header = readHeader();
+    switch (kind) {
+      case BinlogEventCodec.TABLE_MAP:
+        return readTableMap(header);
+      case BinlogEventCodec.WRITE_ROWS: {
+        final WriteRowsEvent r = new WriteRowsEvent(header);
+        readTable(r);
+        r.setColumnCount(readUnsignedLong());
+        r.setUsedColumns(readBit());
+        r.setRows(readRows());
+        return r;
+      }
+      case BinlogEventCodec.UPDATE_ROWS: {
+        final UpdateRowsEvent r = new UpdateRowsEvent(header);
+        readTable(r);
+        r.setColumnCount(readUnsignedLong());
+        r.setUsedColumnsBefore(readBit());
+        r.setUsedColumnsAfter(readBit());
+        r.setRows(readPairs());
+        return r;
+      }
+      case BinlogEventCodec.DELETE_ROWS: {
+        final DeleteRowsEvent r = new DeleteRowsEvent(header);
+        readTable(r);
+        r.setColumnCount(readUnsignedLong());
+        r.setUsedColumns(readBit());
+        r.setRows(readRows());
+        return r;
+      }
+      case BinlogEventCodec.WRITE_ROWS_V2: {
+        final WriteRowsEventV2 r = new WriteRowsEventV2(header);
+        readTable(r);
+        r.setExtraInfoLength((int) readVarLong());
+        r.setExtraInfo(readBytes());
+        r.setColumnCount(readUnsignedLong());
+        r.setUsedColumns(readBit());
+        r.setRows(readRows());
+        return r;
+      }
+      case BinlogEventCodec.UPDATE_ROWS_V2: {
+        final UpdateRowsEventV2 r = new UpdateRowsEventV2(header);
+        readTable(r);
+        r.setExtraInfoLength((int) readVarLong());
+        r.setExtraInfo(readBytes());
+        r.setColumnCount(readUnsignedLong());
+        r.setUsedColumnsBefore(readBit());
+        r.setUsedColumnsAfter(readBit());
+        r.setRows(readPairs());
+        return r;
+      }
+      case BinlogEventCodec.DELETE_ROWS_V2: {
+        final DeleteRowsEventV2 r = new DeleteRowsEventV2(header);
+        readTable(r);
+        r.setExtraInfoLength((int) readVarLong());
+        r.setExtraInfo(readBytes());
+        r.setColumnCount(readUnsignedLong());
+        r.setUsedColumns(readBit());
+        r.setRows(readRows());
+        return r;
+      }
+      case BinlogEventCodec.QUERY: {
+        final QueryEvent r = new QueryEvent(header);
+        r.setThreadId(readVarLong());
+        r.setElapsedTime(readVarLong());
+        r.setErrorCode((int) readVarLong());
+        r.setDatabaseName(readString());
+        r.setSql(readString());
+        r.setDatabaseNameLength(length(r.getDatabaseName()));
+        r.setStatusVariables(new ArrayList<StatusVariable>(0)); // Not encoded
+        return r;
+      }
+      case BinlogEventCodec.XID: {
+        final XidEvent r = new XidEvent(header);
+        r.setXid(readVarLong());
+        return r;
+      }
+      case BinlogEventCodec.ROTATE: {
+        final RotateEvent r = new RotateEvent(header);
+        r.setBinlogPosition(readVarLong());
+        r.setBinlogFileName(readString());
+        return r;
+      }
+      case BinlogEventCodec.GTID: {
+        final GtidEvent r = new GtidEvent(readBytes(), readVarLong());
+        r.setHeader(header);
+        r.setLastCommitted(readVarLong());
+        r.setSequenceNumber(readVarLong());
+        r.setImmediateCommitTimestamp(readVarLong());
+        r.setOriginalCommitTimestamp(readVarLong());
+        r.setTransactionLength(readVarLong());
+        return r;
+      }
+      default:
+        throw new IllegalArgumentException("unsupported event kind: " + kind);
+    }
+  }
+
+  protected BinlogEventV4HeaderImpl readHeader() {
+    final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+    r.setTimestamp(readZigZag());
+    r.setEventType((int) readVarLong());
+    r.setServerId(readVarLong());
+    r.setEventLength(readVarLong());
+    r.setNextPosition(readVarLong());
+    r.setFlags((int) readVarLong());
+    r.setTimestampOfReceipt(readZigZag());
+    return r;
+  }
+
+  protected TableMapEvent readTableMap(BinlogEventV4HeaderImpl header) {
+    //
+    final TableMapEvent r = new TableMapEvent(header);
+    r.setTableId(readVarLong());
+    r.setReserved((int) readVarLong());
+    r.setDatabaseName(readString());
+    r.setDatabaseNameLength(length(r.getDatabaseName()));
+    r.setTableName(readString());
+    r.setTableNameLength(length(r.getTableName()));
+    r.setColumnCount(readUnsignedLong());
+    r.setColumnTypes(readBytes());
+    r.setColumnMetadataCount(readUnsignedLong());
+    if (readByte() != 0) {
+      final int[] metadata = new int[r.getColumnTypes().length];
+      for (int i = 0; i < metadata.length; i++) metadata[i] = (int) readVarLong();
+      r.setColumnMetadata(new Metadata(r.getColumnTypes(), metadata));
+    }
+    r.setColumnNullabilities(readBit());
+    final byte[] optionalMetadata = readBytes();
+    if (optionalMetadata != null) {
+      try {
+        r.setOptionalMetadata(OptionalMetadata.valueOf(optionalMetadata));
+      } catch (Exception e) {
+        throw new IllegalArgumentException("invalid optional metadata", e);
+      }
+    }
+
+    //
+    final String databaseName = String.valueOf(r.getDatabaseName());
+    final String tableName = String.valueOf(r.getTableName());
+    this.tables.put(r.getTableId(), new String[] {databaseName, tableName});
+    return r;
+  }
+
+  protected void readTable(AbstractRowEvent event) {
+    //
+    event.setTableId(readVarLong());
+    if (readByte() != 0) {
+      this.tables.put(event.getTableId(), new String[] {readUtf8(), readUtf8()});
+    }
+    final String[] names = this.tables.get(event.getTableId());
+    if (names == null) throw new IllegalStateException("unknown table id: " + event.getTableId());
+    event.setDatabaseName(names[0]);
+    event.setTableName(names[1]);
+    event.setReserved((int) readVarLong());
+  }
+
+  protected List<Row> readRows() {
+    final int n = readCount();
+    final List<Row> r = new ArrayList<Row>(n);
+    for (int i = 0; i < n; i++) r.add(readRow());
+    return r;
+  }
+
+  protected List<Pair<Row>> readPairs() {
+    final int n = readCount();
+    final List<Pair<Row>> r = new ArrayList<Pair<Row>>(n);
+    for (int i = 0; i < n; i++) {
+      final Row before = readRow();
+      r.add(new Pair<Row>(before, readRow()));
+    }
+    return r;
+  }
+
+  protected Row readRow() {
+    final int n = readCount();
+    final List<Column> columns = new ArrayList<Column>(n);
+    for (int i = 0; i < n; i++) columns.add(readColumn());
+    return new Row(columns);
+  }
+
+  protected Column readColumn() {
+    final int tag = readByte();
+    switch (tag) {
+      case 0:
+        return null;
+      case BinlogEventCodec.BIT:
+        return readBit();
+      case BinlogEventCodec.BLOB:
+        return BlobColumn.valueOf(readBytes());
+      case BinlogEventCodec.DATE:
+        return DateColumn.valueOf(new java.sql.Date(readZigZag()));
+      case BinlogEventCodec.DATETIME:
+        return DatetimeColumn.valueOf(new java.util.Date(readZigZag()));
+      case BinlogEventCodec.DATETIME2:
+        return Datetime2Column.valueOf(new java.util.Date(readZigZag()));
+      case BinlogEventCodec.DECIMAL: {
+        final int precision = (int) readVarLong();
+        final int scale = (int) readVarLong();
+        final int valueScale = (int) readZigZag();
+        final BigDecimal value = new BigDecimal(new BigInteger(readBytes()), valueScale);
+        return DecimalColumn.valueOf(value, precision, scale);
+      }
+      case BinlogEventCodec.DOUBLE:
+        return DoubleColumn.valueOf(Double.longBitsToDouble(readFixed(8)));
+      case BinlogEventCodec.ENUM:
+        return EnumColumn.valueOf((int) readVarLong());
+      case BinlogEventCodec.FLOAT:
+        return FloatColumn.valueOf(Float.intBitsToFloat((int) readFixed(4)));
+      case BinlogEventCodec.INT24:
+        return Int24Column.valueOf((int) readZigZag());
+      case BinlogEventCodec.LONG:
+        return LongColumn.valueOf((int) readZigZag());
+      case BinlogEventCodec.LONGLONG:
+        return LongLongColumn.valueOf(readZigZag());
+      case BinlogEventCodec.NULL:
+        return NullColumn.valueOf((int) readVarLong());
+      case BinlogEventCodec.SET:
+        return SetColumn.valueOf(readVarLong());
+      case BinlogEventCodec.SHORT:
+        return ShortColumn.valueOf((int) readZigZag());
+      case BinlogEventCodec.STRING:
+        return StringColumn.valueOf(readBytes());
+      case BinlogEventCodec.TIME:
+        return TimeColumn.valueOf(new java.sql.Time(readZigZag()));
+      case BinlogEventCodec.TIME2:
+        return Time2Column.valueOf(new java.sql.Time(readZigZag()));
+      case BinlogEventCodec.TIMESTAMP:
+        return TimestampColumn.valueOf(readTimestamp());
+      case BinlogEventCodec.TIMESTAMP2:
+        return Timestamp2Column.valueOf(readTimestamp());
+      case BinlogEventCodec.TINY:
+        return TinyColumn.valueOf((int) readZigZag());
+      case BinlogEventCodec.YEAR:
+        return YearColumn.valueOf((int) readVarLong());
+      default:
+        throw new IllegalArgumentException("unsupported column tag: " + tag);
+    }
+  }
+
+  /**
+	 * 
+	 */
+  private Timestamp readTimestamp() {
+    final Timestamp r = new Timestamp(readZigZag());
+    r.setNanos((int) readVarLong());
+    return r;
+  }
+
+  private BitColumn readBit() {
+    final long length = readVarLong();
+    if (length == 0) return null;
+    return BitColumn.valueOf((int) (length - 1), readBytes());
+  }
+
+  private UnsignedLong readUnsignedLong() {
+    return readByte() == 0 ? null : UnsignedLong.valueOf(readVarLong());
+  }
+
+  private StringColumn readString() {
+    final byte[] value = readBytes();
+    return value == null ? null : StringColumn.valueOf(value);
+  }
+
+  private String readUtf8() {
+    final byte[] value = readBytes();
+    return value == null ? null : new String(value, BinlogEventCodec.CHARSET);
+  }
+
+  private static int length(StringColumn value) {
+    return value == null ? 0 : value.getValue().length;
+  }
+
+  private byte[] readBytes() {
+    final long length = readVarLong();
+    if (length == 0) return null;
+    if (length - 1 > this.limit - this.offset) throw new IllegalArgumentException("truncated");
+    final byte[] r = new byte[(int) (length - 1)];
+    System.arraycopy(this.data, this.offset, r, 0, r.length);
+    this.offset += r.length;
+    return r;
+  }
+
+  /**
+   * Reads the number of elements that follow, each takes at least a byte.
+   */
+  private int readCount() {
+    final long r = readVarLong();
+    if (r < 0 || r > this.limit - this.offset) throw new IllegalArgumentException("truncated");
+    return (int) r;
+  }
+
+  private long readZigZag() {
+    final long value = readVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private long readVarLong() {
+    long r = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = readByte();
+      r |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return r;
+    }
+    throw new IllegalArgumentException("malformed varint");
+  }
+
+  private long readFixed(int length) {
+    long r = 0;
+    for (int i = 0; i < length; i++) r |= (long) readByte() << (i << 3);
+    return r;
+  }
+
+  private int readByte() {
+    if (this.offset >= this.limit) throw new IllegalArgumentException("truncated");
+    return this.data[this.offset++] & 0xFF;
+  }
+}
@@ -0,0 +1,429 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogEventV4Header;
+import com.google.code.or.binlog.impl.event.DeleteRowsEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEventV2;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Pair;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.BlobColumn;
+import com.google.code.or.common.glossary.column.DateColumn;
+import com.google.code.or.common.glossary.column.Datetime2Column;
+import com.google.code.or.common.glossary.column.DatetimeColumn;
+import com.google.code.or.common.glossary.column.DecimalColumn;
+import com.google.code.or.common.glossary.column.DoubleColumn;
+import com.google.code.or.common.glossary.column.EnumColumn;
+import com.google.code.or.common.glossary.column.FloatColumn;
+import com.google.code.or.common.glossary.column.Int24Column;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.LongLongColumn;
+import com.google.code.or.common.glossary.column.NullColumn;
+import com.google.code.or.common.glossary.column.SetColumn;
+import com.google.code.or.common.glossary.column.ShortColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.glossary.column.Time2Column;
+import com.google.code.or.common.glossary.column.TimeColumn;
+import com.google.code.or.common.glossary.column.Timestamp2Column;
+import com.google.code.or.common.glossary.column.TimestampColumn;
+import com.google.code.or.common.glossary.column.TinyColumn;
+import com.google.code.or.common.glossary.column.YearColumn;
+
+/**
+ * Encodes decoded events into the format of {@link BinlogEventCodec}. The status variables of
+ * query events are not encoded. An encoder is meant to be reused for all events of a stream, its
+ * buffer grows to the largest event. Not thread safe.
+ */
+public class BinlogEventEncoder {
+  //
+  private byte[] buffer = new byte[4 * 1024];
+  private int length;
+  private final Map<Long, String[]> tables = new HashMap<Long, String[]>(); // Sent table names
+
+  /**
+   * Forgets the table names sent so far, e.g. for a new stream.
+   */
+  public void reset() {
+    this.tables.clear();
+  }
+
+  /**
+	 * 
+	 */
+  public byte[] encode(BinlogEventV4 event) {
+    doEncode(event);
+    return Arrays.copyOf(this.buffer, this.length);
+  }
+
+  /**
+   * Writes the encoded event to the stream, without any framing.
+   */
+  public void encode(BinlogEventV4 event, OutputStream os) throws IOException {
+    doEncode(event);
+    os.write(this.buffer, 0, this.length);
+  }
+
+  /**
+	 * 
+	 */
+  protected void doEncode(BinlogEventV4 event) {
+    //
+    this.length = 0;
+    writeByte(BinlogEventCodec.VERSION);
+    if (event instanceof TableMapEvent) {
+      writeByte(BinlogEventCodec.TABLE_MAP);
+      writeHeader(event.getHeader());
+      writeTableMap((TableMapEvent) event);
+    } else if (event instanceof WriteRowsEvent) {
+      final WriteRowsEvent e = (WriteRowsEvent) event;
+      writeByte(BinlogEventCodec.WRITE_ROWS);
+      writeHeader(e.getHeader());
+      writeTable(e.getTableId(), e.getDatabaseName(), e.getTableName());
+      writeVarLong(e.getReserved());
+      writeUnsignedLong(e.getColumnCount());
+      writeBit(e.getUsedColumns());
+      writeRows(e.getRows());
+    } else if (event instanceof UpdateRowsEvent) {
+      final UpdateRowsEvent e = (UpdateRowsEvent) event;
+      writeByte(BinlogEventCodec.UPDATE_ROWS);
+      writeHeader(e.getHeader());
+      writeTable(e.getTableId(), e.getDatabaseName(), e.getTableName());
+      writeVarLong(e.getReserved());
+      writeUnsignedLong(e.getColumnCount());
+      writeBit(e.getUsedColumnsBefore());
+      writeBit(e.getUsedColumnsAfter());
+      writePairs(e.getRows());
+    } else if (event instanceof DeleteRowsEvent) {
+      final DeleteRowsEvent e = (DeleteRowsEvent) event;
+      writeByte(BinlogEventCodec.DELETE_ROWS);
+      writeHeader(e.getHeader());
+      writeTable(e.getTableId(), e.getDatabaseName(), e.getTableName());
+      writeVarLong(e.getReserved());
+      writeUnsignedLong(e.getColumnCount());
+      writeBit(e.getUsedColumns());
+      writeRows(e.getRows());
+    } else if (event instanceof WriteRowsEventV2) {
+      final WriteRowsEventV2 e = (WriteRowsEventV2) event;
+      writeByte(BinlogEventCodec.WRITE_ROWS_V2);
+      writeHeader(e.getHeader());
+      writeTable(e.getTableId(), e.getDatabaseName(), e.getTableName());
+      writeVarLong(e.getReserved());
+      writeVarLong(e.getExtraInfoLength());
+      writeBytes(e.getExtraInfo());
+      writeUnsignedLong(e.getColumnCount());
+      writeBit(e.getUsedColumns());
+      writeRows(e.getRows());
+    } else if (event instanceof UpdateRowsEventV2) {
+      final UpdateRowsEventV2 e = (UpdateRowsEventV2) event;
+      writeByte(BinlogEventCodec.UPDATE_ROWS_V2);
+      writeHeader(e.getHeader());
+      writeTable(e.getTableId(), e.getDatabaseName(), e.getTableName());
+      writeVarLong(e.getReserved());
+      writeVarLong(e.getExtraInfoLength());
+      writeBytes(e.getExtraInfo());
+      writeUnsignedLong(e.getColumnCount());
+      writeBit(e.getUsedColumnsBefore());
+      writeBit(e.getUsedColumnsAfter());
+      writePairs(e.getRows());
+    } else if (event instanceof DeleteRowsEventV2) {
+      final DeleteRowsEventV2 e = (DeleteRowsEventV2) event;
+      writeByte(BinlogEventCodec.DELETE_ROWS_V2);
+      writeHeader(e.getHeader());
+      writeTable(e.getTableId(), e.getDatabaseName(), e.getTableName());
+      writeVarLong(e.getReserved());
+      writeVarLong(e.getExtraInfoLength());
+      writeBytes(e.getExtraInfo());
+      writeUnsignedLong(e.getColumnCount());
+      writeBit(e.getUsedColumns());
+      writeRows(e.getRows());
+    } else if (event instanceof QueryEvent) {
+      final QueryEvent e = (QueryEvent) event;
+      writeByte(BinlogEventCodec.QUERY);
+      writeHeader(e.getHeader());
+      writeVarLong(e.getThreadId());
+      writeVarLong(e.getElapsedTime());
+      writeVarLong(e.getErrorCode());
+      writeString(e.getDatabaseName());
+      writeString(e.getSql());
+    } else if (event instanceof XidEvent) {
+      writeByte(BinlogEventCodec.XID);
+      writeHeader(event.getHeader());
+      writeVarLong(((XidEvent) event).getXid());
+    } else if (event instanceof RotateEvent) {
+      final RotateEvent e = (RotateEvent) event;
+      writeByte(BinlogEventCodec.ROTATE);
+      writeHeader(e.getHeader());
+      writeVarLong(e.getBinlogPosition());
+      writeString(e.getBinlogFileName());
+    } else if (event instanceof GtidEvent) {
+      final GtidEvent e = (GtidEvent) event;
+      writeByte(BinlogEventCodec.GTID);
+      writeHeader(e.getHeader());
+      writeBytes(e.getSourceId());
+      writeVarLong(e.getTransactionId());
+      writeVarLong(e.getLastCommitted());
+      writeVarLong(e.getSequenceNumber());
+      writeVarLong(e.getImmediateCommitTimestamp());
+      writeVarLong(e.getOriginalCommitTimestamp());
+      writeVarLong(e.getTransactionLength());
+    } else {
+      throw new IllegalArgumentException("unsupported event: " + event);
+    }
+  }
+
+  protected void writeHeader(BinlogEventV4Header header) {
+    writeZigZag(header.getTimestamp());
+    writeVarLong(header.getEventType());
+    writeVarLong(header.getServerId());
+    writeVarLong(header.getEventLength());
+    writeVarLong(header.getNextPosition());
+    writeVarLong(header.getFlags());
+    writeZigZag(header.getTimestampOfReceipt());
+  }
+
+  protected void writeTableMap(TableMapEvent event) {
+    //
+    writeVarLong(event.getTableId());
+    writeVarLong(event.getReserved());
+    writeString(event.getDatabaseName());
+    writeString(event.getTableName());
+    writeUnsignedLong(event.getColumnCount());
+    writeBytes(event.getColumnTypes());
+    writeUnsignedLong(event.getColumnMetadataCount());
+    final byte[] types = event.getColumnTypes();
+    if (event.getColumnMetadata() == null || types == null) {
+      writeByte(0);
+    } else {
+      writeByte(1);
+      for (int i = 0; i < types.length; i++) writeVarLong(event.getColumnMetadata().getMetadata(i));
+    }
+    writeBit(event.getColumnNullabilities());
+    writeBytes(event.getOptionalMetadata() == null ? null : event.getOptionalMetadata().getData());
+
+    // Row events of the table refer to these names
+    final String databaseName = String.valueOf(event.getDatabaseName());
+    final String tableName = String.valueOf(event.getTableName());
+    this.tables.put(event.getTableId(), new String[] {databaseName, tableName});
+  }
+
+  /**
+   * Writes the table id, followed by the names unless they were sent already.
+   */
+  protected void writeTable(long tableId, String databaseName, String tableName) {
+    writeVarLong(tableId);
+    final String[] names = this.tables.get(tableId);
+    if (names != null && equals(names[0], databaseName) && equals(names[1], tableName)) {
+      writeByte(0);
+    } else {
+      writeByte(1);
+      writeString(databaseName);
+      writeString(tableName);
+      this.tables.put(tableId, new String[] {databaseName, tableName});
+    }
+  }
+
+  protected void writeRows(List<Row> rows) {
+    writeVarLong(rows.size());
+    for (Row row : rows) writeRow(row);
+  }
+
+  protected void writePairs(List<Pair<Row>> rows) {
+    writeVarLong(rows.size());
+    for (Pair<Row> pair : rows) {
+      writeRow(pair.getBefore());
+      writeRow(pair.getAfter());
+    }
+  }
+
+  protected void writeRow(Row row) {
+    final List<Column> columns = row.getColumns();
+    writeVarLong(columns.size());
+    for (Column column : columns) writeColumn(column);
+  }
+
+  protected void writeColumn(Column column) {
+    if (column == null) {
+      writeByte(0);
+    } else if (column instanceof BitColumn) {
+      writeByte(BinlogEventCodec.BIT);
+      writeBit((BitColumn) column);
+    } else if (column instanceof BlobColumn) {
+      writeByte(BinlogEventCodec.BLOB);
+      writeBytes(((BlobColumn) column).getValue());
+    } else if (column instanceof DateColumn) {
+      writeByte(BinlogEventCodec.DATE);
+      writeZigZag(((DateColumn) column).getValue().getTime());
+    } else if (column instanceof DatetimeColumn) {
+      writeByte(BinlogEventCodec.DATETIME);
+      writeZigZag(((DatetimeColumn) column).getValue().getTime());
+    } else if (column instanceof Datetime2Column) {
+      writeByte(BinlogEventCodec.DATETIME2);
+      writeZigZag(((Datetime2Column) column).getValue().getTime());
+    } else if (column instanceof DecimalColumn) {
+      final DecimalColumn c = (DecimalColumn) column;
+      final BigDecimal value = c.getValue();
+      writeByte(BinlogEventCodec.DECIMAL);
+      writeVarLong(c.getPrecision());
+      writeVarLong(c.getScale());
+      writeZigZag(value.scale());
+      writeBytes(value.unscaledValue().toByteArray());
+    } else if (column instanceof DoubleColumn) {
+      writeByte(BinlogEventCodec.DOUBLE);
+      writeFixed(Double.doubleToRawLongBits(((DoubleColumn) column).getValue()), 8);
+    } else if (column instanceof EnumColumn) {
+      writeByte(BinlogEventCodec.ENUM);
+      writeVarLong(((EnumColumn) column).getValue());
+    } else if (column instanceof FloatColumn) {
+      writeByte(BinlogEventCodec.FLOAT);
+      writeFixed(Float.floatToRawIntBits(((FloatColumn) column).getValue()), 4);
+    } else if (column instanceof Int24Column) {
+      writeByte(BinlogEventCodec.INT24);
+      writeZigZag(((Int24Column) column).getValue());
+    } else if (column instanceof LongColumn) {
+      writeByte(BinlogEventCodec.LONG);
+      writeZigZag(((LongColumn) column).getValue());
+    } else if (column instanceof LongLongColumn) {
+      writeByte(BinlogEventCodec.LONGLONG);
+      writeZigZag(((LongLongColumn) column).getValue());
+    } else if (column instanceof NullColumn) {
+      writeByte(BinlogEventCodec.NULL);
+      writeVarLong(((NullColumn) column).getType());
+    } else if (column instanceof SetColumn) {
+      writeByte(BinlogEventCodec.SET);
+      writeVarLong(((SetColumn) column).getValue());
+    } else if (column instanceof ShortColumn) {
+      writeByte(BinlogEventCodec.SHORT);
+      writeZigZag(((ShortColumn) column).getValue());
+    } else if (column instanceof StringColumn) {
+      writeByte(BinlogEventCodec.STRING);
+      writeBytes(((StringColumn) column).getValue());
+    } else if (column instanceof TimeColumn) {
+      writeByte(BinlogEventCodec.TIME);
+      writeZigZag(((TimeColumn) column).getValue().getTime());
+    } else if (column instanceof Time2Column) {
+      writeByte(BinlogEventCodec.TIME2);
+      writeZigZag(((Time2Column) column).getValue().getTime());
+    } else if (column instanceof TimestampColumn) {
+      writeByte(BinlogEventCodec.TIMESTAMP);
+      writeZigZag(((TimestampColumn) column).getValue().getTime());
+      writeVarLong(((TimestampColumn) column).getValue().getNanos());
+    } else if (column instanceof Timestamp2Column) {
+      writeByte(BinlogEventCodec.TIMESTAMP2);
+      writeZigZag(((Timestamp2Column) column).getValue().getTime());
+      writeVarLong(((Timestamp2Column) column).getValue().getNanos());
+    } else if (column instanceof TinyColumn) {
+      writeByte(BinlogEventCodec.TINY);
+      writeZigZag(((TinyColumn) column).getValue());
+    } else if (column instanceof YearColumn) {
+      writeByte(BinlogEventCodec.YEAR);
+      writeVarLong(((YearColumn) column).getValue());
+    } else {
+      throw new IllegalArgumentException("unsupported column: " + column.getClass().getName());
+    }
+  }
+
+  /**
+	 * 
+	 */
+  private void writeBit(BitColumn column) {
+    if (column == null) {
+      writeVarLong(0);
+    } else {
+      writeVarLong(column.getLength() + 1L);
+      writeBytes(column.getValue());
+    }
+  }
+
+  private void writeUnsignedLong(UnsignedLong value) {
+    writeByte(value == null ? 0 : 1);
+    if (value != null) writeVarLong(value.longValue());
+  }
+
+  private void writeString(StringColumn value) {
+    writeBytes(value == null ? null : value.getValue());
+  }
+
+  private void writeString(String value) {
+    writeBytes(value == null ? null : value.getBytes(BinlogEventCodec.CHARSET));
+  }
+
+  /**
+   * Writes the length plus one, 0 for null, followed by the bytes.
+   */
+  private void writeBytes(byte[] value) {
+    if (value == null) {
+      writeVarLong(0);
+    } else {
+      writeVarLong(value.length + 1L);
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, this.buffer, this.length, value.length);
+      this.length += value.length;
+    }
+  }
+
+  private void writeZigZag(long value) {
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  private void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      this.buffer[this.length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    this.buffer[this.length++] = (byte) value;
+  }
+
+  private void writeFixed(long value, int length) {
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) this.buffer[this.length++] = (byte) (value >>> (i << 3));
+  }
+
+  private void writeByte(int value) {
+    ensureCapacity(1);
+    this.buffer[this.length++] = (byte) value;
+  }
+
+  private void ensureCapacity(int n) {
+    if (this.length + n > this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.length + n));
+    }
+  }
+
+  private static boolean equals(String lhs, String rhs) {
+    return lhs == null ? rhs == null : lhs.equals(rhs);
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.columnar;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The values of one column of a segment, see {@link ColumnarRowSink} for their encoding. Vectors
+ * are cleared rather than dropped after a flush, so they keep their capacity.
+ */
+public abstract class ColumnVector {
+  //
+  public static final int NULL = 0; // All values are null
+  public static final int LONG = 1;
+  public static final int DOUBLE = 2;
+  public static final int BYTES = 3;
+  public static final int TIMESTAMP = 4; // Milliseconds since the epoch
+  public static final int UNSIGNED_LONG = 5; // The bits of an unsigned BIGINT, encoded like LONG
+
+  //
+  protected final BitSet nulls = new BitSet();
+  protected int size; // Including nulls
+
+  /**
+	 * 
+	 */
+  public abstract int getKind();
+
+  public abstract int getEstimatedBytes();
+
+  protected abstract void encodeValues(ColumnarOutput out);
+
+  protected abstract void clearValues();
+
+  /**
+	 * 
+	 */
+  public int getSize() {
+    return size;
+  }
+
+  public boolean isNull(int index) {
+    return this.nulls.get(index);
+  }
+
+  public void addNull() {
+    this.nulls.set(this.size++);
+  }
+
+  public void addNulls(int count) {
+    this.nulls.set(this.size, this.size + count);
+    this.size += count;
+  }
+
+  public void clear() {
+    this.nulls.clear();
+    this.size = 0;
+    clearValues();
+  }
+
+  /**
+   * Writes the null bitmap, one bit per value with the lowest bit first, then the values.
+   */
+  public void encode(ColumnarOutput out) {
+    for (int i = 0; i < this.size; i += 8) {
+      int b = 0;
+      for (int j = 0; j < 8 && i + j < this.size; j++) {
+        if (this.nulls.get(i + j)) b |= 1 << j;
+      }
+      out.writeByte(b);
+    }
+    encodeValues(out);
+  }
+
+  /**
+   * Integers or timestamps, encoded as zigzag varints of the difference to the previous value,
+   * which wraps around for {@link #UNSIGNED_LONG}.
+   */
+  public static final class LongVector extends ColumnVector {
+    //
+    private final int kind;
+    private long[] values = new long[1024];
+    private int count;
+
+    public LongVector(int kind) {
+      this.kind = kind;
+    }
+
+    public int getKind() {
+      return kind;
+    }
+
+    public int getEstimatedBytes() {
+      return this.count * 3 + (this.size >> 3);
+    }
+
+    public void add(long value) {
+      if (this.count == this.values.length) this.values = Arrays.copyOf(this.values, count << 1);
+      this.values[this.count++] = value;
+      this.size++;
+    }
+
+    protected void encodeValues(ColumnarOutput out) {
+      long previous = 0;
+      for (int i = 0; i < this.count; i++) {
+        out.writeZigZag(this.values[i] - previous);
+        previous = this.values[i];
+      }
+    }
+
+    protected void clearValues() {
+      this.count = 0;
+    }
+  }
+
+  /**
+   * Floating point numbers, encoded as 8 bytes each, little-endian.
+   */
+  public static final class DoubleVector extends ColumnVector {
+    //
+    private double[] values = new double[1024];
+    private int count;
+
+    public int getKind() {
+      return DOUBLE;
+    }
+
+    public int getEstimatedBytes() {
+      return this.count * 8 + (this.size >> 3);
+    }
+
+    public void add(double value) {
+      if (this.count == this.values.length) this.values = Arrays.copyOf(this.values, count << 1);
+      this.values[this.count++] = value;
+      this.size++;
+    }
+
+    protected void encodeValues(ColumnarOutput out) {
+      for (int i = 0; i < this.count; i++) out.writeLong(Double.doubleToRawLongBits(values[i]));
+    }
+
+    protected void clearValues() {
+      this.count = 0;
+    }
+  }
+
+  /**
+   * Strings and other byte arrays, dictionary encoded: the number of distinct values and each of
+   * them as a varint length and the bytes, followed by a varint dictionary index per value.
+   */
+  public static final class BytesVector extends ColumnVector {
+    //
+    private byte[] arena = new byte[16 * 1024]; // Distinct values
+    private int arenaLength;
+    private int[] offsets = new int[256];
+    private int[] lengths = new int[256];
+    private int[] hashes = new int[256];
+    private int entries;
+    private int[] table = new int[512]; // Open addressing, entry index + 1
+    private int[] codes = new int[1024];
+    private int count;
+
+    public int getKind() {
+      return BYTES;
+    }
+
+    public int getEstimatedBytes() {
+      return this.arenaLength + this.entries * 2 + this.count * 2 + (this.size >> 3);
+    }
+
+    public void add(byte[] value) {
+      if (this.count == this.codes.length) this.codes = Arrays.copyOf(this.codes, count << 1);
+      this.codes[this.count++] = lookup(value);
+      this.size++;
+    }
+
+    protected void encodeValues(ColumnarOutput out) {
+      out.writeVarLong(this.entries);
+      for (int i = 0; i < this.entries; i++) {
+        out.writeBytes(this.arena, this.offsets[i], this.lengths[i]);
+      }
+      for (int i = 0; i < this.count; i++) out.writeVarLong(this.codes[i]);
+    }
+
+    protected void clearValues() {
+      Arrays.fill(this.table, 0);
+      this.arenaLength = 0;
+      this.entries = 0;
+      this.count = 0;
+    }
+
+    /**
+		 * 
+		 */
+    private int lookup(byte[] value) {
+      //
+      final int hash = Arrays.hashCode(value);
+      final int mask = this.table.length - 1;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      for (int e = this.table[slot]; e != 0; e = this.table[slot]) {
+        if (this.hashes[e - 1] == hash && equals(e - 1, value)) return e - 1;
+        slot = (slot + 1) & mask;
+      }
+
+      //
+      final int r = this.entries++;
+      if (r == this.offsets.length) {
+        this.offsets = Arrays.copyOf(this.offsets, r << 1);
+        this.lengths = Arrays.copyOf(this.lengths, r << 1);
+        this.hashes = Arrays.copyOf(this.hashes, r << 1);
+      }
+      if (this.arenaLength + value.length > this.arena.length) {
+        this.arena =
+            Arrays.copyOf(this.arena, Math.max(arena.length << 1, arenaLength + value.length));
+      }
+      System.arraycopy(value, 0, this.arena, this.arenaLength, value.length);
+      this.offsets[r] = this.arenaLength;
+      this.lengths[r] = value.length;
+      this.hashes[r] = hash;
+      this.arenaLength += value.length;
+      this.table[slot] = r + 1;
+      if (this.entries * 2 > this.table.length) rehash();
+      return r;
+    }
+
+    private boolean equals(int entry, byte[] value) {
+      if (this.lengths[entry] != value.length) return false;
+      final int offset = this.offsets[entry];
+      for (int i = 0; i < value.length; i++) {
+        if (this.arena[offset + i] != value[i]) return false;
+      }
+      return true;
+    }
+
+    private void rehash() {
+      this.table = new int[this.table.length << 1];
+      final int mask = this.table.length - 1;
+      for (int e = 0; e < this.entries; e++) {
+        int slot = (this.hashes[e] ^ (this.hashes[e] >>> 16)) & mask;
+        while (this.table[slot] != 0) slot = (slot + 1) & mask;
+        this.table[slot] = e + 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.columnar;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer for encoding segments, reused across flushes.
+ */
+final class ColumnarOutput {
+  //
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  //
+  private byte[] buffer = new byte[64 * 1024];
+  private int length;
+
+  /**
+	 * 
+	 */
+  public void reset() {
+    this.length = 0;
+  }
+
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+	 * 
+	 */
+  public void writeByte(int value) {
+    ensureCapacity(1);
+    this.buffer[this.length++] = (byte) value;
+  }
+
+  public void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      this.buffer[this.length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    this.buffer[this.length++] = (byte) value;
+  }
+
+  public void writeZigZag(long value) {
+    writeVarLong((value << 1) ^ (value >> 63));
+  }
+
+  public void writeLong(long value) {
+    ensureCapacity(8);
+    for (int i = 0; i < 8; i++) this.buffer[this.length++] = (byte) (value >>> (i << 3));
+  }
+
+  public void writeBytes(byte[] value, int offset, int length) {
+    writeVarLong(length);
+    ensureCapacity(length);
+    System.arraycopy(value, offset, this.buffer, this.length, length);
+    this.length += length;
+  }
+
+  public void writeString(String value) {
+    final byte[] bytes = value.getBytes(UTF_8);
+    writeBytes(bytes, 0, bytes.length);
+  }
+
+  private void ensureCapacity(int n) {
+    if (this.length + n > this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.length + n));
+    }
+  }
+}
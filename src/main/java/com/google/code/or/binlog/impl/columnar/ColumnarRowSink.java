@@ -0,0 +1,569 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.columnar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEventV2;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.columnar.ColumnVector.BytesVector;
+import com.google.code.or.binlog.impl.columnar.ColumnVector.DoubleVector;
+import com.google.code.or.binlog.impl.columnar.ColumnVector.LongVector;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Pair;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.BlobColumn;
+import com.google.code.or.common.glossary.column.DateColumn;
+import com.google.code.or.common.glossary.column.Datetime2Column;
+import com.google.code.or.common.glossary.column.DatetimeColumn;
+import com.google.code.or.common.glossary.column.DecimalColumn;
+import com.google.code.or.common.glossary.column.DoubleColumn;
+import com.google.code.or.common.glossary.column.EnumColumn;
+import com.google.code.or.common.glossary.column.FloatColumn;
+import com.google.code.or.common.glossary.column.Int24Column;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.LongLongColumn;
+import com.google.code.or.common.glossary.column.NullColumn;
+import com.google.code.or.common.glossary.column.SetColumn;
+import com.google.code.or.common.glossary.column.ShortColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.glossary.column.Time2Column;
+import com.google.code.or.common.glossary.column.TimeColumn;
+import com.google.code.or.common.glossary.column.Timestamp2Column;
+import com.google.code.or.common.glossary.column.TimestampColumn;
+import com.google.code.or.common.glossary.column.TinyColumn;
+import com.google.code.or.common.glossary.column.YearColumn;
+
+/**
+ * An event listener that accumulates the row changes of every table in column vectors and writes
+ * them as a columnar segment file once the table has buffered maxRows rows, about maxBytes bytes,
+ * or rows older than flushInterval milliseconds. The thresholds are checked as events arrive, so
+ * on a quiet master old rows wait for the next event, e.g. a heartbeat if those are notified,
+ * unless {@link #flushExpired()} is called periodically. The vectors and buffers are kept across
+ * flushes, so that steady state allocates little beyond the decoded events themselves. If a
+ * segment cannot be written while events arrive, {@link #onEvents(BinlogEventV4)} throws a
+ * RuntimeException, which stops the parser before the end of the transaction, and the rows stay
+ * buffered for the next flush; once the events are replayed, rows of the failed transaction may
+ * be written twice.
+ * <p>
+ * Inserts and updates are recorded with the after image, deletes with the before image. Every
+ * segment holds a single table and is named database.table.sequence.seg, with sequences ascending.
+ * Its layout, all varints unsigned LEB128 and zigzag for signed values:
+ * 
+ * <pre>
+ * segment = magic "ORCS", version (4 bytes, big-endian), uncompressed length (4 bytes, big-endian),
+ *           body compressed with java.util.zip.Deflater (zlib)
+ * body    = database, table, row count (varint), column count (varint), column*
+ * column  = name, kind (1 byte), null bitmap (a bit per row, lowest bit first), values
+ * string  = length (varint), UTF-8 bytes
+ * </pre>
+ * 
+ * The first three columns are _op (0 insert, 1 update, 2 delete), _timestamp and _position, the
+ * timestamp and next position of the event, followed by the columns of the table, named after the
+ * optional metadata of the table map event or @1, @2 and so on. The values of a column are those
+ * of the rows not marked null, encoded as given by its kind, see {@link ColumnVector}. Integer
+ * columns the optional metadata of the table map event marks unsigned are written unsigned, BIGINT
+ * ones as {@link ColumnVector#UNSIGNED_LONG}. A column that is null in every row has kind
+ * {@link ColumnVector#NULL}, no null bitmap and no values. If the type of a column changes, the
+ * rows buffered so far are flushed first.
+ */
+public class ColumnarRowSink implements BinlogEventListener {
+  //
+  public static final int MAGIC = 0x4F524353; // ORCS
+  public static final int VERSION = 1;
+  public static final int INSERT = 0;
+  public static final int UPDATE = 1;
+  public static final int DELETE = 2;
+
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(ColumnarRowSink.class);
+
+  //
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String[] META = new String[] {"_op", "_timestamp", "_position"};
+
+  //
+  protected final File directory;
+  protected int maxRows = 64 * 1024;
+  protected int maxBytes = 16 * 1024 * 1024;
+  protected long flushInterval = 60000;
+  protected int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+  //
+  private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+  private final Map<Long, TableMapEvent> tableMaps = new HashMap<Long, TableMapEvent>();
+  private final Map<String, TableBuffer> tables = new HashMap<String, TableBuffer>();
+  private final ColumnarOutput output = new ColumnarOutput();
+  private final byte[] chunk = new byte[64 * 1024];
+  private Deflater deflater;
+  private long lastCheck;
+
+  /**
+	 * 
+	 */
+  public ColumnarRowSink(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+	 * 
+	 */
+  public File getDirectory() {
+    return directory;
+  }
+
+  public int getMaxRows() {
+    return maxRows;
+  }
+
+  public void setMaxRows(int maxRows) {
+    this.maxRows = maxRows;
+  }
+
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * The estimated encoded size of the buffered rows of a table, before compression.
+   */
+  public void setMaxBytes(int maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  public void setCompressionLevel(int level) {
+    this.compressionLevel = level;
+  }
+
+  /**
+	 * 
+	 */
+  public synchronized void onEvents(BinlogEventV4 event) {
+    //
+    if (event instanceof TableMapEvent) {
+      final TableMapEvent tme = (TableMapEvent) event;
+      this.tableMaps.put(tme.getTableId(), tme);
+    } else if (event instanceof AbstractRowEvent) {
+      append((AbstractRowEvent) event);
+    }
+
+    //
+    final long now = System.currentTimeMillis();
+    if (now - this.lastCheck >= 1000) {
+      this.lastCheck = now;
+      flushExpired();
+    }
+  }
+
+  /**
+   * Writes the buffered rows of the tables whose oldest row is older than the flush interval.
+   * 
+   * @throws RuntimeException if a segment cannot be written, the rows stay buffered
+   */
+  public synchronized void flushExpired() {
+    final long now = System.currentTimeMillis();
+    for (TableBuffer table : this.tables.values()) {
+      if (table.rows > 0 && now - table.since >= this.flushInterval) flushOrFail(table);
+    }
+  }
+
+  /**
+   * Writes the buffered rows of all tables.
+   */
+  public synchronized void flush() throws IOException {
+    for (TableBuffer table : this.tables.values()) {
+      if (table.rows > 0) flush(table);
+    }
+  }
+
+  public synchronized void close() throws IOException {
+    flush();
+    if (this.deflater != null) {
+      this.deflater.end();
+      this.deflater = null;
+    }
+  }
+
+  /**
+	 * 
+	 */
+  protected void append(AbstractRowEvent event) {
+    final TableBuffer table = getTable(event);
+    if (event instanceof WriteRowsEvent) {
+      final WriteRowsEvent w = (WriteRowsEvent) event;
+      appendRows(table, event, INSERT, w.getRows(), w.getUsedColumns());
+    } else if (event instanceof WriteRowsEventV2) {
+      final WriteRowsEventV2 w = (WriteRowsEventV2) event;
+      appendRows(table, event, INSERT, w.getRows(), w.getUsedColumns());
+    } else if (event instanceof DeleteRowsEvent) {
+      final DeleteRowsEvent d = (DeleteRowsEvent) event;
+      appendRows(table, event, DELETE, d.getRows(), d.getUsedColumns());
+    } else if (event instanceof DeleteRowsEventV2) {
+      final DeleteRowsEventV2 d = (DeleteRowsEventV2) event;
+      appendRows(table, event, DELETE, d.getRows(), d.getUsedColumns());
+    } else if (event instanceof UpdateRowsEvent) {
+      final UpdateRowsEvent u = (UpdateRowsEvent) event;
+      appendPairs(table, event, u.getRows(), u.getUsedColumnsAfter());
+    } else if (event instanceof UpdateRowsEventV2) {
+      final UpdateRowsEventV2 u = (UpdateRowsEventV2) event;
+      appendPairs(table, event, u.getRows(), u.getUsedColumnsAfter());
+    }
+  }
+
+  protected TableBuffer getTable(AbstractRowEvent event) {
+    final String databaseName = String.valueOf(event.getDatabaseName());
+    final String tableName = String.valueOf(event.getTableName());
+    final String key = databaseName + "." + tableName;
+    TableBuffer r = this.tables.get(key);
+    if (r == null) {
+      r = new TableBuffer(databaseName, tableName);
+      this.tables.put(key, r);
+    }
+    final TableMapEvent tme = this.tableMaps.get(event.getTableId());
+    if (tme != null && tme.getOptionalMetadata() != null) {
+      r.columnNames = tme.getOptionalMetadata().getColumnNames();
+      r.unsigned = tme.getOptionalMetadata().getUnsigned(tme.getColumnTypes());
+    }
+    return r;
+  }
+
+  private void appendRows(TableBuffer table, AbstractRowEvent event, int op, List<Row> rows,
+      BitColumn used) {
+    for (Row row : rows) appendRow(table, event, op, row, used);
+  }
+
+  private void appendPairs(TableBuffer table, AbstractRowEvent event, List<Pair<Row>> rows,
+      BitColumn used) {
+    for (Pair<Row> pair : rows) appendRow(table, event, UPDATE, pair.getAfter(), used);
+  }
+
+  /**
+   * The columns of the row are those set in the used columns.
+   */
+  private void appendRow(TableBuffer table, AbstractRowEvent event, int op, Row row,
+      BitColumn used) {
+    //
+    final List<Column> columns = row.getColumns();
+    final int count = used == null ? columns.size() : used.getLength();
+    final Column[] values = table.scratch(count);
+    int index = -1;
+    for (int i = 0; i < columns.size(); i++) {
+      index = nextUsed(used, index + 1);
+      values[index] = columns.get(i);
+    }
+
+    //
+    if (!table.accepts(values, count)) flushOrFail(table);
+    table.append(event, op, values, count);
+    if (table.rows >= this.maxRows || table.getEstimatedBytes() >= this.maxBytes) {
+      flushOrFail(table);
+    }
+  }
+
+  private static int nextUsed(BitColumn used, int index) {
+    if (used == null) return index;
+    while (index < used.getLength() && !used.get(index)) index++;
+    return index;
+  }
+
+  /**
+   * The rows of the table stay buffered if the segment cannot be written.
+   */
+  private void flushOrFail(TableBuffer table) {
+    try {
+      flush(table);
+    } catch (IOException e) {
+      throw new RuntimeException("failed to write columnar segment of " + table.databaseName + "."
+          + table.tableName + ", rows: " + table.rows, e);
+    }
+  }
+
+  protected void flush(TableBuffer table) throws IOException {
+    //
+    final ColumnarOutput out = this.output;
+    out.reset();
+    out.writeString(table.databaseName);
+    out.writeString(table.tableName);
+    out.writeVarLong(table.rows);
+    out.writeVarLong(META.length + table.columns.length);
+    for (int i = 0; i < META.length; i++) encode(out, META[i], table.meta[i]);
+    for (int i = 0; i < table.columns.length; i++) {
+      final String[] names = table.columnNames;
+      encode(out, names != null && i < names.length ? names[i] : "@" + (i + 1), table.columns[i]);
+    }
+
+    //
+    if (this.deflater == null) this.deflater = new Deflater(this.compressionLevel);
+    final String name = table.databaseName + "." + table.tableName + "."
+        + this.sequence.incrementAndGet() + ".seg";
+    final File tmp = new File(this.directory, name + ".tmp");
+    boolean written = false;
+    final FileOutputStream os = new FileOutputStream(tmp);
+    try {
+      final byte[] header = new byte[12];
+      putInt(header, 0, MAGIC);
+      putInt(header, 4, VERSION);
+      putInt(header, 8, out.getLength());
+      os.write(header);
+      this.deflater.setInput(out.getBuffer(), 0, out.getLength());
+      this.deflater.finish();
+      while (!this.deflater.finished()) {
+        final int n = this.deflater.deflate(this.chunk);
+        os.write(this.chunk, 0, n);
+      }
+      os.getFD().sync();
+      os.close();
+      if (!tmp.renameTo(new File(this.directory, name))) {
+        throw new IOException("failed to rename segment: " + tmp);
+      }
+      written = true;
+    } finally {
+      this.deflater.reset();
+      if (!written) {
+        os.close();
+        if (!tmp.delete()) LOGGER.warn("failed to delete segment: {}", tmp);
+      }
+    }
+    table.clear();
+  }
+
+  private static void encode(ColumnarOutput out, String name, ColumnVector vector) {
+    out.writeString(name);
+    if (vector == null) {
+      out.writeByte(ColumnVector.NULL);
+    } else {
+      out.writeByte(vector.getKind());
+      vector.encode(out);
+    }
+  }
+
+  private static void putInt(byte[] b, int offset, int value) {
+    for (int i = 0; i < 4; i++) b[offset + i] = (byte) (value >>> (24 - (i << 3)));
+  }
+
+  /**
+   * Returns the kind of vector the column goes to, or NULL.
+   */
+  protected static int getKind(Column column, boolean unsigned) {
+    if (column == null || column instanceof NullColumn) {
+      return ColumnVector.NULL;
+    } else if (unsigned && column instanceof LongLongColumn) {
+      return ColumnVector.UNSIGNED_LONG;
+    } else if (column instanceof FloatColumn || column instanceof DoubleColumn) {
+      return ColumnVector.DOUBLE;
+    } else if (column instanceof BitColumn) {
+      return ((BitColumn) column).getLength() > 63 ? ColumnVector.BYTES : ColumnVector.LONG;
+    } else if (column instanceof StringColumn || column instanceof BlobColumn
+        || column instanceof DecimalColumn) {
+      return ColumnVector.BYTES;
+    } else if (column instanceof DateColumn || column instanceof DatetimeColumn
+        || column instanceof Datetime2Column || column instanceof TimeColumn
+        || column instanceof Time2Column || column instanceof TimestampColumn
+        || column instanceof Timestamp2Column) {
+      return ColumnVector.TIMESTAMP;
+    } else {
+      return ColumnVector.LONG;
+    }
+  }
+
+  protected static ColumnVector newVector(int kind) {
+    switch (kind) {
+      case ColumnVector.DOUBLE:
+        return new DoubleVector();
+      case ColumnVector.BYTES:
+        return new BytesVector();
+      default:
+        return new LongVector(kind);
+    }
+  }
+
+  /**
+   * Appends a column that is not null to a vector of its kind.
+   */
+  protected static void add(ColumnVector vector, Column column, boolean unsigned) {
+    if (column instanceof TinyColumn) {
+      final int v = ((TinyColumn) column).getValue();
+      ((LongVector) vector).add(unsigned ? v & 0xFF : v);
+    } else if (column instanceof ShortColumn) {
+      final int v = ((ShortColumn) column).getValue();
+      ((LongVector) vector).add(unsigned ? v & 0xFFFF : v);
+    } else if (column instanceof Int24Column) {
+      final int v = ((Int24Column) column).getValue();
+      ((LongVector) vector).add(unsigned ? v & 0xFFFFFF : v);
+    } else if (column instanceof LongColumn) {
+      final int v = ((LongColumn) column).getValue();
+      ((LongVector) vector).add(unsigned ? v & 0xFFFFFFFFL : v);
+    } else if (column instanceof LongLongColumn) {
+      ((LongVector) vector).add(((LongLongColumn) column).getValue());
+    } else if (column instanceof YearColumn) {
+      ((LongVector) vector).add(((YearColumn) column).getValue());
+    } else if (column instanceof EnumColumn) {
+      ((LongVector) vector).add(((EnumColumn) column).getValue());
+    } else if (column instanceof SetColumn) {
+      ((LongVector) vector).add(((SetColumn) column).getValue());
+    } else if (column instanceof FloatColumn) {
+      ((DoubleVector) vector).add(((FloatColumn) column).getValue());
+    } else if (column instanceof DoubleColumn) {
+      ((DoubleVector) vector).add(((DoubleColumn) column).getValue());
+    } else if (column instanceof BitColumn) {
+      final BitColumn bit = (BitColumn) column;
+      if (vector.getKind() == ColumnVector.BYTES) {
+        ((BytesVector) vector).add(bit.getValue());
+      } else {
+        long value = 0;
+        for (int i = bit.getLength() - 1; i >= 0; i--) value = (value << 1) | (bit.get(i) ? 1 : 0);
+        ((LongVector) vector).add(value);
+      }
+    } else if (column instanceof StringColumn) {
+      ((BytesVector) vector).add(((StringColumn) column).getValue());
+    } else if (column instanceof BlobColumn) {
+      ((BytesVector) vector).add(((BlobColumn) column).getValue());
+    } else if (column instanceof DecimalColumn) {
+      final String value = ((DecimalColumn) column).getValue().toPlainString();
+      ((BytesVector) vector).add(value.getBytes(UTF_8));
+    } else {
+      ((LongVector) vector).add(((java.util.Date) column.getValue()).getTime());
+    }
+  }
+
+  /**
+   * The column vectors of a table.
+   */
+  protected static final class TableBuffer {
+    //
+    private final String databaseName;
+    private final String tableName;
+    private final ColumnVector[] meta = new ColumnVector[] {new LongVector(ColumnVector.LONG),
+        new LongVector(ColumnVector.TIMESTAMP), new LongVector(ColumnVector.LONG)};
+    private ColumnVector[] columns = new ColumnVector[0]; // Null until a value is not null
+    private Column[] values = new Column[0];
+    private String[] columnNames;
+    private boolean[] unsigned; // Null unless known
+    private int rows;
+    private long since; // Of the oldest row
+
+    /**
+		 * 
+		 */
+    public TableBuffer(String databaseName, String tableName) {
+      this.databaseName = databaseName;
+      this.tableName = tableName;
+    }
+
+    /**
+		 * 
+		 */
+    public int getRows() {
+      return rows;
+    }
+
+    public int getEstimatedBytes() {
+      int r = 0;
+      for (ColumnVector vector : this.meta) r += vector.getEstimatedBytes();
+      for (ColumnVector vector : this.columns) if (vector != null) r += vector.getEstimatedBytes();
+      return r;
+    }
+
+    /**
+		 * 
+		 */
+    Column[] scratch(int count) {
+      if (this.values.length < count) this.values = new Column[count];
+      Arrays.fill(this.values, null);
+      return this.values;
+    }
+
+    boolean isUnsigned(int index) {
+      return this.unsigned != null && index < this.unsigned.length && this.unsigned[index];
+    }
+
+    /**
+     * Returns false if a column does not fit the kind of its vector.
+     */
+    boolean accepts(Column[] values, int count) {
+      for (int i = 0; i < count && i < this.columns.length; i++) {
+        final int kind = getKind(values[i], isUnsigned(i));
+        final ColumnVector vector = this.columns[i];
+        if (kind != ColumnVector.NULL && vector != null && vector.getKind() != kind) return false;
+      }
+      return true;
+    }
+
+    void append(AbstractRowEvent event, int op, Column[] values, int count) {
+      //
+      if (this.rows == 0) this.since = System.currentTimeMillis();
+      ((LongVector) this.meta[0]).add(op);
+      ((LongVector) this.meta[1]).add(event.getHeader().getTimestamp());
+      ((LongVector) this.meta[2]).add(event.getHeader().getNextPosition());
+
+      //
+      if (count > this.columns.length) this.columns = Arrays.copyOf(this.columns, count);
+      for (int i = 0; i < this.columns.length; i++) {
+        final Column column = i < count ? values[i] : null;
+        final int kind = getKind(column, isUnsigned(i));
+        ColumnVector vector = this.columns[i];
+        if (kind == ColumnVector.NULL) {
+          if (vector != null) vector.addNull();
+          continue;
+        }
+        if (vector == null || vector.getKind() != kind) { // Changed kinds were flushed
+          vector = this.columns[i] = newVector(kind);
+          vector.addNulls(this.rows);
+        }
+        add(vector, column, isUnsigned(i));
+      }
+      this.rows++;
+    }
+
+    void clear() {
+      for (ColumnVector vector : this.meta) vector.clear();
+      for (ColumnVector vector : this.columns) if (vector != null) vector.clear();
+      this.rows = 0;
+    }
+  }
+}
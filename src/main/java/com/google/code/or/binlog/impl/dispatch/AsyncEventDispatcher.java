@@ -0,0 +1,306 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.BinlogEventBatchListener;
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * Hands events from a parser thread over to a thread of its own that calls the event listener, so a
+ * slow listener does not hold up reading. The events go through a preallocated ring buffer indexed
+ * by two sequences, one written by the parser thread and one by the dispatcher thread. When the
+ * ring is full the parser thread waits, which stops reading from the socket or file rather than
+ * growing the heap. Events available at once are delivered together to a
+ * {@link BinlogEventBatchListener}.
+ * <p>
+ * An exception of the event listener is logged and delivery goes on, unless stopOnListenerFailure
+ * is set. Then neither the failed event nor any later one is called back, so positions do not move
+ * past it. Later events are dropped, and dispatching and draining throw until the dispatcher has
+ * been stopped and started again.
+ * <p>
+ * Only a single parser thread may dispatch at a time.
+ */
+public class AsyncEventDispatcher {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(AsyncEventDispatcher.class);
+
+  //
+  protected final int capacity;
+  protected int maxBatchSize = 256;
+  protected volatile boolean stopOnListenerFailure = false;
+  protected WaitStrategy waitStrategy = new WaitStrategy.Sleeping();
+  protected ThreadFactory threadFactory = new XThreadFactory("binlog-event-dispatcher", true);
+
+  //
+  private final int mask;
+  private final BinlogEventV4[] events;
+  private final String[] binlogFileNames;
+  private final BinlogEventListener[] listeners;
+  private final Callback[] callbacks;
+  private final AtomicLong published = new AtomicLong(-1);
+  private final AtomicLong consumed = new AtomicLong(-1);
+  private long next = -1; // Of the parser thread
+  private volatile Thread worker;
+  private volatile boolean running;
+  private volatile Exception failure;
+
+  /**
+   * Called on the dispatcher thread once the event listener returned from an event.
+   */
+  public interface Callback {
+
+    void onDispatched(BinlogEventV4 event, String binlogFileName);
+  }
+
+  /**
+   * @param capacity the number of events the ring holds, rounded up to a power of 2
+   */
+  public AsyncEventDispatcher(int capacity) {
+    int c = 1;
+    while (c < capacity) c <<= 1;
+    this.capacity = c;
+    this.mask = c - 1;
+    this.events = new BinlogEventV4[c];
+    this.binlogFileNames = new String[c];
+    this.listeners = new BinlogEventListener[c];
+    this.callbacks = new Callback[c];
+  }
+
+  /**
+	 * 
+	 */
+  public synchronized void start() {
+    if (this.running) return;
+    this.running = true;
+    this.failure = null;
+    this.worker = this.threadFactory.newThread(new Task());
+    this.worker.start();
+  }
+
+  /**
+   * Stops after the events in the ring have been delivered.
+   */
+  public void stop() throws InterruptedException {
+    final Thread worker;
+    synchronized (this) {
+      if (!this.running) return;
+      this.running = false;
+      worker = this.worker;
+      this.worker = null;
+    }
+    this.waitStrategy.signal();
+    if (worker != Thread.currentThread()) worker.join();
+  }
+
+  /**
+   * Waits until every event dispatched so far has been delivered.
+   * 
+   * @throws IllegalStateException if the event listener failed
+   */
+  public void drain() throws InterruptedException {
+    if (Thread.currentThread() == this.worker) return; // Called back by the event listener
+    final long target = this.published.get();
+    for (int counter = 0; this.running && this.consumed.get() < target; counter++) {
+      checkFailure();
+      this.waitStrategy.idle(counter);
+    }
+    checkFailure();
+  }
+
+  /**
+	 * 
+	 */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public void setMaxBatchSize(int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public boolean isStopOnListenerFailure() {
+    return stopOnListenerFailure;
+  }
+
+  public void setStopOnListenerFailure(boolean stopOnListenerFailure) {
+    this.stopOnListenerFailure = stopOnListenerFailure;
+  }
+
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    this.waitStrategy = waitStrategy;
+  }
+
+  public ThreadFactory getThreadFactory() {
+    return threadFactory;
+  }
+
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  /**
+   * Returns the number of events waiting to be delivered.
+   */
+  public int size() {
+    return (int) (this.published.get() - this.consumed.get());
+  }
+
+  /**
+   * The exception of the event listener, or null.
+   */
+  public Exception getFailure() {
+    return failure;
+  }
+
+  /**
+   * Blocks while the ring is full, throws IllegalStateException once the dispatcher is stopped or
+   * the event listener failed.
+   */
+  public void dispatch(BinlogEventListener listener, BinlogEventV4 event, String binlogFileName,
+      Callback callback) throws InterruptedException {
+    //
+    if (!this.running) throw new IllegalStateException("event dispatcher is not running");
+    checkFailure();
+    final long sequence = this.next + 1;
+    for (int counter = 0; sequence - this.consumed.get() > this.capacity; counter++) {
+      if (!this.running) throw new IllegalStateException("event dispatcher is not running");
+      this.waitStrategy.idle(counter);
+    }
+
+    //
+    final int index = (int) (sequence & this.mask);
+    this.events[index] = event;
+    this.binlogFileNames[index] = binlogFileName;
+    this.listeners[index] = listener;
+    this.callbacks[index] = callback;
+    this.next = sequence;
+    this.published.lazySet(sequence);
+    this.waitStrategy.signal();
+  }
+
+  /**
+   * Returns the number of events delivered before the event listener failed, if it did.
+   */
+  protected int deliver(BinlogEventListener listener, List<BinlogEventV4> batch) {
+    try {
+      if (listener instanceof BinlogEventBatchListener) {
+        ((BinlogEventBatchListener) listener).onEvents(batch);
+        return batch.size();
+      }
+    } catch (Exception e) {
+      LOGGER.error("failed to notify binlog event listener, events: " + batch.size(), e);
+      if (!this.stopOnListenerFailure) return batch.size();
+      this.failure = e;
+      return 0;
+    }
+
+    //
+    for (int i = 0; i < batch.size(); i++) {
+      try {
+        listener.onEvents(batch.get(i));
+      } catch (Exception e) {
+        LOGGER.error("failed to notify binlog event listener, event: " + batch.get(i), e);
+        if (!this.stopOnListenerFailure) continue;
+        this.failure = e;
+        return i;
+      }
+    }
+    return batch.size();
+  }
+
+  private void checkFailure() {
+    final Exception failure = this.failure;
+    if (failure != null) throw new IllegalStateException("event listener failed", failure);
+  }
+
+  /**
+	 * 
+	 */
+  private class Task implements Runnable {
+
+    public void run() {
+      final List<BinlogEventV4> batch = new ArrayList<BinlogEventV4>(maxBatchSize);
+      long sequence = consumed.get();
+      int counter = 0;
+      while (running || published.get() > sequence) {
+        //
+        final long available = published.get();
+        if (available <= sequence) {
+          try {
+            waitStrategy.idle(counter++);
+          } catch (InterruptedException e) {
+            if (!running) break;
+          }
+          continue;
+        }
+
+        // Consecutive events of the same listener, up to the max batch size
+        counter = 0;
+        final long end = Math.min(available, sequence + maxBatchSize);
+        long s = sequence + 1;
+        while (s <= end) {
+          final BinlogEventListener listener = listeners[(int) (s & mask)];
+          final long first = s;
+          batch.clear();
+          while (s <= end && listeners[(int) (s & mask)] == listener) {
+            batch.add(events[(int) (s++ & mask)]);
+          }
+          final int delivered;
+          if (failure != null) {
+            delivered = 0; // Dropped
+          } else {
+            delivered = listener == null ? batch.size() : deliver(listener, batch);
+          }
+          for (long i = first; i < s; i++) {
+            final int index = (int) (i & mask);
+            try {
+              if (callbacks[index] != null && i - first < delivered) {
+                callbacks[index].onDispatched(events[index], binlogFileNames[index]);
+              }
+            } catch (Exception e) {
+              LOGGER.error("failed to complete binlog event dispatch", e);
+            }
+            events[index] = null;
+            binlogFileNames[index] = null;
+            listeners[index] = null;
+            callbacks[index] = null;
+          }
+        }
+        batch.clear();
+        sequence = end;
+        consumed.lazySet(end);
+        waitStrategy.signal();
+      }
+    }
+  }
+}
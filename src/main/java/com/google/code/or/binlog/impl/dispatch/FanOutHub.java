@@ -0,0 +1,538 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParser;
+import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.BinlogParserListener;
+import com.google.code.or.binlog.ext.XChecksumFactory;
+import com.google.code.or.binlog.impl.FileBasedBinlogParser;
+import com.google.code.or.binlog.impl.MultiFileBinlogParser;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * Shares the events of a single connection and decode pipeline with any number of consumers. The
+ * events go into a ring that the parser thread never waits on: it overwrites the oldest slot. Each
+ * consumer has a thread, a cursor into the ring and a filter of its own, so a slow consumer only
+ * falls behind by itself. A consumer that the ring overran either is detached or, if the hub has
+ * a relay log, goes on tailing the relay log. The tail starts at the beginning of the transaction
+ * the consumer was in, so that its table map events are decoded again, and skips the events the
+ * consumer already took. Once the tail caught up with the events still in the ring, the consumer
+ * goes back to the ring.
+ * <p>
+ * Only a single parser thread may call {@link #onEvents(BinlogEventV4)}.
+ */
+public class FanOutHub implements BinlogEventListener {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(FanOutHub.class);
+
+  //
+  protected final int capacity;
+  protected WaitStrategy waitStrategy = new WaitStrategy.Sleeping();
+  protected ThreadFactory threadFactory = new XThreadFactory("binlog-fan-out", true);
+  protected RelayLogWriter relayLogWriter;
+
+  //
+  private final int mask;
+  private final AtomicReferenceArray<Entry> entries;
+  private final AtomicLong published = new AtomicLong(-1);
+  private final List<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+  private String binlogFileName; // Of the parser thread
+  private volatile long timestamp; // Of the last event
+  private volatile boolean running;
+
+  /**
+   * What happens to a consumer the ring overran.
+   */
+  public enum OverrunPolicy {
+    DETACH, RELAY_LOG
+  }
+
+  /**
+   * Selects the events delivered to a consumer.
+   */
+  public interface EventFilter {
+
+    boolean accepts(BinlogEventV4 event);
+  }
+
+  /**
+   * @param capacity the number of events the ring holds, rounded up to a power of 2
+   */
+  public FanOutHub(int capacity) {
+    int c = 1;
+    while (c < capacity) c <<= 1;
+    this.capacity = c;
+    this.mask = c - 1;
+    this.entries = new AtomicReferenceArray<Entry>(c);
+  }
+
+  /**
+	 * 
+	 */
+  public synchronized void start() {
+    if (this.running) return;
+    this.running = true;
+    for (Consumer consumer : this.consumers) consumer.start();
+  }
+
+  public void stop() throws InterruptedException {
+    synchronized (this) {
+      if (!this.running) return;
+      this.running = false;
+    }
+    for (Consumer consumer : this.consumers) consumer.stop();
+  }
+
+  /**
+	 * 
+	 */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    this.waitStrategy = waitStrategy;
+  }
+
+  public ThreadFactory getThreadFactory() {
+    return threadFactory;
+  }
+
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  public RelayLogWriter getRelayLogWriter() {
+    return relayLogWriter;
+  }
+
+  /**
+   * If set, e.g. to {@link com.google.code.or.OpenReplicator#getRelayLogWriter()}, consumers with
+   * the {@link OverrunPolicy#RELAY_LOG} policy fall back to the relay log when overrun.
+   */
+  public void setRelayLogWriter(RelayLogWriter relayLogWriter) {
+    this.relayLogWriter = relayLogWriter;
+  }
+
+  /**
+   * Returns the sequence of the last event put into the ring, -1 if none.
+   */
+  public long getPublished() {
+    return this.published.get();
+  }
+
+  public List<Consumer> getConsumers() {
+    return new ArrayList<Consumer>(this.consumers);
+  }
+
+  /**
+   * The consumer starts with the next event, the filter may be null.
+   */
+  public synchronized Consumer addConsumer(String name, BinlogEventListener listener,
+      EventFilter filter, OverrunPolicy policy) {
+    final Consumer r = new Consumer(name, listener, filter, policy);
+    this.consumers.add(r);
+    if (this.running) r.start();
+    return r;
+  }
+
+  public void removeConsumer(Consumer consumer) throws InterruptedException {
+    if (this.consumers.remove(consumer)) consumer.stop();
+  }
+
+  /**
+	 * 
+	 */
+  public void onEvents(BinlogEventV4 event) {
+    //
+    if (event instanceof RotateEvent) {
+      this.binlogFileName = ((RotateEvent) event).getBinlogFileName().toString();
+    }
+    if (event.getHeader().getTimestamp() > 0) this.timestamp = event.getHeader().getTimestamp();
+
+    //
+    final long sequence = this.published.get() + 1;
+    this.entries.set((int) (sequence & this.mask), new Entry(sequence, event, this.binlogFileName));
+    this.published.set(sequence);
+    this.waitStrategy.signal();
+  }
+
+  /**
+	 * 
+	 */
+  protected FileBasedBinlogParser createRelayLogParser(String name, long offset) throws Exception {
+    final File directory = this.relayLogWriter.getDirectory();
+    final String checksum = MultiFileBinlogParser.getChecksumType(new File(directory, name));
+    final FileBasedBinlogParser r;
+    if ("NONE".equals(checksum)) {
+      r = BinlogParserFactory.createFileBinlogParser(offset, 0, name, directory.getPath());
+    } else {
+      r = BinlogParserFactory.createFileBinlogParserExt(offset, 0, name, directory.getPath(),
+          XChecksumFactory.create(checksum));
+    }
+    r.setFollow(true);
+    r.setMmap(true); // Safe to stop from another thread, the parser thread unmaps
+    return r;
+  }
+
+  /**
+	 * 
+	 */
+  private static final class Entry {
+    //
+    private final long sequence;
+    private final BinlogEventV4 event;
+    private final String binlogFileName;
+
+    private Entry(long sequence, BinlogEventV4 event, String binlogFileName) {
+      this.sequence = sequence;
+      this.event = event;
+      this.binlogFileName = binlogFileName;
+    }
+  }
+
+  /**
+   * A consumer reads the ring until it is overrun, then the relay log or nothing at all.
+   */
+  public final class Consumer implements Runnable, BinlogEventListener {
+    //
+    private final String name;
+    private final BinlogEventListener listener;
+    private final EventFilter filter;
+    private final OverrunPolicy policy;
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile long cursor; // The sequence of the last event taken from the ring
+    private volatile long timestamp;
+    private volatile String binlogFileName;
+    private volatile long position; // After the last event taken
+    private long boundary; // Where the transaction of the last event taken began
+    private boolean inTransaction; // Since the GTID event or BEGIN
+    private boolean begun; // Since BEGIN
+    private long skipPosition; // The relay log tail skips the events up to it
+    private volatile boolean detached;
+    private volatile Thread worker;
+    private volatile FileBasedBinlogParser relayLogParser;
+
+    /**
+		 * 
+		 */
+    private Consumer(String name, BinlogEventListener listener, EventFilter filter,
+        OverrunPolicy policy) {
+      this.name = name;
+      this.listener = listener;
+      this.filter = filter;
+      this.policy = policy;
+      this.cursor = published.get();
+    }
+
+    @Override
+    public String toString() {
+      return "Consumer[name=" + name + ",lag=" + getLag() + ",position=" + getPosition() + "]";
+    }
+
+    private synchronized void start() {
+      if (this.worker != null || this.detached || this.relayLogParser != null) return;
+      this.worker = threadFactory.newThread(this);
+      this.worker.setName(this.worker.getName() + "-" + this.name);
+      this.worker.start();
+    }
+
+    private void stop() throws InterruptedException {
+      final Thread worker;
+      final FileBasedBinlogParser parser;
+      synchronized (this) {
+        worker = this.worker;
+        parser = this.relayLogParser;
+        this.worker = null;
+        this.relayLogParser = null;
+      }
+      if (worker != null) {
+        worker.interrupt();
+        if (worker != Thread.currentThread()) worker.join();
+      }
+      if (parser != null) {
+        try {
+          parser.stop(0, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+          LOGGER.warn("failed to stop relay log parser of consumer: " + this.name, e);
+        }
+      }
+    }
+
+    /**
+		 * 
+		 */
+    public String getName() {
+      return name;
+    }
+
+    public OverrunPolicy getPolicy() {
+      return policy;
+    }
+
+    public boolean isDetached() {
+      return detached;
+    }
+
+    public boolean isTailingRelayLog() {
+      return relayLogParser != null;
+    }
+
+    /**
+     * Returns the number of events delivered to the listener so far.
+     */
+    public long getDelivered() {
+      return delivered.get();
+    }
+
+    /**
+     * Returns the number of events in the ring not taken yet, -1 if off the ring.
+     */
+    public long getLag() {
+      if (this.detached || this.relayLogParser != null) return -1;
+      return published.get() - this.cursor;
+    }
+
+    /**
+     * Returns the milliseconds between the last event of the hub and the last event taken.
+     */
+    public long getDelay() {
+      return this.timestamp == 0 ? 0 : Math.max(0, FanOutHub.this.timestamp - this.timestamp);
+    }
+
+    /**
+     * Returns the position after the last event taken, null if none.
+     */
+    public BinlogPosition getPosition() {
+      final String name = this.binlogFileName;
+      return name == null || this.position <= 0 ? null : new BinlogPosition(name, this.position);
+    }
+
+    /**
+		 * 
+		 */
+    public void run() {
+      int counter = 0;
+      while (Thread.currentThread() == this.worker) {
+        //
+        final long sequence = this.cursor + 1;
+        final Entry entry = entries.get((int) (sequence & mask));
+        if (entry == null || entry.sequence < sequence) {
+          try {
+            waitStrategy.idle(counter++);
+          } catch (InterruptedException e) {
+            break;
+          }
+          continue;
+        }
+
+        //
+        counter = 0;
+        if (entry.sequence > sequence) { // Overwritten
+          overrun();
+          break;
+        }
+        this.cursor = sequence;
+        take(entry.event, entry.binlogFileName);
+      }
+    }
+
+    /**
+     * Called back by the relay log parser.
+     */
+    public void onEvents(BinlogEventV4 event) {
+      final long next = event.getHeader().getNextPosition();
+      if (event instanceof RotateEvent) {
+        this.binlogFileName = ((RotateEvent) event).getBinlogFileName().toString();
+        this.skipPosition = 0;
+      } else if (this.skipPosition > 0 && next > 0) {
+        if (next <= this.skipPosition) { // Taken before the overrun
+          track(event);
+          return;
+        }
+        this.skipPosition = 0;
+      }
+      take(event, this.binlogFileName);
+      rejoin();
+    }
+
+    private void take(BinlogEventV4 event, String binlogFileName) {
+      //
+      if (binlogFileName != null) this.binlogFileName = binlogFileName;
+      if (event instanceof RotateEvent) {
+        this.position = ((RotateEvent) event).getBinlogPosition();
+      } else if (event.getHeader().getNextPosition() > 0) {
+        this.position = event.getHeader().getNextPosition();
+      }
+      if (event.getHeader().getTimestamp() > 0) this.timestamp = event.getHeader().getTimestamp();
+      track(event);
+
+      //
+      if (this.filter != null && !this.filter.accepts(event)) return;
+      try {
+        this.listener.onEvents(event);
+        this.delivered.incrementAndGet();
+      } catch (Exception e) {
+        LOGGER.error("failed to notify consumer: " + this.name + ", event: " + event, e);
+      }
+    }
+
+    /**
+     * Tracks where the transaction of the last event taken began, like a
+     * {@link com.google.code.or.binlog.impl.index.TransactionBoundaryTracker}.
+     */
+    private void track(BinlogEventV4 event) {
+      //
+      final long p = event.getHeader().getPosition();
+      final long next = event.getHeader().getNextPosition();
+      if (event instanceof RotateEvent) {
+        this.boundary = ((RotateEvent) event).getBinlogPosition();
+        this.inTransaction = this.begun = false;
+        return;
+      } else if (p <= 0 || next <= 0) {
+        return; // Artificial
+      }
+
+      //
+      boolean end = !this.inTransaction;
+      if (event instanceof GtidEvent) {
+        if (!this.inTransaction) this.boundary = p;
+        this.inTransaction = true;
+        return;
+      } else if (event instanceof XidEvent) {
+        end = true;
+      } else if (event instanceof QueryEvent) {
+        final String sql = ((QueryEvent) event).getSql().toString().trim();
+        if ("BEGIN".equalsIgnoreCase(sql)) {
+          if (!this.inTransaction) this.boundary = p;
+          this.inTransaction = this.begun = true;
+          return;
+        }
+        end = !this.begun || "COMMIT".equalsIgnoreCase(sql) || "ROLLBACK".equalsIgnoreCase(sql);
+      }
+      if (end) {
+        this.boundary = next;
+        this.inTransaction = this.begun = false;
+      }
+    }
+
+    private synchronized void overrun() {
+      //
+      if (this.worker != Thread.currentThread()) return; // Stopped
+      this.worker = null;
+      final BinlogPosition position = getPosition();
+      if (this.policy == OverrunPolicy.RELAY_LOG && relayLogWriter != null && position != null) {
+        try {
+          final BinlogPosition boundary = this.boundary <= 0 ? position
+              : new BinlogPosition(position.getBinlogFileName(), this.boundary);
+          final long offset = relayLogWriter.find(boundary);
+          if (offset >= 0) {
+            final FileBasedBinlogParser parser =
+                createRelayLogParser(position.getBinlogFileName(), offset);
+            parser.setThreadFactory(new XThreadFactory("binlog-fan-out-relay-" + this.name, true));
+            parser.setEventListener(this);
+            this.skipPosition = position.getPosition();
+            this.inTransaction = this.begun = false;
+            parser.addParserListener(new BinlogParserListener.Adapter() {
+              @Override
+              public void onStop(BinlogParser parser) {
+                if (relayLogParser == parser) detach("relay log parser stopped");
+              }
+            });
+            this.relayLogParser = parser;
+            parser.start();
+            LOGGER.warn("consumer: {} overrun, tailing relay log from: {}", this.name, boundary);
+            return;
+          }
+        } catch (Exception e) {
+          LOGGER.error("failed to tail relay log, consumer: " + this.name, e);
+          this.relayLogParser = null;
+        }
+      }
+      detach("overrun at position: " + position);
+    }
+
+    /**
+     * Goes back to the ring if it still holds the event taken last from the relay log. Called by the
+     * relay log parser, which stops once it returned.
+     */
+    private synchronized void rejoin() {
+      //
+      final FileBasedBinlogParser parser = this.relayLogParser;
+      final String name = this.binlogFileName;
+      final long last = published.get();
+      if (parser == null || name == null || !running || last < 0) return;
+      final Entry head = entries.get((int) (last & mask));
+      if (head == null || !name.equals(head.binlogFileName)) return; // Not in the current file yet
+
+      //
+      for (long s = Math.max(0, last - capacity + 1); s <= last; s++) {
+        final Entry entry = entries.get((int) (s & mask));
+        if (entry == null || entry.sequence != s || !name.equals(entry.binlogFileName)) continue;
+        final long p = entry.event.getHeader().getPosition();
+        final long next = entry.event.getHeader().getNextPosition();
+        if (p <= 0 || next <= 0) continue; // Artificial
+        if (p > this.position) return; // Behind the ring
+        if (p != this.position && next != this.position) continue;
+
+        //
+        this.cursor = p == this.position ? s - 1 : s;
+        this.relayLogParser = null;
+        try {
+          parser.stop(0, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+          LOGGER.warn("failed to stop relay log parser of consumer: " + this.name, e);
+        }
+        this.worker = threadFactory.newThread(this);
+        this.worker.setName(this.worker.getName() + "-" + this.name);
+        this.worker.start();
+        LOGGER.info("consumer: {} caught up, back on the ring at: {}", this.name, getPosition());
+        return;
+      }
+    }
+
+    private void detach(String reason) {
+      this.detached = true;
+      this.relayLogParser = null;
+      consumers.remove(this);
+      LOGGER.warn("consumer: {} detached, {}", this.name, reason);
+    }
+  }
+}
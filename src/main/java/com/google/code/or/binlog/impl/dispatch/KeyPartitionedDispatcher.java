@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEventV2;
+import com.google.code.or.binlog.impl.event.FormatDescriptionEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.Pair;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * An event listener that splits row events into single row changes and hands each of them to one of
+ * a number of lanes by the hash of its key, every lane being an {@link AsyncEventDispatcher} with a
+ * thread of its own. The changes of a key are therefore applied in binlog order, while different
+ * keys are applied in parallel.
+ * <p>
+ * The key columns of the tables are known to the {@link RowKeyHasher}. Rows of tables without a
+ * known key go to a single lane per table. An update that changes the key waits for all lanes to
+ * catch up.
+ * <p>
+ * Other events go to the event listener on the calling thread. Statements other than BEGIN and
+ * COMMIT, e.g. DDL, wait for all lanes first, and so does the end of every transaction unless
+ * barriers are disabled. Without barriers the committed position of the parser may run ahead of
+ * the lanes, so a restart can skip row changes that were dispatched but not yet applied.
+ * <p>
+ * If the row change listener fails, the next barrier or dispatch throws an IllegalStateException,
+ * which stops the parser before the end of the transaction.
+ */
+public class KeyPartitionedDispatcher implements BinlogEventListener {
+  //
+  protected int laneCount = 4;
+  protected int laneCapacity = 1024;
+  protected boolean barriers = true;
+  protected RowChangeListener rowChangeListener;
+  protected BinlogEventListener eventListener;
+  protected RowKeyHasher rowKeyHasher = new RowKeyHasher();
+
+  //
+  private volatile AsyncEventDispatcher[] lanes;
+  private final Map<Long, int[]> keys = new HashMap<Long, int[]>(); // By table id, of the file
+  private final BinlogEventListener laneListener = new BinlogEventListener() {
+    public void onEvents(BinlogEventV4 event) {
+      try {
+        rowChangeListener.onRowChange((RowChange) event);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  /**
+	 * 
+	 */
+  public synchronized void start() {
+    if (this.lanes != null) return;
+    final AsyncEventDispatcher[] lanes = new AsyncEventDispatcher[this.laneCount];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new AsyncEventDispatcher(this.laneCapacity);
+      lanes[i].setThreadFactory(new XThreadFactory("binlog-lane-" + i, true));
+      lanes[i].setStopOnListenerFailure(true);
+      lanes[i].start();
+    }
+    this.lanes = lanes;
+  }
+
+  public synchronized void stop() throws InterruptedException {
+    if (this.lanes == null) return;
+    for (AsyncEventDispatcher lane : this.lanes) lane.stop();
+    this.lanes = null;
+  }
+
+  /**
+   * Waits until every row change dispatched so far has been applied.
+   * 
+   * @throws IllegalStateException if the row change listener failed
+   */
+  public void drain() throws InterruptedException {
+    final AsyncEventDispatcher[] lanes = this.lanes;
+    if (lanes == null) throw new IllegalStateException("dispatcher is not started");
+    for (AsyncEventDispatcher lane : lanes) lane.drain();
+  }
+
+  /**
+	 * 
+	 */
+  public int getLaneCount() {
+    return laneCount;
+  }
+
+  public void setLaneCount(int laneCount) {
+    this.laneCount = laneCount;
+  }
+
+  public int getLaneCapacity() {
+    return laneCapacity;
+  }
+
+  public void setLaneCapacity(int laneCapacity) {
+    this.laneCapacity = laneCapacity;
+  }
+
+  public boolean isBarriers() {
+    return barriers;
+  }
+
+  public void setBarriers(boolean barriers) {
+    this.barriers = barriers;
+  }
+
+  public RowChangeListener getRowChangeListener() {
+    return rowChangeListener;
+  }
+
+  public void setRowChangeListener(RowChangeListener listener) {
+    this.rowChangeListener = listener;
+  }
+
+  public BinlogEventListener getEventListener() {
+    return eventListener;
+  }
+
+  public void setEventListener(BinlogEventListener listener) {
+    this.eventListener = listener;
+  }
+
+  public RowKeyHasher getRowKeyHasher() {
+    return rowKeyHasher;
+  }
+
+  /**
+   * Knows the key columns of the tables.
+   */
+  public void setRowKeyHasher(RowKeyHasher rowKeyHasher) {
+    this.rowKeyHasher = rowKeyHasher;
+  }
+
+  /**
+	 * 
+	 */
+  public void onEvents(BinlogEventV4 event) {
+    try {
+      if (event instanceof AbstractRowEvent) {
+        dispatch((AbstractRowEvent) event);
+        return;
+      } else if (event instanceof TableMapEvent) {
+        final TableMapEvent tme = (TableMapEvent) event;
+        this.keys.put(tme.getTableId(), this.rowKeyHasher.getKeyColumns(tme));
+      } else if (event instanceof RotateEvent || event instanceof FormatDescriptionEvent) {
+        this.keys.clear(); // Table ids are only meaningful within a binlog file
+      } else if (event instanceof QueryEvent) {
+        final String sql = ((QueryEvent) event).getSql().toString().trim();
+        if ("COMMIT".equalsIgnoreCase(sql)) {
+          if (this.barriers) drain();
+        } else if (!"BEGIN".equalsIgnoreCase(sql)) {
+          drain();
+        }
+      } else if (event instanceof XidEvent) {
+        if (this.barriers) drain();
+      }
+    } catch (InterruptedException e) { // Stops the parser before the event
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while dispatching event: " + event, e);
+    }
+
+    //
+    if (this.eventListener != null) this.eventListener.onEvents(event);
+  }
+
+  /**
+	 * 
+	 */
+  protected void dispatch(AbstractRowEvent event) throws InterruptedException {
+    if (this.lanes == null) throw new IllegalStateException("dispatcher is not started");
+    final int[] key = this.keys.get(event.getTableId());
+    if (event instanceof WriteRowsEvent) {
+      final WriteRowsEvent e = (WriteRowsEvent) event;
+      dispatch(event, e.getRows(), e.getUsedColumns(), key, false);
+    } else if (event instanceof WriteRowsEventV2) {
+      final WriteRowsEventV2 e = (WriteRowsEventV2) event;
+      dispatch(event, e.getRows(), e.getUsedColumns(), key, false);
+    } else if (event instanceof DeleteRowsEvent) {
+      final DeleteRowsEvent e = (DeleteRowsEvent) event;
+      dispatch(event, e.getRows(), e.getUsedColumns(), key, true);
+    } else if (event instanceof DeleteRowsEventV2) {
+      final DeleteRowsEventV2 e = (DeleteRowsEventV2) event;
+      dispatch(event, e.getRows(), e.getUsedColumns(), key, true);
+    } else if (event instanceof UpdateRowsEvent) {
+      final UpdateRowsEvent e = (UpdateRowsEvent) event;
+      dispatch(event, e.getRows(), e.getUsedColumnsBefore(), e.getUsedColumnsAfter(), key);
+    } else if (event instanceof UpdateRowsEventV2) {
+      final UpdateRowsEventV2 e = (UpdateRowsEventV2) event;
+      dispatch(event, e.getRows(), e.getUsedColumnsBefore(), e.getUsedColumnsAfter(), key);
+    }
+  }
+
+  private void dispatch(AbstractRowEvent event, List<Row> rows, BitColumn used, int[] key,
+      boolean delete) throws InterruptedException {
+    for (Row row : rows) {
+      final int lane = getLane(event, row, used, key);
+      final RowChange change =
+          delete ? new RowChange(event, row, null, lane) : new RowChange(event, null, row, lane);
+      this.lanes[lane].dispatch(this.laneListener, change, null, null);
+    }
+  }
+
+  private void dispatch(AbstractRowEvent event, List<Pair<Row>> rows, BitColumn usedBefore,
+      BitColumn usedAfter, int[] key) throws InterruptedException {
+    for (Pair<Row> row : rows) {
+      final int before = getLane(event, row.getBefore(), usedBefore, key);
+      final int after = getLane(event, row.getAfter(), usedAfter, key);
+      if (before != after) drain(); // The key moves to another lane
+      final RowChange change = new RowChange(event, row.getBefore(), row.getAfter(), after);
+      this.lanes[after].dispatch(this.laneListener, change, null, null);
+    }
+  }
+
+  /**
+	 * 
+	 */
+  protected int getLane(AbstractRowEvent event, Row row, BitColumn used, int[] key) {
+    final String db = event.getDatabaseName();
+    final String table = event.getTableName();
+    final int h = RowKeyHasher.isKeyed(used, key) ? RowKeyHasher.hash(db, table, row, used, key)
+        : RowKeyHasher.hash(db, table);
+    return (h & Integer.MAX_VALUE) % this.lanes.length;
+  }
+}
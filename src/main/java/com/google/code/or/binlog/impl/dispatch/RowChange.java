@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.dispatch;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogEventV4Header;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * A single row of a row event: an insert has no before image, a delete no after image.
+ */
+public final class RowChange implements BinlogEventV4 {
+  //
+  private final AbstractRowEvent event;
+  private final Row before;
+  private final Row after;
+  private final int lane;
+
+  /**
+	 * 
+	 */
+  public RowChange(AbstractRowEvent event, Row before, Row after, int lane) {
+    this.event = event;
+    this.before = before;
+    this.after = after;
+    this.lane = lane;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("databaseName", event.getDatabaseName())
+        .append("tableName", event.getTableName()).append("before", before)
+        .append("after", after).append("lane", lane).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public BinlogEventV4Header getHeader() {
+    return this.event.getHeader();
+  }
+
+  public AbstractRowEvent getEvent() {
+    return event;
+  }
+
+  public Row getBefore() {
+    return before;
+  }
+
+  public Row getAfter() {
+    return after;
+  }
+
+  public int getLane() {
+    return lane;
+  }
+
+  public boolean isInsert() {
+    return this.before == null;
+  }
+
+  public boolean isUpdate() {
+    return this.before != null && this.after != null;
+  }
+
+  public boolean isDelete() {
+    return this.after == null;
+  }
+}
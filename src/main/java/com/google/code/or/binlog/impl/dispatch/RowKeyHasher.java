@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.OptionalMetadata;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.column.BitColumn;
+
+/**
+ * Knows the key columns of tables and hashes the key of a row image. The key columns of a table are
+ * configured, or taken from the primary key in the optional metadata of its table map events
+ * (binlog_row_metadata=FULL). Equal keys of a table hash equally, unequal keys may collide.
+ * <p>
+ * The binlog does not tell the unique keys of a table, they are known only if configured.
+ */
+public class RowKeyHasher {
+  //
+  protected final Map<String, int[]> keyColumns = new HashMap<String, int[]>();
+  protected final Map<String, String[]> keyColumnNames = new HashMap<String, String[]>();
+  protected final Map<String, List<int[]>> uniqueKeyColumns = new HashMap<String, List<int[]>>();
+  protected final Map<String, List<String[]>> uniqueKeyColumnNames =
+      new HashMap<String, List<String[]>>();
+
+  /**
+   * Sets the indexes of the key columns of a table, e.g. test.orders.
+   */
+  public void setKeyColumns(String tableName, int... columns) {
+    this.keyColumns.put(tableName, columns);
+  }
+
+  /**
+   * Sets the names of the key columns of a table, which requires the column names in the optional
+   * metadata of its table map events.
+   */
+  public void setKeyColumnNames(String tableName, String... columns) {
+    this.keyColumnNames.put(tableName, columns);
+  }
+
+  /**
+   * Adds the indexes of the columns of a unique key of a table other than the key.
+   */
+  public void addUniqueKeyColumns(String tableName, int... columns) {
+    List<int[]> keys = this.uniqueKeyColumns.get(tableName);
+    if (keys == null) this.uniqueKeyColumns.put(tableName, keys = new ArrayList<int[]>());
+    keys.add(columns);
+  }
+
+  /**
+   * Adds the names of the columns of a unique key of a table, which requires the column names in
+   * the optional metadata of its table map events.
+   */
+  public void addUniqueKeyColumnNames(String tableName, String... columns) {
+    List<String[]> keys = this.uniqueKeyColumnNames.get(tableName);
+    if (keys == null) this.uniqueKeyColumnNames.put(tableName, keys = new ArrayList<String[]>());
+    keys.add(columns);
+  }
+
+  /**
+   * Returns the indexes of the key columns, or null if the table has no known key.
+   */
+  public int[] getKeyColumns(TableMapEvent tme) {
+    //
+    final String name = tme.getDatabaseName() + "." + tme.getTableName();
+    final int[] columns = this.keyColumns.get(name);
+    if (columns != null) return columns;
+
+    //
+    final OptionalMetadata metadata = tme.getOptionalMetadata();
+    final String[] names = this.keyColumnNames.get(name);
+    if (names != null) {
+      final int[] r = getColumns(metadata, names);
+      if (r != null) return r;
+    }
+    final int[] r = metadata == null ? null : metadata.getPrimaryKey();
+    return r == null || r.length == 0 ? null : r;
+  }
+
+  /**
+   * Returns the indexes of the columns of the configured unique keys, or an empty array.
+   */
+  public int[][] getUniqueKeyColumns(TableMapEvent tme) {
+    final String name = tme.getDatabaseName() + "." + tme.getTableName();
+    final List<int[]> r = new ArrayList<int[]>();
+    final List<int[]> columns = this.uniqueKeyColumns.get(name);
+    if (columns != null) r.addAll(columns);
+    final List<String[]> names = this.uniqueKeyColumnNames.get(name);
+    if (names != null) {
+      for (String[] key : names) {
+        final int[] k = getColumns(tme.getOptionalMetadata(), key);
+        if (k == null) throw new IllegalArgumentException("unknown key columns of: " + name);
+        r.add(k);
+      }
+    }
+    return r.toArray(new int[r.size()][]);
+  }
+
+  private static int[] getColumns(OptionalMetadata metadata, String[] names) {
+    if (metadata == null || metadata.getColumnNames() == null) return null;
+    final List<String> all = Arrays.asList(metadata.getColumnNames());
+    final int[] r = new int[names.length];
+    for (int i = 0; i < r.length; i++) {
+      r[i] = all.indexOf(names[i]);
+      if (r[i] < 0) throw new IllegalArgumentException("unknown key column: " + names[i]);
+    }
+    return r;
+  }
+
+  /**
+   * Returns true if the row image holds all key columns.
+   */
+  public static boolean isKeyed(BitColumn used, int[] key) {
+    if (key == null) return false;
+    for (int k : key) {
+      if (!used.get(k)) return false;
+    }
+    return true;
+  }
+
+  public static int hash(String databaseName, String tableName) {
+    return mix(31 * databaseName.hashCode() + tableName.hashCode());
+  }
+
+  /**
+   * Hashes the table name and the key of a row image, see {@link #isKeyed(BitColumn, int[])}.
+   */
+  public static int hash(String databaseName, String tableName, Row row, BitColumn used,
+      int[] key) {
+    return hash(databaseName, tableName, row, used, key, 0);
+  }
+
+  /**
+   * Hashes the key of a row image like {@link #hash(String, String, Row, BitColumn, int[])}, the
+   * seed telling the keys of a table apart.
+   */
+  public static int hash(String databaseName, String tableName, Row row, BitColumn used,
+      int[] key, int seed) {
+    // The row image holds the used columns only
+    int h = 31 * (31 * databaseName.hashCode() + tableName.hashCode()) + seed;
+    final List<Column> columns = row.getColumns();
+    for (int k : key) {
+      int index = 0;
+      for (int i = 0; i < k; i++) {
+        if (used.get(i)) index++;
+      }
+      h = 31 * h + hash(columns.get(index));
+    }
+    return mix(h);
+  }
+
+  private static int hash(Column column) {
+    final Object value = column.getValue();
+    if (value == null) return 0;
+    if (value instanceof byte[]) return Arrays.hashCode((byte[]) value);
+    return value.hashCode();
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
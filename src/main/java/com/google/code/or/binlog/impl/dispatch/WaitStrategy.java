@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the threads of an {@link AsyncEventDispatcher} wait for each other, trading latency for CPU.
+ */
+public interface WaitStrategy {
+
+  /**
+   * Called repeatedly while there is nothing to do.
+   * 
+   * @param counter the number of previous calls since there was something to do
+   */
+  void idle(int counter) throws InterruptedException;
+
+  /**
+   * Called after progress was made, wakes up waiting threads if needed.
+   */
+  void signal();
+
+  /**
+   * Waits on a monitor, lowest CPU usage. A wake up that races with going to sleep is caught by the
+   * timeout at the latest.
+   */
+  class Blocking implements WaitStrategy {
+    //
+    private final Object monitor = new Object();
+    private volatile int waiters;
+    private final long timeout; // milliseconds
+
+    /**
+		 * 
+		 */
+    public Blocking() {
+      this(1);
+    }
+
+    public Blocking(long timeout) {
+      this.timeout = timeout;
+    }
+
+    /**
+		 * 
+		 */
+    public void idle(int counter) throws InterruptedException {
+      if (counter < 100) return; // Spin a little first
+      synchronized (this.monitor) {
+        this.waiters++;
+        try {
+          this.monitor.wait(this.timeout);
+        } finally {
+          this.waiters--;
+        }
+      }
+    }
+
+    public void signal() {
+      if (this.waiters == 0) return;
+      synchronized (this.monitor) {
+        this.monitor.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Spins, then yields, then parks for a short while, a good default.
+   */
+  class Sleeping implements WaitStrategy {
+    //
+    private final long sleep; // nanoseconds
+
+    /**
+		 * 
+		 */
+    public Sleeping() {
+      this(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+
+    public Sleeping(long sleep) {
+      this.sleep = sleep;
+    }
+
+    /**
+		 * 
+		 */
+    public void idle(int counter) throws InterruptedException {
+      if (counter < 100) {
+        return;
+      } else if (counter < 200) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(this.sleep);
+        if (Thread.interrupted()) throw new InterruptedException();
+      }
+    }
+
+    public void signal() {
+      // NOP
+    }
+  }
+
+  /**
+   * Spins, then yields the CPU, low latency but keeps a core busy.
+   */
+  class Yielding implements WaitStrategy {
+
+    public void idle(int counter) throws InterruptedException {
+      if (counter >= 100) Thread.yield();
+      if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    public void signal() {
+      // NOP
+    }
+  }
+
+  /**
+   * Spins, lowest latency, for threads pinned to dedicated cores only.
+   */
+  class BusySpin implements WaitStrategy {
+
+    public void idle(int counter) throws InterruptedException {
+      if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    public void signal() {
+      // NOP
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.event;
+
+import java.nio.ByteBuffer;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogEventV4Header;
+import com.google.code.or.binlog.BinlogSimpleParser;
+import com.google.code.or.common.util.ToStringBuilder;
+import com.google.code.or.io.util.XDeserializer;
+
+/**
+ * An event of which only the header is decoded, plus the table of row events, for consumers that
+ * forward the raw bytes. The bytes are a view of a buffer that is reused for the next event, they
+ * and {@link #decode()} are only valid during the callback.
+ */
+public class BinlogRawEvent {
+  //
+  private final BinlogEventV4Header header;
+  private final byte[] data;
+  private final int length;
+  private final BinlogSimpleParser parser;
+  private long tableId = -1;
+  private String databaseName;
+  private String tableName;
+  private BinlogEventV4 event; // Decoded on demand
+
+  /**
+	 * 
+	 */
+  public BinlogRawEvent(BinlogEventV4Header header, byte[] data, int length,
+      BinlogSimpleParser parser) {
+    this.header = header;
+    this.data = data;
+    this.length = length;
+    this.parser = parser;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("header", header)
+        .append("length", length).append("tableId", tableId)
+        .append("databaseName", databaseName).append("tableName", tableName).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public BinlogEventV4Header getHeader() {
+    return header;
+  }
+
+  /**
+   * Returns a read-only view of the event, i.e. header and body without the checksum.
+   */
+  public ByteBuffer getBytes() {
+    return ByteBuffer.wrap(this.data, 0, this.length).slice().asReadOnlyBuffer();
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the table id of table map and row events, -1 otherwise.
+   */
+  public long getTableId() {
+    return tableId;
+  }
+
+  public void setTableId(long tableId) {
+    this.tableId = tableId;
+  }
+
+  /**
+   * Returns the database name of table map and row events, or null if the table map is unknown.
+   */
+  public String getDatabaseName() {
+    return databaseName;
+  }
+
+  public void setDatabaseName(String databaseName) {
+    this.databaseName = databaseName;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public void setTableName(String tableName) {
+    this.tableName = tableName;
+  }
+
+  /**
+   * Decodes the body on first use.
+   */
+  public BinlogEventV4 decode() {
+    if (this.event == null) {
+      this.event = this.parser.parse(new XDeserializer(this.data, 0, this.length));
+    }
+    return this.event;
+  }
+
+  public void setEvent(BinlogEventV4 event) {
+    this.event = event;
+  }
+}
@@ -1,15 +1,37 @@
 package com.google.code.or.binlog.impl.event;
 
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * Precedes every transaction when GTIDs are enabled. Since MySQL 5.7 it carries the logical clock
+ * of the transaction for parallel replication, since 8.0 its commit timestamps and length.
+ */
 public class GtidEvent extends AbstractBinlogEventV4 {
 	private static final long serialVersionUID = -7912557062572847202L;
 	private final byte[] sourceId;
 	private final long transactionId;
+	private long lastCommitted; // 0 unless written by MySQL 5.7 or later
+	private long sequenceNumber;
+	private long immediateCommitTimestamp; // Microseconds, 0 unless written by MySQL 8.0 or later
+	private long originalCommitTimestamp;
+	private long transactionLength;
 
 	public GtidEvent(byte[] sourceId, long transactionId) {
 		this.sourceId = sourceId;
 		this.transactionId = transactionId;
 	}
 
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("header", header)
+				.append("transactionId", transactionId).append("lastCommitted", lastCommitted)
+				.append("sequenceNumber", sequenceNumber)
+				.append("immediateCommitTimestamp", immediateCommitTimestamp)
+				.append("originalCommitTimestamp", originalCommitTimestamp)
+				.append("transactionLength", transactionLength).toString();
+	}
+
 	public byte[] getSourceId() {
 		return sourceId;
 	}
@@ -17,4 +39,65 @@ public class GtidEvent extends AbstractBinlogEventV4 {
 	public long getTransactionId() {
 		return transactionId;
 	}
+
+	/**
+	 * Written instead of a GTID when gtid_mode is OFF: carries the logical clock but no GTID.
+	 */
+	public boolean isAnonymous() {
+		return header != null && header.getEventType() == MySQLConstants.ANONYMOUS_GTID_LOG_EVENT;
+	}
+
+	/**
+	 * The sequence number of the last transaction committed on the master when this one took its
+	 * locks, both relative to the binlog file: the two may be applied in parallel with all
+	 * transactions after it.
+	 */
+	public long getLastCommitted() {
+		return lastCommitted;
+	}
+
+	public void setLastCommitted(long lastCommitted) {
+		this.lastCommitted = lastCommitted;
+	}
+
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	public void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	/**
+	 * When the transaction committed on the server that wrote this binlog.
+	 */
+	public long getImmediateCommitTimestamp() {
+		return immediateCommitTimestamp;
+	}
+
+	public void setImmediateCommitTimestamp(long immediateCommitTimestamp) {
+		this.immediateCommitTimestamp = immediateCommitTimestamp;
+	}
+
+	/**
+	 * When the transaction committed on the server it originated from.
+	 */
+	public long getOriginalCommitTimestamp() {
+		return originalCommitTimestamp;
+	}
+
+	public void setOriginalCommitTimestamp(long originalCommitTimestamp) {
+		this.originalCommitTimestamp = originalCommitTimestamp;
+	}
+
+	/**
+	 * The length of the transaction in the binlog, including this event.
+	 */
+	public long getTransactionLength() {
+		return transactionLength;
+	}
+
+	public void setTransactionLength(long transactionLength) {
+		this.transactionLength = transactionLength;
+	}
 }
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.event;
+
+import com.google.code.or.binlog.BinlogEventV4Header;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * Sent by the master's dump thread when no event has been written for master_heartbeat_period.
+ * Heartbeats are never written to the binary log, the header timestamp is always 0 and the next
+ * position of the header is the current position of the master in the named binary log file.
+ */
+public final class HeartbeatEvent extends AbstractBinlogEventV4 {
+	private static final long serialVersionUID = 5231620462402837215L;
+
+	//
+	public static final int EVENT_TYPE = MySQLConstants.HEARTBEAT_LOG_EVENT;
+
+	//
+	private StringColumn binlogFileName;
+
+	/**
+	 * 
+	 */
+	public HeartbeatEvent() {}
+
+	public HeartbeatEvent(BinlogEventV4Header header) {
+		this.header = header;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("header", header)
+				.append("binlogFileName", binlogFileName).toString();
+	}
+
+	/**
+	 * 
+	 */
+	public long getBinlogPosition() {
+		return this.header.getNextPosition();
+	}
+
+	public StringColumn getBinlogFileName() {
+		return binlogFileName;
+	}
+
+	public void setBinlogFileName(StringColumn binlogFileName) {
+		this.binlogFileName = binlogFileName;
+	}
+}
@@ -18,6 +18,7 @@ import java.util.Arrays;
 
 import com.google.code.or.binlog.BinlogEventV4Header;
 import com.google.code.or.common.glossary.Metadata;
+import com.google.code.or.common.glossary.OptionalMetadata;
 import com.google.code.or.common.glossary.UnsignedLong;
 import com.google.code.or.common.glossary.column.BitColumn;
 import com.google.code.or.common.glossary.column.StringColumn;
@@ -52,6 +53,7 @@ public final class TableMapEvent extends AbstractBinlogEventV4 {
 	private UnsignedLong columnMetadataCount;
 	private Metadata columnMetadata;
 	private BitColumn columnNullabilities;
+	private OptionalMetadata optionalMetadata;
 
 	/**
 	 * 
@@ -74,7 +76,8 @@ public final class TableMapEvent extends AbstractBinlogEventV4 {
 				.append("columnTypes", Arrays.toString(columnTypes))
 				.append("columnMetadataCount", columnMetadataCount)
 				.append("columnMetadata", columnMetadata)
-				.append("columnNullabilities", columnNullabilities).toString();
+				.append("columnNullabilities", columnNullabilities)
+				.append("optionalMetadata", optionalMetadata).toString();
 	}
 
 	/**
@@ -94,6 +97,7 @@ public final class TableMapEvent extends AbstractBinlogEventV4 {
 		r.setColumnMetadataCount(this.columnMetadataCount);
 		r.setColumnMetadata(this.columnMetadata);
 		r.setColumnNullabilities(this.columnNullabilities);
+		r.setOptionalMetadata(this.optionalMetadata);
 		return r;
 	}
 
@@ -187,4 +191,15 @@ public final class TableMapEvent extends AbstractBinlogEventV4 {
 	public void setColumnNullabilities(BitColumn columnNullabilities) {
 		this.columnNullabilities = columnNullabilities;
 	}
+
+	/**
+	 * Returns null unless written by MySQL 8.0.1 or later.
+	 */
+	public OptionalMetadata getOptionalMetadata() {
+		return optionalMetadata;
+	}
+
+	public void setOptionalMetadata(OptionalMetadata optionalMetadata) {
+		this.optionalMetadata = optionalMetadata;
+	}
 }
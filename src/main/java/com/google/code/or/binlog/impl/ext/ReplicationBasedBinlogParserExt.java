@@ -19,12 +19,12 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.code.or.binlog.BinlogEventParser;
 import com.google.code.or.binlog.ext.XChecksum;
 import com.google.code.or.binlog.ext.XChecksumNOPImpl;
 import com.google.code.or.binlog.impl.ReplicationBasedBinlogParser;
 import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
-import com.google.code.or.io.XInputStream;
+import com.google.code.or.net.TransportException;
+import com.google.code.or.net.TransportInputStream;
 import com.google.code.or.net.impl.packet.EOFPacket;
 import com.google.code.or.net.impl.packet.ErrorPacket;
 import com.google.code.or.net.impl.packet.OKPacket;
@@ -74,13 +74,18 @@ public class ReplicationBasedBinlogParserExt extends ReplicationBasedBinlogParse
   @Override
   protected void doParse() throws Exception {
     //
-    final XInputStream is = this.transport.getInputStream();
-    final Context context = new Context(this.binlogFileName);
+    final TransportInputStream is = this.transport.getInputStream();
+    final Context context = getContext();
     while (isRunning()) {
       try {
-        // Parse packet
+        // Parse packet, the whole packet is read up front if measured, so that decoding does not wait
+        final long start = this.metrics == null ? 0 : System.nanoTime();
         final int packetLength = is.readInt(3);
         final int packetSequence = is.readInt(1);
+        if (this.metrics != null) {
+          is.prefetch(packetLength);
+          this.metrics.recordReadBlockedTime(System.nanoTime() - start);
+        }
         is.setReadLimit(packetLength); // Ensure the packet boundary
 
         //
@@ -89,15 +94,16 @@ public class ReplicationBasedBinlogParserExt extends ReplicationBasedBinlogParse
           if ((byte) packetMarker == ErrorPacket.PACKET_MARKER) {
             final ErrorPacket packet =
                 ErrorPacket.valueOf(packetLength, packetSequence, packetMarker, is);
-            throw new RuntimeException(packet.toString());
+            throw new TransportException(packet); // The master ended the dump
           } else if ((byte) packetMarker == EOFPacket.PACKET_MARKER) {
             final EOFPacket packet =
                 EOFPacket.valueOf(packetLength, packetSequence, packetMarker, is);
-            throw new RuntimeException(packet.toString());
+            throw new TransportException(packet.toString());
           } else {
             throw new RuntimeException("assertion failed, invalid packet marker: " + packetMarker);
           }
         }
+        final int semiSyncFlag = readSemiSyncHeader(is);
 
         // Parse the event header
         final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
@@ -113,19 +119,14 @@ public class ReplicationBasedBinlogParserExt extends ReplicationBasedBinlogParse
         }
 
         // Parse the event body
-        if (this.eventFilter != null && !this.eventFilter.accepts(header, context)) {
-          this.defaultParser.parse(is, header, context);
-        } else {
-          BinlogEventParser parser = getEventParser(header.getEventType());
-          if (parser == null) parser = this.defaultParser;
-          parser.parse(is, header, context);
-        }
+        parseEvent(is, header, context);
 
         // Ensure the packet boundary
         if (is.available() != 0) {
           throw new RuntimeException("assertion failed, available: " + is.available()
               + ", event type: " + header.getEventType());
         }
+        acknowledge(context, header, semiSyncFlag);
       } finally {
         is.setReadLimit(0);
       }
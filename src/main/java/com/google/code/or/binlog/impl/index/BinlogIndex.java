@@ -0,0 +1,463 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.common.glossary.GtidSet;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * A sparse index of the transaction boundaries of a binlog file, kept in a sidecar file next to it,
+ * e.g. mysql-bin.000001.idx. Roughly one boundary per {@link #getInterval()} bytes is recorded
+ * with its GTID, if any, and the greatest timestamp seen so far, which keeps the timestamps sorted
+ * even if the clock of the master went backwards. A seek binary searches the entries and then
+ * scans the event headers from the nearest entry to the exact boundary.
+ * <p>
+ * The index also keeps the set of tables, as database.table, that the row events of the binlog
+ * file belong to, with their number of events and bytes, so that files without events of the
+ * tables of interest can be skipped without parsing them.
+ * <p>
+ * Binlog files only grow, so an index is stale if the file got shorter or its head, which holds
+ * the format description event with the creation time of the file, has a different checksum, e.g.
+ * after RESET MASTER.
+ */
+public class BinlogIndex {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(BinlogIndex.class);
+
+  //
+  public static final String SUFFIX = ".idx";
+  public static final int DEFAULT_INTERVAL = 64 * 1024;
+
+  //
+  private static final int MAGIC = 0x4F524249; // ORBI
+  private static final int VERSION = 3;
+  private static final int HEAD_LENGTH = 1024; // Of the binlog file, for the checksum
+
+  //
+  private int interval = DEFAULT_INTERVAL;
+  private long length; // Of the indexed part of the binlog file
+  private long checksum; // Of the head of the binlog file
+  private final List<String> uuids = new ArrayList<String>();
+  private final List<Entry> entries = new ArrayList<Entry>();
+  private final Map<String, TableStats> tables = new TreeMap<String, TableStats>();
+
+  /**
+	 * 
+	 */
+  public BinlogIndex() {}
+
+  public BinlogIndex(int interval) {
+    this.interval = interval;
+  }
+
+  /**
+	 * 
+	 */
+  public int getInterval() {
+    return interval;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public void setLength(long length) {
+    this.length = length;
+  }
+
+  public long getChecksum() {
+    return checksum;
+  }
+
+  public void setChecksum(long checksum) {
+    this.checksum = checksum;
+  }
+
+  public int size() {
+    return this.entries.size();
+  }
+
+  public Entry get(int index) {
+    return this.entries.get(index);
+  }
+
+  public Entry getLast() {
+    return this.entries.isEmpty() ? null : this.entries.get(this.entries.size() - 1);
+  }
+
+  public String getUuid(Entry entry) {
+    return entry.uuid < 0 ? null : this.uuids.get(entry.uuid);
+  }
+
+  public Set<String> getTableNames() {
+    return Collections.unmodifiableSet(this.tables.keySet());
+  }
+
+  public TableStats getTableStats(String databaseName, String tableName) {
+    return this.tables.get(getTableName(databaseName, tableName));
+  }
+
+  /**
+   * Returns true if any of the given tables, as database.table, has row events in the binlog file.
+   */
+  public boolean containsAny(Collection<String> tableNames) {
+    for (String name : tableNames) {
+      if (this.tables.containsKey(name)) return true;
+    }
+    return false;
+  }
+
+  public void addRowEvent(String databaseName, String tableName, long length) {
+    final String name = getTableName(databaseName, tableName);
+    TableStats stats = this.tables.get(name);
+    if (stats == null) this.tables.put(name, stats = new TableStats());
+    stats.events++;
+    stats.bytes += length;
+  }
+
+  public static String getTableName(String databaseName, String tableName) {
+    return databaseName + "." + tableName;
+  }
+
+  /**
+   * Positions must be added in ascending order.
+   */
+  public void add(long position, long timestamp, byte[] sourceId, long transactionId) {
+    final Entry last = getLast();
+    if (last != null && position <= last.position) {
+      throw new IllegalArgumentException("invalid position: " + position + ", last: " + last);
+    }
+    if (last != null && timestamp < last.timestamp) timestamp = last.timestamp;
+    int uuid = -1;
+    if (sourceId != null) {
+      final String s = GtidSet.toUuid(sourceId);
+      uuid = this.uuids.indexOf(s);
+      if (uuid < 0) {
+        uuid = this.uuids.size();
+        this.uuids.add(s);
+      }
+    }
+    this.entries.add(new Entry(position, timestamp, uuid, transactionId));
+  }
+
+  /**
+   * Removes and returns the last entry, e.g. to resume indexing from it.
+   */
+  public Entry removeLast() {
+    return this.entries.isEmpty() ? null : this.entries.remove(this.entries.size() - 1);
+  }
+
+  /**
+   * Returns the position of the last entry whose timestamp is less than the given one, in
+   * milliseconds, or the position of the first event if there is none.
+   */
+  public long floorTimestamp(long timestamp) {
+    int low = 0, high = this.entries.size() - 1, r = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (this.entries.get(mid).timestamp < timestamp) {
+        r = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return r < 0 ? MySQLConstants.BINLOG_MAGIC.length : this.entries.get(r).position;
+  }
+
+  /**
+   * Returns the position of the last entry of the given source whose transaction id is not greater
+   * than the given one, or the position of the first event if there is none. Transaction ids of the
+   * same source ascend within a binlog file.
+   */
+  public long floorGtid(String uuid, long transactionId) {
+    final int index = this.uuids.indexOf(uuid.toLowerCase());
+    if (index < 0) return MySQLConstants.BINLOG_MAGIC.length;
+    final List<Entry> candidates = new ArrayList<Entry>();
+    for (Entry entry : this.entries) {
+      if (entry.uuid == index) candidates.add(entry);
+    }
+    int low = 0, high = candidates.size() - 1, r = -1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (candidates.get(mid).transactionId <= transactionId) {
+        r = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return r < 0 ? MySQLConstants.BINLOG_MAGIC.length : candidates.get(r).position;
+  }
+
+  /**
+   * Returns the position of the first transaction with a timestamp, in milliseconds, not less than
+   * the given one, or the end of the binlog file if there is none.
+   */
+  public static long seekTimestamp(File file, final long timestamp, int interval)
+      throws IOException {
+    final BinlogIndex index = loadOrBuild(file, interval);
+    final long[] r = new long[] {-1};
+    final long end = BinlogScanner.scan(file, index.floorTimestamp(timestamp),
+        new TransactionBoundaryTracker.Visitor() {
+          public boolean onBoundary(long position, long ts, byte[] sourceId, long transactionId) {
+            if (ts < timestamp) return true;
+            r[0] = position;
+            return false;
+          }
+        });
+    return r[0] < 0 ? end : r[0];
+  }
+
+  /**
+   * Returns the position of the transaction with the given GTID, or -1 if it is not in the binlog
+   * file.
+   */
+  public static long seekGtid(File file, String uuid, final long transactionId, int interval)
+      throws IOException {
+    final BinlogIndex index = loadOrBuild(file, interval);
+    final byte[] target = GtidSet.fromUuid(uuid);
+    final long[] r = new long[] {-1};
+    BinlogScanner.scan(file, index.floorGtid(uuid, transactionId),
+        new TransactionBoundaryTracker.Visitor() {
+          public boolean onBoundary(long position, long ts, byte[] sourceId, long id) {
+            if (sourceId == null || !Arrays.equals(sourceId, target)) return true;
+            if (id == transactionId) r[0] = position;
+            return id < transactionId;
+          }
+        });
+    return r[0];
+  }
+
+  /**
+   * Loads the sidecar index of the binlog file, and brings it up to date with a header only scan if
+   * it is missing or stale. The index is saved if it has changed.
+   */
+  public static BinlogIndex loadOrBuild(File file, int interval) throws IOException {
+    //
+    final File sidecar = getIndexFile(file);
+    BinlogIndex r = null;
+    if (sidecar.exists()) {
+      try {
+        r = load(sidecar);
+        if (r.getInterval() != interval || r.getLength() > file.length()
+            || r.getChecksum() != getChecksum(file, r.getLength())) {
+          r = null; // Rewritten
+        }
+      } catch (IOException e) {
+        LOGGER.warn("failed to load binlog index: " + sidecar + ", rebuilding", e);
+      }
+    }
+    if (r == null) r = new BinlogIndex(interval);
+    if (r.getLength() == file.length()) return r;
+
+    //
+    final BinlogIndexBuilder builder = new BinlogIndexBuilder(r);
+    final long start = builder.resume();
+    r.setLength(BinlogScanner.scan(file, start, builder, builder));
+    r.setChecksum(getChecksum(file, r.getLength()));
+    try {
+      r.save(sidecar);
+    } catch (IOException e) {
+      LOGGER.warn("failed to save binlog index: " + sidecar, e); // e.g. a read only directory
+    }
+    return r;
+  }
+
+  public static File getIndexFile(File file) {
+    return new File(file.getPath() + SUFFIX);
+  }
+
+  /**
+   * Returns the CRC32 of the head of the binlog file, up to the given length.
+   */
+  public static long getChecksum(File file, long length) throws IOException {
+    final byte[] head = new byte[(int) Math.min(length, HEAD_LENGTH)];
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.readFully(head);
+    } finally {
+      raf.close();
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(head);
+    return crc.getValue();
+  }
+
+  /**
+	 * 
+	 */
+  public static BinlogIndex load(File file) throws IOException {
+    final DataInputStream is =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (is.readInt() != MAGIC) throw new IOException("invalid binlog index magic: " + file);
+      final int version = is.readInt();
+      if (version != VERSION) throw new IOException("unsupported binlog index version: " + version);
+      final BinlogIndex r = new BinlogIndex(is.readInt());
+      r.length = is.readLong();
+      r.checksum = is.readLong();
+      final byte[] sourceId = new byte[16];
+      for (int i = is.readInt(); i > 0; i--) {
+        is.readFully(sourceId);
+        r.uuids.add(GtidSet.toUuid(sourceId));
+      }
+      for (int i = is.readInt(); i > 0; i--) {
+        r.entries.add(new Entry(is.readLong(), is.readLong(), is.readInt(), is.readLong()));
+      }
+      for (int i = is.readInt(); i > 0; i--) {
+        final TableStats stats = new TableStats();
+        r.tables.put(is.readUTF(), stats);
+        stats.events = is.readLong();
+        stats.bytes = is.readLong();
+      }
+      return r;
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Writes to a temporary file first, so that a crash never leaves a truncated index behind.
+   */
+  public void save(File file) throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    final DataOutputStream os =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      os.writeInt(MAGIC);
+      os.writeInt(VERSION);
+      os.writeInt(this.interval);
+      os.writeLong(this.length);
+      os.writeLong(this.checksum);
+      os.writeInt(this.uuids.size());
+      for (String uuid : this.uuids) os.write(GtidSet.fromUuid(uuid));
+      os.writeInt(this.entries.size());
+      for (Entry entry : this.entries) {
+        os.writeLong(entry.position);
+        os.writeLong(entry.timestamp);
+        os.writeInt(entry.uuid);
+        os.writeLong(entry.transactionId);
+      }
+      os.writeInt(this.tables.size());
+      for (Map.Entry<String, TableStats> e : this.tables.entrySet()) {
+        os.writeUTF(e.getKey());
+        os.writeLong(e.getValue().events);
+        os.writeLong(e.getValue().bytes);
+      }
+    } finally {
+      os.close();
+    }
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+      throw new IOException("failed to rename binlog index: " + tmp);
+    }
+  }
+
+  /**
+	 * 
+	 */
+  public static final class Entry {
+    //
+    private final long position;
+    private final long timestamp;
+    private final int uuid;
+    private final long transactionId;
+
+    /**
+		 * 
+		 */
+    Entry(long position, long timestamp, int uuid, long transactionId) {
+      this.position = position;
+      this.timestamp = timestamp;
+      this.uuid = uuid;
+      this.transactionId = transactionId;
+    }
+
+    /**
+		 * 
+		 */
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this).append("position", position)
+          .append("timestamp", timestamp).append("transactionId", transactionId).toString();
+    }
+
+    /**
+		 * 
+		 */
+    public long getPosition() {
+      return position;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public long getTransactionId() {
+      return transactionId;
+    }
+  }
+
+  /**
+   * The row events of a table in the binlog file.
+   */
+  public static final class TableStats {
+    //
+    private long events;
+    private long bytes;
+
+    /**
+		 *
+		 */
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this).append("events", events).append("bytes", bytes).toString();
+    }
+
+    /**
+		 *
+		 */
+    public long getEvents() {
+      return events;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.index;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogEventV4Header;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.common.util.MySQLConstants;
+
+/**
+ * Fills a {@link BinlogIndex}, either from a {@link BinlogScanner} pass or incrementally while a
+ * single binlog file is parsed, in which case the events are passed on to the delegate listener.
+ * Parsing has to start at a transaction boundary, e.g. the beginning of the file.
+ */
+public class BinlogIndexBuilder
+    implements TransactionBoundaryTracker.Visitor, BinlogScanner.TableVisitor, BinlogEventListener {
+  //
+  private final BinlogIndex index;
+  private final BinlogEventListener delegate;
+  private TransactionBoundaryTracker tracker;
+  private long lastPosition = -1; // Of the last entry
+  private final long indexedLength; // Row events before it have been counted already
+
+  /**
+	 * 
+	 */
+  public BinlogIndexBuilder(BinlogIndex index) {
+    this(index, null);
+  }
+
+  public BinlogIndexBuilder(BinlogIndex index, BinlogEventListener delegate) {
+    this.index = index;
+    this.delegate = delegate;
+    this.indexedLength = index.getLength();
+    if (index.getLast() != null) this.lastPosition = index.getLast().getPosition();
+  }
+
+  /**
+	 * 
+	 */
+  public BinlogIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Drops the last entry, which may be followed by boundaries that are not indexed yet, and returns
+   * its position to continue indexing from.
+   */
+  public long resume() {
+    final BinlogIndex.Entry last = this.index.removeLast();
+    final BinlogIndex.Entry previous = this.index.getLast();
+    this.lastPosition = previous == null ? -1 : previous.getPosition();
+    return last == null ? MySQLConstants.BINLOG_MAGIC.length : last.getPosition();
+  }
+
+  /**
+	 * 
+	 */
+  public boolean onBoundary(long position, long timestamp, byte[] sourceId, long transactionId) {
+    if (this.lastPosition < 0 || position - this.lastPosition >= this.index.getInterval()) {
+      this.index.add(position, timestamp, sourceId, transactionId);
+      this.lastPosition = position;
+    }
+    return true;
+  }
+
+  public void onRowEvent(long position, String databaseName, String tableName, long length) {
+    if (position >= this.indexedLength) this.index.addRowEvent(databaseName, tableName, length);
+  }
+
+  public void onEvents(BinlogEventV4 event) {
+    //
+    final BinlogEventV4Header header = event.getHeader();
+    if (this.tracker == null) {
+      this.tracker = new TransactionBoundaryTracker(header.getPosition(), this);
+    }
+    String query = null;
+    byte[] sourceId = null;
+    long transactionId = 0;
+    if (event instanceof QueryEvent) {
+      query = ((QueryEvent) event).getSql().toString();
+    } else if (event instanceof GtidEvent) {
+      sourceId = ((GtidEvent) event).getSourceId();
+      transactionId = ((GtidEvent) event).getTransactionId();
+    } else if (event instanceof AbstractRowEvent) {
+      final AbstractRowEvent e = (AbstractRowEvent) event;
+      onRowEvent(header.getPosition(), e.getDatabaseName(), e.getTableName(),
+          header.getEventLength());
+    }
+    this.tracker.onEvent(header.getEventType(), header.getPosition(), header.getNextPosition(),
+        header.getTimestamp(), query, sourceId, transactionId);
+    this.index.setLength(header.getNextPosition());
+
+    //
+    if (this.delegate != null) this.delegate.onEvents(event);
+  }
+}
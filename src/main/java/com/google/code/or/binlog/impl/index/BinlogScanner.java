@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.code.or.binlog.impl.MultiFileBinlogParser;
+import com.google.code.or.common.util.IOUtils;
+import com.google.code.or.common.util.MySQLConstants;
+
+/**
+ * A fast pass over a binlog file that only reads event headers, plus the few body bytes needed to
+ * tell transaction boundaries apart and which tables the row events belong to, from a memory mapped
+ * file. The file is mapped a window at a time, each window being unmapped once the scan has moved
+ * past it. An incomplete trailing event, e.g. of a binlog file still being written, ends the scan.
+ */
+public final class BinlogScanner {
+  //
+  private static final int HEADER_LENGTH = 19;
+  private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+  private static final int PEEK_LENGTH = 128 * 1024; // Covers the status variables of a query
+
+  /**
+	 * 
+	 */
+  private BinlogScanner() {}
+
+  /**
+	 *
+	 */
+  public interface TableVisitor {
+
+    /**
+     * Called for every row event, with its length including the header.
+     */
+    void onRowEvent(long position, String databaseName, String tableName, long length);
+  }
+
+  /**
+   * Visits every transaction boundary from the given position, which must be a boundary itself.
+   * Returns the position at which the scan stopped.
+   */
+  public static long scan(File file, long position, TransactionBoundaryTracker.Visitor visitor)
+      throws IOException {
+    return scan(file, position, visitor, null);
+  }
+
+  public static long scan(File file, long position, TransactionBoundaryTracker.Visitor visitor,
+      TableVisitor tableVisitor) throws IOException {
+    //
+    final boolean checksum = !"NONE".equals(MultiFileBinlogParser.getChecksumType(file));
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    MappedByteBuffer buffer = null;
+    try {
+      //
+      final FileChannel channel = raf.getChannel();
+      final long length = channel.size();
+      long base = 0; // Of the window in the file
+      long p = Math.max(position, MySQLConstants.BINLOG_MAGIC.length);
+      final TransactionBoundaryTracker tracker = new TransactionBoundaryTracker(p, visitor);
+      final byte[] sourceId = new byte[16];
+      final Map<Long, String[]> tables = new HashMap<Long, String[]>();
+      while (p + HEADER_LENGTH <= length) {
+        //
+        if (buffer == null || p + HEADER_LENGTH > base + buffer.limit()) {
+          buffer = map(channel, buffer, p, length);
+          base = p;
+        }
+        final long eventLength = buffer.getInt((int) (p - base) + 9) & 0xFFFFFFFFL;
+        if (eventLength < HEADER_LENGTH || p + eventLength > length) break;
+        if (p + Math.min(eventLength, PEEK_LENGTH) > base + buffer.limit()) {
+          buffer = map(channel, buffer, p, length);
+          base = p;
+        }
+        final int i = (int) (p - base);
+        final long timestamp = (buffer.getInt(i) & 0xFFFFFFFFL) * 1000L;
+        final int type = buffer.get(i + 4) & 0xFF;
+        final long next = p + eventLength;
+        final int body = i + HEADER_LENGTH;
+
+        //
+        String query = null;
+        byte[] sid = null;
+        long gno = 0;
+        if (type == MySQLConstants.QUERY_EVENT) {
+          final int databaseLength = buffer.get(body + 8) & 0xFF;
+          final int statusLength = buffer.getShort(body + 11) & 0xFFFF;
+          final int offset = body + 13 + statusLength + databaseLength + 1;
+          final long n = next - base - offset - (checksum ? 4 : 0);
+          if (n > 8) {
+            query = "";
+          } else {
+            final byte[] sql = new byte[(int) Math.max(n, 0)];
+            for (int j = 0; j < sql.length; j++) sql[j] = buffer.get(offset + j);
+            query = new String(sql, "US-ASCII");
+          }
+        } else if (type == MySQLConstants.GTID_LOG_EVENT) {
+          for (int j = 0; j < 16; j++) sourceId[j] = buffer.get(body + 1 + j);
+          sid = sourceId;
+          gno = buffer.getLong(body + 17);
+        } else if (tableVisitor != null && type == MySQLConstants.TABLE_MAP_EVENT) {
+          final int databaseLength = buffer.get(body + 8) & 0xFF;
+          final String database = getString(buffer, body + 9, databaseLength);
+          final int tableLength = buffer.get(body + 9 + databaseLength + 1) & 0xFF;
+          final String table = getString(buffer, body + 9 + databaseLength + 2, tableLength);
+          tables.put(getTableId(buffer, body), new String[] {database, table});
+        } else if (tableVisitor != null && isRowEvent(type)) {
+          final String[] table = tables.get(getTableId(buffer, body));
+          if (table != null) tableVisitor.onRowEvent(p, table[0], table[1], eventLength);
+        }
+
+        //
+        if (!tracker.onEvent(type, p, next, timestamp, query, sid, gno)) break;
+        p = next;
+      }
+      return p;
+    } finally {
+      IOUtils.unmapQuietly(buffer);
+      raf.close();
+    }
+  }
+
+  /**
+	 *
+	 */
+  private static MappedByteBuffer map(FileChannel channel, MappedByteBuffer previous, long position,
+      long length) throws IOException {
+    IOUtils.unmapQuietly(previous);
+    final long size = Math.min(WINDOW_SIZE, length - position);
+    final MappedByteBuffer r = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    r.order(ByteOrder.LITTLE_ENDIAN);
+    return r;
+  }
+
+  private static long getTableId(MappedByteBuffer buffer, int offset) {
+    return (buffer.getInt(offset) & 0xFFFFFFFFL) | (buffer.getShort(offset + 4) & 0xFFFFL) << 32;
+  }
+
+  private static String getString(MappedByteBuffer buffer, int offset, int length)
+      throws IOException {
+    final byte[] r = new byte[length];
+    for (int i = 0; i < length; i++) r[i] = buffer.get(offset + i);
+    return new String(r, "UTF-8");
+  }
+
+  private static boolean isRowEvent(int type) {
+    switch (type) {
+      case MySQLConstants.PRE_GA_WRITE_ROWS_EVENT:
+      case MySQLConstants.PRE_GA_UPDATE_ROWS_EVENT:
+      case MySQLConstants.PRE_GA_DELETE_ROWS_EVENT:
+      case MySQLConstants.WRITE_ROWS_EVENT:
+      case MySQLConstants.UPDATE_ROWS_EVENT:
+      case MySQLConstants.DELETE_ROWS_EVENT:
+      case MySQLConstants.WRITE_ROWS_EVENT_V2:
+      case MySQLConstants.UPDATE_ROWS_EVENT_V2:
+      case MySQLConstants.DELETE_ROWS_EVENT_V2:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.index;
+
+import com.google.code.or.common.util.MySQLConstants;
+
+/**
+ * Finds the positions at which transactions start, i.e. where parsing can begin without seeing half
+ * a transaction. A transaction ends with an XID event, a COMMIT or ROLLBACK query, or is a single
+ * statement outside BEGIN (e.g. DDL). Its GTID event, if any, belongs to it.
+ */
+public class TransactionBoundaryTracker {
+  //
+  private long boundary;
+  private boolean inTransaction;
+  private final Visitor visitor;
+
+  /**
+	 * 
+	 */
+  public interface Visitor {
+
+    /**
+     * Returns false to stop.
+     */
+    boolean onBoundary(long position, long timestamp, byte[] sourceId, long transactionId);
+  }
+
+  /**
+   * @param position the position of the first event, which must be a transaction boundary
+   */
+  public TransactionBoundaryTracker(long position, Visitor visitor) {
+    this.boundary = position;
+    this.visitor = visitor;
+  }
+
+  /**
+   * @param query the SQL of a query event, or any other string if longer than 8 characters, null
+   *        for other events
+   * @param sourceId the source id of a GTID event, null for other events
+   * @return false if the visitor wants to stop
+   */
+  public boolean onEvent(int type, long position, long nextPosition, long timestamp, String query,
+      byte[] sourceId, long transactionId) {
+    final boolean first = position == this.boundary;
+    switch (type) {
+      case MySQLConstants.FORMAT_DESCRIPTION_EVENT:
+      case MySQLConstants.PREVIOUS_GTIDS_LOG_EVENT:
+      case MySQLConstants.ROTATE_EVENT:
+      case MySQLConstants.STOP_EVENT:
+      case MySQLConstants.INCIDENT_EVENT:
+        if (first && !this.inTransaction) this.boundary = nextPosition; // Not part of a transaction
+        return true;
+      case MySQLConstants.GTID_LOG_EVENT:
+        return !first || this.visitor.onBoundary(position, timestamp, sourceId, transactionId);
+      case MySQLConstants.ANONYMOUS_GTID_LOG_EVENT:
+        return !first || this.visitor.onBoundary(position, timestamp, null, 0);
+      case MySQLConstants.XID_EVENT:
+        this.inTransaction = false;
+        this.boundary = nextPosition;
+        return true;
+      case MySQLConstants.QUERY_EVENT:
+        if (is(query, "BEGIN")) {
+          this.inTransaction = true;
+        } else if (is(query, "COMMIT") || is(query, "ROLLBACK")
+            || !this.inTransaction) {
+          final boolean r = !first || this.visitor.onBoundary(position, timestamp, null, 0);
+          this.inTransaction = false;
+          this.boundary = nextPosition;
+          return r;
+        }
+        return !first || this.visitor.onBoundary(position, timestamp, null, 0);
+      default:
+        return !first || this.visitor.onBoundary(position, timestamp, null, 0);
+    }
+  }
+
+  private static boolean is(String query, String sql) {
+    return query != null && query.trim().equalsIgnoreCase(sql);
+  }
+}
@@ -0,0 +1,594 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEventV2;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Pair;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.BlobColumn;
+import com.google.code.or.common.glossary.column.DateColumn;
+import com.google.code.or.common.glossary.column.Datetime2Column;
+import com.google.code.or.common.glossary.column.DatetimeColumn;
+import com.google.code.or.common.glossary.column.DecimalColumn;
+import com.google.code.or.common.glossary.column.DoubleColumn;
+import com.google.code.or.common.glossary.column.EnumColumn;
+import com.google.code.or.common.glossary.column.FloatColumn;
+import com.google.code.or.common.glossary.column.Int24Column;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.LongLongColumn;
+import com.google.code.or.common.glossary.column.NullColumn;
+import com.google.code.or.common.glossary.column.SetColumn;
+import com.google.code.or.common.glossary.column.ShortColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.glossary.column.Time2Column;
+import com.google.code.or.common.glossary.column.TimeColumn;
+import com.google.code.or.common.glossary.column.Timestamp2Column;
+import com.google.code.or.common.glossary.column.TimestampColumn;
+import com.google.code.or.common.glossary.column.TinyColumn;
+import com.google.code.or.common.glossary.column.YearColumn;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.MySQLUtils;
+
+/**
+ * Writes the rows of row events as JSON, one object per line, e.g.
+ * {"database":"shop","table":"orders","type":"update","timestamp":1500000000000,
+ * "position":4321,"before":{"id":1,"note":"a"},"data":{"id":1,"note":"b"}}.
+ * <p>
+ * The values are written straight into a reused buffer, without intermediate strings for anything
+ * but floating point numbers and decimals. The object prefix and the column keys are encoded once
+ * per table map event. Column names are those of the table map event, if the master logs them
+ * (binlog_row_metadata=FULL), or @1, @2 and so on. With the optional metadata of MySQL 8.0.1 and
+ * later, unsigned integers are written as such and strings converted from their character set;
+ * without, integers are written as decoded, i.e. signed, and strings are assumed to be UTF-8.
+ * Binary strings and blobs are base64 encoded, TEXT too unless its character set is known. DATE,
+ * DATETIME and TIME values are formatted like MySQL does, TIME values with their sign and hours
+ * beyond 24, TIMESTAMP values in the time zone of the writer, UTC by default. Not thread safe.
+ */
+public class JsonRowEventWriter {
+  //
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+  private static final byte[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(UTF_8);
+  private static final byte[] NULL = "null".getBytes(UTF_8);
+  private static final byte[] TIMESTAMP = ",\"timestamp\":".getBytes(UTF_8);
+  private static final byte[] POSITION = ",\"position\":".getBytes(UTF_8);
+  private static final byte[] BEFORE = ",\"before\":{".getBytes(UTF_8);
+  private static final byte[] DATA = ",\"data\":{".getBytes(UTF_8);
+
+  //
+  private byte[] buffer = new byte[64 * 1024];
+  private int length;
+  private final Map<Long, Table> tables = new HashMap<Long, Table>();
+  private final Calendar local = Calendar.getInstance(); // Of the decoder
+  private final Calendar zoned = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+  /**
+	 * 
+	 */
+  public void reset() {
+    this.tables.clear();
+  }
+
+  public TimeZone getTimeZone() {
+    return this.zoned.getTimeZone();
+  }
+
+  public void setTimeZone(TimeZone timeZone) {
+    this.zoned.setTimeZone(timeZone);
+  }
+
+  /**
+   * Writes the rows of a row event, remembers table map events and ignores the other events.
+   */
+  public void write(BinlogEventV4 event, OutputStream os) throws IOException {
+    if (doWrite(event)) os.write(this.buffer, 0, this.length);
+  }
+
+  /**
+   * Returns the number of bytes written into the buffer, which must have room for all of them.
+   */
+  public int write(BinlogEventV4 event, ByteBuffer buffer) {
+    if (!doWrite(event)) return 0;
+    buffer.put(this.buffer, 0, this.length);
+    return this.length;
+  }
+
+  /**
+	 * 
+	 */
+  protected boolean doWrite(BinlogEventV4 event) {
+    //
+    this.length = 0;
+    if (event instanceof TableMapEvent) {
+      final TableMapEvent tme = (TableMapEvent) event;
+      this.tables.put(tme.getTableId(), new Table(tme));
+      return false;
+    } else if (!(event instanceof AbstractRowEvent)) {
+      return false;
+    }
+
+    //
+    final AbstractRowEvent e = (AbstractRowEvent) event;
+    final Table table = getTable(e);
+    if (event instanceof WriteRowsEvent) {
+      final WriteRowsEvent w = (WriteRowsEvent) event;
+      writeRows(e, table.insert, table, w.getRows(), w.getUsedColumns(), false);
+    } else if (event instanceof WriteRowsEventV2) {
+      final WriteRowsEventV2 w = (WriteRowsEventV2) event;
+      writeRows(e, table.insert, table, w.getRows(), w.getUsedColumns(), false);
+    } else if (event instanceof DeleteRowsEvent) {
+      final DeleteRowsEvent d = (DeleteRowsEvent) event;
+      writeRows(e, table.delete, table, d.getRows(), d.getUsedColumns(), true);
+    } else if (event instanceof DeleteRowsEventV2) {
+      final DeleteRowsEventV2 d = (DeleteRowsEventV2) event;
+      writeRows(e, table.delete, table, d.getRows(), d.getUsedColumns(), true);
+    } else if (event instanceof UpdateRowsEvent) {
+      final UpdateRowsEvent u = (UpdateRowsEvent) event;
+      writePairs(e, table, u.getRows(), u.getUsedColumnsBefore(), u.getUsedColumnsAfter());
+    } else if (event instanceof UpdateRowsEventV2) {
+      final UpdateRowsEventV2 u = (UpdateRowsEventV2) event;
+      writePairs(e, table, u.getRows(), u.getUsedColumnsBefore(), u.getUsedColumnsAfter());
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  protected Table getTable(AbstractRowEvent event) {
+    Table r = this.tables.get(event.getTableId());
+    if (r == null || !r.matches(event)) {
+      r = new Table(event.getDatabaseName(), event.getTableName(), null);
+      this.tables.put(event.getTableId(), r);
+    }
+    return r;
+  }
+
+  /**
+	 * 
+	 */
+  private void writeRows(AbstractRowEvent event, byte[] prefix, Table table, List<Row> rows,
+      BitColumn used, boolean delete) {
+    for (Row row : rows) {
+      writePrefix(event, prefix);
+      writeRaw(delete ? BEFORE : DATA);
+      writeRow(table, row, used);
+      writeByte('}');
+      writeByte('\n');
+    }
+  }
+
+  private void writePairs(AbstractRowEvent event, Table table, List<Pair<Row>> rows,
+      BitColumn usedBefore, BitColumn usedAfter) {
+    for (Pair<Row> pair : rows) {
+      writePrefix(event, table.update);
+      writeRaw(BEFORE);
+      writeRow(table, pair.getBefore(), usedBefore);
+      writeRaw(DATA);
+      writeRow(table, pair.getAfter(), usedAfter);
+      writeByte('}');
+      writeByte('\n');
+    }
+  }
+
+  private void writePrefix(AbstractRowEvent event, byte[] prefix) {
+    writeRaw(prefix);
+    writeRaw(TIMESTAMP);
+    writeLong(event.getHeader().getTimestamp());
+    writeRaw(POSITION);
+    writeLong(event.getHeader().getNextPosition());
+  }
+
+  /**
+   * The columns of the row are those set in the used columns.
+   */
+  private void writeRow(Table table, Row row, BitColumn used) {
+    final List<Column> columns = row.getColumns();
+    int index = -1;
+    for (int i = 0; i < columns.size(); i++) {
+      index = nextUsed(used, index + 1);
+      if (i > 0) writeByte(',');
+      writeRaw(table.getKey(index));
+      writeColumn(columns.get(i), table.isUnsigned(index), table.getCollation(index));
+    }
+    writeByte('}');
+  }
+
+  private static int nextUsed(BitColumn used, int index) {
+    if (used == null) return index;
+    while (index < used.getLength() && !used.get(index)) index++;
+    return index;
+  }
+
+  /**
+   * @param collation the collation id of a character column, 0 if unknown
+   */
+  protected void writeColumn(Column column, boolean unsigned, int collation) {
+    if (column == null || column instanceof NullColumn) {
+      writeRaw(NULL);
+    } else if (column instanceof TinyColumn) {
+      final int v = ((TinyColumn) column).getValue();
+      writeLong(unsigned ? v & 0xFF : v);
+    } else if (column instanceof ShortColumn) {
+      final int v = ((ShortColumn) column).getValue();
+      writeLong(unsigned ? v & 0xFFFF : v);
+    } else if (column instanceof Int24Column) {
+      final int v = ((Int24Column) column).getValue();
+      writeLong(unsigned ? v & 0xFFFFFF : v);
+    } else if (column instanceof LongColumn) {
+      final int v = ((LongColumn) column).getValue();
+      writeLong(unsigned ? v & 0xFFFFFFFFL : v);
+    } else if (column instanceof LongLongColumn) {
+      final long v = ((LongLongColumn) column).getValue();
+      if (unsigned && v < 0) writeAscii(Long.toUnsignedString(v));
+      else writeLong(v);
+    } else if (column instanceof YearColumn) {
+      writeLong(((YearColumn) column).getValue());
+    } else if (column instanceof EnumColumn) {
+      writeLong(((EnumColumn) column).getValue());
+    } else if (column instanceof SetColumn) {
+      writeLong(((SetColumn) column).getValue());
+    } else if (column instanceof FloatColumn) {
+      final float v = ((FloatColumn) column).getValue();
+      if (Float.isNaN(v) || Float.isInfinite(v)) writeRaw(NULL);
+      else writeAscii(Float.toString(v));
+    } else if (column instanceof DoubleColumn) {
+      final double v = ((DoubleColumn) column).getValue();
+      if (Double.isNaN(v) || Double.isInfinite(v)) writeRaw(NULL);
+      else writeAscii(Double.toString(v));
+    } else if (column instanceof DecimalColumn) {
+      writeAscii(((DecimalColumn) column).getValue().toPlainString());
+    } else if (column instanceof BitColumn) {
+      writeBit((BitColumn) column);
+    } else if (column instanceof StringColumn) {
+      final byte[] v = ((StringColumn) column).getValue();
+      if (collation == MySQLConstants.COLLATION_BINARY) writeBase64(v);
+      else writeString(v, collation);
+    } else if (column instanceof BlobColumn) {
+      final byte[] v = ((BlobColumn) column).getValue();
+      if (collation == 0 || collation == MySQLConstants.COLLATION_BINARY) writeBase64(v);
+      else writeString(v, collation);
+    } else if (column instanceof DateColumn) {
+      writeTemporal(this.local, ((DateColumn) column).getValue().getTime(), false, 0, 0);
+    } else if (column instanceof DatetimeColumn) {
+      writeTemporal(this.local, ((DatetimeColumn) column).getValue().getTime(), true, 0, 0);
+    } else if (column instanceof Datetime2Column) {
+      final long millis = ((Datetime2Column) column).getValue().getTime();
+      writeTemporal(this.local, millis, true, (int) Math.floorMod(millis, 1000L), 3);
+    } else if (column instanceof TimeColumn) {
+      writeDuration(MySQLUtils.toDuration(((TimeColumn) column).getValue()));
+    } else if (column instanceof Time2Column) {
+      writeDuration(MySQLUtils.toDuration(((Time2Column) column).getValue()));
+    } else if (column instanceof TimestampColumn) {
+      final java.sql.Timestamp v = ((TimestampColumn) column).getValue();
+      writeTemporal(this.zoned, v.getTime(), true, v.getNanos() / 1000, 6);
+    } else if (column instanceof Timestamp2Column) {
+      final java.sql.Timestamp v = ((Timestamp2Column) column).getValue();
+      writeTemporal(this.zoned, v.getTime(), true, v.getNanos() / 1000, 6);
+    } else {
+      writeString(String.valueOf(column.getValue()).getBytes(UTF_8));
+    }
+  }
+
+  /**
+   * Writes e.g. "2017-07-14 02:40:00.123", the fraction only if it is not 0.
+   */
+  private void writeTemporal(Calendar c, long millis, boolean time, int fraction, int digits) {
+    c.setTimeInMillis(millis);
+    writeByte('"');
+    writeDigits(c.get(Calendar.YEAR), 4);
+    writeByte('-');
+    writeDigits(c.get(Calendar.MONTH) + 1, 2);
+    writeByte('-');
+    writeDigits(c.get(Calendar.DAY_OF_MONTH), 2);
+    if (time) {
+      writeByte(' ');
+      writeDigits(c.get(Calendar.HOUR_OF_DAY), 2);
+      writeByte(':');
+      writeDigits(c.get(Calendar.MINUTE), 2);
+      writeByte(':');
+      writeDigits(c.get(Calendar.SECOND), 2);
+      if (fraction != 0) {
+        writeByte('.');
+        writeDigits(fraction, digits);
+      }
+    }
+    writeByte('"');
+  }
+
+  /**
+   * Writes e.g. "-838:59:59" or "12:00:00.500", the fraction only if it is not 0.
+   */
+  private void writeDuration(long millis) {
+    writeByte('"');
+    if (millis < 0) writeByte('-');
+    final long abs = Math.abs(millis);
+    final long hours = abs / 3600000L;
+    writeDigits(hours, hours < 100 ? 2 : hours < 1000 ? 3 : 4);
+    writeByte(':');
+    writeDigits(abs / 60000L % 60, 2);
+    writeByte(':');
+    writeDigits(abs / 1000L % 60, 2);
+    if (abs % 1000 != 0) {
+      writeByte('.');
+      writeDigits(abs % 1000, 3);
+    }
+    writeByte('"');
+  }
+
+  private void writeBit(BitColumn column) {
+    if (column.getLength() > 63) {
+      writeBase64(column.getValue());
+      return;
+    }
+    long value = 0;
+    for (int i = column.getLength() - 1; i >= 0; i--) {
+      value = (value << 1) | (column.get(i) ? 1 : 0);
+    }
+    writeLong(value);
+  }
+
+  private void writeString(byte[] value, int collation) {
+    final Charset charset = MySQLUtils.getCharset(collation);
+    if (charset == null || charset.equals(UTF_8)) writeString(value);
+    else writeString(new String(value, charset).getBytes(UTF_8));
+  }
+
+  /**
+   * Escapes quotes, backslashes and control characters, everything else is copied as is.
+   */
+  private void writeString(byte[] value) {
+    ensureCapacity(value.length + 2);
+    byte[] b = this.buffer;
+    int n = this.length;
+    b[n++] = '"';
+    int i = 0;
+    while (i < value.length) {
+      // Fast path
+      final int start = i;
+      while (i < value.length && value[i] != '"' && value[i] != '\\'
+          && (value[i] & 0xFF) >= 0x20) {
+        i++;
+      }
+      System.arraycopy(value, start, b, n, i - start);
+      n += i - start;
+      if (i == value.length) break;
+
+      //
+      this.length = n;
+      ensureCapacity(6 + value.length - i + 1);
+      b = this.buffer;
+      n = writeEscape(b, n, value[i++]);
+    }
+    b[n++] = '"';
+    this.length = n;
+  }
+
+  private static int writeEscape(byte[] b, int n, byte c) {
+    b[n++] = '\\';
+    switch (c) {
+      case '"':
+      case '\\':
+        b[n++] = c;
+        break;
+      case '\n':
+        b[n++] = 'n';
+        break;
+      case '\r':
+        b[n++] = 'r';
+        break;
+      case '\t':
+        b[n++] = 't';
+        break;
+      default:
+        b[n++] = 'u';
+        b[n++] = '0';
+        b[n++] = '0';
+        b[n++] = HEX[(c >> 4) & 0x0F];
+        b[n++] = HEX[c & 0x0F];
+    }
+    return n;
+  }
+
+  private void writeBase64(byte[] value) {
+    ensureCapacity((value.length + 2) / 3 * 4 + 2);
+    final byte[] b = this.buffer;
+    int n = this.length;
+    b[n++] = '"';
+    int i = 0;
+    for (; i + 2 < value.length; i += 3) {
+      final int v = (value[i] & 0xFF) << 16 | (value[i + 1] & 0xFF) << 8 | (value[i + 2] & 0xFF);
+      b[n++] = BASE64[v >>> 18];
+      b[n++] = BASE64[(v >>> 12) & 0x3F];
+      b[n++] = BASE64[(v >>> 6) & 0x3F];
+      b[n++] = BASE64[v & 0x3F];
+    }
+    if (i < value.length) {
+      final boolean two = i + 1 < value.length;
+      final int v = (value[i] & 0xFF) << 16 | (two ? (value[i + 1] & 0xFF) << 8 : 0);
+      b[n++] = BASE64[v >>> 18];
+      b[n++] = BASE64[(v >>> 12) & 0x3F];
+      b[n++] = two ? BASE64[(v >>> 6) & 0x3F] : (byte) '=';
+      b[n++] = '=';
+    }
+    b[n++] = '"';
+    this.length = n;
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      writeAscii("-9223372036854775808");
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      this.buffer[this.length++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) digits++;
+    writeDigits(value, digits);
+  }
+
+  /**
+   * Writes the lowest digits of the value, zero padded.
+   */
+  private void writeDigits(long value, int digits) {
+    ensureCapacity(digits);
+    for (int i = this.length + digits - 1; i >= this.length; i--) {
+      this.buffer[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    this.length += digits;
+  }
+
+  private void writeAscii(String value) {
+    ensureCapacity(value.length());
+    for (int i = 0; i < value.length(); i++) this.buffer[this.length++] = (byte) value.charAt(i);
+  }
+
+  private void writeRaw(byte[] value) {
+    ensureCapacity(value.length);
+    System.arraycopy(value, 0, this.buffer, this.length, value.length);
+    this.length += value.length;
+  }
+
+  private void writeByte(char value) {
+    ensureCapacity(1);
+    this.buffer[this.length++] = (byte) value;
+  }
+
+  private void ensureCapacity(int n) {
+    if (this.length + n > this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.length + n));
+    }
+  }
+
+  /**
+   * The encoded names of a table.
+   */
+  protected final class Table {
+    //
+    private final String databaseName;
+    private final String tableName;
+    private final String[] columnNames;
+    private final boolean[] unsigned; // Null unless known
+    private final int[] collations;
+    private final byte[] insert;
+    private final byte[] update;
+    private final byte[] delete;
+    private byte[][] keys = new byte[0][]; // "name":
+
+    /**
+		 * 
+		 */
+    public Table(TableMapEvent tme) {
+      this(String.valueOf(tme.getDatabaseName()), String.valueOf(tme.getTableName()),
+          tme.getOptionalMetadata() == null ? null : tme.getOptionalMetadata().getColumnNames(),
+          tme.getOptionalMetadata() == null ? null
+              : tme.getOptionalMetadata().getUnsigned(tme.getColumnTypes()),
+          tme.getOptionalMetadata() == null ? null : tme.getOptionalMetadata()
+              .getCollations(tme.getColumnTypes(), tme.getColumnMetadata()));
+    }
+
+    public Table(String databaseName, String tableName, String[] columnNames) {
+      this(databaseName, tableName, columnNames, null, null);
+    }
+
+    public Table(String databaseName, String tableName, String[] columnNames, boolean[] unsigned,
+        int[] collations) {
+      this.databaseName = String.valueOf(databaseName);
+      this.tableName = String.valueOf(tableName);
+      this.columnNames = columnNames;
+      this.unsigned = unsigned;
+      this.collations = collations;
+      this.insert = getPrefix("insert");
+      this.update = getPrefix("update");
+      this.delete = getPrefix("delete");
+    }
+
+    /**
+		 * 
+		 */
+    public boolean matches(AbstractRowEvent event) {
+      return String.valueOf(event.getDatabaseName()).equals(this.databaseName)
+          && String.valueOf(event.getTableName()).equals(this.tableName);
+    }
+
+    public boolean isUnsigned(int index) {
+      return this.unsigned != null && index < this.unsigned.length && this.unsigned[index];
+    }
+
+    public int getCollation(int index) {
+      return this.collations != null && index < this.collations.length ? this.collations[index]
+          : 0;
+    }
+
+    public byte[] getKey(int index) {
+      if (index >= this.keys.length) this.keys = Arrays.copyOf(this.keys, index + 1);
+      if (this.keys[index] == null) {
+        final String name = this.columnNames != null && index < this.columnNames.length
+            ? this.columnNames[index] : "@" + (index + 1);
+        this.keys[index] = encode(name, ":");
+      }
+      return this.keys[index];
+    }
+
+    private byte[] getPrefix(String type) {
+      final String r = "{\"database\":" + quote(this.databaseName) + ",\"table\":"
+          + quote(this.tableName) + ",\"type\":\"" + type + "\"";
+      return r.getBytes(UTF_8);
+    }
+
+    private byte[] encode(String name, String suffix) {
+      return (quote(name) + suffix).getBytes(UTF_8);
+    }
+  }
+
+  /**
+	 * 
+	 */
+  static String quote(String value) {
+    final StringBuilder r = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') r.append('\\').append(c);
+      else if (c < 0x20) r.append(String.format("\\u%04x", (int) c));
+      else r.append(c);
+    }
+    return r.append('"').toString();
+  }
+}
@@ -0,0 +1,491 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.dispatch.AsyncEventDispatcher;
+import com.google.code.or.binlog.impl.event.DeleteRowsEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEventV2;
+import com.google.code.or.binlog.impl.event.UpdateRowsEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.common.util.ToStringBuilder;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * The metrics of a parser, recorded with {@link LongAdder}s and {@link LatencyHistogram}s so that
+ * recording takes no locks and allocates nothing. A parser records into it once set with
+ * {@link com.google.code.or.binlog.impl.AbstractBinlogParser#setMetrics(BinlogMetrics)}:
+ * <ul>
+ * <li>The events delivered, by type, with their length and the rows of row events by table</li>
+ * <li>The time to decode an event, excluding the listener, by the replication and file parsers</li>
+ * <li>The time the event listener takes, unless the events go through an event dispatcher</li>
+ * <li>The time blocked reading from the socket, by the replication parser, and on a full event
+ * dispatcher, whose fill level is sampled on demand</li>
+ * </ul>
+ * Once started, the metrics are handed to the reporters at the report interval, which is also the
+ * window of the event rate. {@link #register()} exposes them as an MXBean.
+ */
+public class BinlogMetrics implements BinlogMetricsMXBean {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(BinlogMetrics.class);
+
+  //
+  protected final String name;
+  protected long reportInterval = 10000; // milliseconds
+  protected final List<MetricsReporter> reporters = new CopyOnWriteArrayList<MetricsReporter>();
+  protected volatile AsyncEventDispatcher eventDispatcher;
+
+  //
+  private final LongAdder events = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder[] eventTypes = new LongAdder[256];
+  private final String[] eventTypeNames = new String[256];
+  private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> tableRows =
+      new ConcurrentHashMap<String, ConcurrentMap<String, LongAdder>>();
+  private final LatencyHistogram decodeTime = new LatencyHistogram();
+  private final LatencyHistogram listenerTime = new LatencyHistogram();
+  private final LongAdder readBlockedTime = new LongAdder();
+  private final LongAdder dispatchBlockedTime = new LongAdder();
+  private ScheduledExecutorService scheduler;
+  private ObjectName objectName;
+  private long lastEvents;
+  private long lastTime = System.nanoTime();
+  private volatile double eventRate;
+
+  /**
+	 * 
+	 */
+  public BinlogMetrics(String name) {
+    this.name = name;
+    for (int i = 0; i < this.eventTypes.length; i++) this.eventTypes[i] = new LongAdder();
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return snapshot().toString();
+  }
+
+  /**
+   * Reports at the report interval until stopped.
+   */
+  public synchronized void start() {
+    if (this.scheduler != null) return;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new XThreadFactory("binlog-metrics-" + this.name, true));
+    this.scheduler.scheduleAtFixedRate(new Runnable() {
+      public void run() {
+        report();
+      }
+    }, this.reportInterval, this.reportInterval, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop() {
+    if (this.scheduler == null) return;
+    this.scheduler.shutdownNow();
+    this.scheduler = null;
+  }
+
+  /**
+   * Registers with the platform MBean server as com.google.code.or:type=BinlogMetrics,name=name.
+   */
+  public synchronized void register() throws Exception {
+    if (this.objectName != null) return;
+    final ObjectName on = new ObjectName("com.google.code.or:type=BinlogMetrics,name="
+        + ObjectName.quote(this.name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+    this.objectName = on;
+  }
+
+  public synchronized void unregister() throws Exception {
+    if (this.objectName == null) return;
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if (server.isRegistered(this.objectName)) server.unregisterMBean(this.objectName);
+    this.objectName = null;
+  }
+
+  /**
+	 * 
+	 */
+  public String getName() {
+    return name;
+  }
+
+  public long getReportInterval() {
+    return reportInterval;
+  }
+
+  /**
+   * In milliseconds, takes effect on start.
+   */
+  public void setReportInterval(long reportInterval) {
+    this.reportInterval = reportInterval;
+  }
+
+  public List<MetricsReporter> getReporters() {
+    return reporters;
+  }
+
+  public boolean addReporter(MetricsReporter reporter) {
+    return this.reporters.add(reporter);
+  }
+
+  public boolean removeReporter(MetricsReporter reporter) {
+    return this.reporters.remove(reporter);
+  }
+
+  public AsyncEventDispatcher getEventDispatcher() {
+    return eventDispatcher;
+  }
+
+  /**
+   * The dispatcher whose fill level is reported, set by the parser on start.
+   */
+  public void setEventDispatcher(AsyncEventDispatcher eventDispatcher) {
+    this.eventDispatcher = eventDispatcher;
+  }
+
+  /**
+	 * 
+	 */
+  public void recordEvent(BinlogEventV4 event) {
+    final int type = event.getHeader().getEventType() & 0xFF;
+    if (this.eventTypeNames[type] == null) {
+      this.eventTypeNames[type] = event.getClass().getSimpleName();
+    }
+    this.eventTypes[type].increment();
+    this.events.increment();
+    this.bytes.add(event.getHeader().getEventLength());
+  }
+
+  public void recordRows(String databaseName, String tableName, int rows) {
+    ConcurrentMap<String, LongAdder> tables = this.tableRows.get(databaseName);
+    if (tables == null) {
+      this.tableRows.putIfAbsent(databaseName, new ConcurrentHashMap<String, LongAdder>());
+      tables = this.tableRows.get(databaseName);
+    }
+    LongAdder r = tables.get(tableName);
+    if (r == null) {
+      tables.putIfAbsent(tableName, new LongAdder());
+      r = tables.get(tableName);
+    }
+    r.add(rows);
+  }
+
+  public void recordDecodeTime(long nanos) {
+    this.decodeTime.record(nanos);
+  }
+
+  public void recordListenerTime(long nanos) {
+    this.listenerTime.record(nanos);
+  }
+
+  public void recordReadBlockedTime(long nanos) {
+    this.readBlockedTime.add(nanos);
+  }
+
+  public void recordDispatchBlockedTime(long nanos) {
+    this.dispatchBlockedTime.add(nanos);
+  }
+
+  /**
+   * Returns the number of rows of a row event, or 0.
+   */
+  public static int getRowCount(BinlogEventV4 event) {
+    if (event instanceof WriteRowsEvent) {
+      return ((WriteRowsEvent) event).getRows().size();
+    } else if (event instanceof WriteRowsEventV2) {
+      return ((WriteRowsEventV2) event).getRows().size();
+    } else if (event instanceof UpdateRowsEvent) {
+      return ((UpdateRowsEvent) event).getRows().size();
+    } else if (event instanceof UpdateRowsEventV2) {
+      return ((UpdateRowsEventV2) event).getRows().size();
+    } else if (event instanceof DeleteRowsEvent) {
+      return ((DeleteRowsEvent) event).getRows().size();
+    } else if (event instanceof DeleteRowsEventV2) {
+      return ((DeleteRowsEventV2) event).getRows().size();
+    }
+    return 0;
+  }
+
+  /**
+	 * 
+	 */
+  public long getEventCount() {
+    return this.events.sum();
+  }
+
+  public long getBytesRead() {
+    return this.bytes.sum();
+  }
+
+  /**
+   * Events per second in the last report interval, or since creation if not started.
+   */
+  public double getEventRate() {
+    if (this.scheduler == null) updateEventRate();
+    return this.eventRate;
+  }
+
+  public Map<String, Long> getEventCounts() {
+    final Map<String, Long> r = new TreeMap<String, Long>();
+    for (int i = 0; i < this.eventTypes.length; i++) {
+      final long n = this.eventTypes[i].sum();
+      if (n > 0) r.put(this.eventTypeNames[i] == null ? "type " + i : this.eventTypeNames[i], n);
+    }
+    return r;
+  }
+
+  public Map<String, Long> getTableRowCounts() {
+    final Map<String, Long> r = new TreeMap<String, Long>();
+    for (Map.Entry<String, ConcurrentMap<String, LongAdder>> d : this.tableRows.entrySet()) {
+      for (Map.Entry<String, LongAdder> t : d.getValue().entrySet()) {
+        r.put(d.getKey() + "." + t.getKey(), t.getValue().sum());
+      }
+    }
+    return r;
+  }
+
+  public LatencyHistogram getDecodeTime() {
+    return decodeTime;
+  }
+
+  public long getDecodeTimeP50() {
+    return this.decodeTime.getPercentile(50);
+  }
+
+  public long getDecodeTimeP99() {
+    return this.decodeTime.getPercentile(99);
+  }
+
+  public long getDecodeTimeMax() {
+    return this.decodeTime.getMax();
+  }
+
+  public LatencyHistogram getListenerTime() {
+    return listenerTime;
+  }
+
+  public long getListenerTimeP50() {
+    return this.listenerTime.getPercentile(50);
+  }
+
+  public long getListenerTimeP99() {
+    return this.listenerTime.getPercentile(99);
+  }
+
+  public long getListenerTimeMax() {
+    return this.listenerTime.getMax();
+  }
+
+  public long getReadBlockedTime() {
+    return this.readBlockedTime.sum();
+  }
+
+  public long getDispatchBlockedTime() {
+    return this.dispatchBlockedTime.sum();
+  }
+
+  /**
+   * The share of the event dispatcher in use, from 0 to 1, or 0 without one.
+   */
+  public double getBufferFill() {
+    final AsyncEventDispatcher dispatcher = this.eventDispatcher;
+    if (dispatcher == null) return 0d;
+    return (double) dispatcher.size() / dispatcher.getCapacity();
+  }
+
+  /**
+	 * 
+	 */
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  protected void report() {
+    updateEventRate();
+    final Snapshot snapshot = snapshot();
+    for (MetricsReporter reporter : this.reporters) {
+      try {
+        reporter.report(snapshot);
+      } catch (Exception e) {
+        LOGGER.error("failed to report binlog metrics, reporter: " + reporter, e);
+      }
+    }
+  }
+
+  private synchronized void updateEventRate() {
+    final long now = System.nanoTime();
+    final long events = getEventCount();
+    if (now > this.lastTime) {
+      this.eventRate = (events - this.lastEvents) * 1000000000d / (now - this.lastTime);
+    }
+    if (this.scheduler != null) {
+      this.lastEvents = events;
+      this.lastTime = now;
+    }
+  }
+
+  /**
+   * The values of the metrics at a point in time.
+   */
+  public static final class Snapshot implements BinlogMetricsMXBean {
+    //
+    private final String name;
+    private final long timestamp;
+    private final long eventCount;
+    private final long bytesRead;
+    private final double eventRate;
+    private final Map<String, Long> eventCounts;
+    private final Map<String, Long> tableRowCounts;
+    private final long decodeTimeP50;
+    private final long decodeTimeP99;
+    private final long decodeTimeMax;
+    private final long listenerTimeP50;
+    private final long listenerTimeP99;
+    private final long listenerTimeMax;
+    private final long readBlockedTime;
+    private final long dispatchBlockedTime;
+    private final double bufferFill;
+
+    /**
+		 * 
+		 */
+    private Snapshot(BinlogMetrics metrics) {
+      this.name = metrics.getName();
+      this.timestamp = System.currentTimeMillis();
+      this.eventCount = metrics.getEventCount();
+      this.bytesRead = metrics.getBytesRead();
+      this.eventRate = metrics.getEventRate();
+      this.eventCounts = Collections.unmodifiableMap(metrics.getEventCounts());
+      this.tableRowCounts = Collections.unmodifiableMap(metrics.getTableRowCounts());
+      this.decodeTimeP50 = metrics.getDecodeTimeP50();
+      this.decodeTimeP99 = metrics.getDecodeTimeP99();
+      this.decodeTimeMax = metrics.getDecodeTimeMax();
+      this.listenerTimeP50 = metrics.getListenerTimeP50();
+      this.listenerTimeP99 = metrics.getListenerTimeP99();
+      this.listenerTimeMax = metrics.getListenerTimeMax();
+      this.readBlockedTime = metrics.getReadBlockedTime();
+      this.dispatchBlockedTime = metrics.getDispatchBlockedTime();
+      this.bufferFill = metrics.getBufferFill();
+    }
+
+    /**
+		 * 
+		 */
+    @Override
+    public String toString() {
+      return new ToStringBuilder(this).append("name", name).append("eventCount", eventCount)
+          .append("bytesRead", bytesRead).append("eventRate", eventRate)
+          .append("eventCounts", eventCounts).append("tableRowCounts", tableRowCounts)
+          .append("decodeTimeP50", decodeTimeP50).append("decodeTimeP99", decodeTimeP99)
+          .append("decodeTimeMax", decodeTimeMax).append("listenerTimeP50", listenerTimeP50)
+          .append("listenerTimeP99", listenerTimeP99).append("listenerTimeMax", listenerTimeMax)
+          .append("readBlockedTime", readBlockedTime)
+          .append("dispatchBlockedTime", dispatchBlockedTime).append("bufferFill", bufferFill)
+          .toString();
+    }
+
+    /**
+		 * 
+		 */
+    public String getName() {
+      return name;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public long getEventCount() {
+      return eventCount;
+    }
+
+    public long getBytesRead() {
+      return bytesRead;
+    }
+
+    public double getEventRate() {
+      return eventRate;
+    }
+
+    public Map<String, Long> getEventCounts() {
+      return eventCounts;
+    }
+
+    public Map<String, Long> getTableRowCounts() {
+      return tableRowCounts;
+    }
+
+    public long getDecodeTimeP50() {
+      return decodeTimeP50;
+    }
+
+    public long getDecodeTimeP99() {
+      return decodeTimeP99;
+    }
+
+    public long getDecodeTimeMax() {
+      return decodeTimeMax;
+    }
+
+    public long getListenerTimeP50() {
+      return listenerTimeP50;
+    }
+
+    public long getListenerTimeP99() {
+      return listenerTimeP99;
+    }
+
+    public long getListenerTimeMax() {
+      return listenerTimeMax;
+    }
+
+    public long getReadBlockedTime() {
+      return readBlockedTime;
+    }
+
+    public long getDispatchBlockedTime() {
+      return dispatchBlockedTime;
+    }
+
+    public double getBufferFill() {
+      return bufferFill;
+    }
+  }
+}
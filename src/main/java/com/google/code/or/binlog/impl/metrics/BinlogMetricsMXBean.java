@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.metrics;
+
+import java.util.Map;
+
+/**
+ * The attributes of {@link BinlogMetrics} exposed through JMX, durations in nanoseconds.
+ */
+public interface BinlogMetricsMXBean {
+
+  long getEventCount();
+
+  long getBytesRead();
+
+  double getEventRate();
+
+  Map<String, Long> getEventCounts();
+
+  Map<String, Long> getTableRowCounts();
+
+  long getDecodeTimeP50();
+
+  long getDecodeTimeP99();
+
+  long getDecodeTimeMax();
+
+  long getListenerTimeP50();
+
+  long getListenerTimeP99();
+
+  long getListenerTimeMax();
+
+  long getReadBlockedTime();
+
+  long getDispatchBlockedTime();
+
+  double getBufferFill();
+}
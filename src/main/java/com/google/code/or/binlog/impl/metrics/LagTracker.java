@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.StatusVariable;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.HeartbeatEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.variable.status.QMicroseconds;
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * Tracks how far behind the master the events of a source are, per transaction: the receive lag
+ * when its commit event was read, the decode lag when it was decoded and the complete lag when the
+ * event listener returned from it, all measured from when the transaction committed on the master.
+ * A parser reports to it once set with
+ * {@link com.google.code.or.binlog.impl.AbstractBinlogParser#setLagTracker(LagTracker)}.
+ * <p>
+ * The header timestamp only has a resolution of a second. The commit time is therefore taken from
+ * the immediate commit timestamp of the GTID event if written (MySQL 8.0 and later), otherwise from
+ * the start of the BEGIN query including its microseconds status variable if written, otherwise
+ * from the header timestamp of the commit event. Statements outside a transaction, e.g. DDL, count
+ * as transactions of their own. The lags are subject to the clock offset between the master and
+ * this host.
+ * <p>
+ * The current lag is the age of the oldest transaction decoded but not yet completed. With none
+ * pending, it is 0 once a heartbeat arrived since the last completed transaction, telling that the
+ * master has nothing newer, and the lag of that transaction otherwise. The idle time tells a quiet
+ * master from a stalled connection.
+ * <p>
+ * Completions must be reported in the order the events were decoded, as every dispatcher does, and
+ * are matched to transactions by the identity of their commit event. A transaction whose commit
+ * event is never completed, e.g. as the event listener failed on it, is abandoned once a later one
+ * completes, and all pending ones are on {@link #reset()}. The capacity bounds the transactions in
+ * flight, e.g. those queued in the event dispatcher: once full, the oldest is evicted without a
+ * complete lag.
+ */
+public class LagTracker implements LagTrackerMXBean {
+  //
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  //
+  protected final String source;
+
+  //
+  private final LatencyHistogram receiveLag = new LatencyHistogram();
+  private final LatencyHistogram decodeLag = new LatencyHistogram();
+  private final LatencyHistogram completeLag = new LatencyHistogram();
+  private final int mask;
+  private final BinlogEventV4[] pendingEvents; // The commit events
+  private final long[] pendingTimes; // Commit times, in microseconds
+  private long transactionTime; // Of the transaction being decoded, 0 if unknown
+  private boolean inTransaction;
+  private volatile long decoded; // Sequence of the last transaction decoded
+  private volatile long completed; // And completed, evicted or abandoned
+  private volatile long evicted;
+  private volatile long abandoned;
+  private volatile long lastReceipt; // Of an event or heartbeat, in milliseconds
+  private volatile long lastHeartbeat;
+  private volatile long lastCompletion;
+  private volatile long lastReceiveLag; // In microseconds
+  private volatile long lastDecodeLag;
+  private volatile long lastCompleteLag;
+  private ObjectName objectName;
+
+  /**
+	 * 
+	 */
+  public LagTracker(String source) {
+    this(source, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity the transactions in flight, rounded up to a power of 2
+   */
+  public LagTracker(String source, int capacity) {
+    if (capacity <= 0) throw new IllegalArgumentException("invalid capacity: " + capacity);
+    final int n = Integer.highestOneBit(capacity) == capacity ? capacity
+        : Integer.highestOneBit(capacity) << 1;
+    this.source = source;
+    this.mask = n - 1;
+    this.pendingEvents = new BinlogEventV4[n];
+    this.pendingTimes = new long[n];
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("source", source)
+        .append("currentLag", getCurrentLag()).append("idleTime", getIdleTime())
+        .append("transactionCount", getTransactionCount()).append("evictedCount", evicted)
+        .append("abandonedCount", abandoned)
+        .append("receiveLagP99", getReceiveLagP99()).append("decodeLagP99", getDecodeLagP99())
+        .append("completeLagP99", getCompleteLagP99()).toString();
+  }
+
+  /**
+   * Registers with the platform MBean server as com.google.code.or:type=LagTracker,name=source.
+   */
+  public synchronized void register() throws Exception {
+    if (this.objectName != null) return;
+    final ObjectName on = new ObjectName("com.google.code.or:type=LagTracker,name="
+        + ObjectName.quote(this.source));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+    this.objectName = on;
+  }
+
+  public synchronized void unregister() throws Exception {
+    if (this.objectName == null) return;
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if (server.isRegistered(this.objectName)) server.unregisterMBean(this.objectName);
+    this.objectName = null;
+  }
+
+  /**
+   * Called on the parser thread once an event has been decoded, before the event listener.
+   */
+  public void onDecoded(BinlogEventV4 event) {
+    //
+    final long receipt = event.getHeader().getTimestampOfReceipt();
+    if (receipt > 0) this.lastReceipt = receipt;
+    if (event instanceof GtidEvent) {
+      this.transactionTime = ((GtidEvent) event).getImmediateCommitTimestamp();
+      return;
+    } else if (event instanceof QueryEvent) {
+      final QueryEvent qe = (QueryEvent) event;
+      final String sql = qe.getSql().toString().trim();
+      if ("BEGIN".equalsIgnoreCase(sql)) {
+        if (this.transactionTime == 0) this.transactionTime = getStartTime(qe);
+        this.inTransaction = true;
+        return;
+      } else if (this.inTransaction && !"COMMIT".equalsIgnoreCase(sql)) {
+        return;
+      } else if (!this.inTransaction && this.transactionTime == 0) {
+        this.transactionTime = getStartTime(qe);
+      }
+    } else if (!(event instanceof XidEvent)) {
+      return;
+    }
+
+    // The end of a transaction
+    final long time = this.transactionTime != 0 ? this.transactionTime
+        : event.getHeader().getTimestamp() * 1000L;
+    this.transactionTime = 0;
+    this.inTransaction = false;
+    final long now = System.currentTimeMillis() * 1000L;
+    if (receipt > 0) {
+      this.lastReceiveLag = Math.max(0, receipt * 1000L - time);
+      this.receiveLag.record(this.lastReceiveLag * 1000L);
+    }
+    this.lastDecodeLag = Math.max(0, now - time);
+    this.decodeLag.record(this.lastDecodeLag * 1000L);
+
+    //
+    synchronized (this) {
+      if (this.decoded - this.completed > this.mask) { // Full, evicts the oldest
+        this.completed++;
+        this.evicted++;
+      }
+      final long sequence = this.decoded + 1;
+      final int index = (int) (sequence & this.mask);
+      this.pendingTimes[index] = time;
+      this.pendingEvents[index] = event;
+      this.decoded = sequence;
+    }
+  }
+
+  /**
+   * Called once the event listener returned from an event, on the parser or dispatcher thread, in
+   * the order the events were decoded.
+   */
+  public void onCompleted(BinlogEventV4 event) {
+    //
+    if (!(event instanceof XidEvent) && !(event instanceof QueryEvent)) return;
+    if (this.completed >= this.decoded) return; // Nothing in flight
+    synchronized (this) {
+      long sequence = this.completed + 1;
+      for (; sequence <= this.decoded; sequence++) {
+        if (this.pendingEvents[(int) (sequence & this.mask)] == event) break;
+      }
+      if (sequence > this.decoded) return; // Not a commit event, or evicted
+
+      // The earlier ones were never completed
+      abandon(sequence - 1);
+      final int index = (int) (sequence & this.mask);
+      final long now = System.currentTimeMillis();
+      this.lastCompleteLag = Math.max(0, now * 1000L - this.pendingTimes[index]);
+      this.completeLag.record(this.lastCompleteLag * 1000L);
+      this.lastCompletion = now;
+      this.pendingEvents[index] = null;
+      this.completed = sequence;
+    }
+  }
+
+  /**
+   * Abandons the transactions in flight, called before the source starts over, e.g. as its parser
+   * restarts after a failure.
+   */
+  public synchronized void reset() {
+    abandon(this.decoded);
+    this.transactionTime = 0;
+    this.inTransaction = false;
+  }
+
+  public void onHeartbeat(HeartbeatEvent event) {
+    final long receipt = event.getHeader().getTimestampOfReceipt();
+    this.lastHeartbeat = this.lastReceipt = receipt > 0 ? receipt : System.currentTimeMillis();
+  }
+
+  /**
+	 * 
+	 */
+  private void abandon(long sequence) {
+    for (long s = this.completed + 1; s <= sequence; s++) {
+      this.pendingEvents[(int) (s & this.mask)] = null;
+      this.abandoned++;
+    }
+    if (sequence > this.completed) this.completed = sequence;
+  }
+
+  /**
+   * Returns the start of a query in microseconds, using its microseconds status variable if any.
+   */
+  protected static long getStartTime(QueryEvent event) {
+    final long r = event.getHeader().getTimestamp() * 1000L;
+    final List<StatusVariable> variables = event.getStatusVariables();
+    if (variables != null) {
+      for (StatusVariable v : variables) {
+        if (v instanceof QMicroseconds) return r + ((QMicroseconds) v).getStartUsec();
+      }
+    }
+    return r;
+  }
+
+  /**
+	 * 
+	 */
+  public String getSource() {
+    return source;
+  }
+
+  public double getCurrentLag() {
+    final long time;
+    synchronized (this) {
+      time = this.decoded > this.completed
+          ? this.pendingTimes[(int) ((this.completed + 1) & this.mask)] : 0;
+    }
+    if (time != 0) return Math.max(0, System.currentTimeMillis() * 1000L - time) / 1000d;
+    if (this.lastHeartbeat >= this.lastCompletion) return 0d;
+    return this.lastCompleteLag / 1000d;
+  }
+
+  /**
+   * The time since the last event or heartbeat was received.
+   */
+  public long getIdleTime() {
+    return this.lastReceipt == 0 ? 0 : System.currentTimeMillis() - this.lastReceipt;
+  }
+
+  public long getTransactionCount() {
+    return this.completed - this.evicted - this.abandoned;
+  }
+
+  /**
+   * The transactions evicted while in flight because the capacity was exceeded.
+   */
+  public long getEvictedCount() {
+    return this.evicted;
+  }
+
+  /**
+   * The transactions decoded but never completed, e.g. as the event listener failed on them.
+   */
+  public long getAbandonedCount() {
+    return this.abandoned;
+  }
+
+  public double getLastReceiveLag() {
+    return this.lastReceiveLag / 1000d;
+  }
+
+  public double getLastDecodeLag() {
+    return this.lastDecodeLag / 1000d;
+  }
+
+  public double getLastCompleteLag() {
+    return this.lastCompleteLag / 1000d;
+  }
+
+  /**
+   * In nanoseconds, like every {@link LatencyHistogram}.
+   */
+  public LatencyHistogram getReceiveLag() {
+    return receiveLag;
+  }
+
+  public LatencyHistogram getDecodeLag() {
+    return decodeLag;
+  }
+
+  public LatencyHistogram getCompleteLag() {
+    return completeLag;
+  }
+
+  public double getReceiveLagP50() {
+    return this.receiveLag.getPercentile(50) / 1000000d;
+  }
+
+  public double getReceiveLagP99() {
+    return this.receiveLag.getPercentile(99) / 1000000d;
+  }
+
+  public double getDecodeLagP50() {
+    return this.decodeLag.getPercentile(50) / 1000000d;
+  }
+
+  public double getDecodeLagP99() {
+    return this.decodeLag.getPercentile(99) / 1000000d;
+  }
+
+  public double getCompleteLagP50() {
+    return this.completeLag.getPercentile(50) / 1000000d;
+  }
+
+  public double getCompleteLagP99() {
+    return this.completeLag.getPercentile(99) / 1000000d;
+  }
+
+  public double getCompleteLagMax() {
+    return this.completeLag.getMax() / 1000000d;
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds with log-linear buckets, like HdrHistogram: 16
+ * buckets per power of two, so that every recorded value is within about 6% of its bucket.
+ */
+public final class LatencyHistogram {
+  //
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  //
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("count", getCount()).append("mean", getMean())
+        .append("p50", getPercentile(50)).append("p99", getPercentile(99))
+        .append("max", getMax()).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public void record(long nanos) {
+    if (nanos < 0) nanos = 0;
+    this.counts.incrementAndGet(getIndex(nanos));
+    this.count.increment();
+    this.sum.add(nanos);
+    for (long m = this.max.get(); nanos > m; m = this.max.get()) {
+      if (this.max.compareAndSet(m, nanos)) break;
+    }
+  }
+
+  public long getCount() {
+    return this.count.sum();
+  }
+
+  public long getMax() {
+    return this.max.get();
+  }
+
+  public long getMean() {
+    final long n = getCount();
+    return n == 0 ? 0 : this.sum.sum() / n;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given percentile, e.g. 99.9, or 0 if
+   * nothing has been recorded.
+   */
+  public long getPercentile(double percentile) {
+    final long total = getCount();
+    if (total == 0) return 0;
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100d));
+    long n = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      n += this.counts.get(i);
+      if (n >= rank) return Math.min(getUpperBound(i), getMax());
+    }
+    return getMax();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) this.counts.set(i, 0);
+    this.count.reset();
+    this.sum.reset();
+    this.max.set(0);
+  }
+
+  /**
+	 * 
+	 */
+  static int getIndex(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+  }
+
+  static long getUpperBound(int index) {
+    if (index < SUB_BUCKETS) return index;
+    final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+    final long r = ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    return r < 0 ? Long.MAX_VALUE : r;
+  }
+}
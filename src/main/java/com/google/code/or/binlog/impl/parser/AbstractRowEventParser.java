@@ -204,7 +204,7 @@ public abstract class AbstractRowEventParser extends AbstractBinlogEventParser {
         case MySQLConstants.TYPE_TIME2:
           final int value1 = is.readInt(3, false);
           final int nanos1 = is.readInt((meta + 1) / 2, false);
-          columns.add(Time2Column.valueOf(MySQLUtils.toTime2(value1, nanos1)));
+          columns.add(Time2Column.valueOf(MySQLUtils.toTime2(value1, nanos1, meta)));
           break;
         case MySQLConstants.TYPE_DATETIME2:
           final long value2 = is.readLong(5, false);
@@ -24,27 +24,53 @@ import java.nio.ByteOrder;
  *         +-------------------+
  *         | 8B Txn ID         |
  *         +-------------------+
+ *         | 1B clock type     | 5.7+
+ *         | 8B last committed |
+ *         | 8B sequence nr    |
+ *         +-------------------+
+ *         | 7B commit time    | 8.0+, original commit time follows if the high bit is set
+ *         | packed length     |
+ *         +-------------------+
  *         | ...               |
  *         +-------------------+
  *     </pre>
  * </p>
  */
 public class GtidEventParser extends AbstractBinlogEventParser {
+  //
+  public static final int LOGICAL_TIMESTAMP_TYPECODE = 2;
 
   public GtidEventParser() {
     super(MySQLConstants.GTID_LOG_EVENT);
   }
 
+  /**
+   * ANONYMOUS_GTID_LOG_EVENT shares the body layout, with a zero source id and transaction id.
+   */
+  public GtidEventParser(int eventType) {
+    super(eventType);
+  }
+
   @Override
   public void parse(XInputStream is, BinlogEventV4Header header, BinlogParserContext context)
       throws IOException {
     is.readBytes(1); // commit flag, always true
     byte[] sourceId = is.readBytes(16);
     long transactionId = ByteBuffer.wrap(is.readBytes(8)).order(ByteOrder.LITTLE_ENDIAN).getLong();
-    is.skip(is.available()); // position at next event
-
     GtidEvent event = new GtidEvent(sourceId, transactionId);
     event.setHeader(header);
+    if (is.available() >= 17 && is.readInt(1) == LOGICAL_TIMESTAMP_TYPECODE) {
+      event.setLastCommitted(is.readLong(8));
+      event.setSequenceNumber(is.readLong(8));
+      if (is.available() >= 7) {
+        final long timestamp = is.readLong(7);
+        event.setImmediateCommitTimestamp(timestamp & ~(1L << 55));
+        final boolean original = (timestamp & (1L << 55)) != 0;
+        event.setOriginalCommitTimestamp(original ? is.readLong(7) : timestamp);
+        if (is.available() > 0) event.setTransactionLength(is.readUnsignedLong().longValue());
+      }
+    }
+    is.skip(is.available()); // position at next event
 
     context.getEventListener().onEvents(event);
   }
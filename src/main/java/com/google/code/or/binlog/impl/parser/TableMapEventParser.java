@@ -20,6 +20,7 @@ import com.google.code.or.binlog.BinlogEventV4Header;
 import com.google.code.or.binlog.BinlogParserContext;
 import com.google.code.or.binlog.impl.event.TableMapEvent;
 import com.google.code.or.common.glossary.Metadata;
+import com.google.code.or.common.glossary.OptionalMetadata;
 import com.google.code.or.io.XInputStream;
 
 /**
@@ -77,6 +78,9 @@ public class TableMapEventParser extends AbstractBinlogEventParser {
     event.setColumnMetadata(Metadata.valueOf(event.getColumnTypes(),
         is.readBytes(event.getColumnMetadataCount().intValue())));
     event.setColumnNullabilities(is.readBit(event.getColumnCount().intValue()));
+    if (is.available() > 0) {
+      event.setOptionalMetadata(OptionalMetadata.valueOf(is.readBytes(is.available())));
+    }
     context.getEventListener().onEvents(event);
   }
 }
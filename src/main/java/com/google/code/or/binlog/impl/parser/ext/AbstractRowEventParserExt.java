@@ -196,7 +196,7 @@ public abstract class AbstractRowEventParserExt extends AbstractBinlogEventParse
         case MySQLConstants.TYPE_TIME2:
           final int value1 = is.readInt(3, false, checksum);
           final int nanos1 = is.readInt((meta + 1) / 2, false, checksum);
-          columns.add(Time2Column.valueOf(MySQLUtils.toTime2(value1, nanos1)));
+          columns.add(Time2Column.valueOf(MySQLUtils.toTime2(value1, nanos1, meta)));
           break;
         case MySQLConstants.TYPE_DATETIME2:
           final long value2 = is.readLong(5, false, checksum);
@@ -8,6 +8,7 @@ import com.google.code.or.binlog.BinlogEventV4Header;
 import com.google.code.or.binlog.BinlogParserContext;
 import com.google.code.or.binlog.ext.XChecksum;
 import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.parser.GtidEventParser;
 import com.google.code.or.common.util.MySQLConstants;
 import com.google.code.or.io.XInputStream;
 
@@ -25,6 +26,13 @@ import com.google.code.or.io.XInputStream;
  *         +-------------------+
  *         | 8B Txn ID         |
  *         +-------------------+
+ *         | 1B clock type     | 5.7+
+ *         | 8B last committed |
+ *         | 8B sequence nr    |
+ *         +-------------------+
+ *         | 7B commit time    | 8.0+, original commit time follows if the high bit is set
+ *         | packed length     |
+ *         +-------------------+
  *         | ...               |
  *         +-------------------+
  *     </pre>
@@ -36,6 +44,13 @@ public class GtidEventParserExt extends AbstractBinlogEventParserExt {
     super(MySQLConstants.GTID_LOG_EVENT, checksum);
   }
 
+  /**
+   * ANONYMOUS_GTID_LOG_EVENT shares the body layout, with a zero source id and transaction id.
+   */
+  public GtidEventParserExt(int eventType, XChecksum checksum) {
+    super(eventType, checksum);
+  }
+
   @Override
   public void parse(XInputStream is, BinlogEventV4Header header, BinlogParserContext context)
       throws IOException {
@@ -43,10 +58,24 @@ public class GtidEventParserExt extends AbstractBinlogEventParserExt {
     byte[] sourceId = is.readBytes(16, checksum);
     long transactionId =
         ByteBuffer.wrap(is.readBytes(8, checksum)).order(ByteOrder.LITTLE_ENDIAN).getLong();
-    is.skip(is.available()); // position at next event
-    checksum.reset();// CRC32
     GtidEvent event = new GtidEvent(sourceId, transactionId);
     event.setHeader(header);
+    if (is.available() >= 4 + 17
+        && is.readInt(1, checksum) == GtidEventParser.LOGICAL_TIMESTAMP_TYPECODE) {
+      event.setLastCommitted(is.readLong(8, checksum));
+      event.setSequenceNumber(is.readLong(8, checksum));
+      if (is.available() >= 4 + 7) {
+        final long timestamp = is.readLong(7, checksum);
+        event.setImmediateCommitTimestamp(timestamp & ~(1L << 55));
+        final boolean original = (timestamp & (1L << 55)) != 0;
+        event.setOriginalCommitTimestamp(original ? is.readLong(7, checksum) : timestamp);
+        if (is.available() > 4) {
+          event.setTransactionLength(is.readUnsignedLong(checksum).longValue());
+        }
+      }
+    }
+    is.skip(is.available()); // position at next event
+    checksum.reset();// CRC32
 
     context.getEventListener().onEvents(event);
   }
@@ -21,6 +21,7 @@ import com.google.code.or.binlog.BinlogParserContext;
 import com.google.code.or.binlog.ext.XChecksum;
 import com.google.code.or.binlog.impl.event.TableMapEvent;
 import com.google.code.or.common.glossary.Metadata;
+import com.google.code.or.common.glossary.OptionalMetadata;
 import com.google.code.or.io.XInputStream;
 
 /**
@@ -79,6 +80,10 @@ public class TableMapEventParserExt extends AbstractBinlogEventParserExt {
     event.setColumnMetadata(Metadata.valueOf(event.getColumnTypes(),
         is.readBytes(event.getColumnMetadataCount().intValue(), checksum)));
     event.setColumnNullabilities(is.readBit(event.getColumnCount().intValue(), checksum));
+    if (is.available() > 4) {
+      event.setOptionalMetadata(
+          OptionalMetadata.valueOf(is.readBytes(is.available() - 4, checksum)));
+    }
     checksum.validateAndReset(is.readInt(4));// CRC32
     context.getEventListener().onEvents(event);
   }
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.relay;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.ext.XChecksum;
+import com.google.code.or.binlog.ext.XChecksumNOPImpl;
+import com.google.code.or.binlog.impl.ReplicationBasedBinlogParser;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.io.XInputStream;
+import com.google.code.or.net.impl.packet.EOFPacket;
+import com.google.code.or.net.impl.packet.ErrorPacket;
+import com.google.code.or.net.impl.packet.OKPacket;
+import com.google.code.or.net.impl.packet.SemiSyncAckPacket;
+
+/**
+ * Receives the events of a binlog dump without decoding them and appends them to a
+ * {@link RelayLogWriter}, so that a slow event listener, which reads the relay log on its own
+ * thread, never holds up the network. The committed position is the position after the last
+ * received event, a reconnect therefore resumes right there. A semi-sync acknowledgement is only
+ * sent once the events are fsynced. Events are read into a buffer that is reused for the next one.
+ */
+public class RelayLogReceiver extends ReplicationBasedBinlogParser {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(RelayLogReceiver.class);
+  private static final XChecksum NOP = new XChecksumNOPImpl();
+
+  //
+  protected static final int LOG_EVENT_ARTIFICIAL_F = 0x20;
+
+  //
+  protected RelayLogWriter writer;
+  protected int checksumLength = 0; // 4 for CRC32
+
+  //
+  private byte[] buffer = new byte[64 * 1024]; // Grows to the largest event
+
+  /**
+	 * 
+	 */
+  public RelayLogReceiver() {
+    super("binlog-relay-receiver");
+  }
+
+  protected RelayLogReceiver(String threadNm) {
+    super(threadNm);
+  }
+
+  /**
+	 * 
+	 */
+  public RelayLogWriter getWriter() {
+    return writer;
+  }
+
+  public void setWriter(RelayLogWriter writer) {
+    this.writer = writer;
+  }
+
+  public int getChecksumLength() {
+    return checksumLength;
+  }
+
+  public void setChecksumLength(int checksumLength) {
+    this.checksumLength = checksumLength;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  protected void doParse() throws Exception {
+    //
+    final XInputStream is = this.transport.getInputStream();
+    this.writer.rotate(this.binlogFileName);
+    try {
+      while (isRunning()) {
+        //
+        final int semiSyncFlag;
+        final int length;
+        try {
+          final int packetLength = is.readInt(3);
+          final int packetSequence = is.readInt(1);
+          is.setReadLimit(packetLength); // Ensure the packet boundary
+
+          //
+          final int packetMarker = is.readInt(1);
+          if (packetMarker != OKPacket.PACKET_MARKER) { // 0x00
+            if ((byte) packetMarker == ErrorPacket.PACKET_MARKER) {
+              final ErrorPacket packet =
+                  ErrorPacket.valueOf(packetLength, packetSequence, packetMarker, is);
+              throw new RuntimeException(packet.toString());
+            } else if ((byte) packetMarker == EOFPacket.PACKET_MARKER) {
+              final EOFPacket packet =
+                  EOFPacket.valueOf(packetLength, packetSequence, packetMarker, is);
+              throw new RuntimeException(packet.toString());
+            } else {
+              throw new RuntimeException("assertion failed, invalid packet marker: "
+                  + packetMarker);
+            }
+          }
+          semiSyncFlag = readSemiSyncHeader(is);
+          length = is.available();
+          if (this.buffer.length < length) {
+            this.buffer = new byte[Math.max(length, this.buffer.length << 1)];
+          }
+          is.read(this.buffer, 0, length, NOP);
+        } finally {
+          is.setReadLimit(0);
+        }
+
+        //
+        append(this.buffer, length);
+        final boolean ackRequired = (semiSyncFlag & SemiSyncAckPacket.ACK_REQUIRED) != 0;
+        final boolean ack = ackRequired && this.semiSyncAcknowledger != null;
+        if (ackRequired || is.available() == 0) {
+          this.writer.flush(); // Everything received so far
+        }
+        final BinlogPosition position = this.writer.getPosition();
+        if (position != null) {
+          setCommittedPosition(position);
+          if (ack) {
+            this.writer.sync(); // The master may commit once acknowledged
+            this.semiSyncAcknowledger.acknowledge(position);
+          }
+        }
+      }
+    } finally {
+      this.writer.flush();
+    }
+  }
+
+  /**
+   * Artificial events, e.g. the fake rotate event and the format description event sent at the
+   * start of every dump, only go to empty segments, they would repeat on every reconnect otherwise.
+   * The event is the first length bytes of a buffer that is reused for the next event.
+   */
+  protected void append(byte[] event, int length) throws Exception {
+    //
+    final int type = event[4] & 0xFF;
+    final long nextPosition = (event[13] & 0xFFL) | (event[14] & 0xFFL) << 8
+        | (event[15] & 0xFFL) << 16 | (event[16] & 0xFFL) << 24;
+    final int flags = (event[17] & 0xFF) | (event[18] & 0xFF) << 8;
+    if (isVerbose() && LOGGER.isInfoEnabled()) {
+      LOGGER.info("received an event, type: {}, next position: {}", type, nextPosition);
+    }
+
+    //
+    if (type == MySQLConstants.HEARTBEAT_LOG_EVENT) {
+      return;
+    } else if (type == MySQLConstants.ROTATE_EVENT
+        && (nextPosition == 0 || (flags & LOG_EVENT_ARTIFICIAL_F) != 0)) {
+      this.writer.rotate(getRotateFileName(event, length));
+    } else if (nextPosition == 0) {
+      if (this.writer.isEmpty()) this.writer.append(event, 0, length);
+    } else {
+      this.writer.append(event, 0, length);
+      if (type == MySQLConstants.ROTATE_EVENT) this.writer.rotate(getRotateFileName(event, length));
+    }
+  }
+
+  protected String getRotateFileName(byte[] event, int length) throws Exception {
+    // 19 bytes event header, 8 bytes position, file name, checksum
+    return new String(event, 27, length - 27 - this.checksumLength, "UTF-8");
+  }
+}
@@ -0,0 +1,382 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.relay;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.google.code.or.binlog.impl.MultiFileBinlogParser;
+import com.google.code.or.binlog.impl.dispatch.WaitStrategy;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.net.impl.packet.EOFPacket;
+import com.google.code.or.net.impl.packet.OKPacket;
+
+/**
+ * Streams the relay log to a downstream client in reply to COM_BINLOG_DUMP, the way a master does:
+ * a fake rotate event, the format description event of the segment, then the events byte for byte,
+ * each in a packet of its own. A client behind the writer reads the segment files, events of at
+ * least the transfer threshold go from the page cache straight to the socket by
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, smaller ones
+ * are gathered in a buffer. Once the client caught up it takes the events from the
+ * {@link RelayLogTail} shared by all clients, and goes back to the files if the tail overran it.
+ * <p>
+ * The events keep the checksums they were received with.
+ */
+public class RelayLogSender {
+  //
+  private static final int HEADER_LENGTH = 19;
+  private static final int LOG_EVENT_ARTIFICIAL_F = 0x20;
+  private static final int MAGIC_LENGTH = MySQLConstants.BINLOG_MAGIC.length;
+
+  //
+  protected final SocketChannel channel;
+  protected final File directory;
+  protected final RelayLogTail tail;
+  protected long serverId;
+  protected long heartbeatPeriod; // milliseconds, 0 disables heartbeats
+  protected int transferThreshold = 4 * 1024;
+  protected WaitStrategy waitStrategy = new WaitStrategy.Sleeping();
+
+  //
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+  private final ByteBuffer header =
+      ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+  private int sequence; // Of the next packet
+  private String segment;
+  private FileChannel file;
+  private long offset; // In the segment
+  private boolean checksum;
+  private volatile long position; // Of the master, after the last event sent
+  private long lastSent;
+  private volatile boolean running = true;
+
+  /**
+   * @param tail the tail of the relay log, or null to always read the segment files
+   */
+  public RelayLogSender(SocketChannel channel, File directory, RelayLogTail tail) {
+    this.channel = channel;
+    this.directory = directory;
+    this.tail = tail;
+    if (tail != null) this.waitStrategy = tail.getWaitStrategy();
+  }
+
+  /**
+	 * 
+	 */
+  public long getServerId() {
+    return serverId;
+  }
+
+  /**
+   * The server id of the fake rotate and heartbeat events.
+   */
+  public void setServerId(long serverId) {
+    this.serverId = serverId;
+  }
+
+  public long getHeartbeatPeriod() {
+    return heartbeatPeriod;
+  }
+
+  public void setHeartbeatPeriod(long heartbeatPeriod) {
+    this.heartbeatPeriod = heartbeatPeriod;
+  }
+
+  public int getTransferThreshold() {
+    return transferThreshold;
+  }
+
+  public void setTransferThreshold(int transferThreshold) {
+    this.transferThreshold = transferThreshold;
+  }
+
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    this.waitStrategy = waitStrategy;
+  }
+
+  /**
+   * Returns the master position after the last event sent, null if none.
+   */
+  public BinlogPosition getPosition() {
+    final String segment = this.segment;
+    return segment == null ? null : new BinlogPosition(segment, this.position);
+  }
+
+  public void stop() {
+    this.running = false;
+    this.waitStrategy.signal();
+  }
+
+  /**
+   * Sends until stopped, or until caught up if non blocking, the segment must exist.
+   * 
+   * @param position the master position the client asked for
+   * @param offset the offset of that position in the segment
+   * @param sequence the sequence of the first packet
+   */
+  public void send(String segment, long position, long offset, boolean nonBlocking, int sequence)
+      throws IOException, InterruptedException {
+    //
+    this.sequence = sequence;
+    this.position = position;
+    try {
+      open(segment, offset);
+      sendArtificial(MySQLConstants.ROTATE_EVENT, 0, getRotateBody(segment, position));
+      if (offset > MAGIC_LENGTH && readHeader(MAGIC_LENGTH)
+          && this.header.get(4) == MySQLConstants.FORMAT_DESCRIPTION_EVENT) {
+        sendFormatDescription();
+      }
+
+      //
+      long live = -1; // The sequence of the next event in the tail
+      int counter = 0;
+      while (this.running) {
+        //
+        if (live >= 0) {
+          if (live <= this.tail.getPublished()) {
+            final RelayLogTail.Entry entry = this.tail.get(live);
+            if (entry != null) {
+              if (!entry.getSegment().equals(this.segment)) open(entry.getSegment(), 0);
+              final byte[] event = entry.getEvent();
+              sendEvent(null, event, 0, event.length);
+              this.offset = entry.getOffset() + event.length;
+              live++;
+              counter = 0;
+              continue;
+            }
+            live = -1; // Overrun, back to the segment files
+            continue;
+          }
+        } else if (readHeader(this.offset)) {
+          final int length = this.header.getInt(9);
+          sendEvent(this.file, null, this.offset, length);
+          this.offset += length;
+          counter = 0;
+          continue;
+        } else {
+          //
+          final String next = getNextSegment();
+          if (next != null && !readHeader(this.offset)) { // Complete once the next one exists
+            open(next, MAGIC_LENGTH);
+            continue;
+          }
+          if (this.tail != null && (live = this.tail.find(this.segment, this.offset)) >= 0) {
+            continue;
+          }
+        }
+
+        //
+        flush();
+        if (nonBlocking) {
+          sendEOF();
+          return;
+        }
+        if (this.heartbeatPeriod > 0
+            && System.currentTimeMillis() - this.lastSent >= this.heartbeatPeriod) {
+          final byte[] body = this.segment.getBytes("UTF-8");
+          sendArtificial(MySQLConstants.HEARTBEAT_LOG_EVENT, this.position, body);
+          flush();
+        }
+        this.waitStrategy.idle(counter++);
+      }
+    } finally {
+      if (this.file != null) this.file.close();
+      this.file = null;
+    }
+  }
+
+  /**
+	 * 
+	 */
+  private void open(String segment, long offset) throws IOException, InterruptedException {
+    //
+    if (this.file != null) this.file.close();
+    final File file = new File(this.directory, segment);
+    this.file = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.segment = segment;
+    if (offset > 0) this.offset = offset;
+
+    // The format description event may not be written yet
+    for (int counter = 0;; counter++) {
+      try {
+        this.checksum = "CRC32".equals(MultiFileBinlogParser.getChecksumType(file));
+        break;
+      } catch (EOFException e) {
+        if (!this.running) throw e;
+        this.waitStrategy.idle(counter);
+      }
+    }
+  }
+
+  private String getNextSegment() {
+    final List<String> segments = RelayLogWriter.listSegments(this.directory);
+    for (String name : segments) {
+      if (BinlogPosition.compareFileNames(name, this.segment) > 0) return name;
+    }
+    return null;
+  }
+
+  /**
+   * Reads the header of the event at the offset, returns false unless the whole event is there.
+   */
+  private boolean readHeader(long offset) throws IOException {
+    this.header.clear();
+    while (this.header.hasRemaining()) {
+      if (this.file.read(this.header, offset + this.header.position()) < 0) return false;
+    }
+    final long length = this.header.getInt(9) & 0xFFFFFFFFL;
+    if (length < HEADER_LENGTH) throw new IOException("invalid relay log event at: " + offset);
+    return offset + length <= this.file.size();
+  }
+
+  private byte[] getRotateBody(String segment, long position) throws IOException {
+    final byte[] name = segment.getBytes("UTF-8");
+    final ByteBuffer r = ByteBuffer.allocate(8 + name.length).order(ByteOrder.LITTLE_ENDIAN);
+    r.putLong(position).put(name);
+    return r.array();
+  }
+
+  /**
+   * Sends the format description event of the segment with a next position of 0, so that the
+   * client does not take it for its position.
+   */
+  private void sendFormatDescription() throws IOException {
+    final int length = this.header.getInt(9);
+    final ByteBuffer event = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (event.hasRemaining()) {
+      if (this.file.read(event, MAGIC_LENGTH + event.position()) < 0) throw new EOFException();
+    }
+    event.putInt(13, 0);
+    final byte[] r = event.array();
+    if (this.checksum) putChecksum(r);
+    sendEvent(null, r, 0, r.length);
+  }
+
+  private void sendArtificial(int type, long nextPosition, byte[] body) throws IOException {
+    final int length = HEADER_LENGTH + body.length + (this.checksum ? 4 : 0);
+    final ByteBuffer event = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    event.putInt(0); // Timestamp
+    event.put((byte) type);
+    event.putInt((int) this.serverId);
+    event.putInt(length);
+    event.putInt((int) nextPosition);
+    event.putShort((short) LOG_EVENT_ARTIFICIAL_F);
+    event.put(body);
+    final byte[] r = event.array();
+    if (this.checksum) putChecksum(r);
+    sendEvent(null, r, 0, r.length);
+  }
+
+  private void sendEOF() throws IOException {
+    final byte[] body = {EOFPacket.PACKET_MARKER, 0, 0, 0, 0};
+    ensure(4 + body.length);
+    putPacketHeader(body.length);
+    this.buffer.put(body);
+    flush();
+  }
+
+  /**
+   * Sends an event, either from the file or from the array, in as many packets as it takes.
+   */
+  private void sendEvent(FileChannel file, byte[] event, long offset, int length)
+      throws IOException {
+    //
+    long remaining = length + 1L; // The packet marker
+    boolean first = true;
+    while (true) {
+      //
+      final int packetLength = (int) Math.min(remaining, MySQLConstants.MAX_PACKET_LENGTH);
+      int n = packetLength;
+      ensure(5);
+      putPacketHeader(packetLength);
+      if (first) {
+        this.buffer.put(OKPacket.PACKET_MARKER);
+        first = false;
+        n--;
+      }
+
+      //
+      if (file != null && n >= this.transferThreshold) {
+        flush();
+        for (long done = 0; done < n;) {
+          done += file.transferTo(offset + done, n - done, this.channel);
+        }
+      } else {
+        for (int done = 0; done < n;) {
+          if (!this.buffer.hasRemaining()) flush();
+          final int chunk = Math.min(n - done, this.buffer.remaining());
+          if (file == null) {
+            this.buffer.put(event, (int) offset + done, chunk);
+            done += chunk;
+          } else {
+            final int limit = this.buffer.limit();
+            this.buffer.limit(this.buffer.position() + chunk);
+            try {
+              final int read = file.read(this.buffer, offset + done);
+              if (read < 0) throw new EOFException();
+              done += read;
+            } finally {
+              this.buffer.limit(limit);
+            }
+          }
+        }
+      }
+      offset += n;
+      remaining -= packetLength;
+      if (packetLength < MySQLConstants.MAX_PACKET_LENGTH) break;
+    }
+
+    // The header of an event from the file is still in the header buffer
+    final long nextPosition = file != null ? this.header.getInt(13) & 0xFFFFFFFFL
+        : ByteBuffer.wrap(event).order(ByteOrder.LITTLE_ENDIAN).getInt(13) & 0xFFFFFFFFL;
+    if (nextPosition > 0) this.position = nextPosition;
+  }
+
+  private void putPacketHeader(int length) {
+    this.buffer.put((byte) length).put((byte) (length >>> 8)).put((byte) (length >>> 16));
+    this.buffer.put((byte) this.sequence++);
+  }
+
+  private void ensure(int length) throws IOException {
+    if (this.buffer.remaining() < length) flush();
+  }
+
+  private void flush() throws IOException {
+    this.buffer.flip();
+    if (this.buffer.hasRemaining()) this.lastSent = System.currentTimeMillis();
+    while (this.buffer.hasRemaining()) this.channel.write(this.buffer);
+    this.buffer.clear();
+  }
+
+  private static void putChecksum(byte[] event) {
+    final CRC32 crc = new CRC32();
+    crc.update(event, 0, event.length - 4);
+    final long value = crc.getValue();
+    for (int i = 0; i < 4; i++) event[event.length - 4 + i] = (byte) (value >>> (8 * i));
+  }
+}
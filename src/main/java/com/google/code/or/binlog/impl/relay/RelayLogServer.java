@@ -0,0 +1,741 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.relay;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.impl.MultiFileBinlogParser;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.IOUtils;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.MySQLUtils;
+import com.google.code.or.common.util.XThreadFactory;
+import com.google.code.or.io.util.XDeserializer;
+import com.google.code.or.io.util.XSerializer;
+import com.google.code.or.net.Packet;
+import com.google.code.or.net.TransportException;
+import com.google.code.or.net.TransportInputStream;
+import com.google.code.or.net.TransportOutputStream;
+import com.google.code.or.net.impl.QueryHelper;
+import com.google.code.or.net.impl.TransportInputStreamImpl;
+import com.google.code.or.net.impl.TransportOutputStreamImpl;
+import com.google.code.or.net.impl.packet.EOFPacket;
+import com.google.code.or.net.impl.packet.ErrorPacket;
+import com.google.code.or.net.impl.packet.GreetingPacket;
+import com.google.code.or.net.impl.packet.OKPacket;
+import com.google.code.or.net.impl.packet.RawPacket;
+import com.google.code.or.net.impl.packet.ResultSetFieldPacket;
+import com.google.code.or.net.impl.packet.ResultSetHeaderPacket;
+import com.google.code.or.net.impl.packet.command.ComBinlogDumpPacket;
+import com.google.code.or.net.impl.packet.command.ComRegisterSlavePacket;
+
+/**
+ * Serves the relay log of a {@link RelayLogWriter} to downstream clients over the MySQL protocol,
+ * so that any number of them replicate from a single dump of the master, e.g. other
+ * open-replicator instances or MySQL replicas. A client logs in, may run the few statements a
+ * replica issues before dumping, e.g. SET @master_binlog_checksum or SELECT @@global.server_id,
+ * registers with COM_REGISTER_SLAVE and sends COM_BINLOG_DUMP with a master file and position the
+ * relay log contains. Each client has a thread of its own and a {@link RelayLogSender}. A writer
+ * with a {@link RelayLogTail} lets clients that caught up share the live events in memory.
+ * <p>
+ * Only mysql_native_password authentication is offered, GTID auto-positioning and semi-sync are
+ * not supported. The server listens on the loopback address unless configured otherwise, and
+ * refuses to listen on any other address without a user.
+ */
+public class RelayLogServer {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(RelayLogServer.class);
+
+  //
+  public static final int ER_ACCESS_DENIED_ERROR = 1045;
+  public static final int ER_UNKNOWN_COM_ERROR = 1047;
+  public static final int ER_NOT_SUPPORTED_YET = 1235;
+  public static final int ER_MASTER_FATAL_ERROR_READING_BINLOG = 1236;
+
+  //
+  private static final int SERVER_STATUS_AUTOCOMMIT = 0x0002;
+  private static final int MYSQL_TYPE_VAR_STRING = 253;
+  private static final int CAPABILITIES = MySQLConstants.CLIENT_LONG_PASSWORD
+      | MySQLConstants.CLIENT_LONG_FLAG | MySQLConstants.CLIENT_CONNECT_WITH_DB
+      | MySQLConstants.CLIENT_PROTOCOL_41 | MySQLConstants.CLIENT_TRANSACTIONS
+      | MySQLConstants.CLIENT_SECURE_CONNECTION;
+
+  //
+  protected final RelayLogWriter writer;
+  protected String host = "127.0.0.1"; // All interfaces if null
+  protected int port = 3307;
+  protected long serverId = 1;
+  protected String serverVersion = "5.7.0-relay-log";
+  protected int serverCollation = 33; // utf8_general_ci
+  protected String user; // Any if null
+  protected String password;
+  protected ThreadFactory threadFactory = new XThreadFactory("relay-log-server", true);
+  protected final Map<String, String> variables = new ConcurrentHashMap<String, String>();
+
+  //
+  private ServerSocketChannel server;
+  private Thread worker;
+  private volatile boolean running;
+  private final AtomicLong threadIds = new AtomicLong();
+  private final List<Session> sessions = new CopyOnWriteArrayList<Session>();
+
+  /**
+	 * 
+	 */
+  public RelayLogServer(RelayLogWriter writer) {
+    this.writer = writer;
+  }
+
+  /**
+	 * 
+	 */
+  public synchronized void start() throws IOException {
+    //
+    if (this.running) return;
+    final InetSocketAddress address = this.host == null ? new InetSocketAddress(this.port)
+        : new InetSocketAddress(this.host, this.port);
+    if (this.user == null && (address.isUnresolved()
+        || !address.getAddress().isLoopbackAddress())) {
+      throw new IllegalStateException("user is required to listen on " + address);
+    }
+    this.server = ServerSocketChannel.open();
+    this.server.socket().setReuseAddress(true);
+    this.server.socket().bind(address);
+    this.running = true;
+
+    //
+    this.worker = this.threadFactory.newThread(new Task());
+    this.worker.start();
+    LOGGER.info("relay log server started, address: {}", this.server.socket()
+        .getLocalSocketAddress());
+  }
+
+  public void stop(long timeout, TimeUnit unit) throws Exception {
+    //
+    final Thread worker;
+    synchronized (this) {
+      if (!this.running) return;
+      this.running = false;
+      worker = this.worker;
+      this.worker = null;
+      IOUtils.closeQuietly(this.server);
+    }
+
+    //
+    for (Session session : this.sessions) session.close();
+    worker.join(unit.toMillis(timeout));
+    LOGGER.info("relay log server stopped");
+  }
+
+  /**
+	 * 
+	 */
+  public RelayLogWriter getWriter() {
+    return writer;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public void setHost(String host) {
+    this.host = host;
+  }
+
+  /**
+   * Returns the port the server listens on, the bound one if the configured port was 0.
+   */
+  public int getPort() {
+    final ServerSocketChannel server = this.server;
+    return server != null && server.isOpen() ? server.socket().getLocalPort() : port;
+  }
+
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  public long getServerId() {
+    return serverId;
+  }
+
+  /**
+   * The server id reported to the clients, it must differ from theirs.
+   */
+  public void setServerId(long serverId) {
+    this.serverId = serverId;
+  }
+
+  public String getServerVersion() {
+    return serverVersion;
+  }
+
+  public void setServerVersion(String serverVersion) {
+    this.serverVersion = serverVersion;
+  }
+
+  public int getServerCollation() {
+    return serverCollation;
+  }
+
+  public void setServerCollation(int serverCollation) {
+    this.serverCollation = serverCollation;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public void setUser(String user) {
+    this.user = user;
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public void setPassword(String password) {
+    this.password = password;
+  }
+
+  public ThreadFactory getThreadFactory() {
+    return threadFactory;
+  }
+
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  /**
+   * Overrides or adds a global variable, e.g. server_uuid, as seen by the clients.
+   */
+  public void setVariable(String name, String value) {
+    this.variables.put(name.toLowerCase(Locale.ROOT), value);
+  }
+
+  public List<Session> getSessions() {
+    return new ArrayList<Session>(this.sessions);
+  }
+
+  /**
+   * Returns the value of a global variable, null if unknown.
+   */
+  public String getVariable(String name) throws IOException {
+    //
+    final String key = name.toLowerCase(Locale.ROOT);
+    final String r = this.variables.get(key);
+    if (r != null) return r;
+
+    //
+    if ("server_id".equals(key)) return String.valueOf(this.serverId);
+    if ("version".equals(key)) return this.serverVersion;
+    if ("gtid_mode".equals(key)) return "OFF";
+    if ("server_uuid".equals(key)) {
+      return UUID.nameUUIDFromBytes(("relay-log-" + this.serverId).getBytes("UTF-8")).toString();
+    }
+    if ("binlog_checksum".equals(key)) {
+      final List<String> segments = RelayLogWriter.listSegments(this.writer.getDirectory());
+      if (segments.isEmpty()) return "NONE";
+      final File last = new File(this.writer.getDirectory(), segments.get(segments.size() - 1));
+      return last.length() > MySQLConstants.BINLOG_MAGIC.length
+          ? MultiFileBinlogParser.getChecksumType(last) : "NONE";
+    }
+    return null;
+  }
+
+  protected List<String> getVariableNames() {
+    final TreeSet<String> r = new TreeSet<String>(this.variables.keySet());
+    r.addAll(Arrays.asList("binlog_checksum", "gtid_mode", "server_id", "server_uuid", "version"));
+    return new ArrayList<String>(r);
+  }
+
+  /**
+	 * 
+	 */
+  private class Task implements Runnable {
+
+    public void run() {
+      while (running) {
+        try {
+          final SocketChannel channel = server.accept();
+          final Session session = new Session(channel);
+          sessions.add(session);
+          final Thread thread = threadFactory.newThread(session);
+          thread.setName("relay-log-session-" + session.threadId);
+          thread.start();
+        } catch (Exception e) {
+          if (running) LOGGER.error("failed to accept connection", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * A connection of a client.
+   */
+  public final class Session implements Runnable {
+    //
+    private final long threadId = threadIds.incrementAndGet();
+    private final SocketChannel channel;
+    private final TransportInputStream is;
+    private final TransportOutputStream os;
+    private final Map<String, String> userVariables = new HashMap<String, String>();
+    private volatile long slaveServerId;
+    private volatile RelayLogSender sender;
+    private int sequence;
+
+    /**
+		 * 
+		 */
+    private Session(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.channel.socket().setTcpNoDelay(true);
+      this.is = new TransportInputStreamImpl(Channels.newInputStream(channel));
+      this.os = new TransportOutputStreamImpl(Channels.newOutputStream(channel));
+    }
+
+    @Override
+    public String toString() {
+      return "Session[threadId=" + threadId + ",address=" + getRemoteAddress() + ",serverId="
+          + slaveServerId + ",position=" + getPosition() + "]";
+    }
+
+    /**
+		 * 
+		 */
+    public long getThreadId() {
+      return threadId;
+    }
+
+    public String getRemoteAddress() {
+      return String.valueOf(this.channel.socket().getRemoteSocketAddress());
+    }
+
+    /**
+     * Returns the server id the client registered or dumped with, 0 if none.
+     */
+    public long getSlaveServerId() {
+      return slaveServerId;
+    }
+
+    /**
+     * Returns the master position after the last event sent, null unless dumping.
+     */
+    public BinlogPosition getPosition() {
+      final RelayLogSender sender = this.sender;
+      return sender == null ? null : sender.getPosition();
+    }
+
+    public void close() {
+      final RelayLogSender sender = this.sender;
+      if (sender != null) sender.stop();
+      IOUtils.closeQuietly(this.channel);
+    }
+
+    /**
+		 * 
+		 */
+    public void run() {
+      try {
+        if (handshake()) {
+          while (running && this.channel.isOpen()) {
+            if (!execute(this.is.readPacket())) break;
+          }
+        }
+      } catch (Exception e) {
+        if (running && this.channel.isOpen()) {
+          LOGGER.info("relay log session closed: " + this + ", cause: " + e);
+        }
+      } finally {
+        sessions.remove(this);
+        close();
+      }
+    }
+
+    private boolean handshake() throws IOException {
+      //
+      final byte[] scramble = new byte[20];
+      final SecureRandom random = new SecureRandom();
+      for (int i = 0; i < scramble.length; i++) scramble[i] = (byte) (33 + random.nextInt(94));
+      final GreetingPacket greeting = new GreetingPacket();
+      greeting.setProtocolVersion(10);
+      greeting.setServerVersion(StringColumn.valueOf(serverVersion.getBytes("UTF-8")));
+      greeting.setThreadId(this.threadId);
+      greeting.setScramble1(StringColumn.valueOf(Arrays.copyOfRange(scramble, 0, 8)));
+      greeting.setServerCapabilities(CAPABILITIES);
+      greeting.setServerCollation(serverCollation);
+      greeting.setServerStatus(SERVER_STATUS_AUTOCOMMIT);
+      greeting.setScramble2(StringColumn.valueOf(Arrays.copyOfRange(scramble, 8, 20)));
+      greeting.setPluginProvidedData(StringColumn.valueOf("mysql_native_password".getBytes()));
+      this.sequence = 0;
+      write(greeting);
+      this.os.flush();
+
+      // Handshake response 4.1
+      final Packet packet = this.is.readPacket();
+      this.sequence = packet.getSequence() + 1;
+      final XDeserializer d = new XDeserializer(packet.getPacketBody());
+      final int capabilities = d.readInt(4);
+      d.skip(4 + 1 + 23); // Max packet length, collation, reserved
+      final String name = d.readNullTerminatedString().toString();
+      final byte[] token;
+      if ((capabilities & MySQLConstants.CLIENT_SECURE_CONNECTION) != 0) {
+        token = d.readBytes(d.readInt(1));
+      } else {
+        token = d.readNullTerminatedString().getValue();
+      }
+
+      //
+      if (user != null) {
+        final byte[] expected = password == null || password.length() == 0 ? new byte[0]
+            : MySQLUtils.password41OrLater(password.getBytes("UTF-8"), scramble);
+        if (!user.equals(name) || !MessageDigest.isEqual(expected, token)) {
+          writeError(ER_ACCESS_DENIED_ERROR, "28000", "Access denied for user '" + name + "'");
+          return false;
+        }
+      }
+      writeOK();
+      return true;
+    }
+
+    /**
+     * Returns false if the connection is to be closed.
+     */
+    private boolean execute(Packet packet) throws Exception {
+      //
+      this.sequence = packet.getSequence() + 1;
+      final byte[] body = packet.getPacketBody();
+      final int command = body.length == 0 ? -1 : body[0] & 0xFF;
+      try {
+        switch (command) {
+          case MySQLConstants.COM_QUIT:
+            return false;
+          case MySQLConstants.COM_PING:
+          case MySQLConstants.COM_INIT_DB:
+            writeOK();
+            return true;
+          case MySQLConstants.COM_QUERY:
+            query(new String(body, 1, body.length - 1, "UTF-8"));
+            return true;
+          case MySQLConstants.COM_REGISTER_SLAVE:
+            this.slaveServerId = ComRegisterSlavePacket.valueOf(packet).getServerId();
+            writeOK();
+            return true;
+          case MySQLConstants.COM_BINLOG_DUMP:
+            dump(ComBinlogDumpPacket.valueOf(packet));
+            return false;
+          default:
+            writeError(ER_UNKNOWN_COM_ERROR, "08S01", "Unknown command: " + command);
+            return true;
+        }
+      } catch (TransportException e) {
+        writeError(e.getErrorCode(), e.getSqlState(), e.getErrorMessage());
+        return command != MySQLConstants.COM_BINLOG_DUMP;
+      }
+    }
+
+    /**
+		 * 
+		 */
+    private void dump(ComBinlogDumpPacket command) throws Exception {
+      //
+      final File directory = writer.getDirectory();
+      String name = command.getBinlogFileName().toString();
+      long position = command.getBinlogPosition();
+      final long offset;
+      if (name.length() == 0) { // The first one
+        final List<String> segments = RelayLogWriter.listSegments(directory);
+        if (segments.isEmpty()) throw error(ER_MASTER_FATAL_ERROR_READING_BINLOG, "HY000",
+            "Could not find first log file name in binary log index file");
+        name = segments.get(0);
+        position = Math.max(position, MySQLConstants.BINLOG_MAGIC.length);
+        offset = MySQLConstants.BINLOG_MAGIC.length;
+      } else {
+        offset = writer.find(new BinlogPosition(name, position));
+        if (offset < 0) throw error(ER_MASTER_FATAL_ERROR_READING_BINLOG, "HY000",
+            "Could not find position " + name + ":" + position + " in the relay log");
+      }
+
+      //
+      final String checksum = MultiFileBinlogParser.getChecksumType(new File(directory, name));
+      if (!"NONE".equals(checksum) && this.userVariables.get("master_binlog_checksum") == null) {
+        throw error(ER_MASTER_FATAL_ERROR_READING_BINLOG, "HY000", "Slave can not handle "
+            + "replication events with the checksum that master is configured to log");
+      }
+
+      //
+      this.slaveServerId = command.getServerId();
+      final RelayLogSender sender = new RelayLogSender(this.channel, directory, writer.getTail());
+      sender.setServerId(serverId);
+      final String period = this.userVariables.get("master_heartbeat_period");
+      if (period != null) {
+        sender.setHeartbeatPeriod(TimeUnit.NANOSECONDS.toMillis(Long.parseLong(period.trim())));
+      }
+      this.sender = sender;
+      LOGGER.info("start to dump relay log, session: {}, position: {}:{}",
+          new Object[] {this, name, position});
+      final boolean nonBlocking =
+          (command.getBinlogFlag() & ComBinlogDumpPacket.BINLOG_DUMP_NON_BLOCK) != 0;
+      sender.send(name, position, offset, nonBlocking, this.sequence);
+    }
+
+    /**
+     * Answers SET, SELECT and SHOW VARIABLES statements about variables and a few functions.
+     */
+    private void query(String sql) throws IOException {
+      //
+      String s = sql.trim();
+      if (s.endsWith(";")) s = s.substring(0, s.length() - 1).trim();
+      final String upper = s.toUpperCase(Locale.ROOT);
+      if (upper.startsWith("SET ")) {
+        for (String assignment : split(s.substring(4))) {
+          final int index = assignment.indexOf('=');
+          if (index < 0) continue;
+          String name = assignment.substring(0, index).trim();
+          if (name.endsWith(":")) name = name.substring(0, name.length() - 1).trim();
+          if (!name.startsWith("@") || name.startsWith("@@")) continue; // Ignored
+          final String value = evaluate(assignment.substring(index + 1));
+          this.userVariables.put(name.substring(1).toLowerCase(Locale.ROOT), value);
+        }
+        writeOK();
+      } else if (upper.startsWith("SELECT ")) {
+        final Map<String, String> row = new LinkedHashMap<String, String>();
+        for (String item : split(s.substring(7))) {
+          final String[] tokens = item.split("(?i)\\s+AS\\s+", 2);
+          final String label = tokens.length > 1 ? unquote(tokens[1]) : item.trim();
+          row.put(label, evaluate(tokens[0]));
+        }
+        final List<String> values = new ArrayList<String>(row.values());
+        writeResultSet(new ArrayList<String>(row.keySet()), values.isEmpty() ? null : values);
+      } else if (upper.matches("SHOW\\s+((GLOBAL|SESSION)\\s+)?VARIABLES(\\s+LIKE\\s+.*)?")) {
+        Pattern pattern = null; // All of them
+        if (upper.matches(".*\\s+LIKE\\s+.*")) {
+          pattern = toPattern(unquote(s.substring(upper.indexOf("LIKE") + 4)));
+        }
+        final List<String> rows = new ArrayList<String>();
+        for (String name : getVariableNames()) {
+          if (pattern != null && !pattern.matcher(name).matches()) continue;
+          final String value = getVariable(name);
+          if (value != null) rows.addAll(Arrays.asList(name, value));
+        }
+        writeResultSet(Arrays.asList("Variable_name", "Value"), rows);
+      } else {
+        throw error(ER_NOT_SUPPORTED_YET, "42000", "Not supported by the relay log server: " + s);
+      }
+    }
+
+    private String evaluate(String expression) throws IOException {
+      //
+      final String s = expression.trim();
+      final String upper = s.toUpperCase(Locale.ROOT);
+      if (s.startsWith("'") || s.startsWith("\"")) {
+        return unquote(s);
+      } else if (s.startsWith("@@")) {
+        final String name = s.substring(2).replaceFirst("(?i)^(global|session|local)\\.", "");
+        final String r = getVariable(name);
+        if (r == null) throw error(QueryHelper.ER_UNKNOWN_SYSTEM_VARIABLE, "HY000",
+            "Unknown system variable '" + name + "'");
+        return r;
+      } else if (s.startsWith("@")) {
+        return this.userVariables.get(s.substring(1).toLowerCase(Locale.ROOT));
+      } else if (upper.equals("UNIX_TIMESTAMP()")) {
+        return String.valueOf(System.currentTimeMillis() / 1000);
+      } else if (upper.equals("VERSION()")) {
+        return serverVersion;
+      } else if (upper.equals("NULL")) {
+        return null;
+      } else if (s.matches("-?[0-9]+(\\.[0-9]+)?")) {
+        return s;
+      }
+      throw error(ER_NOT_SUPPORTED_YET, "42000", "Not supported by the relay log server: " + s);
+    }
+
+    /**
+		 * 
+		 */
+    private void write(Packet packet) throws IOException {
+      final RawPacket r = new RawPacket();
+      r.setPacketBody(packet.getPacketBody());
+      r.setLength(r.getPacketBody().length);
+      r.setSequence(this.sequence++ & 0xFF);
+      this.os.writePacket(r);
+    }
+
+    private void writeOK() throws IOException {
+      final OKPacket r = new OKPacket();
+      r.setPacketMarker(OKPacket.PACKET_MARKER);
+      r.setAffectedRows(UnsignedLong.valueOf(0));
+      r.setInsertId(UnsignedLong.valueOf(0));
+      r.setServerStatus(SERVER_STATUS_AUTOCOMMIT);
+      write(r);
+      this.os.flush();
+    }
+
+    private void writeError(int code, String state, String message) throws IOException {
+      final ErrorPacket r = new ErrorPacket();
+      r.setPacketMarker(ErrorPacket.PACKET_MARKER);
+      r.setErrorCode(code);
+      r.setSlash(StringColumn.valueOf("#".getBytes()));
+      r.setSqlState(StringColumn.valueOf((state == null ? "HY000" : state).getBytes()));
+      r.setErrorMessage(StringColumn.valueOf(String.valueOf(message).getBytes("UTF-8")));
+      write(r);
+      this.os.flush();
+    }
+
+    /**
+     * Writes a result set of string columns, the values row by row, null for no rows at all.
+     */
+    private void writeResultSet(List<String> labels, List<String> values) throws IOException {
+      //
+      final ResultSetHeaderPacket header = new ResultSetHeaderPacket();
+      header.setFieldCount(UnsignedLong.valueOf(labels.size()));
+      write(header);
+      for (String label : labels) {
+        final ResultSetFieldPacket field = new ResultSetFieldPacket();
+        final StringColumn empty = StringColumn.valueOf(new byte[0]);
+        final StringColumn column = StringColumn.valueOf(label.getBytes("UTF-8"));
+        field.setCatalog(StringColumn.valueOf("def".getBytes()));
+        field.setDb(empty);
+        field.setTable(empty);
+        field.setOrginalTable(empty);
+        field.setColumn(column);
+        field.setOriginalColumn(column);
+        field.setFixed12(0x0c);
+        field.setCharset(serverCollation);
+        field.setFieldLength(1024);
+        field.setFieldType(MYSQL_TYPE_VAR_STRING);
+        field.setDecimalPrecision(31);
+        write(field);
+      }
+      writeEOF();
+
+      //
+      if (values != null) {
+        for (int i = 0; i < values.size(); i += labels.size()) {
+          final XSerializer s = new XSerializer(256);
+          for (String value : values.subList(i, i + labels.size())) {
+            if (value == null) {
+              s.writeInt(0xFB, 1); // NULL
+            } else {
+              s.writeLengthCodedString(StringColumn.valueOf(value.getBytes("UTF-8")));
+            }
+          }
+          final RawPacket row = new RawPacket();
+          row.setPacketBody(s.toByteArray());
+          write(row);
+        }
+      }
+      writeEOF();
+      this.os.flush();
+    }
+
+    private void writeEOF() throws IOException {
+      final EOFPacket r = new EOFPacket();
+      r.setPacketMarker(EOFPacket.PACKET_MARKER);
+      r.setServerStatus(SERVER_STATUS_AUTOCOMMIT);
+      write(r);
+    }
+
+    private TransportException error(int code, String state, String message) {
+      final TransportException r = new TransportException(message);
+      r.setErrorCode(code);
+      r.setSqlState(state);
+      return r;
+    }
+  }
+
+  /**
+   * Splits at the commas outside of quotes and parentheses.
+   */
+  private static List<String> split(String s) {
+    final List<String> r = new ArrayList<String>();
+    int depth = 0, start = 0;
+    char quote = 0;
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (quote != 0) {
+        if (c == quote) quote = 0;
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == ',' && depth == 0) {
+        r.add(s.substring(start, i));
+        start = i + 1;
+      }
+    }
+    if (start < s.length()) r.add(s.substring(start));
+    return r;
+  }
+
+  /**
+   * Translates a LIKE pattern, % and _ are wildcards unless escaped with a backslash.
+   */
+  static Pattern toPattern(String like) {
+    final StringBuilder r = new StringBuilder();
+    final StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < like.length(); i++) {
+      final char c = like.charAt(i);
+      if (c == '\\' && i + 1 < like.length()) {
+        literal.append(like.charAt(++i));
+      } else if (c == '%' || c == '_') {
+        if (literal.length() > 0) r.append(Pattern.quote(literal.toString()));
+        literal.setLength(0);
+        r.append(c == '%' ? ".*" : ".");
+      } else {
+        literal.append(c);
+      }
+    }
+    if (literal.length() > 0) r.append(Pattern.quote(literal.toString()));
+    return Pattern.compile(r.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  }
+
+  private static String unquote(String s) {
+    final String r = s.trim();
+    if (r.length() >= 2 && (r.charAt(0) == '\'' || r.charAt(0) == '"' || r.charAt(0) == '`')
+        && r.charAt(r.length() - 1) == r.charAt(0)) {
+      return r.substring(1, r.length() - 1);
+    }
+    return r;
+  }
+}
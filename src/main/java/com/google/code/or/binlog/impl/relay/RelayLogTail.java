@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.relay;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.code.or.binlog.impl.dispatch.WaitStrategy;
+import com.google.code.or.common.glossary.BinlogPosition;
+
+/**
+ * The most recent events appended to a {@link RelayLogWriter}, kept in memory so that readers who
+ * caught up with the relay log take the live events from here rather than polling the segment
+ * files. Events become visible once the writer flushed them. Each event remembers its segment and
+ * offset, so a reader the ring overran can go back to the files right where it left.
+ * <p>
+ * Only the writer appends and publishes, any number of readers may read.
+ */
+public class RelayLogTail {
+  //
+  protected final int capacity;
+  protected WaitStrategy waitStrategy = new WaitStrategy.Blocking();
+
+  //
+  private final int mask;
+  private final AtomicReferenceArray<Entry> entries;
+  private final AtomicLong published = new AtomicLong(-1);
+  private long next = -1; // Of the writer
+
+  /**
+   * @param capacity the number of events the ring holds, rounded up to a power of 2
+   */
+  public RelayLogTail(int capacity) {
+    int c = 1;
+    while (c < capacity) c <<= 1;
+    this.capacity = c;
+    this.mask = c - 1;
+    this.entries = new AtomicReferenceArray<Entry>(c);
+  }
+
+  /**
+	 * 
+	 */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
+  }
+
+  public void setWaitStrategy(WaitStrategy waitStrategy) {
+    this.waitStrategy = waitStrategy;
+  }
+
+  /**
+   * Returns the sequence of the last visible event, -1 if none.
+   */
+  public long getPublished() {
+    return this.published.get();
+  }
+
+  /**
+   * Called by the writer, the event is copied.
+   */
+  public void append(String segment, long offset, byte[] event, int off, int length) {
+    final byte[] copy = new byte[length];
+    System.arraycopy(event, off, copy, 0, length);
+    final long sequence = ++this.next;
+    this.entries.set((int) (sequence & this.mask), new Entry(sequence, segment, offset, copy));
+  }
+
+  /**
+   * Called by the writer once the events appended so far are written.
+   */
+  public void publish() {
+    if (this.published.get() == this.next) return;
+    this.published.set(this.next);
+    this.waitStrategy.signal();
+  }
+
+  /**
+   * Returns the visible event with the given sequence, or null if it was overwritten meanwhile.
+   */
+  public Entry get(long sequence) {
+    final Entry r = this.entries.get((int) (sequence & this.mask));
+    return r != null && r.sequence == sequence ? r : null;
+  }
+
+  /**
+   * Returns the sequence of the event at the given segment offset, the next sequence if it is the
+   * offset after the last visible event, or -1 if the ring does not hold it.
+   */
+  public long find(String segment, long offset) {
+    final long last = this.published.get();
+    for (long s = last; s >= 0 && s > last - this.capacity; s--) {
+      final Entry entry = get(s);
+      if (entry == null) return -1;
+      final int c = BinlogPosition.compareFileNames(entry.segment, segment);
+      if (c < 0) return -1;
+      if (c > 0) continue;
+      if (entry.offset + entry.event.length == offset) return s + 1;
+      if (entry.offset == offset) return s;
+      if (entry.offset < offset) return -1;
+    }
+    return -1;
+  }
+
+  /**
+	 * 
+	 */
+  public static final class Entry {
+    //
+    private final long sequence;
+    private final String segment;
+    private final long offset;
+    private final byte[] event;
+
+    private Entry(long sequence, String segment, long offset, byte[] event) {
+      this.sequence = sequence;
+      this.segment = segment;
+      this.offset = offset;
+      this.event = event;
+    }
+
+    /**
+		 * 
+		 */
+    public long getSequence() {
+      return sequence;
+    }
+
+    public String getSegment() {
+      return segment;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public byte[] getEvent() {
+      return event;
+    }
+  }
+}
@@ -0,0 +1,516 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.relay;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * Appends the raw events received from a master to local segment files, one per binlog file of the
+ * master and named after it. A segment starts with the binlog magic number and holds the events
+ * byte for byte, so it can be read like a binlog file, e.g. by a
+ * {@link com.google.code.or.binlog.impl.FileBasedBinlogParser} in follow mode.
+ * <p>
+ * Events are buffered and written by {@link #flush()}. A background thread fsyncs at most once per
+ * sync interval, so one fsync covers every event written in the meantime. A small position index
+ * next to each segment, e.g. mysql-bin.000001.pos, maps the master positions to segment offsets
+ * since a segment does not necessarily start at the beginning of the binlog file, unless disabled
+ * with {@link #setIndexed(boolean)}. Not meant to be shared between processes.
+ */
+public class RelayLogWriter {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(RelayLogWriter.class);
+
+  //
+  public static final String INDEX_SUFFIX = ".pos";
+  private static final int HEADER_LENGTH = 19;
+
+  //
+  protected final File directory;
+  protected long syncInterval = 100; // milliseconds, 0 means fsync on every flush
+  protected int indexInterval = 64 * 1024;
+  protected boolean indexed = true;
+  protected int bufferSize = 256 * 1024;
+  protected ThreadFactory threadFactory = new XThreadFactory("relay-log-sync", true);
+  protected RelayLogTail tail;
+
+  //
+  private String binlogFileName; // Of the current segment
+  private FileChannel channel;
+  private FileChannel indexChannel;
+  private ByteBuffer buffer;
+  private final ByteBuffer indexBuffer = ByteBuffer.allocate(16 * 1024);
+  private long length; // Of the current segment, including buffered events
+  private long lastIndexed = -1; // Offset of the last index entry
+  private BinlogPosition position; // Of the last appended event
+  private BinlogPosition flushedPosition;
+  private volatile BinlogPosition syncedPosition;
+  private boolean dirty;
+  private Thread worker;
+  private volatile boolean running;
+
+  /**
+	 * 
+	 */
+  public RelayLogWriter(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+	 * 
+	 */
+  public long getSyncInterval() {
+    return syncInterval;
+  }
+
+  public void setSyncInterval(long syncInterval) {
+    this.syncInterval = syncInterval;
+  }
+
+  public int getIndexInterval() {
+    return indexInterval;
+  }
+
+  public void setIndexInterval(int indexInterval) {
+    this.indexInterval = indexInterval;
+  }
+
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  /**
+   * Without a position index, segments are expected to start at the beginning of their binlog
+   * file, so that the offset of an event is its master position. The end of an existing segment is
+   * then recovered by reading its event headers from the start.
+   */
+  public void setIndexed(boolean indexed) {
+    this.indexed = indexed;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public ThreadFactory getThreadFactory() {
+    return threadFactory;
+  }
+
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  public RelayLogTail getTail() {
+    return tail;
+  }
+
+  /**
+   * If set, every appended event also goes to the tail and becomes visible there on flush.
+   */
+  public void setTail(RelayLogTail tail) {
+    this.tail = tail;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  public synchronized String getBinlogFileName() {
+    return binlogFileName;
+  }
+
+  /**
+   * Returns the master position after the last appended event, or null if unknown.
+   */
+  public synchronized BinlogPosition getPosition() {
+    return position;
+  }
+
+  /**
+   * Returns the master position up to which events are known to be on disk, or null.
+   */
+  public BinlogPosition getSyncedPosition() {
+    return syncedPosition;
+  }
+
+  /**
+   * Returns the length of the current segment, including buffered events.
+   */
+  public synchronized long getLength() {
+    return length;
+  }
+
+  /**
+   * Returns true if the current segment holds no events yet.
+   */
+  public synchronized boolean isEmpty() {
+    return this.length <= MySQLConstants.BINLOG_MAGIC.length;
+  }
+
+  /**
+   * Opens the last segment, if any, and drops a partially written event at its end. Returns the
+   * master position after its last event, to resume the dump from, or null if the relay log is
+   * empty.
+   */
+  public synchronized BinlogPosition open() throws IOException {
+    //
+    if (!this.directory.exists() && !this.directory.mkdirs()) {
+      throw new IOException("failed to create relay log directory: " + this.directory);
+    }
+    this.buffer = ByteBuffer.allocate(this.bufferSize);
+    final List<String> segments = listSegments(this.directory);
+    if (!segments.isEmpty()) rotate(segments.get(segments.size() - 1));
+
+    //
+    if (!this.running) {
+      this.running = true;
+      if (this.syncInterval > 0) {
+        this.worker = this.threadFactory.newThread(new Task());
+        this.worker.start();
+      }
+    }
+    return this.position;
+  }
+
+  public void close() throws IOException {
+    //
+    synchronized (this) {
+      this.running = false;
+      if (this.worker != null) {
+        this.worker.interrupt();
+        this.worker = null;
+      }
+    }
+
+    //
+    sync();
+    synchronized (this) {
+      closeSegment();
+    }
+  }
+
+  /**
+   * Continues with the segment of the given binlog file, which is created unless it exists.
+   */
+  public synchronized void rotate(String name) throws IOException {
+    //
+    if (name.equals(this.binlogFileName)) return;
+    closeSegment();
+
+    //
+    final File file = new File(this.directory, name);
+    final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    final FileChannel indexChannel = !this.indexed ? null : FileChannel.open(
+        getIndexFile(file).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.binlogFileName = name;
+    this.channel = channel;
+    this.indexChannel = indexChannel;
+    this.lastIndexed = -1;
+    if (channel.size() < MySQLConstants.BINLOG_MAGIC.length) {
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(MySQLConstants.BINLOG_MAGIC), 0);
+      if (indexChannel != null) indexChannel.truncate(0);
+      this.length = MySQLConstants.BINLOG_MAGIC.length;
+      return;
+    }
+
+    // Recover the end of an existing segment
+    final long[] index = indexChannel == null ? new long[0] : readIndex(indexChannel);
+    long offset = MySQLConstants.BINLOG_MAGIC.length;
+    int entries = 0;
+    for (int i = 0; i < index.length; i += 2) {
+      if (index[i + 1] >= channel.size()) break;
+      offset = index[i + 1];
+      entries++;
+    }
+    BinlogPosition position = null;
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    while (true) {
+      header.clear();
+      if (channel.read(header, offset) < HEADER_LENGTH) break;
+      final long eventLength = header.getInt(9) & 0xFFFFFFFFL;
+      final long nextPosition = header.getInt(13) & 0xFFFFFFFFL;
+      if (eventLength < HEADER_LENGTH || offset + eventLength > channel.size()) break;
+      offset += eventLength;
+      if (nextPosition > 0) position = new BinlogPosition(name, nextPosition);
+    }
+    if (position == null && entries > 0) { // The event of the last index entry is torn
+      position = new BinlogPosition(name, index[entries * 2 - 2]); // After the previous event
+      entries--;
+    }
+    if (position != null) this.position = position;
+    if (channel.size() > offset) {
+      LOGGER.warn("truncating relay log segment: {} from {} to {}", new Object[] {file,
+          channel.size(), offset});
+      channel.truncate(offset);
+    }
+    if (indexChannel != null) indexChannel.truncate(entries * 16L);
+    if (entries > 0) this.lastIndexed = index[entries * 2 - 1];
+    this.length = offset;
+    this.flushedPosition = this.syncedPosition = this.position;
+  }
+
+  /**
+   * Buffers a raw event, header and body including its checksum.
+   */
+  public synchronized void append(byte[] event, int offset, int length) throws IOException {
+    //
+    if (this.channel == null) throw new IllegalStateException("no relay log segment");
+    final ByteBuffer header = ByteBuffer.wrap(event).order(ByteOrder.LITTLE_ENDIAN);
+    final long nextPosition = header.getInt(offset + 13) & 0xFFFFFFFFL;
+    if (this.indexChannel != null && nextPosition > 0
+        && (this.lastIndexed < 0 || this.length - this.lastIndexed >= this.indexInterval)) {
+      if (this.indexBuffer.remaining() < 16) flushIndex();
+      this.indexBuffer.putLong(nextPosition - length).putLong(this.length);
+      this.lastIndexed = this.length;
+    }
+
+    //
+    if (this.buffer.remaining() < length) flushBuffer();
+    if (this.buffer.remaining() < length) {
+      writeFully(this.channel, ByteBuffer.wrap(event, offset, length), this.length);
+    } else {
+      this.buffer.put(event, offset, length);
+    }
+    if (this.tail != null) {
+      this.tail.append(this.binlogFileName, this.length, event, offset, length);
+    }
+    this.length += length;
+    if (nextPosition > 0) this.position = new BinlogPosition(this.binlogFileName, nextPosition);
+  }
+
+  /**
+   * Writes the buffered events, which makes them visible to readers. They are fsynced by the
+   * background thread, or right away if the sync interval is 0.
+   */
+  public void flush() throws IOException {
+    synchronized (this) {
+      if (this.channel == null) return;
+      flushBuffer();
+      flushIndex();
+      if (this.tail != null) this.tail.publish();
+      this.flushedPosition = this.position;
+      this.dirty = true;
+    }
+    if (this.syncInterval <= 0) sync();
+  }
+
+  /**
+   * Forces the written events to disk, outside of the lock so that appends go on meanwhile.
+   */
+  public void sync() throws IOException {
+    //
+    final FileChannel channel, indexChannel;
+    final BinlogPosition position;
+    synchronized (this) {
+      if (!this.dirty) return;
+      channel = this.channel;
+      indexChannel = this.indexChannel;
+      position = this.flushedPosition;
+      this.dirty = false;
+    }
+
+    //
+    try {
+      channel.force(false);
+      if (indexChannel != null) indexChannel.force(false);
+    } catch (ClosedChannelException e) {
+      // NOP, forced on rotation
+    }
+    synchronized (this) {
+      final BinlogPosition synced = this.syncedPosition;
+      if (position != null && (synced == null || position.compareTo(synced) > 0)) {
+        this.syncedPosition = position;
+      }
+    }
+  }
+
+  /**
+   * Returns the offset in its segment of the event at the given master position, the segment length
+   * if it is the position after the last event, or -1 if the relay log does not contain it.
+   */
+  public synchronized long find(BinlogPosition target) throws IOException {
+    //
+    final File file = new File(this.directory, target.getBinlogFileName());
+    if (!file.exists()) return -1;
+    if (target.getBinlogFileName().equals(this.binlogFileName)) flush();
+
+    //
+    final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      long offset = MySQLConstants.BINLOG_MAGIC.length;
+      final File indexFile = getIndexFile(file);
+      if (this.indexed && indexFile.exists()) {
+        final FileChannel indexChannel =
+            FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        try {
+          final long[] index = readIndex(indexChannel);
+          for (int i = 0; i < index.length && index[i] <= target.getPosition(); i += 2) {
+            offset = index[i + 1];
+          }
+        } finally {
+          indexChannel.close();
+        }
+      }
+
+      //
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+      long end = -1;
+      while (true) {
+        header.clear();
+        if (channel.read(header, offset) < HEADER_LENGTH) break;
+        final long eventLength = header.getInt(9) & 0xFFFFFFFFL;
+        final long nextPosition = header.getInt(13) & 0xFFFFFFFFL;
+        if (eventLength < HEADER_LENGTH || offset + eventLength > channel.size()) break;
+        if (nextPosition > 0) {
+          if (nextPosition - eventLength == target.getPosition()) return offset;
+          if (nextPosition - eventLength > target.getPosition()) return -1;
+          end = nextPosition;
+        }
+        offset += eventLength;
+      }
+      return end == target.getPosition() ? offset : -1;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Deletes the segments of the binlog files before the given one, e.g. once the reader has moved
+   * past them.
+   */
+  public synchronized void purge(String binlogFileName) {
+    for (String name : listSegments(this.directory)) {
+      if (BinlogPosition.compareFileNames(name, binlogFileName) >= 0) break;
+      if (name.equals(this.binlogFileName)) break;
+      final File file = new File(this.directory, name);
+      if (!file.delete()) LOGGER.warn("failed to purge relay log segment: {}", file);
+      getIndexFile(file).delete();
+    }
+  }
+
+  /**
+	 * 
+	 */
+  public static File getIndexFile(File segment) {
+    return new File(segment.getPath() + INDEX_SUFFIX);
+  }
+
+  public static List<String> listSegments(File directory) {
+    final List<String> r = new ArrayList<String>();
+    final String[] names = directory.list();
+    if (names == null) return r;
+    for (String name : names) {
+      if (BinlogPosition.getSequence(name) >= 0) r.add(name);
+    }
+    Collections.sort(r, new Comparator<String>() {
+      public int compare(String lhs, String rhs) {
+        return BinlogPosition.compareFileNames(lhs, rhs);
+      }
+    });
+    return r;
+  }
+
+  /**
+	 * 
+	 */
+  private void flushBuffer() throws IOException {
+    this.buffer.flip();
+    writeFully(this.channel, this.buffer, this.length - this.buffer.remaining());
+    this.buffer.clear();
+  }
+
+  private void flushIndex() throws IOException {
+    if (this.indexChannel == null) return;
+    this.indexBuffer.flip();
+    writeFully(this.indexChannel, this.indexBuffer, this.indexChannel.size());
+    this.indexBuffer.clear();
+  }
+
+  private void closeSegment() throws IOException {
+    if (this.channel == null) return;
+    try {
+      flushBuffer();
+      flushIndex();
+      this.channel.force(false);
+      if (this.indexChannel != null) this.indexChannel.force(false);
+      this.syncedPosition = this.flushedPosition = this.position;
+    } finally {
+      this.channel.close();
+      if (this.indexChannel != null) this.indexChannel.close();
+      this.channel = null;
+      this.indexChannel = null;
+      this.binlogFileName = null;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) position += channel.write(buffer, position);
+  }
+
+  private static long[] readIndex(FileChannel channel) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() / 16 * 16));
+    while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0);
+    buffer.flip();
+    final long[] r = new long[buffer.remaining() / 8];
+    for (int i = 0; i < r.length; i++) r[i] = buffer.getLong();
+    return r;
+  }
+
+  /**
+	 * 
+	 */
+  private class Task implements Runnable {
+
+    public void run() {
+      while (running) {
+        try {
+          Thread.sleep(syncInterval);
+        } catch (InterruptedException e) {
+          break;
+        }
+        try {
+          sync();
+        } catch (Exception e) {
+          LOGGER.error("failed to sync relay log", e);
+        }
+      }
+    }
+  }
+}
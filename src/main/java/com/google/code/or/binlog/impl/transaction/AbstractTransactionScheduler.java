@@ -0,0 +1,321 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.transaction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.BinlogTransactionListener;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.util.XThreadFactory;
+
+/**
+ * Applies transactions on a pool of worker threads, each one once the transactions it depends on,
+ * as decided by the subclass, have been applied.
+ * <p>
+ * The transaction listener applies the transactions on the worker threads. The commit listener, if
+ * any, is called after a transaction was applied, in binlog order if commit order is preserved,
+ * which is where an application commits or records its progress. It is called with the lock of the
+ * scheduler held, so workers that finish meanwhile wait for it to return. Only takes the
+ * transactions of a {@link TransactionAssembler} that does not reuse them, they are cleared once
+ * committed.
+ * <p>
+ * If the transaction listener fails, the transactions depending on it are not applied and the
+ * committed position stays before it. If the commit listener fails, the committed position stays
+ * before that transaction too. Scheduling and draining then throw until the scheduler has been
+ * stopped and started again.
+ */
+public abstract class AbstractTransactionScheduler implements BinlogTransactionListener {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(AbstractTransactionScheduler.class);
+
+  //
+  protected int threads = 4;
+  protected int maxPendingTransactions = 1024;
+  protected boolean preserveCommitOrder = true;
+  protected BinlogTransactionListener transactionListener;
+  protected BinlogTransactionListener commitListener;
+
+  //
+  private ExecutorService executor;
+  private volatile BinlogPosition committedPosition;
+  private volatile Exception failure;
+  protected final Object lock = new Object();
+  protected final ArrayDeque<Node> pending = new ArrayDeque<Node>(); // In binlog order
+
+  /**
+   * Called before the transaction is scheduled.
+   */
+  protected abstract Node newNode(BinlogTransaction transaction) throws Exception;
+
+  /**
+   * Called with the lock held, the pending transactions are the ones scheduled before.
+   */
+  protected abstract void addDependencies(Node node);
+
+  /**
+	 * 
+	 */
+  public synchronized void start() {
+    if (this.executor != null) return;
+    if (this.transactionListener == null) {
+      throw new IllegalStateException("transaction listener is not set");
+    }
+    this.failure = null;
+    this.executor =
+        Executors.newFixedThreadPool(this.threads, new XThreadFactory("binlog-applier", true));
+  }
+
+  /**
+   * Stops after the pending transactions have been committed, or right away if one failed, in
+   * which case the pending transactions are dropped.
+   */
+  public synchronized void stop() throws InterruptedException {
+    if (this.executor == null) return;
+    if (this.failure == null) {
+      try {
+        drain();
+      } catch (IllegalStateException e) {
+        // The failure is kept for getFailure()
+      }
+    }
+    this.executor.shutdown();
+    this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    this.executor = null;
+    synchronized (this.lock) {
+      this.pending.clear();
+    }
+  }
+
+  /**
+   * Waits until every transaction scheduled so far has been committed.
+   * 
+   * @throws IllegalStateException if a transaction failed
+   */
+  public void drain() throws InterruptedException {
+    synchronized (this.lock) {
+      while (!this.pending.isEmpty()) {
+        checkFailure();
+        this.lock.wait();
+      }
+    }
+  }
+
+  /**
+	 * 
+	 */
+  public int getThreads() {
+    return threads;
+  }
+
+  public void setThreads(int threads) {
+    if (threads <= 0) throw new IllegalArgumentException("invalid threads: " + threads);
+    this.threads = threads;
+  }
+
+  public int getMaxPendingTransactions() {
+    return maxPendingTransactions;
+  }
+
+  /**
+   * Scheduling blocks while this many transactions are applied or wait to be.
+   */
+  public void setMaxPendingTransactions(int maxPendingTransactions) {
+    this.maxPendingTransactions = maxPendingTransactions;
+  }
+
+  public boolean isPreserveCommitOrder() {
+    return preserveCommitOrder;
+  }
+
+  public void setPreserveCommitOrder(boolean preserveCommitOrder) {
+    this.preserveCommitOrder = preserveCommitOrder;
+  }
+
+  public BinlogTransactionListener getTransactionListener() {
+    return transactionListener;
+  }
+
+  public void setTransactionListener(BinlogTransactionListener listener) {
+    this.transactionListener = listener;
+  }
+
+  public BinlogTransactionListener getCommitListener() {
+    return commitListener;
+  }
+
+  public void setCommitListener(BinlogTransactionListener listener) {
+    this.commitListener = listener;
+  }
+
+  /**
+   * The commit position of the last transaction committed with all earlier ones, resuming from here
+   * neither skips nor repeats a transaction.
+   */
+  public BinlogPosition getCommittedPosition() {
+    return committedPosition;
+  }
+
+  /**
+   * The exception of the first transaction that failed to apply or commit, or null.
+   */
+  public Exception getFailure() {
+    return failure;
+  }
+
+  /**
+	 * 
+	 */
+  public void onTransaction(BinlogTransaction transaction) throws Exception {
+    final ExecutorService executor = this.executor;
+    if (executor == null) throw new IllegalStateException("transaction scheduler is not started");
+    if (transaction.isReused()) { // Workers would read it while the next one is assembled
+      throw new IllegalArgumentException("transaction is reused by its assembler, "
+          + "reuse transactions must be disabled");
+    }
+    checkFailure();
+    final Node node = newNode(transaction);
+    synchronized (this.lock) {
+      while (this.pending.size() >= this.maxPendingTransactions) {
+        checkFailure();
+        this.lock.wait();
+      }
+      checkFailure();
+      addDependencies(node);
+      this.pending.addLast(node);
+      if (node.dependencies == 0) executor.execute(node);
+    }
+  }
+
+  /**
+   * Called with the lock held once the transaction left the pending ones.
+   */
+  protected void onCommitted(Node node) {
+    // NOP
+  }
+
+  /**
+	 * 
+	 */
+  private void onApplied(Node node) {
+    synchronized (this.lock) {
+      //
+      node.applied = true;
+      for (Node dependent : node.dependents) {
+        if (--dependent.dependencies == 0) this.executor.execute(dependent);
+      }
+      node.dependents.clear();
+      if (!this.preserveCommitOrder) commit(node);
+
+      // The committed position only moves over a gapless prefix, and not past a failed commit
+      for (Iterator<Node> it = this.pending.iterator(); it.hasNext();) {
+        final Node n = it.next();
+        if (!n.applied || n.failed) break;
+        if (this.preserveCommitOrder && !commit(n)) break;
+        this.committedPosition = n.transaction.getCommitPosition();
+        it.remove();
+        onCommitted(n);
+        n.transaction.clear();
+      }
+      this.lock.notifyAll();
+    }
+  }
+
+  private void onFailed(Node node, Exception exception) {
+    LOGGER.error("failed to apply transaction: " + node.transaction, exception);
+    synchronized (this.lock) {
+      if (this.failure == null) this.failure = exception;
+      this.lock.notifyAll();
+    }
+  }
+
+  private void checkFailure() {
+    final Exception failure = this.failure;
+    if (failure != null) {
+      throw new IllegalStateException("failed to apply or commit transaction", failure);
+    }
+  }
+
+  /**
+   * Called with the lock held, returns false if the commit listener failed.
+   */
+  private boolean commit(Node node) {
+    if (this.commitListener == null) return true;
+    try {
+      this.commitListener.onTransaction(node.transaction);
+      return true;
+    } catch (Exception e) {
+      LOGGER.error("failed to commit transaction: " + node.transaction, e);
+      node.failed = true;
+      if (this.failure == null) this.failure = e;
+      return false;
+    }
+  }
+
+  /**
+   * A scheduled transaction.
+   */
+  protected class Node implements Runnable {
+    //
+    protected final BinlogTransaction transaction;
+    private final List<Node> dependents = new ArrayList<Node>(2);
+    private int dependencies;
+    private boolean applied;
+    private boolean failed; // To commit
+
+    /**
+		 * 
+		 */
+    public Node(BinlogTransaction transaction) {
+      this.transaction = transaction;
+    }
+
+    /**
+		 * 
+		 */
+    public final boolean isApplied() {
+      return applied;
+    }
+
+    /**
+     * Makes this transaction wait for the given one unless already applied.
+     */
+    public final void dependOn(Node node) {
+      if (node == this || node.applied) return;
+      final int size = node.dependents.size();
+      if (size > 0 && node.dependents.get(size - 1) == this) return; // Added last, if at all
+      node.dependents.add(this);
+      this.dependencies++;
+    }
+
+    public final void run() {
+      try {
+        transactionListener.onTransaction(this.transaction);
+      } catch (Exception e) {
+        onFailed(this, e); // Neither applied nor committed, nor are its dependents
+        return;
+      }
+      onApplied(this);
+    }
+  }
+}
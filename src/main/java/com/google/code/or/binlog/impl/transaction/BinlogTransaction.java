@@ -0,0 +1,347 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.GtidSet;
+import com.google.code.or.common.util.IOUtils;
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * A committed transaction: its GTID if any, the positions of its first event and right after its
+ * commit, the commit timestamp, and its row events grouped by table in binlog order. Statements
+ * other than BEGIN and COMMIT, e.g. DDL or statement based changes, are kept as query events.
+ * <p>
+ * The row events of a table may have been spilled to a file when the transaction grew too large,
+ * {@link #visitRowEvents(String, Visitor)} reads them back one at a time, while
+ * {@link #getRowEvents(String)} loads them all. Not thread safe.
+ */
+public class BinlogTransaction {
+  //
+  private byte[] sourceId;
+  private long transactionId;
+  private long lastCommitted;
+  private long sequenceNumber;
+  private BinlogPosition beginPosition;
+  private BinlogPosition commitPosition;
+  private long commitTimestamp;
+  private long size; // Of the events, in binlog bytes
+  private int rowEventCount;
+  private final List<QueryEvent> queryEvents = new ArrayList<QueryEvent>();
+  private final Map<Long, TableMapEvent> tableMapEvents = new HashMap<Long, TableMapEvent>();
+  private final List<Group> groups = new ArrayList<Group>(); // In order of appearance
+  private final Map<String, Group> pool = new HashMap<String, Group>(); // Reused across clear()
+  private boolean reused; // By its assembler for the next transaction
+
+  /**
+   * Called back with the row events of a transaction.
+   */
+  public interface Visitor {
+
+    void visit(AbstractRowEvent event) throws Exception;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("gtid", getGtid())
+        .append("beginPosition", beginPosition).append("commitPosition", commitPosition)
+        .append("commitTimestamp", commitTimestamp).append("size", size)
+        .append("rowEventCount", rowEventCount).append("tableNames", getTableNames())
+        .append("queryEvents", queryEvents.size()).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public byte[] getSourceId() {
+    return sourceId;
+  }
+
+  public long getTransactionId() {
+    return transactionId;
+  }
+
+  /**
+   * Returns e.g. 3E11FA47-71CA-11E1-9E33-C80AA9429562:23, or null without GTIDs.
+   */
+  public String getGtid() {
+    return sourceId == null ? null : GtidSet.toUuid(sourceId) + ":" + transactionId;
+  }
+
+  public void setGtid(byte[] sourceId, long transactionId) {
+    this.sourceId = sourceId;
+    this.transactionId = transactionId;
+  }
+
+  /**
+   * The logical clock of the master, see {@link GtidEvent#getLastCommitted()}. 0 unless written by
+   * MySQL 5.7 or later with GTIDs.
+   */
+  public long getLastCommitted() {
+    return lastCommitted;
+  }
+
+  public long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  public void setLogicalClock(long lastCommitted, long sequenceNumber) {
+    this.lastCommitted = lastCommitted;
+    this.sequenceNumber = sequenceNumber;
+  }
+
+  /**
+   * The position of the first event, including the GTID event if any.
+   */
+  public BinlogPosition getBeginPosition() {
+    return beginPosition;
+  }
+
+  public void setBeginPosition(BinlogPosition beginPosition) {
+    this.beginPosition = beginPosition;
+  }
+
+  /**
+   * The position right after the commit, resuming from here skips this transaction.
+   */
+  public BinlogPosition getCommitPosition() {
+    return commitPosition;
+  }
+
+  public void setCommitPosition(BinlogPosition commitPosition) {
+    this.commitPosition = commitPosition;
+  }
+
+  /**
+   * In milliseconds, as written by the master.
+   */
+  public long getCommitTimestamp() {
+    return commitTimestamp;
+  }
+
+  public void setCommitTimestamp(long commitTimestamp) {
+    this.commitTimestamp = commitTimestamp;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public int getRowEventCount() {
+    return rowEventCount;
+  }
+
+  public List<QueryEvent> getQueryEvents() {
+    return Collections.unmodifiableList(queryEvents);
+  }
+
+  /**
+   * Returns the table map event of the row events with the table id.
+   */
+  public TableMapEvent getTableMapEvent(long tableId) {
+    return this.tableMapEvents.get(tableId);
+  }
+
+  public boolean isEmpty() {
+    return this.rowEventCount == 0 && this.queryEvents.isEmpty();
+  }
+
+  /**
+   * True if the assembler reuses this object once the transaction listener returned, see
+   * {@link TransactionAssembler#setReuseTransactions(boolean)}.
+   */
+  public boolean isReused() {
+    return reused;
+  }
+
+  public void setReused(boolean reused) {
+    this.reused = reused;
+  }
+
+  public boolean isSpilled() {
+    for (Group group : this.groups) {
+      if (group.spilled > 0) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the database.table names of the row events, in order of appearance.
+   */
+  public List<String> getTableNames() {
+    final List<String> r = new ArrayList<String>(this.groups.size());
+    for (Group group : this.groups) r.add(group.name);
+    return r;
+  }
+
+  /**
+	 * 
+	 */
+  public void addTableMapEvent(TableMapEvent event) {
+    this.tableMapEvents.put(event.getTableId(), event);
+  }
+
+  public void addQueryEvent(QueryEvent event) {
+    this.queryEvents.add(event);
+    this.size += event.getHeader().getEventLength();
+  }
+
+  public void addRowEvent(AbstractRowEvent event) {
+    final String name = event.getDatabaseName() + "." + event.getTableName();
+    Group group = this.pool.get(name);
+    if (group == null) this.pool.put(name, group = new Group(name));
+    if (group.isEmpty()) this.groups.add(group);
+    group.events.add(event);
+    this.rowEventCount++;
+    this.size += event.getHeader().getEventLength();
+  }
+
+  /**
+   * Moves the row events held in memory to one spill file per table in the directory.
+   */
+  public void spill(File directory) throws IOException {
+    for (Group group : this.groups) group.spill(directory);
+  }
+
+  /**
+   * Forgets the content and deletes the spill files, the containers are kept for the next one.
+   */
+  public void clear() {
+    this.sourceId = null;
+    this.transactionId = 0;
+    this.lastCommitted = 0;
+    this.sequenceNumber = 0;
+    this.beginPosition = null;
+    this.commitPosition = null;
+    this.commitTimestamp = 0;
+    this.size = 0;
+    this.rowEventCount = 0;
+    this.queryEvents.clear();
+    this.tableMapEvents.clear();
+    for (Group group : this.groups) group.clear();
+    this.groups.clear();
+  }
+
+  /**
+   * Visits the row events of all tables, table by table.
+   */
+  public void visitRowEvents(Visitor visitor) throws Exception {
+    for (Group group : this.groups) group.visit(visitor);
+  }
+
+  public void visitRowEvents(String tableName, Visitor visitor) throws Exception {
+    final Group group = this.pool.get(tableName);
+    if (group != null) group.visit(visitor);
+  }
+
+  public List<AbstractRowEvent> getRowEvents(String tableName) throws Exception {
+    final List<AbstractRowEvent> r = new ArrayList<AbstractRowEvent>();
+    visitRowEvents(tableName, new Visitor() {
+      public void visit(AbstractRowEvent event) {
+        r.add(event);
+      }
+    });
+    return r;
+  }
+
+  /**
+   * The row events of a single table, the oldest ones possibly in a spill file.
+   */
+  private static final class Group {
+    //
+    private final String name;
+    private final List<AbstractRowEvent> events = new ArrayList<AbstractRowEvent>();
+    private File file;
+    private ObjectOutputStream os;
+    private int spilled;
+
+    /**
+		 * 
+		 */
+    public Group(String name) {
+      this.name = name;
+    }
+
+    /**
+		 * 
+		 */
+    public boolean isEmpty() {
+      return this.spilled == 0 && this.events.isEmpty();
+    }
+
+    public void spill(File directory) throws IOException {
+      if (this.events.isEmpty()) return;
+      if (this.os == null) {
+        this.file = File.createTempFile("binlog-transaction-", ".spill", directory);
+        this.os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+      }
+      for (AbstractRowEvent event : this.events) {
+        this.os.writeObject(event);
+        this.os.reset(); // Otherwise every event written stays referenced
+      }
+      this.spilled += this.events.size();
+      this.events.clear();
+    }
+
+    public void clear() {
+      this.events.clear();
+      this.spilled = 0;
+      IOUtils.closeQuietly(this.os);
+      this.os = null;
+      if (this.file != null && !this.file.delete()) this.file.deleteOnExit();
+      this.file = null;
+    }
+
+    public void visit(Visitor visitor) throws Exception {
+      //
+      if (this.spilled > 0) {
+        this.os.flush();
+        final ObjectInputStream is =
+            new ObjectInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+        try {
+          for (int i = 0; i < this.spilled; i++) {
+            visitor.visit((AbstractRowEvent) is.readObject());
+          }
+        } finally {
+          is.close();
+        }
+      }
+
+      //
+      for (AbstractRowEvent event : this.events) visitor.visit(event);
+    }
+  }
+}
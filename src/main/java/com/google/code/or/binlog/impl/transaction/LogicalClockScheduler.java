@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.transaction;
+
+/**
+ * Applies transactions in parallel like the LOGICAL_CLOCK replica of MySQL, by the logical clock
+ * the master wrote into the GTID events: a transaction waits for the transactions whose sequence
+ * number is not greater than its last committed one, so no writesets need to be computed. Sequence
+ * numbers restart with every binlog file, so the first transactions of a file wait for all of the
+ * previous file. Transactions without a logical clock wait for all earlier ones, and so do all
+ * later ones for them.
+ */
+public class LogicalClockScheduler extends AbstractTransactionScheduler {
+  //
+  private int epoch; // Incremented at binlog file boundaries
+  private long lastSequenceNumber;
+
+  /**
+	 * 
+	 */
+  @Override
+  protected Node newNode(BinlogTransaction transaction) throws Exception {
+    return new ClockNode(transaction);
+  }
+
+  @Override
+  protected void addDependencies(Node node) {
+    //
+    final ClockNode cn = (ClockNode) node;
+    final long sequenceNumber = cn.transaction.getSequenceNumber();
+    final long lastCommitted = cn.transaction.getLastCommitted();
+    final boolean serial = sequenceNumber <= 0;
+    if (serial || sequenceNumber <= this.lastSequenceNumber) this.epoch++;
+    this.lastSequenceNumber = serial ? 0 : sequenceNumber;
+
+    //
+    cn.epoch = this.epoch;
+    for (Node n : this.pending) {
+      final ClockNode p = (ClockNode) n;
+      if (p.epoch != cn.epoch || p.transaction.getSequenceNumber() <= lastCommitted) cn.dependOn(p);
+    }
+    if (serial) this.epoch++;
+  }
+
+  /**
+	 * 
+	 */
+  private final class ClockNode extends Node {
+    //
+    private int epoch;
+
+    /**
+		 * 
+		 */
+    public ClockNode(BinlogTransaction transaction) {
+      super(transaction);
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.transaction;
+
+import java.io.File;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogTransactionListener;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.BinlogPosition;
+
+/**
+ * An event listener that groups the events of each transaction, from BEGIN (or its GTID event) to
+ * XID or COMMIT, into a {@link BinlogTransaction} handed to the transaction listener on commit.
+ * Rolled back transactions are dropped. A statement outside a transaction, e.g. DDL, makes a
+ * transaction of its own.
+ * <p>
+ * Once the events of a transaction exceed the spill threshold, its row events are moved to files
+ * in the spill directory, so that a huge transaction does not have to fit into the heap. The
+ * threshold is compared to the binlog length of the events, their size on the heap is a multiple
+ * of it.
+ * <p>
+ * The binlog file name is taken from rotate events; file based parsers do not start with one, so
+ * set it up front to get positions.
+ */
+public class TransactionAssembler implements BinlogEventListener {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(TransactionAssembler.class);
+
+  //
+  protected BinlogTransactionListener transactionListener;
+  protected long spillThreshold = 64L * 1024 * 1024;
+  protected File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+  protected boolean reuseTransactions = true;
+
+  //
+  private String binlogFileName;
+  private boolean inTransaction;
+  private long spilledSize;
+  private BinlogTransaction transaction = new BinlogTransaction();
+
+  /**
+	 * 
+	 */
+  public TransactionAssembler() {}
+
+  public TransactionAssembler(BinlogTransactionListener listener) {
+    this.transactionListener = listener;
+  }
+
+  /**
+	 * 
+	 */
+  public BinlogTransactionListener getTransactionListener() {
+    return transactionListener;
+  }
+
+  public void setTransactionListener(BinlogTransactionListener listener) {
+    this.transactionListener = listener;
+  }
+
+  public long getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  public void setSpillThreshold(long spillThreshold) {
+    this.spillThreshold = spillThreshold;
+  }
+
+  public File getSpillDirectory() {
+    return spillDirectory;
+  }
+
+  public void setSpillDirectory(File spillDirectory) {
+    this.spillDirectory = spillDirectory;
+  }
+
+  public boolean isReuseTransactions() {
+    return reuseTransactions;
+  }
+
+  /**
+   * If not set, every transaction is a new object owned by the transaction listener, which has to
+   * clear it to delete its spill files. Needed to keep transactions beyond the call.
+   */
+  public void setReuseTransactions(boolean reuseTransactions) {
+    this.reuseTransactions = reuseTransactions;
+  }
+
+  public String getBinlogFileName() {
+    return binlogFileName;
+  }
+
+  public void setBinlogFileName(String binlogFileName) {
+    this.binlogFileName = binlogFileName;
+  }
+
+  /**
+   * Drops the transaction in progress, e.g. before resuming at a transaction boundary.
+   */
+  public void reset() {
+    this.transaction.clear();
+    this.inTransaction = false;
+    this.spilledSize = 0;
+  }
+
+  /**
+	 * 
+	 */
+  public void onEvents(BinlogEventV4 event) {
+    try {
+      doEvent(event);
+    } catch (Exception e) {
+      reset();
+      throw new RuntimeException("failed to assemble transaction, event: " + event, e);
+    }
+  }
+
+  protected void doEvent(BinlogEventV4 event) throws Exception {
+    //
+    if (event instanceof RotateEvent) {
+      this.binlogFileName = ((RotateEvent) event).getBinlogFileName().toString();
+      return;
+    }
+
+    //
+    if (event instanceof GtidEvent) {
+      final GtidEvent ge = (GtidEvent) event;
+      reset();
+      if (!ge.isAnonymous()) this.transaction.setGtid(ge.getSourceId(), ge.getTransactionId());
+      this.transaction.setLogicalClock(ge.getLastCommitted(), ge.getSequenceNumber());
+      this.transaction.setBeginPosition(getPosition(event.getHeader().getPosition()));
+    } else if (event instanceof QueryEvent) {
+      final QueryEvent qe = (QueryEvent) event;
+      final String sql = qe.getSql().toString().trim();
+      if ("BEGIN".equalsIgnoreCase(sql)) {
+        begin(event);
+      } else if ("COMMIT".equalsIgnoreCase(sql)) {
+        commit(event);
+      } else if ("ROLLBACK".equalsIgnoreCase(sql)) {
+        reset();
+      } else if (this.inTransaction) {
+        add(qe);
+      } else {
+        begin(event);
+        add(qe);
+        commit(event);
+      }
+    } else if (event instanceof TableMapEvent) {
+      this.transaction.addTableMapEvent((TableMapEvent) event);
+    } else if (event instanceof XidEvent) {
+      commit(event);
+    } else if (event instanceof AbstractRowEvent) {
+      if (!this.inTransaction) begin(event); // Resumed in the middle of a transaction
+      add((AbstractRowEvent) event);
+    }
+  }
+
+  /**
+	 * 
+	 */
+  private void begin(BinlogEventV4 event) {
+    if (this.inTransaction) reset(); // The previous one never committed
+    this.inTransaction = true;
+    if (this.transaction.getBeginPosition() == null) {
+      this.transaction.setBeginPosition(getPosition(event.getHeader().getPosition()));
+    }
+  }
+
+  private void add(QueryEvent event) throws Exception {
+    this.transaction.addQueryEvent(event);
+  }
+
+  private void add(AbstractRowEvent event) throws Exception {
+    this.transaction.addRowEvent(event);
+    if (this.transaction.getSize() - this.spilledSize > this.spillThreshold) {
+      if (this.spilledSize == 0 && LOGGER.isInfoEnabled()) {
+        LOGGER.info("spilling transaction: {} to directory: {}",
+            this.transaction.getBeginPosition(), this.spillDirectory);
+      }
+      this.transaction.spill(this.spillDirectory);
+      this.spilledSize = this.transaction.getSize();
+    }
+  }
+
+  private void commit(BinlogEventV4 event) throws Exception {
+    //
+    if (!this.inTransaction) {
+      reset();
+      return;
+    }
+
+    //
+    this.transaction.setCommitPosition(getPosition(event.getHeader().getNextPosition()));
+    this.transaction.setCommitTimestamp(event.getHeader().getTimestamp());
+    this.transaction.setReused(this.reuseTransactions);
+    try {
+      this.transactionListener.onTransaction(this.transaction);
+    } finally {
+      if (!this.reuseTransactions) this.transaction = new BinlogTransaction();
+      reset();
+    }
+  }
+
+  private BinlogPosition getPosition(long position) {
+    if (this.binlogFileName == null || position <= 0) return null;
+    return new BinlogPosition(this.binlogFileName, position);
+  }
+}
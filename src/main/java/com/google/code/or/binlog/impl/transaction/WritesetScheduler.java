@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.binlog.impl.transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.or.binlog.impl.dispatch.RowKeyHasher;
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEvent;
+import com.google.code.or.binlog.impl.event.DeleteRowsEventV2;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.common.glossary.Pair;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.column.BitColumn;
+
+/**
+ * Applies transactions in parallel like the WRITESET dependency tracking of MySQL: the writeset of
+ * a transaction is the set of hashes of the table and key of every row it modifies, and of its
+ * unique keys configured with the {@link RowKeyHasher}, and a transaction waits only for the
+ * running transactions that last wrote one of its hashes.
+ * Transactions with statements or rows without a known key wait for all earlier ones, and so do
+ * all later ones for them. The history of last writers is bounded, when full it is cleared and
+ * the next transaction waits for all earlier ones, and all later ones for it, as the writers it
+ * forgot may still be running.
+ */
+public class WritesetScheduler extends AbstractTransactionScheduler {
+  //
+  protected int historySize = 25000;
+  protected RowKeyHasher rowKeyHasher = new RowKeyHasher();
+
+  //
+  private Node lastSerial; // Later transactions wait for it
+  private final Map<Integer, Node> history = new HashMap<Integer, Node>(); // Last writers
+
+  /**
+	 * 
+	 */
+  public int getHistorySize() {
+    return historySize;
+  }
+
+  public void setHistorySize(int historySize) {
+    this.historySize = historySize;
+  }
+
+  public RowKeyHasher getRowKeyHasher() {
+    return rowKeyHasher;
+  }
+
+  public void setRowKeyHasher(RowKeyHasher rowKeyHasher) {
+    this.rowKeyHasher = rowKeyHasher;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  protected Node newNode(BinlogTransaction transaction) throws Exception {
+    return new WritesetNode(transaction, getWriteset(transaction));
+  }
+
+  @Override
+  protected void addDependencies(Node node) {
+    final int[] writeset = ((WritesetNode) node).writeset;
+    if (writeset == null) {
+      this.history.clear();
+      for (Node n : this.pending) node.dependOn(n);
+      this.lastSerial = node;
+    } else if (this.history.size() + writeset.length > this.historySize) {
+      this.history.clear();
+      for (Node n : this.pending) node.dependOn(n);
+      for (int hash : writeset) this.history.put(hash, node);
+      this.lastSerial = node;
+    } else {
+      if (this.lastSerial != null) node.dependOn(this.lastSerial);
+      for (int hash : writeset) {
+        final Node writer = this.history.put(hash, node);
+        if (writer != null) node.dependOn(writer);
+      }
+    }
+  }
+
+  @Override
+  protected void onCommitted(Node node) {
+    if (this.lastSerial == node) this.lastSerial = null;
+  }
+
+  /**
+   * Returns the hashes of the rows, or null if statements or rows without a known key are involved.
+   */
+  protected int[] getWriteset(BinlogTransaction transaction) throws Exception {
+    //
+    if (!transaction.getQueryEvents().isEmpty()) return null;
+
+    //
+    final List<Integer> r = new ArrayList<Integer>();
+    final boolean[] keyed = new boolean[] {true};
+    transaction.visitRowEvents(new BinlogTransaction.Visitor() {
+      public void visit(AbstractRowEvent event) {
+        final TableMapEvent tme = transaction.getTableMapEvent(event.getTableId());
+        if (!keyed[0] || tme == null) {
+          keyed[0] = false;
+          return;
+        }
+        final int[][] keys = getKeys(rowKeyHasher.getKeyColumns(tme),
+            rowKeyHasher.getUniqueKeyColumns(tme));
+        keyed[0] = addWriteset(r, event, keys);
+      }
+    });
+    if (!keyed[0]) return null;
+    final int[] writeset = new int[r.size()];
+    for (int i = 0; i < writeset.length; i++) writeset[i] = r.get(i);
+    return writeset;
+  }
+
+  /**
+   * Returns the key followed by the unique keys, or null without a key.
+   */
+  private static int[][] getKeys(int[] key, int[][] uniqueKeys) {
+    if (key == null) return null;
+    final int[][] r = new int[uniqueKeys.length + 1][];
+    r[0] = key;
+    System.arraycopy(uniqueKeys, 0, r, 1, uniqueKeys.length);
+    return r;
+  }
+
+  private boolean addWriteset(List<Integer> r, AbstractRowEvent event, int[][] key) {
+    if (event instanceof WriteRowsEvent) {
+      final WriteRowsEvent e = (WriteRowsEvent) event;
+      return addWriteset(r, event, e.getRows(), e.getUsedColumns(), key);
+    } else if (event instanceof WriteRowsEventV2) {
+      final WriteRowsEventV2 e = (WriteRowsEventV2) event;
+      return addWriteset(r, event, e.getRows(), e.getUsedColumns(), key);
+    } else if (event instanceof DeleteRowsEvent) {
+      final DeleteRowsEvent e = (DeleteRowsEvent) event;
+      return addWriteset(r, event, e.getRows(), e.getUsedColumns(), key);
+    } else if (event instanceof DeleteRowsEventV2) {
+      final DeleteRowsEventV2 e = (DeleteRowsEventV2) event;
+      return addWriteset(r, event, e.getRows(), e.getUsedColumns(), key);
+    } else if (event instanceof UpdateRowsEvent) {
+      final UpdateRowsEvent e = (UpdateRowsEvent) event;
+      return addWriteset(r, event, e.getRows(), e.getUsedColumnsBefore(), e.getUsedColumnsAfter(),
+          key);
+    } else if (event instanceof UpdateRowsEventV2) {
+      final UpdateRowsEventV2 e = (UpdateRowsEventV2) event;
+      return addWriteset(r, event, e.getRows(), e.getUsedColumnsBefore(), e.getUsedColumnsAfter(),
+          key);
+    }
+    return false;
+  }
+
+  private boolean addWriteset(List<Integer> r, AbstractRowEvent event, List<Row> rows,
+      BitColumn used, int[][] keys) {
+    if (!isKeyed(used, keys)) return false;
+    for (Row row : rows) addWriteset(r, event, row, used, keys);
+    return true;
+  }
+
+  private boolean addWriteset(List<Integer> r, AbstractRowEvent event, List<Pair<Row>> rows,
+      BitColumn usedBefore, BitColumn usedAfter, int[][] keys) {
+    if (!isKeyed(usedBefore, keys) || !isKeyed(usedAfter, keys)) return false;
+    for (Pair<Row> row : rows) {
+      addWriteset(r, event, row.getBefore(), usedBefore, keys);
+      addWriteset(r, event, row.getAfter(), usedAfter, keys);
+    }
+    return true;
+  }
+
+  private static void addWriteset(List<Integer> r, AbstractRowEvent event, Row row,
+      BitColumn used, int[][] keys) {
+    final String db = event.getDatabaseName();
+    final String table = event.getTableName();
+    for (int i = 0; i < keys.length; i++) {
+      r.add(RowKeyHasher.hash(db, table, row, used, keys[i], i));
+    }
+  }
+
+  private static boolean isKeyed(BitColumn used, int[][] keys) {
+    if (keys == null) return false;
+    for (int[] key : keys) {
+      if (!RowKeyHasher.isKeyed(used, key)) return false;
+    }
+    return true;
+  }
+
+  /**
+	 * 
+	 */
+  private final class WritesetNode extends Node {
+    //
+    private final int[] writeset;
+
+    /**
+		 * 
+		 */
+    public WritesetNode(BinlogTransaction transaction, int[] writeset) {
+      super(transaction);
+      this.writeset = writeset;
+    }
+  }
+}
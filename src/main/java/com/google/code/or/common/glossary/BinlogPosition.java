@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.common.glossary;
+
+import java.io.Serializable;
+
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * A binlog file name and an offset in that file. Positions order by the numeric extension of the
+ * file name first, so mysql-bin.999999 sorts before mysql-bin.1000000.
+ */
+public final class BinlogPosition implements Comparable<BinlogPosition>, Serializable {
+  //
+  private static final long serialVersionUID = -2914418335417462117L;
+
+  //
+  private final String binlogFileName;
+  private final long position;
+
+  /**
+	 * 
+	 */
+  public BinlogPosition(String binlogFileName, long position) {
+    if (binlogFileName == null) throw new IllegalArgumentException("invalid binlog file name");
+    this.binlogFileName = binlogFileName;
+    this.position = position;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("binlogFileName", binlogFileName)
+        .append("position", position).toString();
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * this.binlogFileName.hashCode() + (int) (this.position ^ (this.position >>> 32));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!(obj instanceof BinlogPosition)) return false;
+    final BinlogPosition rhs = (BinlogPosition) obj;
+    return this.position == rhs.position && this.binlogFileName.equals(rhs.binlogFileName);
+  }
+
+  public int compareTo(BinlogPosition rhs) {
+    final int r = compareFileNames(this.binlogFileName, rhs.binlogFileName);
+    if (r != 0) return r;
+    return this.position < rhs.position ? -1 : (this.position == rhs.position ? 0 : 1);
+  }
+
+  /**
+	 * 
+	 */
+  public String getBinlogFileName() {
+    return binlogFileName;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+	 * 
+	 */
+  public static int compareFileNames(String lhs, String rhs) {
+    final long l = getSequence(lhs);
+    final long r = getSequence(rhs);
+    if (l >= 0 && r >= 0 && l != r) return l < r ? -1 : 1;
+    return lhs.compareTo(rhs);
+  }
+
+  public static long getSequence(String binlogFileName) {
+    final int index = binlogFileName.lastIndexOf('.');
+    if (index < 0 || index == binlogFileName.length() - 1) return -1;
+    long r = 0;
+    for (int i = index + 1; i < binlogFileName.length(); i++) {
+      final char c = binlogFileName.charAt(i);
+      if (c < '0' || c > '9') return -1;
+      r = r * 10 + (c - '0');
+    }
+    return r;
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.common.glossary;
+
+import java.io.Serializable;
+
+import com.google.code.or.common.util.ToStringBuilder;
+
+/**
+ * The position after the last transaction an application has processed and, when replicating by
+ * GTIDs, the set of transactions executed up to there.
+ */
+public final class Checkpoint implements Serializable {
+  //
+  private static final long serialVersionUID = 4730963287563629807L;
+
+  //
+  private final BinlogPosition position;
+  private final GtidSet gtidSet;
+
+  /**
+	 * 
+	 */
+  public Checkpoint(BinlogPosition position, GtidSet gtidSet) {
+    this.position = position;
+    this.gtidSet = gtidSet;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("position", position).append("gtidSet", gtidSet)
+        .toString();
+  }
+
+  /**
+	 * 
+	 */
+  public BinlogPosition getPosition() {
+    return position;
+  }
+
+  /**
+   * Returns null unless replicating by GTIDs.
+   */
+  public GtidSet getGtidSet() {
+    return gtidSet;
+  }
+}
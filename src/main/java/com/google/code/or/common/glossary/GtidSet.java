@@ -0,0 +1,357 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.common.glossary;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of global transaction identifiers, e.g.
+ * 3E11FA47-71CA-11E1-9E33-C80AA9429562:1-5:7,8A94F357-AAB4-11DF-86AB-C80AA9429562:1-3. The
+ * transaction numbers of each source are kept as disjoint, sorted intervals, so adding or looking
+ * up a transaction is O(log n) in the number of gaps. Not thread safe.
+ */
+public final class GtidSet implements Serializable {
+  //
+  private static final long serialVersionUID = 6437523473120263291L;
+
+  //
+  private final Map<String, UuidSet> sets = new TreeMap<String, UuidSet>();
+
+  /**
+	 * 
+	 */
+  public GtidSet() {}
+
+  public GtidSet(GtidSet rhs) {
+    addAll(rhs);
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    final StringBuilder r = new StringBuilder();
+    for (UuidSet set : this.sets.values()) {
+      if (r.length() > 0) r.append(',');
+      r.append(set);
+    }
+    return r.toString();
+  }
+
+  @Override
+  public int hashCode() {
+    return this.sets.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!(obj instanceof GtidSet)) return false;
+    return this.sets.equals(((GtidSet) obj).sets);
+  }
+
+  /**
+	 * 
+	 */
+  public boolean isEmpty() {
+    return this.sets.isEmpty();
+  }
+
+  public void clear() {
+    this.sets.clear();
+  }
+
+  public Collection<UuidSet> getUuidSets() {
+    return Collections.unmodifiableCollection(this.sets.values());
+  }
+
+  public UuidSet getUuidSet(String uuid) {
+    return this.sets.get(uuid.toLowerCase());
+  }
+
+  public boolean add(String uuid, long transactionId) {
+    return add(uuid, transactionId, transactionId);
+  }
+
+  public boolean add(byte[] sourceId, long transactionId) {
+    return add(toUuid(sourceId), transactionId);
+  }
+
+  /**
+   * Adds the transactions from start to end, both inclusive, transaction numbers start at 1. Returns
+   * false if all of them were already contained.
+   */
+  public boolean add(String uuid, long start, long end) {
+    final String key = uuid.toLowerCase();
+    UuidSet set = this.sets.get(key);
+    if (set != null) return set.add(start, end);
+    set = new UuidSet(key);
+    set.add(start, end); // Validates the interval before the set is added
+    this.sets.put(key, set);
+    return true;
+  }
+
+  public void addAll(GtidSet rhs) {
+    for (UuidSet set : rhs.sets.values()) {
+      for (Interval interval : set.getIntervals()) {
+        add(set.uuid, interval.start, interval.end);
+      }
+    }
+  }
+
+  public boolean contains(String uuid, long transactionId) {
+    final UuidSet set = this.sets.get(uuid.toLowerCase());
+    return set != null && set.contains(transactionId);
+  }
+
+  public boolean contains(byte[] sourceId, long transactionId) {
+    return contains(toUuid(sourceId), transactionId);
+  }
+
+  public boolean containsAll(GtidSet rhs) {
+    for (UuidSet set : rhs.sets.values()) {
+      final UuidSet lhs = this.sets.get(set.uuid);
+      for (Interval interval : set.getIntervals()) {
+        if (lhs == null || !lhs.contains(interval.start, interval.end)) return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The wire format of COM_BINLOG_DUMP_GTID and PREVIOUS_GTIDS_LOG_EVENT: 8 bytes number of sources,
+   * then per source 16 bytes uuid, 8 bytes number of intervals and per interval 8 bytes start and 8
+   * bytes exclusive end, all little endian.
+   */
+  public int getEncodedLength() {
+    int r = 8;
+    for (UuidSet set : this.sets.values()) r += 16 + 8 + 16 * set.intervals.size();
+    return r;
+  }
+
+  public byte[] toByteArray() {
+    final ByteBuffer r = ByteBuffer.allocate(getEncodedLength()).order(ByteOrder.LITTLE_ENDIAN);
+    r.putLong(this.sets.size());
+    for (UuidSet set : this.sets.values()) {
+      r.put(fromUuid(set.uuid));
+      r.putLong(set.intervals.size());
+      for (Map.Entry<Long, Long> e : set.intervals.entrySet()) {
+        r.putLong(e.getKey());
+        r.putLong(e.getValue() + 1);
+      }
+    }
+    return r.array();
+  }
+
+  /**
+	 * 
+	 */
+  public static GtidSet valueOf(byte[] encoded) {
+    final ByteBuffer buffer = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+    final GtidSet r = new GtidSet();
+    final byte[] sourceId = new byte[16];
+    for (long i = buffer.getLong(); i > 0; i--) {
+      buffer.get(sourceId);
+      final String uuid = toUuid(sourceId);
+      for (long j = buffer.getLong(); j > 0; j--) {
+        final long start = buffer.getLong();
+        final long end = buffer.getLong(); // Exclusive
+        r.add(uuid, start, end - 1);
+      }
+    }
+    return r;
+  }
+
+  public static GtidSet valueOf(String s) {
+    final GtidSet r = new GtidSet();
+    if (s == null) return r;
+    for (String part : s.replaceAll("\\s", "").split(",")) {
+      if (part.length() == 0) continue;
+      final String[] tokens = part.split(":");
+      for (int i = 1; i < tokens.length; i++) {
+        final int index = tokens[i].indexOf('-');
+        if (index < 0) {
+          r.add(tokens[0], Long.parseLong(tokens[i]));
+        } else {
+          final long start = Long.parseLong(tokens[i].substring(0, index));
+          r.add(tokens[0], start, Long.parseLong(tokens[i].substring(index + 1)));
+        }
+      }
+    }
+    return r;
+  }
+
+  public static String toUuid(byte[] sourceId) {
+    final StringBuilder r = new StringBuilder(36);
+    for (int i = 0; i < 16; i++) {
+      if (i == 4 || i == 6 || i == 8 || i == 10) r.append('-');
+      r.append(Character.forDigit((sourceId[i] >> 4) & 0x0F, 16));
+      r.append(Character.forDigit(sourceId[i] & 0x0F, 16));
+    }
+    return r.toString();
+  }
+
+  public static byte[] fromUuid(String uuid) {
+    final String hex = uuid.replace("-", "");
+    if (hex.length() != 32) throw new IllegalArgumentException("invalid uuid: " + uuid);
+    final byte[] r = new byte[16];
+    for (int i = 0; i < 16; i++) {
+      r[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return r;
+  }
+
+  /**
+   * The transactions of a single source.
+   */
+  public static final class UuidSet implements Serializable {
+    //
+    private static final long serialVersionUID = -1817424322853390787L;
+
+    //
+    private final String uuid;
+    private final TreeMap<Long, Long> intervals = new TreeMap<Long, Long>(); // Start -> end
+
+    /**
+		 * 
+		 */
+    public UuidSet(String uuid) {
+      this.uuid = uuid;
+    }
+
+    /**
+		 * 
+		 */
+    @Override
+    public String toString() {
+      final StringBuilder r = new StringBuilder(this.uuid);
+      for (Map.Entry<Long, Long> e : this.intervals.entrySet()) {
+        r.append(':').append(e.getKey());
+        if (!e.getKey().equals(e.getValue())) r.append('-').append(e.getValue());
+      }
+      return r.toString();
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.uuid.hashCode() + this.intervals.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof UuidSet)) return false;
+      final UuidSet rhs = (UuidSet) obj;
+      return this.uuid.equals(rhs.uuid) && this.intervals.equals(rhs.intervals);
+    }
+
+    /**
+		 * 
+		 */
+    public String getUuid() {
+      return uuid;
+    }
+
+    public List<Interval> getIntervals() {
+      final List<Interval> r = new ArrayList<Interval>(this.intervals.size());
+      for (Map.Entry<Long, Long> e : this.intervals.entrySet()) {
+        r.add(new Interval(e.getKey(), e.getValue()));
+      }
+      return r;
+    }
+
+    public boolean contains(long transactionId) {
+      return contains(transactionId, transactionId);
+    }
+
+    public boolean contains(long start, long end) {
+      final Map.Entry<Long, Long> floor = this.intervals.floorEntry(start);
+      return floor != null && floor.getValue() >= end;
+    }
+
+    public boolean add(long start, long end) {
+      //
+      if (start < 1 || start > end) {
+        throw new IllegalArgumentException("invalid interval: " + start + "-" + end);
+      }
+      if (contains(start, end)) return false;
+
+      // Merge with an overlapping or adjacent interval on the left
+      final Map.Entry<Long, Long> floor = this.intervals.floorEntry(start);
+      if (floor != null && floor.getValue() >= start - 1) {
+        start = floor.getKey();
+        end = Math.max(end, floor.getValue());
+      }
+
+      // Swallow the intervals on the right
+      Map.Entry<Long, Long> next = this.intervals.ceilingEntry(start);
+      while (next != null && next.getKey() <= end + 1) {
+        end = Math.max(end, next.getValue());
+        this.intervals.remove(next.getKey());
+        next = this.intervals.higherEntry(next.getKey());
+      }
+      this.intervals.put(start, end);
+      return true;
+    }
+  }
+
+  /**
+   * An inclusive range of transaction numbers.
+   */
+  public static final class Interval implements Serializable {
+    //
+    private static final long serialVersionUID = 3467528290178212548L;
+
+    //
+    private final long start;
+    private final long end;
+
+    /**
+		 * 
+		 */
+    public Interval(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    /**
+		 * 
+		 */
+    @Override
+    public String toString() {
+      return start == end ? String.valueOf(start) : start + "-" + end;
+    }
+
+    /**
+		 * 
+		 */
+    public long getStart() {
+      return start;
+    }
+
+    public long getEnd() {
+      return end;
+    }
+  }
+}
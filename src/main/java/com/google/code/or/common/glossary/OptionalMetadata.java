@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.common.glossary;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.google.code.or.common.util.CodecUtils;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.ToStringBuilder;
+import com.google.code.or.io.util.XDeserializer;
+
+/**
+ * The optional metadata of a table map event, written by MySQL 8.0.1 and later: type-length-value
+ * fields after the column nullabilities. The signedness of the numeric columns and the collations
+ * of the character columns are decoded, as are the column names and the primary key logged with
+ * binlog_row_metadata=FULL. The other fields are kept raw.
+ */
+public final class OptionalMetadata implements Serializable {
+  //
+  private static final long serialVersionUID = -2961585405390567117L;
+
+  //
+  public static final int SIGNEDNESS = 1;
+  public static final int DEFAULT_CHARSET = 2;
+  public static final int COLUMN_CHARSET = 3;
+  public static final int COLUMN_NAME = 4;
+  public static final int SET_STR_VALUE = 5;
+  public static final int ENUM_STR_VALUE = 6;
+  public static final int GEOMETRY_TYPE = 7;
+  public static final int SIMPLE_PRIMARY_KEY = 8;
+  public static final int PRIMARY_KEY_WITH_PREFIX = 9;
+
+  //
+  private final byte[] data;
+  private byte[] signedness; // A bit per numeric column, set if unsigned
+  private int[] collations; // Per character column
+  private int defaultCollation; // Of the character columns not in the exceptions
+  private int[] collationExceptions; // Pairs of character column index and collation
+  private String[] columnNames;
+  private int[] primaryKey;
+
+  /**
+	 * 
+	 */
+  public OptionalMetadata(byte[] data) {
+    this.data = data;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("columnNames", Arrays.toString(columnNames))
+        .append("primaryKey", Arrays.toString(primaryKey)).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Returns null unless logged.
+   */
+  public String[] getColumnNames() {
+    return columnNames;
+  }
+
+  /**
+   * Returns the indexes of the primary key columns in key order, or null unless logged.
+   */
+  public int[] getPrimaryKey() {
+    return primaryKey;
+  }
+
+  /**
+   * Returns whether each column is unsigned, false for all but numeric columns, or null unless
+   * logged.
+   */
+  public boolean[] getUnsigned(byte[] columnTypes) {
+    if (this.signedness == null) return null;
+    final boolean[] r = new boolean[columnTypes.length];
+    for (int i = 0, n = 0; i < r.length; i++) {
+      if (!isNumeric(CodecUtils.toUnsigned(columnTypes[i]))) continue;
+      if ((n >> 3) < this.signedness.length) {
+        r[i] = (this.signedness[n >> 3] & (0x80 >> (n & 7))) != 0;
+      }
+      n++;
+    }
+    return r;
+  }
+
+  /**
+   * Returns the collation id of each column, 0 for all but character columns, or null unless
+   * logged.
+   */
+  public int[] getCollations(byte[] columnTypes, Metadata columnMetadata) {
+    if (this.collations == null && this.collationExceptions == null) return null;
+    final int[] r = new int[columnTypes.length];
+    for (int i = 0, n = 0; i < r.length; i++) {
+      final int type = CodecUtils.toUnsigned(columnTypes[i]);
+      if (!isCharacter(type, columnMetadata == null ? 0 : columnMetadata.getMetadata(i))) {
+        continue;
+      }
+      if (this.collations != null) {
+        r[i] = n < this.collations.length ? this.collations[n] : 0;
+      } else {
+        r[i] = this.defaultCollation;
+        for (int j = 0; j < this.collationExceptions.length; j += 2) {
+          if (this.collationExceptions[j] == n) r[i] = this.collationExceptions[j + 1];
+        }
+      }
+      n++;
+    }
+    return r;
+  }
+
+  private static boolean isNumeric(int type) {
+    switch (type) {
+      case MySQLConstants.TYPE_TINY:
+      case MySQLConstants.TYPE_SHORT:
+      case MySQLConstants.TYPE_INT24:
+      case MySQLConstants.TYPE_LONG:
+      case MySQLConstants.TYPE_LONGLONG:
+      case MySQLConstants.TYPE_FLOAT:
+      case MySQLConstants.TYPE_DOUBLE:
+      case MySQLConstants.TYPE_NEWDECIMAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isCharacter(int type, int meta) {
+    switch (type) {
+      case MySQLConstants.TYPE_STRING: // Also ENUM and SET, told apart by the real type
+        final int realType = meta >> 8;
+        return realType != MySQLConstants.TYPE_ENUM && realType != MySQLConstants.TYPE_SET;
+      case MySQLConstants.TYPE_VARCHAR:
+      case MySQLConstants.TYPE_VAR_STRING:
+      case MySQLConstants.TYPE_TINY_BLOB:
+      case MySQLConstants.TYPE_MEDIUM_BLOB:
+      case MySQLConstants.TYPE_LONG_BLOB:
+      case MySQLConstants.TYPE_BLOB:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+	 * 
+	 */
+  public static final OptionalMetadata valueOf(byte[] data) throws IOException {
+    final OptionalMetadata r = new OptionalMetadata(data);
+    final XDeserializer d = new XDeserializer(data);
+    while (d.available() > 0) {
+      final int type = d.readInt(1);
+      final int length = d.readUnsignedLong().intValue();
+      final XDeserializer value = new XDeserializer(d.readBytes(length));
+      switch (type) {
+        case SIGNEDNESS:
+          r.signedness = value.readBytes(length);
+          break;
+        case DEFAULT_CHARSET:
+          r.defaultCollation = value.readUnsignedLong().intValue();
+          r.collationExceptions = readPackedInts(value);
+          break;
+        case COLUMN_CHARSET:
+          r.collations = readPackedInts(value);
+          break;
+        case COLUMN_NAME:
+          r.columnNames = readColumnNames(value);
+          break;
+        case SIMPLE_PRIMARY_KEY:
+          r.primaryKey = readPrimaryKey(value, false);
+          break;
+        case PRIMARY_KEY_WITH_PREFIX:
+          r.primaryKey = readPrimaryKey(value, true);
+          break;
+        default:
+          break;
+      }
+    }
+    return r;
+  }
+
+  private static String[] readColumnNames(XDeserializer d) throws IOException {
+    String[] r = new String[16];
+    int count = 0;
+    while (d.available() > 0) {
+      if (count == r.length) r = Arrays.copyOf(r, count * 2);
+      r[count++] = d.readLengthCodedString().toString();
+    }
+    return Arrays.copyOf(r, count);
+  }
+
+  private static int[] readPackedInts(XDeserializer d) throws IOException {
+    int[] r = new int[16];
+    int count = 0;
+    while (d.available() > 0) {
+      if (count == r.length) r = Arrays.copyOf(r, count * 2);
+      r[count++] = d.readUnsignedLong().intValue();
+    }
+    return Arrays.copyOf(r, count);
+  }
+
+  private static int[] readPrimaryKey(XDeserializer d, boolean prefixed) throws IOException {
+    int[] r = new int[4];
+    int count = 0;
+    while (d.available() > 0) {
+      if (count == r.length) r = Arrays.copyOf(r, count * 2);
+      r[count++] = d.readUnsignedLong().intValue();
+      if (prefixed) d.readUnsignedLong(); // The prefix length, 0 for the whole column
+    }
+    return Arrays.copyOf(r, count);
+  }
+}
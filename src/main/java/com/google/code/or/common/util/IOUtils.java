@@ -14,7 +14,12 @@
  */
 package com.google.code.or.common.util;
 
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 
 import com.google.code.or.io.XInputStream;
 import com.google.code.or.io.XOutputStream;
@@ -44,6 +49,14 @@ public final class IOUtils {
     }
   }
 
+  public static void closeQuietly(Closeable c) {
+    try {
+      if (c != null) c.close();
+    } catch (Exception e) {
+      // NOP
+    }
+  }
+
   public static void closeQuietly(XOutputStream os) {
     try {
       os.close();
@@ -51,4 +64,29 @@ public final class IOUtils {
       // NOP
     }
   }
+
+  /**
+   * Releases the mapping right away rather than once the buffer is garbage collected, the buffer
+   * must not be accessed afterwards.
+   */
+  public static void unmapQuietly(MappedByteBuffer buffer) {
+    if (buffer == null) return;
+    try {
+      final Class<?> clazz = Class.forName("sun.misc.Unsafe");
+      final Field field = clazz.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      clazz.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+    } catch (NoSuchMethodException e) { // Before Java 9
+      try {
+        final Method method = buffer.getClass().getMethod("cleaner");
+        method.setAccessible(true);
+        final Object cleaner = method.invoke(buffer);
+        if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+      } catch (Exception ignore) {
+        // NOP
+      }
+    } catch (Exception e) {
+      // NOP
+    }
+  }
 }
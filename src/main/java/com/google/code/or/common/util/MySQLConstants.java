@@ -84,6 +84,7 @@ public final class MySQLConstants {
   public static final int COM_STMT_FETCH = 0x1c;
   public static final int COM_DAEMON = 0x1d;
   public static final int COM_END = 0x1e;
+  public static final int COM_BINLOG_DUMP_GTID = 0x1e;
 
   // Status variable type
   public static final int Q_FLAGS2_CODE = 0;
@@ -143,6 +144,9 @@ public final class MySQLConstants {
   public static final int TYPE_STRING = 254;
   public static final int TYPE_GEOMETRY = 255;
 
+  // Collation of binary strings
+  public static final int COLLATION_BINARY = 63;
+
   // SQL modes
   public static final long SM_LREAL_AS_FLOATL = 0x1L;
   public static final long SM_LPIPES_AS_CONCATL = 0x2L;
@@ -15,6 +15,7 @@
 package com.google.code.or.common.util;
 
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
 import java.sql.Timestamp;
 import java.util.Calendar;
 
@@ -30,6 +31,37 @@ public final class MySQLUtils {
   private static final BigDecimal NEGATIVE_ONE = new BigDecimal("-1");
   private static final int DECIMAL_BINARY_SIZE[] = {0, 1, 1, 2, 2, 3, 3, 4, 4, 4};
 
+  // Java charset name, then the MySQL collation ids or id ranges of its character set
+  private static final Object[][] CHARSETS = { //
+      {"UTF-8", 33, 45, 46, 76, 83, new int[] {192, 215}, new int[] {223, 247},
+          new int[] {255, 323}},
+      {"windows-1252", 5, 8, 15, 31, 47, 48, 49, 94}, // latin1
+      {"US-ASCII", 11, 65}, {"ISO-8859-2", 2, 9, 21, 27, 77}, {"ISO-8859-7", 25, 70},
+      {"ISO-8859-8", 16, 71}, {"ISO-8859-9", 30, 78}, {"ISO-8859-13", 20, 41, 42, 79},
+      {"windows-1250", 26, 34, 44, 66, 99}, {"windows-1251", 14, 23, 50, 51, 52},
+      {"windows-1256", 57, 67}, {"windows-1257", 29, 58, 59}, {"KOI8-R", 7, 74},
+      {"KOI8-U", 22, 75}, {"IBM850", 4, 80}, {"IBM852", 40, 81}, {"IBM866", 36, 68},
+      {"Big5", 1, 84}, {"GB2312", 24, 86}, {"GBK", 28, 87}, {"GB18030", 248, 249, 250},
+      {"EUC-KR", 19, 85}, {"EUC-JP", 12, 91}, {"Shift_JIS", 13, 88}, {"windows-31j", 95, 96},
+      {"TIS-620", 18, 69}, {"UTF-16BE", 35, 90, new int[] {128, 151}, 159, 54, 55,
+          new int[] {101, 124}}, // ucs2 and utf16
+      {"UTF-16LE", 56, 62}, {"UTF-32", 60, 61, new int[] {160, 183}}};
+  private static final Charset[] COLLATIONS = new Charset[324];
+  static {
+    for (Object[] charset : CHARSETS) {
+      if (!Charset.isSupported((String) charset[0])) continue;
+      final Charset c = Charset.forName((String) charset[0]);
+      for (int i = 1; i < charset.length; i++) {
+        if (charset[i] instanceof Integer) {
+          COLLATIONS[(Integer) charset[i]] = c;
+        } else {
+          final int[] range = (int[]) charset[i];
+          for (int j = range[0]; j <= range[1]; j++) COLLATIONS[j] = c;
+        }
+      }
+    }
+  }
+
   /**
 	 * 
 	 */
@@ -57,15 +89,17 @@ public final class MySQLUtils {
     return new java.sql.Date(cal.getTimeInMillis());
   }
 
+  /**
+   * The value is the signed 3 byte HHMMSS of a TIME column, read unsigned.
+   */
   public static java.sql.Time toTime(int value) {
-    final int s = (int) (value % 100);
-    value /= 100;
-    final int m = (int) (value % 100);
-    final int h = (int) (value / 100);
-    final Calendar c = Calendar.getInstance();
-    c.set(1970, 0, 1, h, m, s);
-    c.set(Calendar.MILLISECOND, 0);
-    return new java.sql.Time(c.getTimeInMillis());
+    value = (value << 8) >> 8;
+    final int abs = Math.abs(value);
+    final int s = abs % 100;
+    final int m = abs / 100 % 100;
+    final int h = abs / 10000;
+    final long millis = (h * 3600L + m * 60L + s) * 1000L;
+    return new java.sql.Time(getTimeOrigin() + (value < 0 ? -millis : millis));
   }
 
   public static java.sql.Time toTime2(int value, int nanos) {
@@ -79,6 +113,45 @@ public final class MySQLUtils {
     return new java.sql.Time(millis + (nanos / 1000000));
   }
 
+  /**
+   * The value is the 3 byte integer part of a TIME2 column, the fraction the following (meta + 1) / 2
+   * bytes, both read unsigned and big endian. Negative values are stored as the complement of the
+   * whole, i.e. an integer part rounded down and a positive fraction.
+   */
+  public static java.sql.Time toTime2(int value, int fraction, int meta) {
+    final int bits = (meta + 1) / 2 * 8;
+    long intPart = value - 0x800000L;
+    long fracPart = fraction;
+    if (intPart < 0 && fracPart != 0) {
+      intPart++;
+      fracPart -= 1L << bits;
+    }
+    final long abs = Math.abs(intPart);
+    final long h = (abs >> 12) & 0x3FF;
+    final long m = (abs >> 6) & 0x3F;
+    final long s = abs & 0x3F;
+    final long micros = Math.abs(fracPart) * (bits == 8 ? 10000 : bits == 16 ? 100 : 1);
+    final long millis = (h * 3600L + m * 60L + s) * 1000L + micros / 1000L;
+    return new java.sql.Time(getTimeOrigin() + (intPart < 0 || fracPart < 0 ? -millis : millis));
+  }
+
+  /**
+   * Returns the signed duration of a TIME value in milliseconds, which is not limited to a day.
+   */
+  public static long toDuration(java.util.Date time) {
+    return time.getTime() - getTimeOrigin();
+  }
+
+  /**
+   * TIME values are durations since midnight of 1970-01-01 in the default time zone.
+   */
+  private static long getTimeOrigin() {
+    final Calendar c = Calendar.getInstance();
+    c.clear();
+    c.set(1970, 0, 1);
+    return c.getTimeInMillis();
+  }
+
   public static java.util.Date toDatetime(long value) {
     final int second = (int) (value % 100);
     value /= 100;
@@ -160,6 +233,13 @@ public final class MySQLUtils {
     return positive ? POSITIVE_ONE.multiply(ip.add(fp)) : NEGATIVE_ONE.multiply(ip.add(fp));
   }
 
+  /**
+   * Returns the Java charset of a collation id, null for binary strings and unknown collations.
+   */
+  public static Charset getCharset(int collation) {
+    return collation < 0 || collation >= COLLATIONS.length ? null : COLLATIONS[collation];
+  }
+
   /**
 	 * 
 	 */
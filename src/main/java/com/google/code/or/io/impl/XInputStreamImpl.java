@@ -39,6 +39,7 @@ public class XInputStreamImpl extends InputStream implements XInputStream {
   private int readLimit = 0;
   private final byte[] buffer;
   private final InputStream is;
+  private volatile long lastReadTime = 0;
 
 
   /**
@@ -49,11 +50,22 @@ public class XInputStreamImpl extends InputStream implements XInputStream {
   }
 
   public XInputStreamImpl(InputStream is, int size) {
+    this(is, new byte[size]);
+  }
+
+  public XInputStreamImpl(InputStream is, byte[] buffer) {
     this.is = is;
-    this.buffer = new byte[size];
+    this.buffer = buffer;
   }
   
 
+  /**
+   * The wall clock time in milliseconds at which bytes were last read from the underlying stream.
+   */
+  public long getLastReadTime() {
+    return this.lastReadTime;
+  }
+
   @Override
   public void resetStream() {
 	  this.head = 0;
@@ -389,6 +401,48 @@ public class XInputStreamImpl extends InputStream implements XInputStream {
     this.readLimit = limit;
   }
 
+  /**
+   * Blocks until the next length bytes, or as many as the buffer holds, are buffered, so that
+   * reading them does not wait for the underlying stream.
+   */
+  public void prefetch(int length) throws IOException {
+    //
+    final int target = Math.min(length, this.buffer.length);
+    if (this.tail - this.head >= target) return;
+    if (this.head + target > this.buffer.length) {
+      System.arraycopy(this.buffer, this.head, this.buffer, 0, this.tail - this.head);
+      this.tail -= this.head;
+      this.head = 0;
+    }
+
+    //
+    while (this.tail - this.head < target) {
+      final int n = this.is.read(this.buffer, this.tail, this.buffer.length - this.tail);
+      if (n <= 0) throw new EOFException();
+      this.tail += n;
+      this.lastReadTime = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Pushes back bytes that were just read, they are read again before anything else. No more than
+   * the size of the buffer can be pushed back at a time.
+   */
+  public void unread(final byte b[], final int off, final int len) {
+    if (len > this.head) {
+      final int remaining = this.tail - this.head;
+      if (len + remaining > this.buffer.length) {
+        throw new IllegalStateException("unable to push back: " + len + " bytes, buffer size: "
+            + this.buffer.length);
+      }
+      System.arraycopy(this.buffer, this.head, this.buffer, len, remaining);
+      this.head = len;
+      this.tail = len + remaining;
+    }
+    this.head -= len;
+    System.arraycopy(b, off, this.buffer, this.head, len);
+  }
+
   @Override
   public int available() throws IOException {
     if (this.readLimit > 0) {
@@ -495,6 +549,7 @@ public class XInputStreamImpl extends InputStream implements XInputStream {
     this.tail = this.is.read(this.buffer, 0, this.buffer.length);
     if (this.tail <= 0) 
     	throw new EOFException();
+    this.lastReadTime = System.currentTimeMillis();
   }
 
   private long doSkip(final long n) throws IOException {
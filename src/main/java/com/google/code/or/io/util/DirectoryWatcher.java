@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.io.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for files of a directory to be created or modified. Some platforms only poll for changes,
+ * so callers should not wait longer than they can afford to miss a change.
+ */
+public class DirectoryWatcher implements Closeable {
+  //
+  private final WatchService service;
+
+  /**
+	 * 
+	 */
+  public DirectoryWatcher(File directory) throws IOException {
+    this.service = FileSystems.getDefault().newWatchService();
+    try {
+      directory.toPath().register(this.service, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException e) {
+      this.service.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns true if anything changed in the directory within the timeout. Closing the watcher from
+   * another thread wakes up a waiting call.
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    final WatchKey key;
+    try {
+      key = this.service.poll(timeout, unit);
+    } catch (ClosedWatchServiceException e) {
+      return false;
+    }
+    if (key == null) return false;
+    key.pollEvents();
+    key.reset();
+    return true;
+  }
+
+  public void close() throws IOException {
+    this.service.close();
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.io.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.code.or.common.util.IOUtils;
+
+/**
+ * Reads a file through memory mapped windows instead of read system calls. Windows are aligned to
+ * the window size and only one is mapped at a time, the previous one is unmapped right away rather
+ * than once garbage collected. A window that ended at the end of a growing file is mapped again,
+ * from the same offset, once it has been consumed.
+ */
+public class MappedFileInputStream extends InputStream {
+  //
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int windowSize;
+  private MappedByteBuffer buffer;
+  private long offset; // Of the buffer in the file
+
+  /**
+	 * 
+	 */
+  public MappedFileInputStream(File file) throws IOException {
+    this(file, 64 * 1024 * 1024);
+  }
+
+  public MappedFileInputStream(File file, int windowSize) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    this.channel = this.file.getChannel();
+    this.windowSize = windowSize;
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(Integer.MAX_VALUE, this.channel.size() - getPosition());
+  }
+
+  @Override
+  public void close() throws IOException {
+    unmap();
+    this.file.close();
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (this.buffer != null && n <= this.buffer.remaining()) {
+      this.buffer.position(this.buffer.position() + (int) n);
+    } else {
+      this.offset = getPosition() + n;
+      unmap();
+    }
+    return n;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!map()) return -1;
+    return this.buffer.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte b[], int off, int len) throws IOException {
+    if (len == 0) return 0;
+    if (!map()) return -1;
+    final int r = Math.min(len, this.buffer.remaining());
+    this.buffer.get(b, off, r);
+    return r;
+  }
+
+  /**
+	 * 
+	 */
+  private long getPosition() {
+    return this.buffer == null ? this.offset : this.offset + this.buffer.position();
+  }
+
+  private boolean map() throws IOException {
+    if (this.buffer != null && this.buffer.hasRemaining()) return true;
+    final long position = getPosition();
+    final long size = this.channel.size();
+    if (position >= size) return false;
+    this.offset = position;
+    unmap();
+
+    //
+    final long base = position - position % this.windowSize;
+    final MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, base,
+        Math.min(this.windowSize, size - base));
+    buffer.position((int) (position - base));
+    this.buffer = buffer;
+    this.offset = base;
+    return true;
+  }
+
+  private void unmap() {
+    IOUtils.unmapQuietly(this.buffer);
+    this.buffer = null; // The position is kept by the offset
+  }
+}
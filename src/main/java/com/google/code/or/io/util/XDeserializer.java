@@ -39,6 +39,10 @@ public class XDeserializer implements XInputStream {
     this.tis = new XInputStreamImpl(new ByteArrayInputStream(data));
   }
 
+  public XDeserializer(byte[] data, int offset, int length) {
+    this.tis = new XInputStreamImpl(new ByteArrayInputStream(data, offset, length));
+  }
+
   /**
 	 * 
 	 */
@@ -25,4 +25,13 @@ import com.google.code.or.io.XInputStream;
 public interface TransportInputStream extends XInputStream {
 
   Packet readPacket() throws IOException;
+
+  void unreadPacket(Packet packet) throws IOException;
+
+  long getLastReadTime();
+
+  /**
+   * Blocks until the next length bytes, or as many as the buffer holds, are buffered.
+   */
+  void prefetch(int length) throws IOException;
 }
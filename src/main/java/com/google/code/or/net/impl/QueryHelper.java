@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.net.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.net.Packet;
+import com.google.code.or.net.Transport;
+import com.google.code.or.net.TransportException;
+import com.google.code.or.net.impl.packet.EOFPacket;
+import com.google.code.or.net.impl.packet.ErrorPacket;
+import com.google.code.or.net.impl.packet.ResultSetFieldPacket;
+import com.google.code.or.net.impl.packet.ResultSetHeaderPacket;
+import com.google.code.or.net.impl.packet.ResultSetRowPacket;
+import com.google.code.or.net.impl.packet.command.ComQuery;
+
+/**
+ * Helpers for the text protocol queries issued while setting up a replication session. Queries are
+ * only written, not flushed, so that several of them can be pipelined and their responses read
+ * afterwards in the same order.
+ */
+public final class QueryHelper {
+  //
+  public static final int ER_UNKNOWN_SYSTEM_VARIABLE = 1193;
+
+  /**
+	 * 
+	 */
+  private QueryHelper() {}
+
+  /**
+	 * 
+	 */
+  public static String getVariablesQuery(String... names) {
+    final StringBuilder r = new StringBuilder("SELECT ");
+    for (int i = 0; i < names.length; i++) {
+      if (i > 0) r.append(", ");
+      r.append("@@global.").append(names[i]).append(" AS ").append(names[i]);
+    }
+    return r.toString();
+  }
+
+  public static void writeQuery(Transport transport, String sql) throws IOException {
+    final ComQuery command = new ComQuery();
+    command.setSql(StringColumn.valueOf(sql.getBytes("UTF-8")));
+    transport.getOutputStream().writePacket(command);
+  }
+
+  /**
+   * Reads the response of a statement that returns no result set.
+   */
+  public static void readOK(Transport transport) throws IOException {
+    final Packet packet = transport.getInputStream().readPacket();
+    if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
+      throw new TransportException(ErrorPacket.valueOf(packet));
+    }
+  }
+
+  /**
+   * Reads a result set of a single row, keyed by the lower case column label. Values are upper
+   * cased, NULL values are left out.
+   */
+  public static Map<String, String> readRow(Transport transport) throws IOException {
+    //
+    final List<String> labels = readLabels(transport);
+
+    //
+    final Map<String, String> r = new HashMap<String, String>();
+    while (true) {
+      final Packet packet = transport.getInputStream().readPacket();
+      if (packet.getPacketBody()[0] == EOFPacket.PACKET_MARKER) {
+        EOFPacket.valueOf(packet);// Consume
+        break;
+      } else {
+        final List<StringColumn> columns = ResultSetRowPacket.valueOf(packet).getColumns();
+        for (int i = 0; i < columns.size() && i < labels.size(); i++) {
+          if (columns.get(i) != null) r.put(labels.get(i), columns.get(i).toString().toUpperCase());
+        }
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Reads the result set of SHOW VARIABLES, keyed by the lower case variable name. Values are upper
+   * cased, NULL values are left out.
+   */
+  public static Map<String, String> readVariables(Transport transport) throws IOException {
+    //
+    readLabels(transport);
+
+    //
+    final Map<String, String> r = new HashMap<String, String>();
+    while (true) {
+      final Packet packet = transport.getInputStream().readPacket();
+      if (packet.getPacketBody()[0] == EOFPacket.PACKET_MARKER) {
+        EOFPacket.valueOf(packet);// Consume
+        break;
+      } else {
+        final List<StringColumn> columns = ResultSetRowPacket.valueOf(packet).getColumns();
+        if (columns.get(0) == null || columns.get(1) == null) continue;
+        r.put(columns.get(0).toString().toLowerCase(), columns.get(1).toString().toUpperCase());
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Reads the result set header and the column definitions, returns the lower case column labels.
+   */
+  private static List<String> readLabels(Transport transport) throws IOException {
+    //
+    Packet packet = transport.getInputStream().readPacket();
+    if (packet.getPacketBody()[0] == ErrorPacket.PACKET_MARKER) {
+      throw new TransportException(ErrorPacket.valueOf(packet));
+    }
+    ResultSetHeaderPacket.valueOf(packet);
+
+    //
+    final List<String> r = new ArrayList<String>();
+    while (true) {
+      packet = transport.getInputStream().readPacket();
+      if (packet.getPacketBody()[0] == EOFPacket.PACKET_MARKER) {
+        EOFPacket.valueOf(packet);// Consume
+        break;
+      } else {
+        r.add(ResultSetFieldPacket.valueOf(packet).getColumn().toString().toLowerCase());
+      }
+    }
+    return r;
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.net.impl;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.XThreadFactory;
+import com.google.code.or.net.Transport;
+import com.google.code.or.net.impl.packet.SemiSyncAckPacket;
+
+/**
+ * Sends semi-sync ACKs for the highest position acknowledged so far. With a window greater than 0
+ * the ACKs are coalesced: a background thread sends at most one ACK per window, covering every
+ * transaction up to that position, which keeps the number of packets independent of the commit
+ * rate of the master. With a window of 0 every ACK is sent right away.
+ */
+public class SemiSyncAcknowledger {
+  //
+  private static final Logger LOGGER = LoggerFactory.getLogger(SemiSyncAcknowledger.class);
+
+  //
+  protected final Transport transport;
+  protected long window = 0; // milliseconds
+  protected String encoding = "utf-8";
+  protected ThreadFactory threadFactory = new XThreadFactory("semi-sync-ack", true);
+
+  //
+  private Thread worker;
+  private volatile boolean running;
+  private BinlogPosition pending;
+  private BinlogPosition acknowledged;
+
+  /**
+	 * 
+	 */
+  public SemiSyncAcknowledger(Transport transport) {
+    this.transport = transport;
+  }
+
+  /**
+	 * 
+	 */
+  public synchronized void start() {
+    if (this.running) return;
+    this.running = true;
+    if (this.window > 0) {
+      this.worker = this.threadFactory.newThread(new Task());
+      this.worker.start();
+    }
+  }
+
+  public synchronized void stop() {
+    if (!this.running) return;
+    this.running = false;
+    if (this.worker != null) {
+      this.worker.interrupt();
+      this.worker = null;
+    }
+  }
+
+  /**
+   * Forgets what was acknowledged, a new dump may ask again for positions acknowledged on the
+   * previous connection.
+   */
+  public synchronized void reset() {
+    this.pending = null;
+    this.acknowledged = null;
+  }
+
+  /**
+	 * 
+	 */
+  public long getWindow() {
+    return window;
+  }
+
+  public void setWindow(long window) {
+    this.window = window;
+  }
+
+  public String getEncoding() {
+    return encoding;
+  }
+
+  public void setEncoding(String encoding) {
+    this.encoding = encoding;
+  }
+
+  public ThreadFactory getThreadFactory() {
+    return threadFactory;
+  }
+
+  public void setThreadFactory(ThreadFactory threadFactory) {
+    this.threadFactory = threadFactory;
+  }
+
+  public synchronized BinlogPosition getAcknowledged() {
+    return acknowledged;
+  }
+
+  /**
+	 * 
+	 */
+  public void acknowledge(BinlogPosition position) {
+    synchronized (this) {
+      if (this.pending == null || position.compareTo(this.pending) > 0) this.pending = position;
+    }
+    if (this.window <= 0) flush();
+  }
+
+  public void flush() {
+    //
+    final BinlogPosition position;
+    synchronized (this) {
+      position = this.pending;
+      if (position == null) return;
+      if (this.acknowledged != null && position.compareTo(this.acknowledged) <= 0) return;
+      this.acknowledged = position;
+    }
+
+    //
+    try {
+      final SemiSyncAckPacket packet = new SemiSyncAckPacket();
+      packet.setBinlogPosition(position.getPosition());
+      packet.setBinlogFileName(StringColumn.valueOf(position.getBinlogFileName().getBytes(
+          this.encoding)));
+      synchronized (this.transport) {
+        this.transport.getOutputStream().writePacket(packet);
+        this.transport.getOutputStream().flush();
+      }
+    } catch (Exception e) {
+      LOGGER.warn("failed to send semi-sync ack, position: " + position, e);
+    }
+  }
+
+  /**
+	 * 
+	 */
+  private class Task implements Runnable {
+
+    public void run() {
+      while (running) {
+        try {
+          Thread.sleep(window);
+        } catch (InterruptedException e) {
+          break;
+        }
+        flush();
+      }
+    }
+  }
+}
@@ -46,6 +46,7 @@ public class TransportImpl extends AbstractTransport {
   protected SocketFactory socketFactory;
   protected int level1BufferSize = 1024 * 1024;
   protected int level2BufferSize = 8 * 1024 * 1024;
+  protected byte[] level1Buffer; // Reused across reconnects
   protected final AtomicBoolean connected = new AtomicBoolean(false);
 
   /**
@@ -70,11 +71,14 @@ public class TransportImpl extends AbstractTransport {
     this.socket = this.socketFactory.create(host, port);
     
     this.os = new TransportOutputStreamImpl(this.socket.getOutputStream());
+    if (this.level1Buffer == null || this.level1Buffer.length != this.level1BufferSize) {
+      this.level1Buffer = new byte[this.level1BufferSize];
+    }
     if (this.level2BufferSize <= 0) {
-      this.is = new TransportInputStreamImpl(this.socket.getInputStream(), this.level1BufferSize);
+      this.is = new TransportInputStreamImpl(this.socket.getInputStream(), this.level1Buffer);
     } else {
         //this.is = new TransportInputStreamImpl(new BufferedInputStream(this.socket.getInputStream(), this.level2BufferSize), this.level1BufferSize);
-    	this.is = new TransportInputStreamImpl(this.socket.getInputStream(), this.level1BufferSize);
+    	this.is = new TransportInputStreamImpl(this.socket.getInputStream(), this.level1Buffer);
 
 /*      this.is =
           new TransportInputStreamImpl(new ActiveBufferedInputStream(this.socket.getInputStream(),
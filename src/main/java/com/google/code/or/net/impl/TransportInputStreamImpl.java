@@ -39,6 +39,10 @@ public class TransportInputStreamImpl extends XInputStreamImpl implements Transp
     super(is, size);
   }
 
+  public TransportInputStreamImpl(InputStream is, byte[] buffer) {
+    super(is, buffer);
+  }
+
   /**
 	 * 
 	 */
@@ -57,4 +61,16 @@ public class TransportInputStreamImpl extends XInputStreamImpl implements Transp
     r.setPacketBody(body);
     return r;
   }
+
+  /**
+   * Pushes back a packet read by {@link #readPacket()}, e.g. after peeking at the first event of a
+   * dump, so that the binlog parser reads it again.
+   */
+  public void unreadPacket(Packet packet) throws IOException {
+    final byte[] body = packet.getPacketBody();
+    final int length = packet.getLength();
+    unread(body, 0, body.length);
+    unread(new byte[] {(byte) length, (byte) (length >>> 8), (byte) (length >>> 16),
+        (byte) packet.getSequence()}, 0, 4);
+  }
 }
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.net.impl.packet;
+
+import java.io.IOException;
+
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.ToStringBuilder;
+import com.google.code.or.io.util.XSerializer;
+
+/**
+ * Sent by a semi-synchronous slave to acknowledge that it received the binlog up to the given
+ * position. The master sends no response.
+ */
+public class SemiSyncAckPacket extends AbstractPacket {
+  //
+  private static final long serialVersionUID = 2961406498325871763L;
+
+  //
+  public static final byte PACKET_MARKER = (byte) 0xEF;
+  public static final int ACK_REQUIRED = 0x01;
+
+  //
+  private long binlogPosition;
+  private StringColumn binlogFileName;
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("binlogPosition", binlogPosition)
+        .append("binlogFileName", binlogFileName).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public byte[] getPacketBody() throws IOException {
+    final XSerializer ps = new XSerializer();
+    ps.writeInt(PACKET_MARKER & 0xFF, 1);
+    ps.writeLong(this.binlogPosition, 8);
+    ps.writeFixedLengthString(this.binlogFileName);
+    return ps.toByteArray();
+  }
+
+  /**
+	 * 
+	 */
+  public long getBinlogPosition() {
+    return binlogPosition;
+  }
+
+  public void setBinlogPosition(long binlogPosition) {
+    this.binlogPosition = binlogPosition;
+  }
+
+  public StringColumn getBinlogFileName() {
+    return binlogFileName;
+  }
+
+  public void setBinlogFileName(StringColumn binlogFileName) {
+    this.binlogFileName = binlogFileName;
+  }
+}
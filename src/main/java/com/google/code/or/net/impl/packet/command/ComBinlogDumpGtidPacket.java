@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.net.impl.packet.command;
+
+import java.io.IOException;
+
+import com.google.code.or.common.glossary.GtidSet;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.ToStringBuilder;
+import com.google.code.or.io.util.XSerializer;
+
+/**
+ * Requests the binlog starting at the first transaction not contained in the given GTID set
+ * (auto-positioning). The master picks the file and position, the binlog file name may be empty.
+ */
+public class ComBinlogDumpGtidPacket extends AbstractCommandPacket {
+  //
+  private static final long serialVersionUID = -3744381925806542380L;
+
+  //
+  public static final int BINLOG_DUMP_NON_BLOCK = 0x01;
+  public static final int BINLOG_THROUGH_POSITION = 0x02;
+  public static final int BINLOG_THROUGH_GTID = 0x04;
+
+  //
+  private int binlogFlag = BINLOG_THROUGH_GTID;
+  private long serverId;
+  private StringColumn binlogFileName;
+  private long binlogPosition = 4;
+  private GtidSet gtidSet;
+
+  /**
+	 * 
+	 */
+  public ComBinlogDumpGtidPacket() {
+    super(MySQLConstants.COM_BINLOG_DUMP_GTID);
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("binlogFlag", binlogFlag)
+        .append("serverId", serverId).append("binlogFileName", binlogFileName)
+        .append("binlogPosition", binlogPosition).append("gtidSet", gtidSet).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public byte[] getPacketBody() throws IOException {
+    final XSerializer ps = new XSerializer();
+    ps.writeInt(this.command, 1);
+    ps.writeInt(this.binlogFlag, 2);
+    ps.writeLong(this.serverId, 4);
+    if (this.binlogFileName == null) {
+      ps.writeInt(0, 4);
+    } else {
+      ps.writeInt(this.binlogFileName.getValue().length, 4);
+      ps.writeFixedLengthString(this.binlogFileName);
+    }
+    ps.writeLong(this.binlogPosition, 8);
+    if ((this.binlogFlag & BINLOG_THROUGH_GTID) != 0) {
+      final GtidSet set = this.gtidSet == null ? new GtidSet() : this.gtidSet;
+      final byte[] data = set.toByteArray();
+      ps.writeInt(data.length, 4);
+      ps.writeBytes(data);
+    }
+    return ps.toByteArray();
+  }
+
+  /**
+	 * 
+	 */
+  public int getBinlogFlag() {
+    return binlogFlag;
+  }
+
+  public void setBinlogFlag(int binlogFlag) {
+    this.binlogFlag = binlogFlag;
+  }
+
+  public long getServerId() {
+    return serverId;
+  }
+
+  public void setServerId(long serverId) {
+    this.serverId = serverId;
+  }
+
+  public StringColumn getBinlogFileName() {
+    return binlogFileName;
+  }
+
+  public void setBinlogFileName(StringColumn binlogFileName) {
+    this.binlogFileName = binlogFileName;
+  }
+
+  public long getBinlogPosition() {
+    return binlogPosition;
+  }
+
+  public void setBinlogPosition(long binlogPosition) {
+    this.binlogPosition = binlogPosition;
+  }
+
+  public GtidSet getGtidSet() {
+    return gtidSet;
+  }
+
+  public void setGtidSet(GtidSet gtidSet) {
+    this.gtidSet = gtidSet;
+  }
+}
@@ -19,7 +19,9 @@ import java.io.IOException;
 import com.google.code.or.common.glossary.column.StringColumn;
 import com.google.code.or.common.util.MySQLConstants;
 import com.google.code.or.common.util.ToStringBuilder;
+import com.google.code.or.io.util.XDeserializer;
 import com.google.code.or.io.util.XSerializer;
+import com.google.code.or.net.Packet;
 
 /**
  * 
@@ -29,6 +31,9 @@ public class ComBinlogDumpPacket extends AbstractCommandPacket {
   //
   private static final long serialVersionUID = 449639496684376511L;
 
+  //
+  public static final int BINLOG_DUMP_NON_BLOCK = 0x01;
+
   //
   private long binlogPosition;
   private int binlogFlag;
@@ -99,4 +104,20 @@ public class ComBinlogDumpPacket extends AbstractCommandPacket {
   public void setBinlogFileName(StringColumn binlogFileName) {
     this.binlogFileName = binlogFileName;
   }
+
+  /**
+	 * 
+	 */
+  public static ComBinlogDumpPacket valueOf(Packet packet) throws IOException {
+    final XDeserializer d = new XDeserializer(packet.getPacketBody());
+    final ComBinlogDumpPacket r = new ComBinlogDumpPacket();
+    r.length = packet.getLength();
+    r.sequence = packet.getSequence();
+    d.readInt(1); // command
+    r.binlogPosition = d.readLong(4);
+    r.binlogFlag = d.readInt(2);
+    r.serverId = d.readLong(4);
+    r.binlogFileName = d.readFixedLengthString(d.available());
+    return r;
+  }
 }
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional information regarding
+ * copyright ownership. The ASF licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.code.or.net.impl.packet.command;
+
+import java.io.IOException;
+
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.ToStringBuilder;
+import com.google.code.or.io.util.XDeserializer;
+import com.google.code.or.io.util.XSerializer;
+import com.google.code.or.net.Packet;
+
+/**
+ * Registers a slave with the master before a binlog dump, so it shows up in SHOW SLAVE HOSTS.
+ */
+public class ComRegisterSlavePacket extends AbstractCommandPacket {
+  //
+  private static final long serialVersionUID = -5179261758458393265L;
+
+  //
+  private long serverId;
+  private StringColumn host;
+  private StringColumn user;
+  private StringColumn password;
+  private int port;
+  private long rank;
+  private long masterId;
+
+  /**
+	 * 
+	 */
+  public ComRegisterSlavePacket() {
+    super(MySQLConstants.COM_REGISTER_SLAVE);
+  }
+
+  /**
+	 * 
+	 */
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("serverId", serverId).append("host", host)
+        .append("user", user).append("port", port).append("rank", rank)
+        .append("masterId", masterId).toString();
+  }
+
+  /**
+	 * 
+	 */
+  public byte[] getPacketBody() throws IOException {
+    final XSerializer ps = new XSerializer();
+    ps.writeInt(this.command, 1);
+    ps.writeLong(this.serverId, 4);
+    writeString(ps, this.host);
+    writeString(ps, this.user);
+    writeString(ps, this.password);
+    ps.writeInt(this.port, 2);
+    ps.writeLong(this.rank, 4);
+    ps.writeLong(this.masterId, 4);
+    return ps.toByteArray();
+  }
+
+  /**
+	 * 
+	 */
+  public long getServerId() {
+    return serverId;
+  }
+
+  public void setServerId(long serverId) {
+    this.serverId = serverId;
+  }
+
+  public StringColumn getHost() {
+    return host;
+  }
+
+  public void setHost(StringColumn host) {
+    this.host = host;
+  }
+
+  public StringColumn getUser() {
+    return user;
+  }
+
+  public void setUser(StringColumn user) {
+    this.user = user;
+  }
+
+  public StringColumn getPassword() {
+    return password;
+  }
+
+  public void setPassword(StringColumn password) {
+    this.password = password;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  public long getRank() {
+    return rank;
+  }
+
+  public void setRank(long rank) {
+    this.rank = rank;
+  }
+
+  public long getMasterId() {
+    return masterId;
+  }
+
+  public void setMasterId(long masterId) {
+    this.masterId = masterId;
+  }
+
+  /**
+	 * 
+	 */
+  public static ComRegisterSlavePacket valueOf(Packet packet) throws IOException {
+    final XDeserializer d = new XDeserializer(packet.getPacketBody());
+    final ComRegisterSlavePacket r = new ComRegisterSlavePacket();
+    r.length = packet.getLength();
+    r.sequence = packet.getSequence();
+    d.readInt(1); // command
+    r.serverId = d.readLong(4);
+    r.host = d.readFixedLengthString(d.readInt(1));
+    r.user = d.readFixedLengthString(d.readInt(1));
+    r.password = d.readFixedLengthString(d.readInt(1));
+    r.port = d.readInt(2);
+    if (d.available() >= 8) { // Both unused by masters
+      r.rank = d.readLong(4);
+      r.masterId = d.readLong(4);
+    }
+    return r;
+  }
+
+  private static void writeString(XSerializer ps, StringColumn value) {
+    if (value == null) {
+      ps.writeInt(0, 1);
+    } else {
+      ps.writeInt(value.getValue().length, 1);
+      ps.writeFixedLengthString(value);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.google.code.or;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogProcessorCallback;
+import com.google.code.or.binlog.BinlogRawEventCallback;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.event.BinlogRawEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.relay.RelayLogServer;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.io.XInputStream;
+
+/**
+ * Dumps from a {@link RelayLogServer} standing in for the master.
+ */
+public class MysqlSlaveClientBinlogProcessorTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private File directory;
+	private RelayLogWriter master;
+	private RelayLogServer server;
+	private MysqlSlaveClientBinlogProcessor processor;
+	private final BinlogBuilder binlog = new BinlogBuilder();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("relay", "");
+		this.directory.delete();
+		this.master = new RelayLogWriter(this.directory);
+		this.master.setSyncInterval(0);
+		this.master.open();
+		this.master.rotate(NAME);
+		for (int i = 1; i <= 3; i++) this.binlog.transaction(1000 + i, i, "t1", i);
+		this.binlog.append(this.master);
+		this.server = new RelayLogServer(this.master);
+		this.server.setPort(0);
+		this.server.setUser("repl");
+		this.server.setPassword("secret");
+		this.server.setVariable("Character_Set_Server", "utf8mb4");
+		this.server.start();
+
+		//
+		this.processor = new MysqlSlaveClientBinlogProcessor();
+		this.processor.setMasterHostname("127.0.0.1");
+		this.processor.setMasterPort(this.server.getPort());
+		this.processor.setUsername("repl");
+		this.processor.setPassword("secret");
+		this.processor.setServerId(2);
+		this.processor.setStartBinlogFileName(NAME);
+		this.processor.setStartBinlogPosition(4);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.processor.closeInputStream();
+		this.server.stop(1, TimeUnit.SECONDS);
+		this.master.close();
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testVariables() throws Exception {
+		this.processor.openInputStream();
+		assertEquals("NONE", this.processor.getVariables().get("binlog_checksum"));
+		assertEquals(String.valueOf(this.server.getServerId()),
+				this.processor.getVariables().get("server_id"));
+		assertEquals(2, this.processor.getVariables().size()); // Only the settings
+	}
+
+	public void testAllVariables() throws Exception {
+		this.processor.setAllVariables(true);
+		this.processor.openInputStream();
+		assertEquals("UTF8MB4", this.processor.getVariables().get("character_set_server"));
+		assertEquals("NONE", this.processor.getVariables().get("binlog_checksum"));
+		assertEquals(String.valueOf(this.server.getServerId()),
+				this.processor.getVariables().get("server_id"));
+		assertTrue(this.processor.getVariables().containsKey("server_uuid"));
+	}
+
+	public void testRawEvents() throws Exception {
+		final XInputStream is = this.processor.openInputStream();
+		final List<Integer> types = new ArrayList<Integer>();
+		final List<String> tables = new ArrayList<String>();
+		final List<Integer> values = new ArrayList<Integer>();
+		final List<Exception> exceptions = new ArrayList<Exception>();
+		final BinlogRawEventCallback callback = new BinlogRawEventCallback() {
+			public void onEvent(BinlogRawEvent event, boolean validated) {
+				assertTrue(validated);
+				final int type = event.getHeader().getEventType();
+				assertEquals(event.getHeader().getEventLength(), event.getLength());
+				assertEquals(type, event.getBytes().get(4) & 0xFF);
+				types.add(type);
+				if (type == MySQLConstants.TABLE_MAP_EVENT || type == MySQLConstants.WRITE_ROWS_EVENT_V2) {
+					assertEquals(7, event.getTableId());
+					tables.add(event.getDatabaseName() + "." + event.getTableName());
+				}
+				if (type == MySQLConstants.WRITE_ROWS_EVENT_V2) { // Only valid during the callback
+					final WriteRowsEventV2 rows = (WriteRowsEventV2) event.decode();
+					values.add((Integer) rows.getRows().get(0).getColumns().get(0).getValue());
+				}
+			}
+
+			public void onException(Exception e) {
+				exceptions.add(e);
+			}
+		};
+		while (count(types, MySQLConstants.XID_EVENT) < 3 && exceptions.isEmpty()) {
+			this.processor.processOneRawEventRecord(is, callback);
+		}
+		assertTrue(exceptions.isEmpty());
+		assertEquals(3, count(types, MySQLConstants.WRITE_ROWS_EVENT_V2));
+		for (String table : tables) assertEquals("test.t1", table);
+		assertEquals(6, tables.size());
+		assertEquals(1, values.get(0).intValue());
+		assertEquals(3, values.get(2).intValue());
+	}
+
+	public void testEvents() throws Exception {
+		final XInputStream is = this.processor.openInputStream();
+		final List<BinlogEventV4> events = new ArrayList<BinlogEventV4>();
+		final List<Exception> exceptions = new ArrayList<Exception>();
+		final BinlogProcessorCallback callback = new BinlogProcessorCallback() {
+			public void onEvents(BinlogEventV4 event, byte[] data, boolean validated) {
+				assertTrue(validated);
+				events.add(event);
+			}
+
+			public void onException(Exception e, byte[] data) {
+				exceptions.add(e);
+			}
+		};
+		final Set<Long> xids = new TreeSet<Long>();
+		while (xids.size() < 3 && exceptions.isEmpty()) {
+			this.processor.processOneEventRecord(is, callback);
+			final BinlogEventV4 last = events.isEmpty() ? null : events.get(events.size() - 1);
+			if (last instanceof XidEvent) xids.add(((XidEvent) last).getXid());
+		}
+		assertTrue(exceptions.isEmpty());
+		assertEquals(Arrays.asList(1L, 2L, 3L), new ArrayList<Long>(xids));
+	}
+
+	/**
+	 *
+	 */
+	private static int count(List<Integer> types, int type) {
+		int r = 0;
+		for (int t : types) if (t == type) r++;
+		return r;
+	}
+}
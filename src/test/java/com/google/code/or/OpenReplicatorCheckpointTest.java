@@ -0,0 +1,133 @@
+package com.google.code.or;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.FileCheckpointStore;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.relay.RelayLogServer;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.glossary.BinlogPosition;
+
+/**
+ * Resumes from the checkpoint of a {@link FileCheckpointStore}, dumping from a
+ * {@link RelayLogServer} standing in for the master.
+ */
+public class OpenReplicatorCheckpointTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private File directory;
+	private RelayLogWriter master;
+	private RelayLogServer server;
+	private final BinlogBuilder binlog = new BinlogBuilder();
+	private final List<Long> xids = new CopyOnWriteArrayList<Long>();
+	private final List<Thread> flushers = new CopyOnWriteArrayList<Thread>();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("checkpoint", "");
+		this.directory.delete();
+		this.master = new RelayLogWriter(new File(this.directory, "master"));
+		this.master.setSyncInterval(0);
+		this.master.open();
+		this.master.rotate(NAME);
+		for (int i = 1; i <= 5; i++) this.binlog.transaction(1000 + i, i, "t1", i);
+		this.binlog.append(this.master);
+		this.server = new RelayLogServer(this.master);
+		this.server.setPort(0);
+		this.server.setUser("repl");
+		this.server.setPassword("secret");
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.stop(1, TimeUnit.SECONDS);
+		this.master.close();
+		delete(this.directory);
+	}
+
+	public void testStopClosesStore() throws Exception {
+		final FileCheckpointStore store = store();
+		OpenReplicator or = start(store);
+		try {
+			awaitXids(5);
+		} finally {
+			or.stop(1, TimeUnit.SECONDS);
+		}
+		assertEquals(new BinlogPosition(NAME, this.binlog.size()), store.getDurable().getPosition());
+		assertEquals(1, this.flushers.size());
+		this.flushers.get(0).join(1000);
+		assertFalse(this.flushers.get(0).isAlive());
+
+		// Resumes after the last transaction
+		this.binlog.transaction(2000, 6, "t1", 6);
+		this.binlog.append(this.master);
+		or = start(store());
+		try {
+			awaitXids(6);
+		} finally {
+			or.stop(1, TimeUnit.SECONDS);
+		}
+		assertEquals(6, this.xids.get(5).longValue());
+		this.flushers.get(1).join(1000);
+		assertFalse(this.flushers.get(1).isAlive());
+	}
+
+	/**
+	 *
+	 */
+	private FileCheckpointStore store() {
+		final FileCheckpointStore r = new FileCheckpointStore(new File(this.directory, "checkpoint"));
+		r.setThreadFactory(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				final Thread r = new Thread(task, "checkpoint-flusher");
+				r.setDaemon(true);
+				flushers.add(r);
+				return r;
+			}
+		});
+		return r;
+	}
+
+	private OpenReplicator start(FileCheckpointStore store) throws Exception {
+		final OpenReplicator r = new OpenReplicator();
+		r.setHost("127.0.0.1");
+		r.setPort(this.server.getPort());
+		r.setUser("repl");
+		r.setPassword("secret");
+		r.setServerId(2);
+		r.setBinlogFileName(NAME);
+		r.setBinlogPosition(4);
+		r.setCheckpointStore(store);
+		r.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+			}
+		});
+		r.start();
+		return r;
+	}
+
+	private void awaitXids(int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (this.xids.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertEquals(count, this.xids.size());
+	}
+
+	private static void delete(File file) {
+		final File[] files = file.listFiles();
+		if (files != null) for (File f : files) delete(f);
+		file.delete();
+	}
+}
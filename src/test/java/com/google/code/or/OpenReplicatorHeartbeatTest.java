@@ -0,0 +1,128 @@
+package com.google.code.or;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.ReplicationBasedBinlogParser;
+import com.google.code.or.binlog.impl.event.HeartbeatEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.relay.RelayLogServer;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+
+/**
+ * Heartbeats from a {@link RelayLogServer} standing in for an idle master.
+ */
+public class OpenReplicatorHeartbeatTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private File directory;
+	private RelayLogWriter master;
+	private RelayLogServer server;
+	private final BinlogBuilder binlog = new BinlogBuilder();
+	private final List<BinlogEventV4> events = new CopyOnWriteArrayList<BinlogEventV4>();
+	private OpenReplicator or;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("heartbeat", "");
+		this.directory.delete();
+		this.master = new RelayLogWriter(this.directory);
+		this.master.setSyncInterval(0);
+		this.master.open();
+		this.master.rotate(NAME);
+		this.binlog.transaction(1001, 1, "t1", 1);
+		this.binlog.append(this.master);
+		this.server = new RelayLogServer(this.master);
+		this.server.setPort(0);
+		this.server.setUser("repl");
+		this.server.setPassword("secret");
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (this.or != null) this.or.stop(1, TimeUnit.SECONDS);
+		this.server.stop(1, TimeUnit.SECONDS);
+		this.master.close();
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testSetupCommands() throws Exception {
+		final OpenReplicator or = new OpenReplicator();
+		assertFalse(or.getSetupCommands().toString().contains("master_heartbeat_period"));
+		or.setHeartbeatPeriod(1500);
+		assertTrue(or.getSetupCommands().contains("SET @master_heartbeat_period = 1500000000"));
+	}
+
+	/**
+	 * Heartbeats are consumed by the parser by default.
+	 */
+	public void testHeartbeatConsumed() throws Exception {
+		this.or = replicator(false);
+		this.or.start();
+		awaitHeartbeat();
+
+		//
+		final HeartbeatEvent heartbeat = this.or.getLastHeartbeatEvent();
+		assertEquals(NAME, heartbeat.getBinlogFileName().toString());
+		assertEquals(this.binlog.size(), heartbeat.getBinlogPosition());
+		assertTrue(this.events.get(this.events.size() - 1) instanceof XidEvent);
+		for (BinlogEventV4 event : this.events) assertFalse(event instanceof HeartbeatEvent);
+	}
+
+	public void testHeartbeatNotified() throws Exception {
+		this.or = replicator(true);
+		this.or.start();
+		awaitHeartbeat();
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (!(this.events.get(this.events.size() - 1) instanceof HeartbeatEvent)
+				&& System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertTrue(this.events.get(this.events.size() - 1) instanceof HeartbeatEvent);
+	}
+
+	/**
+	 * 
+	 */
+	private OpenReplicator replicator(final boolean notifyHeartbeatEvents) {
+		final OpenReplicator r = new OpenReplicator() {
+			@Override
+			protected ReplicationBasedBinlogParser getDefaultBinlogParser() throws Exception {
+				final ReplicationBasedBinlogParser parser = super.getDefaultBinlogParser();
+				parser.setNotifyHeartbeatEvents(notifyHeartbeatEvents);
+				return parser;
+			}
+		};
+		r.setHost("127.0.0.1");
+		r.setPort(this.server.getPort());
+		r.setUser("repl");
+		r.setPassword("secret");
+		r.setServerId(2);
+		r.setBinlogFileName(NAME);
+		r.setBinlogPosition(4);
+		r.setHeartbeatPeriod(50);
+		r.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				events.add(event);
+			}
+		});
+		return r;
+	}
+
+	private void awaitHeartbeat() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (this.or.getLastHeartbeatEvent() == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertNotNull(this.or.getLastHeartbeatEvent());
+	}
+}
@@ -0,0 +1,172 @@
+package com.google.code.or;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.relay.RelayLogServer;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+
+/**
+ * Reconnects to a {@link RelayLogServer} standing in for the master.
+ */
+public class OpenReplicatorReconnectTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private File directory;
+	private RelayLogWriter master;
+	private RelayLogServer server;
+	private OpenReplicator or;
+	private final BinlogBuilder binlog = new BinlogBuilder();
+	private final List<Long> xids = new CopyOnWriteArrayList<Long>();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("reconnect", "");
+		this.directory.delete();
+		this.master = new RelayLogWriter(this.directory);
+		this.master.setSyncInterval(0);
+		this.master.open();
+		this.master.rotate(NAME);
+		for (int i = 1; i <= 5; i++) this.binlog.transaction(1000 + i, i, "t1", i);
+		this.binlog.append(this.master);
+		this.server = new RelayLogServer(this.master);
+		this.server.setPort(0);
+		this.server.setUser("repl");
+		this.server.setPassword("secret");
+		this.server.start();
+
+		//
+		this.or = new OpenReplicator();
+		this.or.setHost("127.0.0.1");
+		this.or.setPort(this.server.getPort());
+		this.or.setUser("repl");
+		this.or.setPassword("secret");
+		this.or.setServerId(2);
+		this.or.setBinlogFileName(NAME);
+		this.or.setBinlogPosition(4);
+		this.or.setAutoReconnect(true);
+		this.or.setReconnectInitialInterval(10);
+		this.or.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.or.stop(1, TimeUnit.SECONDS);
+		this.server.stop(1, TimeUnit.SECONDS);
+		this.master.close();
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testResumesAfterDisconnect() throws Exception {
+		this.or.start();
+		awaitXids(5);
+		for (RelayLogServer.Session session : this.server.getSessions()) session.close();
+
+		// Resumed at the committed position, nothing is delivered twice
+		for (int i = 6; i <= 8; i++) this.binlog.transaction(1000 + i, i, "t1", i);
+		this.binlog.append(this.master);
+		awaitXids(8);
+		Thread.sleep(100);
+		assertEquals(8, this.xids.size());
+		for (int i = 0; i < 8; i++) assertEquals(i + 1, this.xids.get(i).longValue());
+		assertTrue(this.or.isRunning());
+	}
+
+	public void testGivesUp() throws Exception {
+		this.or.setReconnectMaxAttempts(2);
+		this.or.start();
+		awaitXids(5);
+		this.server.stop(1, TimeUnit.SECONDS);
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (this.or.isRunning() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertFalse(this.or.isRunning());
+	}
+
+	public void testGivesUpWithoutProgress() throws Exception {
+		final AtomicInteger events = new AtomicInteger();
+		this.or.setReconnectMaxAttempts(3);
+		this.or.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+				events.incrementAndGet();
+			}
+		});
+		this.or.start();
+		awaitXids(5);
+
+		// Every reconnect succeeds, but its session is dropped before anything is committed
+		final long deadline = System.currentTimeMillis() + 10000;
+		int sessions = 0;
+		while (this.or.isRunning() && System.currentTimeMillis() < deadline) {
+			final int received = events.get();
+			for (RelayLogServer.Session session : this.server.getSessions()) session.close();
+			sessions++;
+			while (events.get() == received && this.or.isRunning()
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(5); // Until the next dump started
+			}
+		}
+		assertFalse(this.or.isRunning());
+		assertEquals(4, sessions); // The first one and 3 reconnects
+		assertEquals(5, this.xids.size());
+	}
+
+	public void testListenerFailureStops() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		this.or.setStopOnListenerFailure(true);
+		this.or.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				calls.incrementAndGet();
+				throw new IllegalStateException("apply failed");
+			}
+		});
+		this.or.start();
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (this.or.isRunning() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertFalse(this.or.isRunning()); // Not reconnected, the same event would fail again
+		Thread.sleep(200);
+		assertEquals(1, calls.get());
+	}
+
+	public void testListenerFailureLogged() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		this.or.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+				calls.incrementAndGet();
+				throw new IllegalStateException("apply failed");
+			}
+		});
+		this.or.start();
+		awaitXids(5);
+		Thread.sleep(200);
+		assertEquals(5, this.xids.size()); // Went on past every event, once
+		assertTrue(this.or.isRunning());
+		assertEquals(this.binlog.size(), this.or.getCommittedPosition().getPosition());
+	}
+
+	/**
+	 *
+	 */
+	private void awaitXids(int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (this.xids.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertEquals(count, this.xids.size());
+	}
+}
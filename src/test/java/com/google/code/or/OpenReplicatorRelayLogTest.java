@@ -0,0 +1,119 @@
+package com.google.code.or;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.AbstractBinlogParser;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.relay.RelayLogServer;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.glossary.BinlogPosition;
+
+/**
+ * Replicates through a relay log from a {@link RelayLogServer} standing in for the master.
+ */
+public class OpenReplicatorRelayLogTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private File directory;
+	private RelayLogWriter master;
+	private RelayLogServer server;
+	private final BinlogBuilder binlog = new BinlogBuilder();
+	private final List<Long> xids = new CopyOnWriteArrayList<Long>();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("relay", "");
+		this.directory.delete();
+		this.master = new RelayLogWriter(new File(this.directory, "master"));
+		this.master.setSyncInterval(0);
+		this.master.open();
+		this.master.rotate(NAME);
+		for (int i = 1; i <= 10; i++) this.binlog.transaction(1000 + i, i, "t1", i);
+		this.binlog.append(this.master);
+		this.server = new RelayLogServer(this.master);
+		this.server.setPort(0);
+		this.server.setUser("repl");
+		this.server.setPassword("secret");
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.stop(1, TimeUnit.SECONDS);
+		this.master.close();
+		delete(this.directory);
+	}
+
+	public void testEventsReceivedBeforeRelayLogParserStarts() throws Exception {
+		final OpenReplicator or = new OpenReplicator() {
+			@Override
+			protected void startRelayLogParser() throws Exception {
+				// The receiver appends the whole binlog first
+				final AbstractBinlogParser receiver = (AbstractBinlogParser) this.binlogParser;
+				final BinlogPosition end = new BinlogPosition(NAME, binlog.size());
+				final long deadline = System.currentTimeMillis() + 10000;
+				while (!end.equals(receiver.getCommittedPosition())
+						&& System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(end, receiver.getCommittedPosition());
+				super.startRelayLogParser();
+			}
+		};
+		configure(or);
+		or.start();
+		try {
+			awaitXids(10);
+
+			// Events received later go through the relay log as well
+			this.binlog.transaction(2000, 11, "t1", 11);
+			this.binlog.append(this.master);
+			awaitXids(11);
+		} finally {
+			or.stop(1, TimeUnit.SECONDS);
+		}
+		for (int i = 0; i < this.xids.size(); i++) assertEquals(i + 1, this.xids.get(i).longValue());
+	}
+
+	/**
+	 *
+	 */
+	private void configure(OpenReplicator or) {
+		or.setHost("127.0.0.1");
+		or.setPort(this.server.getPort());
+		or.setUser("repl");
+		or.setPassword("secret");
+		or.setServerId(2);
+		or.setBinlogFileName(NAME);
+		or.setBinlogPosition(4);
+		or.setRelayLogPath(new File(this.directory, "relay").getPath());
+		or.setRelayLogSyncInterval(0);
+		or.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+			}
+		});
+	}
+
+	private void awaitXids(int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (this.xids.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertEquals(count, this.xids.size());
+	}
+
+	private static void delete(File file) {
+		final File[] files = file.listFiles();
+		if (files != null) for (File f : files) delete(f);
+		file.delete();
+	}
+}
@@ -0,0 +1,41 @@
+package com.google.code.or.binlog;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.ext.XChecksumCRC32Impl;
+import com.google.code.or.binlog.impl.AbstractBinlogParser;
+import com.google.code.or.binlog.impl.parser.GtidEventParser;
+import com.google.code.or.binlog.impl.parser.ext.GtidEventParserExt;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class BinlogParserFactoryTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	public void testReplicationParsersHandleAnonymousGtid() throws Exception {
+		assertGtidParsers(BinlogParserFactory.createReplicationBinlogParser(null, NAME),
+				GtidEventParser.class);
+		assertGtidParsers(BinlogParserFactory.createReplicationBinlogParserExt(null, NAME,
+				new XChecksumCRC32Impl(), "binlog-parser"), GtidEventParserExt.class);
+	}
+
+	public void testFileParsersHandleAnonymousGtid() throws Exception {
+		assertGtidParsers(BinlogParserFactory.createFileBinlogParser(4, -1, NAME, "."),
+				GtidEventParser.class);
+		assertGtidParsers(BinlogParserFactory.createFileBinlogParserExt(4, -1, NAME, ".",
+				new XChecksumCRC32Impl()), GtidEventParserExt.class);
+	}
+
+	/**
+	 * Without a parser for ANONYMOUS_GTID_LOG_EVENT, servers with GTID_MODE=OFF lose the logical clock.
+	 */
+	private static void assertGtidParsers(AbstractBinlogParser parser, Class<?> type) {
+		final BinlogEventParser gtid = parser.getEventParser(MySQLConstants.GTID_LOG_EVENT);
+		final BinlogEventParser anonymous =
+				parser.getEventParser(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT);
+		assertTrue(type.isInstance(gtid));
+		assertTrue(type.isInstance(anonymous));
+		assertEquals(MySQLConstants.GTID_LOG_EVENT, gtid.getEventType());
+		assertEquals(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT, anonymous.getEventType());
+	}
+}
@@ -0,0 +1,145 @@
+package com.google.code.or.binlog.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.glossary.GtidSet;
+import com.google.code.or.common.util.MySQLConstants;
+
+/**
+ * Builds binlog files without checksums for tests, one row event with a single INT column per
+ * transaction.
+ */
+public class BinlogBuilder {
+	//
+	public static final String UUID = "3e11fa47-71ca-11e1-9e33-c80aa9429562";
+
+	//
+	private final ByteArrayOutputStream os = new ByteArrayOutputStream();
+	private int appended = MySQLConstants.BINLOG_MAGIC.length; // To a relay log
+
+	/**
+	 *
+	 */
+	public BinlogBuilder() {
+		this.os.write(MySQLConstants.BINLOG_MAGIC, 0, MySQLConstants.BINLOG_MAGIC.length);
+		final ByteBuffer fde = buffer(2 + 50 + 4 + 1);
+		fde.putShort((short) 4).put("5.5.0".getBytes());
+		fde.position(2 + 50 + 4);
+		fde.put((byte) 19);
+		event(MySQLConstants.FORMAT_DESCRIPTION_EVENT, 0, fde.array());
+	}
+
+	/**
+	 * Returns the position of the transaction, the XID event ends the file as it is so far.
+	 */
+	public long transaction(long timestamp, long transactionId, String table, int value) {
+		final long r = this.os.size();
+		final ByteBuffer gtid = buffer(1 + 16 + 8);
+		gtid.put((byte) 1).put(GtidSet.fromUuid(UUID)).putLong(transactionId);
+		event(MySQLConstants.GTID_LOG_EVENT, timestamp, gtid.array());
+		event(MySQLConstants.QUERY_EVENT, timestamp, query("BEGIN"));
+		final ByteBuffer tme = buffer(6 + 2 + 1 + 5 + 1 + table.length() + 1 + 1 + 1 + 1 + 1);
+		tme.putInt(7).putShort((short) 0).putShort((short) 0);
+		tme.put((byte) 4).put("test".getBytes()).put((byte) 0);
+		tme.put((byte) table.length()).put(table.getBytes()).put((byte) 0);
+		tme.put((byte) 1).put((byte) MySQLConstants.TYPE_LONG).put((byte) 0).put((byte) 1);
+		event(MySQLConstants.TABLE_MAP_EVENT, timestamp, tme.array());
+		final ByteBuffer rows = buffer(6 + 2 + 2 + 1 + 1 + 1 + 4);
+		rows.putInt(7).putShort((short) 0).putShort((short) 0).putShort((short) 2);
+		rows.put((byte) 1).put((byte) 1).put((byte) 0).putInt(value);
+		event(MySQLConstants.WRITE_ROWS_EVENT_V2, timestamp, rows.array());
+		final ByteBuffer xid = buffer(8);
+		xid.putLong(transactionId);
+		event(MySQLConstants.XID_EVENT, timestamp, xid.array());
+		return r;
+	}
+
+	public void rotate(String binlogFileName) {
+		final ByteBuffer rotate = buffer(8 + binlogFileName.length());
+		rotate.putLong(MySQLConstants.BINLOG_MAGIC.length).put(binlogFileName.getBytes());
+		event(MySQLConstants.ROTATE_EVENT, 0, rotate.array());
+	}
+
+	public void stop() {
+		event(MySQLConstants.STOP_EVENT, 0, new byte[0]);
+	}
+
+	public int size() {
+		return this.os.size();
+	}
+
+	public byte[] toByteArray() {
+		return this.os.toByteArray();
+	}
+
+	/**
+	 * Replaces the content of the file.
+	 */
+	public void write(File file) throws IOException {
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			this.os.writeTo(fos);
+		} finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Appends what has been built since the file was last written, as a master would.
+	 */
+	public void append(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final byte[] data = this.os.toByteArray();
+			raf.seek(raf.length());
+			raf.write(data, (int) raf.length(), data.length - (int) raf.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Appends the events built since the last call to a relay log segment, e.g. one served by a
+	 * RelayLogServer as if it were a master.
+	 */
+	public void append(RelayLogWriter writer) throws IOException {
+		final byte[] data = this.os.toByteArray();
+		while (this.appended < data.length) {
+			final int length = ByteBuffer.wrap(data, this.appended + 9, 4)
+					.order(ByteOrder.LITTLE_ENDIAN).getInt();
+			writer.append(data, this.appended, length);
+			this.appended += length;
+		}
+		writer.flush();
+	}
+
+	/**
+	 *
+	 */
+	private void event(int type, long timestamp, byte[] body) {
+		final ByteBuffer header = buffer(19);
+		final int length = 19 + body.length;
+		header.putInt((int) timestamp).put((byte) type).putInt(1).putInt(length);
+		header.putInt(this.os.size() + length).putShort((short) 0);
+		this.os.write(header.array(), 0, 19);
+		this.os.write(body, 0, body.length);
+	}
+
+	private static byte[] query(String sql) {
+		final ByteBuffer r = buffer(13 + 4 + 1 + sql.length());
+		r.putInt(1).putInt(0).put((byte) 4).putShort((short) 0).putShort((short) 0);
+		r.put("test".getBytes()).put((byte) 0).put(sql.getBytes());
+		return r.array();
+	}
+
+	private static ByteBuffer buffer(int length) {
+		return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
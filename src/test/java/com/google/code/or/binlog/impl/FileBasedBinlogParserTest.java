@@ -0,0 +1,215 @@
+package com.google.code.or.binlog.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.impl.event.XidEvent;
+
+public class FileBasedBinlogParserTest extends TestCase {
+	//
+	private File directory;
+	private Thread worker;
+	private final List<XidEvent> xids = new CopyOnWriteArrayList<XidEvent>();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("binlog", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testFollowAcrossRotateAndStop() throws Exception {
+		final BinlogBuilder first = new BinlogBuilder();
+		first.transaction(1000, 1, "t1", 1);
+		first.write(new File(this.directory, "mysql-bin.000001"));
+		final FileBasedBinlogParser parser = createParser("mysql-bin.000001");
+		parser.start();
+		awaitXids(1);
+
+		// Appended events are read once complete
+		first.transaction(1001, 2, "t1", 2);
+		first.append(new File(this.directory, "mysql-bin.000001"));
+		awaitXids(2);
+		first.rotate("mysql-bin.000002");
+		first.append(new File(this.directory, "mysql-bin.000001"));
+		final BinlogBuilder second = new BinlogBuilder();
+		second.transaction(1002, 3, "t1", 3);
+		second.write(new File(this.directory, "mysql-bin.000002"));
+		awaitXids(3);
+		assertEquals(3, this.xids.get(2).getXid());
+		assertEquals("mysql-bin.000002", parser.getBinlogFileName());
+
+		// Stopped while waiting for events, the parser thread unmaps the file once it left the loop
+		parser.stop(10, TimeUnit.SECONDS);
+		assertFalse(this.worker.isAlive());
+		assertFalse(parser.isRunning());
+	}
+
+	/**
+	 * The rotate event names the next file, whatever else is in the directory.
+	 */
+	public void testFollowRotatedFile() throws Exception {
+		final BinlogBuilder first = new BinlogBuilder();
+		first.transaction(1000, 1, "t1", 1);
+		first.write(new File(this.directory, "mysql-bin.000001"));
+		final BinlogBuilder other = new BinlogBuilder();
+		other.transaction(1001, 99, "t1", 99);
+		other.write(new File(this.directory, "mysql-bin.000002"));
+		final BinlogBuilder third = new BinlogBuilder();
+		third.transaction(1002, 3, "t1", 3);
+		third.write(new File(this.directory, "mysql-bin.000003"));
+		final FileBasedBinlogParser parser = createParser("mysql-bin.000001");
+		parser.start();
+		first.rotate("mysql-bin.000003");
+		first.append(new File(this.directory, "mysql-bin.000001"));
+		awaitXids(2);
+		assertEquals(3, this.xids.get(1).getXid());
+		assertEquals("mysql-bin.000003", parser.getBinlogFileName());
+	}
+
+	/**
+	 * A stop event names no next file, it is the one listed next in the index file once there.
+	 */
+	public void testFollowIndexAfterStop() throws Exception {
+		final BinlogBuilder first = new BinlogBuilder();
+		first.transaction(1000, 1, "t1", 1);
+		first.stop();
+		first.write(new File(this.directory, "mysql-bin.000001"));
+		final BinlogBuilder other = new BinlogBuilder();
+		other.transaction(1001, 99, "t1", 99);
+		other.write(new File(this.directory, "mysql-bin.000002"));
+		final BinlogBuilder third = new BinlogBuilder();
+		third.transaction(1002, 3, "t1", 3);
+		third.write(new File(this.directory, "mysql-bin.000003"));
+		writeIndex("mysql-bin.000001");
+		final FileBasedBinlogParser parser = createParser("mysql-bin.000001");
+		parser.start();
+		awaitXids(1);
+		Thread.sleep(200);
+		assertEquals(1, this.xids.size());
+		assertEquals("mysql-bin.000001", parser.getBinlogFileName());
+
+		//
+		writeIndex("mysql-bin.000001", "mysql-bin.000003");
+		awaitXids(2);
+		assertEquals(3, this.xids.get(1).getXid());
+		assertEquals("mysql-bin.000003", parser.getBinlogFileName());
+	}
+
+	public void testStopWhileReading() throws Exception {
+		final BinlogBuilder binlog = new BinlogBuilder();
+		for (int i = 1; i <= 2000; i++) binlog.transaction(1000, i, "t1", i);
+		binlog.write(new File(this.directory, "mysql-bin.000001"));
+		for (int i = 0; i < 20; i++) {
+			this.xids.clear();
+			final FileBasedBinlogParser parser = createParser("mysql-bin.000001");
+			parser.start();
+			parser.stop(10, TimeUnit.SECONDS);
+			assertFalse(this.worker.isAlive());
+		}
+	}
+
+	public void testListenerFailureLogged() throws Exception {
+		final BinlogBuilder binlog = new BinlogBuilder();
+		binlog.transaction(1000, 1, "t1", 1);
+		binlog.transaction(1001, 2, "t1", 2);
+		binlog.transaction(1002, 3, "t1", 3);
+		binlog.write(new File(this.directory, "mysql-bin.000001"));
+		final FileBasedBinlogParser parser = createParser("mysql-bin.000001");
+		parser.setFollow(false);
+		parser.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (!(event instanceof XidEvent)) return;
+				if (((XidEvent) event).getXid() == 2) throw new IllegalStateException("apply failed");
+				xids.add((XidEvent) event);
+			}
+		});
+		parser.start();
+		this.worker.join(10000);
+		assertEquals(2, this.xids.size()); // Went on past the failed event
+		assertEquals(3, this.xids.get(1).getXid());
+		assertEquals(binlog.size(), parser.getCommittedPosition().getPosition());
+	}
+
+	public void testListenerFailureStopsParser() throws Exception {
+		final BinlogBuilder binlog = new BinlogBuilder();
+		binlog.transaction(1000, 1, "t1", 1);
+		final long second = binlog.transaction(1001, 2, "t1", 2);
+		binlog.transaction(1002, 3, "t1", 3);
+		binlog.write(new File(this.directory, "mysql-bin.000001"));
+		final FileBasedBinlogParser parser = createParser("mysql-bin.000001");
+		parser.setFollow(false);
+		parser.setStopOnListenerFailure(true);
+		parser.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (!(event instanceof XidEvent)) return;
+				if (((XidEvent) event).getXid() == 2) throw new IllegalStateException("apply failed");
+				xids.add((XidEvent) event);
+			}
+		});
+		parser.start();
+		this.worker.join(10000);
+		assertFalse(parser.isRunning());
+		assertEquals(1, this.xids.size());
+		assertEquals(second, parser.getCommittedPosition().getPosition());
+	}
+
+	/**
+	 *
+	 */
+	private FileBasedBinlogParser createParser(String binlogFileName) {
+		final FileBasedBinlogParser r = BinlogParserFactory.createFileBinlogParser(4, 0,
+				binlogFileName, this.directory.getPath());
+		r.setFollow(true);
+		r.setMmap(true);
+		r.setFollowInterval(50);
+		r.setThreadFactory(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return worker = new Thread(r);
+			}
+		});
+		r.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add((XidEvent) event);
+			}
+		});
+		return r;
+	}
+
+	private void writeIndex(String... names) throws IOException {
+		final File tmp = new File(this.directory, "mysql-bin.index.tmp");
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+		try {
+			for (String name : names) writer.write("./" + name + "\n");
+		} finally {
+			writer.close();
+		}
+		assertTrue(tmp.renameTo(new File(this.directory, "mysql-bin.index")));
+	}
+
+	private void awaitXids(int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (this.xids.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, this.xids.size());
+	}
+}
@@ -0,0 +1,95 @@
+package com.google.code.or.binlog.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.Checkpoint;
+import com.google.code.or.common.glossary.GtidSet;
+
+public class FileCheckpointStoreTest extends TestCase {
+	//
+	private static final String UUID = "3e11fa47-71ca-11e1-9e33-c80aa9429562";
+
+	//
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.file = File.createTempFile("checkpoint", "");
+		this.file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		slot(0).delete();
+		slot(1).delete();
+	}
+
+	public void testLoadLatest() throws Exception {
+		assertNull(new FileCheckpointStore(this.file).load());
+		write();
+
+		//
+		final Checkpoint checkpoint = new FileCheckpointStore(this.file).load();
+		assertEquals(new BinlogPosition("mysql-bin.000002", 200), checkpoint.getPosition());
+		assertEquals(GtidSet.valueOf(UUID + ":1-2"), checkpoint.getGtidSet());
+	}
+
+	public void testTornWrite() throws Exception {
+		write(); // The second checkpoint goes to slot 0
+		final RandomAccessFile raf = new RandomAccessFile(slot(0), "rw");
+		try {
+			raf.seek(30);
+			raf.write(raf.read() ^ 0xFF);
+		} finally {
+			raf.close();
+		}
+
+		//
+		final FileCheckpointStore store = new FileCheckpointStore(this.file);
+		final Checkpoint checkpoint = store.load();
+		assertEquals(new BinlogPosition("mysql-bin.000001", 100), checkpoint.getPosition());
+		assertEquals(GtidSet.valueOf(UUID + ":1"), checkpoint.getGtidSet());
+
+		// The next checkpoint overwrites the torn slot rather than the intact one
+		store.acknowledge(new BinlogPosition("mysql-bin.000001", 300), null, 0);
+		store.close();
+		assertEquals(new BinlogPosition("mysql-bin.000001", 300),
+				new FileCheckpointStore(this.file).load().getPosition());
+		slot(0).delete();
+		assertEquals(new BinlogPosition("mysql-bin.000001", 100),
+				new FileCheckpointStore(this.file).load().getPosition());
+	}
+
+	public void testTruncatedWrite() throws Exception {
+		write();
+		final RandomAccessFile raf = new RandomAccessFile(slot(0), "rw");
+		try {
+			raf.setLength(raf.length() - 1);
+		} finally {
+			raf.close();
+		}
+		final Checkpoint checkpoint = new FileCheckpointStore(this.file).load();
+		assertEquals(new BinlogPosition("mysql-bin.000001", 100), checkpoint.getPosition());
+	}
+
+	/**
+	 * 
+	 */
+	private void write() throws Exception {
+		final FileCheckpointStore store = new FileCheckpointStore(this.file);
+		final byte[] sourceId = GtidSet.fromUuid(UUID);
+		store.acknowledge(new BinlogPosition("mysql-bin.000001", 100), sourceId, 1);
+		store.flush();
+		store.acknowledge(new BinlogPosition("mysql-bin.000002", 200), sourceId, 2);
+		store.close();
+		assertTrue(slot(0).exists() && slot(1).exists());
+	}
+
+	private File slot(int index) {
+		return new File(this.file.getPath() + "." + index);
+	}
+}
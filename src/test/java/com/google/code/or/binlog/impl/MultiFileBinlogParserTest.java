@@ -0,0 +1,152 @@
+package com.google.code.or.binlog.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParser;
+import com.google.code.or.binlog.BinlogParserListener;
+import com.google.code.or.binlog.impl.event.XidEvent;
+
+public class MultiFileBinlogParserTest extends TestCase {
+	//
+	private static final int FILES = 5;
+	private static final int TRANSACTIONS = 20; // Per file
+
+	//
+	private File directory;
+	private final List<String> names = new ArrayList<String>();
+	private final List<Long> starts = new ArrayList<Long>(); // Of the transactions of the last file
+	private final List<Long> xids = new CopyOnWriteArrayList<Long>();
+	private final List<Exception> exceptions = new CopyOnWriteArrayList<Exception>();
+
+	/**
+	 * Files 1, 3 and 5 change table t1, files 2 and 4 table t2.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("binlog", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+		long xid = 1;
+		for (int i = 1; i <= FILES; i++) {
+			final BinlogBuilder binlog = new BinlogBuilder();
+			for (int j = 0; j < TRANSACTIONS; j++, xid++) {
+				this.starts.add(binlog.transaction(1000 + xid, xid, i % 2 == 1 ? "t1" : "t2", 1));
+			}
+			if (i < FILES) binlog.rotate(name(i + 1));
+			binlog.write(new File(this.directory, name(i)));
+			this.names.add(name(i));
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testFileOrder() throws Exception {
+		final MultiFileBinlogParser parser = createParser();
+		parser.setParallelism(3);
+		parser.setQueueCapacity(4); // Segments wait for the parser thread
+		parse(parser);
+		assertTrue(this.exceptions.isEmpty());
+		assertEquals(FILES * TRANSACTIONS, this.xids.size());
+		for (int i = 0; i < this.xids.size(); i++) assertEquals(i + 1, this.xids.get(i).longValue());
+	}
+
+	public void testStartAndStopPosition() throws Exception {
+		final MultiFileBinlogParser parser = createParser();
+		parser.setStartPosition(this.starts.get(5)); // The 6th transaction of the first file
+		final int last = (FILES - 1) * TRANSACTIONS;
+		parser.setStopPosition(this.starts.get(last + 3) - 1); // Up to the 3rd of the last file
+		parse(parser);
+		assertEquals(6, this.xids.get(0).longValue());
+		assertEquals(last + 3, this.xids.get(this.xids.size() - 1).longValue());
+		assertEquals(last + 3 - 5, this.xids.size());
+	}
+
+	public void testTableNamesSkipFiles() throws Exception {
+		final MultiFileBinlogParser parser = createParser();
+		parser.setTableNames(Arrays.asList("test.t2"));
+		parse(parser);
+		assertEquals(2 * TRANSACTIONS, this.xids.size());
+		assertEquals(TRANSACTIONS + 1, this.xids.get(0).longValue()); // The first of file 2
+		assertEquals(4 * TRANSACTIONS, this.xids.get(this.xids.size() - 1).longValue());
+	}
+
+	public void testTruncatedFileStops() throws Exception {
+		final RandomAccessFile raf = new RandomAccessFile(new File(this.directory, name(2)), "rw");
+		try {
+			raf.setLength(raf.length() - 10);
+		} finally {
+			raf.close();
+		}
+		parse(createParser());
+		assertEquals(1, this.exceptions.size());
+		assertEquals(2 * TRANSACTIONS, this.xids.size()); // Only the rotate event was cut off
+		assertEquals(2 * TRANSACTIONS, this.xids.get(this.xids.size() - 1).longValue());
+	}
+
+	public void testBinlogFileNames() throws Exception {
+		final File index = new File(this.directory, "mysql-bin.index");
+		final FileOutputStream os = new FileOutputStream(index);
+		try {
+			for (String name : this.names) os.write(("./" + name + "\n").getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		assertEquals(this.names, MultiFileBinlogParser.readIndexFile(index));
+		new File(this.directory, "mysql-bin.000010").createNewFile(); // After 000005
+		final List<String> expected = new ArrayList<String>(this.names);
+		expected.add("mysql-bin.000010");
+		assertEquals(expected, MultiFileBinlogParser.listBinlogFiles(this.directory, "mysql-bin"));
+		assertEquals("NONE", MultiFileBinlogParser.getChecksumType(new File(this.directory, name(1))));
+	}
+
+	/**
+	 *
+	 */
+	private MultiFileBinlogParser createParser() {
+		final MultiFileBinlogParser r = new MultiFileBinlogParser();
+		r.setBinlogFilePath(this.directory.getPath());
+		r.setBinlogFileNames(this.names);
+		r.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+			}
+		});
+		r.addParserListener(new BinlogParserListener.Adapter() {
+			@Override
+			public void onException(BinlogParser parser, Exception exception) {
+				exceptions.add(exception);
+			}
+		});
+		return r;
+	}
+
+	private static void parse(MultiFileBinlogParser parser) throws Exception {
+		parser.start();
+		try {
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (parser.isRunning() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+			assertFalse(parser.isRunning());
+		} finally {
+			parser.stop(1, TimeUnit.SECONDS);
+		}
+	}
+
+	private static String name(int sequence) {
+		return String.format("mysql-bin.%06d", sequence);
+	}
+}
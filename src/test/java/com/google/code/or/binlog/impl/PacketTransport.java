@@ -0,0 +1,151 @@
+package com.google.code.or.binlog.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.net.Transport;
+import com.google.code.or.net.TransportContext;
+import com.google.code.or.net.TransportInputStream;
+import com.google.code.or.net.TransportOutputStream;
+import com.google.code.or.net.impl.TransportInputStreamImpl;
+import com.google.code.or.net.impl.TransportOutputStreamImpl;
+
+/**
+ * Replays the events of a {@link BinlogBuilder} the way a master sends them to a dump, one packet
+ * per event, and keeps what is written back.
+ */
+public class PacketTransport implements Transport {
+	//
+	private final byte[] packets;
+	private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+	private final TransportOutputStream os = new TransportOutputStreamImpl(this.written);
+	private final TransportInputStream is;
+	private volatile boolean connected = true;
+
+	/**
+	 * With semiSyncFlags, every event gets the semi-sync header with those flags. Reading pauses for
+	 * pause milliseconds once pauseAt bytes were read.
+	 */
+	public PacketTransport(BinlogBuilder binlog, int semiSyncFlags, int pauseAt, long pause) {
+		this.packets = packets(binlog.toByteArray(), semiSyncFlags);
+		this.is = new TransportInputStreamImpl(new Replay(pauseAt, pause));
+	}
+
+	public PacketTransport(BinlogBuilder binlog) {
+		this(binlog, -1, -1, 0);
+	}
+
+	/**
+	 *
+	 */
+	public boolean isConnected() {
+		return this.connected;
+	}
+
+	public void disconnect() throws Exception {
+		this.connected = false;
+	}
+
+	public void connect(String host, int port) throws Exception {
+		this.connected = true;
+	}
+
+	public TransportContext getContext() {
+		return null;
+	}
+
+	public TransportInputStream getInputStream() {
+		return this.is;
+	}
+
+	public TransportOutputStream getOutputStream() {
+		return this.os;
+	}
+
+	public byte[] getWritten() {
+		return this.written.toByteArray();
+	}
+
+	/**
+	 * Returns the offset of the n-th event, counted from 0, in the replayed packets.
+	 */
+	public static int offsetOf(BinlogBuilder binlog, int semiSyncFlags, int n) {
+		final ByteBuffer events = events(binlog.toByteArray());
+		int r = 0;
+		for (int i = 0; i < n; i++) {
+			final int length = events.getInt(events.position() + 9);
+			r += 4 + 1 + (semiSyncFlags < 0 ? 0 : 2) + length;
+			events.position(events.position() + length);
+		}
+		return r;
+	}
+
+	/**
+	 *
+	 */
+	private static byte[] packets(byte[] binlog, int semiSyncFlags) {
+		final ByteBuffer events = events(binlog);
+		final ByteArrayOutputStream r = new ByteArrayOutputStream();
+		for (int sequence = 1; events.hasRemaining(); sequence++) {
+			final int length = events.getInt(events.position() + 9);
+			final int packetLength = 1 + (semiSyncFlags < 0 ? 0 : 2) + length;
+			r.write(packetLength);
+			r.write(packetLength >>> 8);
+			r.write(packetLength >>> 16);
+			r.write(sequence);
+			r.write(0x00); // OK
+			if (semiSyncFlags >= 0) {
+				r.write(0xEF);
+				r.write(semiSyncFlags);
+			}
+			r.write(events.array(), events.position(), length);
+			events.position(events.position() + length);
+		}
+		return r.toByteArray();
+	}
+
+	private static ByteBuffer events(byte[] binlog) {
+		final ByteBuffer r = ByteBuffer.wrap(binlog).order(ByteOrder.LITTLE_ENDIAN);
+		r.position(MySQLConstants.BINLOG_MAGIC.length);
+		return r;
+	}
+
+	private final class Replay extends InputStream {
+		//
+		private final int pauseAt;
+		private final long pause;
+		private int position;
+
+		private Replay(int pauseAt, long pause) {
+			this.pauseAt = pauseAt;
+			this.pause = pause;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.position == this.pauseAt) {
+				try {
+					Thread.sleep(this.pause);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			if (this.position >= packets.length) return -1;
+			int n = Math.min(len, packets.length - this.position);
+			if (this.position < this.pauseAt) n = Math.min(n, this.pauseAt - this.position);
+			System.arraycopy(packets, this.position, b, off, n);
+			this.position += n;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.google.code.or.binlog.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.net.impl.SemiSyncAcknowledger;
+import com.google.code.or.net.impl.packet.SemiSyncAckPacket;
+
+public class ReplicationBasedBinlogParserTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private final BinlogBuilder binlog = new BinlogBuilder();
+	private final List<Long> xids = new CopyOnWriteArrayList<Long>();
+
+	@Override
+	protected void setUp() throws Exception {
+		for (int i = 1; i <= 3; i++) this.binlog.transaction(1000 + i, i, "t1", i);
+	}
+
+	public void testSemiSyncAcknowledged() throws Exception {
+		final PacketTransport transport =
+				new PacketTransport(this.binlog, SemiSyncAckPacket.ACK_REQUIRED, -1, 0);
+		final SemiSyncAcknowledger acknowledger = new SemiSyncAcknowledger(transport);
+		parse(transport, acknowledger);
+		assertEquals(new BinlogPosition(NAME, this.binlog.size()), acknowledger.getAcknowledged());
+
+		// Every event asked for an ack, in order
+		final List<BinlogPosition> acks = acks(transport.getWritten());
+		assertEquals(16, acks.size()); // FDE and 5 events per transaction
+		for (int i = 1; i < acks.size(); i++) assertTrue(acks.get(i - 1).compareTo(acks.get(i)) < 0);
+		assertEquals(new BinlogPosition(NAME, this.binlog.size()), acks.get(acks.size() - 1));
+	}
+
+	public void testSemiSyncAckWindow() throws Exception {
+		final PacketTransport transport =
+				new PacketTransport(this.binlog, SemiSyncAckPacket.ACK_REQUIRED, -1, 0);
+		final SemiSyncAcknowledger acknowledger = new SemiSyncAcknowledger(transport);
+		acknowledger.setWindow(10000);
+		parse(transport, acknowledger);
+		assertEquals(0, transport.getWritten().length); // Coalesced until the window ends
+		acknowledger.flush();
+		final List<BinlogPosition> acks = acks(transport.getWritten());
+		assertEquals(1, acks.size());
+		assertEquals(new BinlogPosition(NAME, this.binlog.size()), acks.get(0));
+		acknowledger.flush(); // Already acknowledged
+		assertEquals(1, acks(transport.getWritten()).size());
+	}
+
+	public void testSemiSyncNotRequired() throws Exception {
+		final PacketTransport transport = new PacketTransport(this.binlog, 0, -1, 0);
+		final SemiSyncAcknowledger acknowledger = new SemiSyncAcknowledger(transport);
+		parse(transport, acknowledger);
+		assertNull(acknowledger.getAcknowledged());
+		assertEquals(0, transport.getWritten().length);
+	}
+
+	/**
+	 * Parses until the end of the replayed events.
+	 */
+	private void parse(PacketTransport transport, SemiSyncAcknowledger acknowledger)
+			throws Exception {
+		final ReplicationBasedBinlogParser parser =
+				BinlogParserFactory.createReplicationBinlogParser(transport, NAME);
+		parser.setSemiSync(true);
+		parser.setSemiSyncAcknowledger(acknowledger);
+		parser.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+			}
+		});
+		acknowledger.start();
+		parser.start();
+		try {
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (parser.isRunning() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		} finally {
+			parser.stop(1, TimeUnit.SECONDS);
+			acknowledger.stop();
+		}
+		assertEquals(3, this.xids.size());
+		assertEquals(3, this.xids.get(2).longValue());
+	}
+
+	private static List<BinlogPosition> acks(byte[] written) {
+		final List<BinlogPosition> r = new ArrayList<BinlogPosition>();
+		final ByteBuffer buffer = ByteBuffer.wrap(written).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			final int length = (buffer.get() & 0xFF) | (buffer.get() & 0xFF) << 8
+					| (buffer.get() & 0xFF) << 16;
+			buffer.get(); // Sequence
+			assertEquals(SemiSyncAckPacket.PACKET_MARKER, buffer.get());
+			final long position = buffer.getLong();
+			final byte[] name = new byte[length - 1 - 8];
+			buffer.get(name);
+			r.add(new BinlogPosition(new String(name), position));
+		}
+		return r;
+	}
+}
@@ -0,0 +1,132 @@
+package com.google.code.or.binlog.impl.backup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.OpenReplicator;
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.relay.RelayLogServer;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+
+/**
+ * Backs up the binlog files of a {@link RelayLogServer} standing in for the master.
+ */
+public class BinlogBackupTest extends TestCase {
+	//
+	private static final String FIRST = "mysql-bin.000001";
+	private static final String SECOND = "mysql-bin.000002";
+
+	//
+	private File directory;
+	private File backup;
+	private RelayLogWriter master;
+	private RelayLogServer server;
+	private final BinlogBuilder first = new BinlogBuilder();
+	private final BinlogBuilder second = new BinlogBuilder();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("backup", "");
+		this.directory.delete();
+		this.backup = new File(this.directory, "backup");
+		this.master = new RelayLogWriter(new File(this.directory, "master"));
+		this.master.setSyncInterval(0);
+		this.master.open();
+		this.master.rotate(FIRST);
+		for (int i = 1; i <= 5; i++) this.first.transaction(1000 + i, i, "t1", i);
+		this.first.rotate(SECOND);
+		this.first.append(this.master);
+		this.master.rotate(SECOND);
+		for (int i = 6; i <= 8; i++) this.second.transaction(1000 + i, i, "t1", i);
+		this.second.append(this.master);
+		this.server = new RelayLogServer(this.master);
+		this.server.setPort(0);
+		this.server.setUser("repl");
+		this.server.setPassword("secret");
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.stop(1, TimeUnit.SECONDS);
+		this.master.close();
+		delete(this.directory);
+	}
+
+	public void testIdenticalFilesAndResume() throws Exception {
+		OpenReplicator or = start();
+		try {
+			awaitLength(SECOND, this.second.size());
+		} finally {
+			or.stop(1, TimeUnit.SECONDS);
+		}
+		assertIdentical(FIRST, this.first);
+		assertIdentical(SECOND, this.second);
+		assertEquals(Arrays.asList(FIRST, SECOND), Arrays.asList(list()));
+
+		// Continues at the end of the last file
+		for (int i = 9; i <= 10; i++) this.second.transaction(1000 + i, i, "t1", i);
+		this.second.append(this.master);
+		or = start();
+		try {
+			awaitLength(SECOND, this.second.size());
+		} finally {
+			or.stop(1, TimeUnit.SECONDS);
+		}
+		assertIdentical(SECOND, this.second);
+		assertEquals(Arrays.asList(FIRST, SECOND), Arrays.asList(list())); // No position index
+	}
+
+	/**
+	 *
+	 */
+	private OpenReplicator start() throws Exception {
+		final OpenReplicator r = new OpenReplicator();
+		r.setHost("127.0.0.1");
+		r.setPort(this.server.getPort());
+		r.setUser("repl");
+		r.setPassword("secret");
+		r.setServerId(2);
+		r.setBinlogFileName(FIRST);
+		r.setBinlogPosition(4);
+		r.setBackupPath(this.backup.getPath());
+		r.setBackupSyncInterval(0);
+		r.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				// NOP, the events only go to the backup
+			}
+		});
+		r.start();
+		return r;
+	}
+
+	private String[] list() {
+		final String[] r = this.backup.list();
+		Arrays.sort(r);
+		return r;
+	}
+
+	private void awaitLength(String name, long length) throws InterruptedException {
+		final File file = new File(this.backup, name);
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (file.length() < length && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertEquals(length, file.length());
+	}
+
+	private void assertIdentical(String name, BinlogBuilder expected) throws Exception {
+		final byte[] actual = Files.readAllBytes(new File(this.backup, name).toPath());
+		assertTrue(Arrays.equals(expected.toByteArray(), actual));
+	}
+
+	private static void delete(File file) {
+		final File[] files = file.listFiles();
+		if (files != null) for (File f : files) delete(f);
+		file.delete();
+	}
+}
@@ -0,0 +1,267 @@
+package com.google.code.or.binlog.impl.codec;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.UpdateRowsEventV2;
+import com.google.code.or.binlog.impl.event.WriteRowsEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Metadata;
+import com.google.code.or.common.glossary.Pair;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.BlobColumn;
+import com.google.code.or.common.glossary.column.DateColumn;
+import com.google.code.or.common.glossary.column.Datetime2Column;
+import com.google.code.or.common.glossary.column.DatetimeColumn;
+import com.google.code.or.common.glossary.column.DecimalColumn;
+import com.google.code.or.common.glossary.column.DoubleColumn;
+import com.google.code.or.common.glossary.column.EnumColumn;
+import com.google.code.or.common.glossary.column.FloatColumn;
+import com.google.code.or.common.glossary.column.Int24Column;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.LongLongColumn;
+import com.google.code.or.common.glossary.column.NullColumn;
+import com.google.code.or.common.glossary.column.SetColumn;
+import com.google.code.or.common.glossary.column.ShortColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.glossary.column.Time2Column;
+import com.google.code.or.common.glossary.column.TimeColumn;
+import com.google.code.or.common.glossary.column.Timestamp2Column;
+import com.google.code.or.common.glossary.column.TimestampColumn;
+import com.google.code.or.common.glossary.column.TinyColumn;
+import com.google.code.or.common.glossary.column.YearColumn;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class BinlogEventCodecTest extends TestCase {
+	//
+	private final BinlogEventEncoder encoder = new BinlogEventEncoder();
+	private final BinlogEventDecoder decoder = new BinlogEventDecoder();
+
+	/**
+	 * 
+	 */
+	public void testEveryColumnType() {
+		final java.sql.Timestamp timestamp = new java.sql.Timestamp(1500000000123L);
+		timestamp.setNanos(123456789);
+		final List<Column> columns = new ArrayList<Column>();
+		columns.add(BitColumn.valueOf(10, new byte[] {0x03, 0x01}));
+		columns.add(BlobColumn.valueOf(new byte[] {0, 1, 2, (byte) 0xFF}));
+		columns.add(DateColumn.valueOf(new java.sql.Date(1500000000000L)));
+		columns.add(DatetimeColumn.valueOf(new java.util.Date(-1000L)));
+		columns.add(Datetime2Column.valueOf(new java.util.Date(1500000000999L)));
+		columns.add(DecimalColumn.valueOf(new BigDecimal("-12345678901234567890.0123"), 30, 4));
+		columns.add(DoubleColumn.valueOf(-1.5e300));
+		columns.add(EnumColumn.valueOf(3));
+		columns.add(FloatColumn.valueOf(Float.NaN));
+		columns.add(Int24Column.valueOf(Int24Column.MIN_VALUE));
+		columns.add(LongColumn.valueOf(LongColumn.MAX_VALUE));
+		columns.add(LongLongColumn.valueOf(LongLongColumn.MIN_VALUE));
+		columns.add(NullColumn.valueOf(MySQLConstants.TYPE_VARCHAR));
+		columns.add(SetColumn.valueOf(-1L));
+		columns.add(ShortColumn.valueOf(ShortColumn.MIN_VALUE));
+		columns.add(StringColumn.valueOf("héllo".getBytes()));
+		columns.add(TimeColumn.valueOf(new java.sql.Time(3723000L)));
+		columns.add(Time2Column.valueOf(new java.sql.Time(3723456L)));
+		columns.add(TimestampColumn.valueOf(new java.sql.Timestamp(0L)));
+		columns.add(Timestamp2Column.valueOf(timestamp));
+		columns.add(TinyColumn.valueOf(TinyColumn.MIN_VALUE));
+		columns.add(YearColumn.valueOf(2155));
+		columns.add(null);
+
+		//
+		final WriteRowsEvent event = new WriteRowsEvent(header(MySQLConstants.WRITE_ROWS_EVENT));
+		event.setTableId(70);
+		event.setDatabaseName("test");
+		event.setTableName("all_types");
+		event.setColumnCount(UnsignedLong.valueOf(columns.size()));
+		event.setUsedColumns(BitColumn.valueOf(columns.size(), new byte[] {-1, -1, 0x7F}));
+		event.setRows(Arrays.asList(new Row(columns), new Row(new ArrayList<Column>())));
+		final WriteRowsEvent r = (WriteRowsEvent) roundTrip(event);
+		assertEquals("test", r.getDatabaseName());
+		assertEquals("all_types", r.getTableName());
+		assertEquals(event.getUsedColumns().toString(), r.getUsedColumns().toString());
+		assertEquals(2, r.getRows().size());
+		assertColumns(columns, r.getRows().get(0).getColumns());
+		assertTrue(r.getRows().get(1).getColumns().isEmpty());
+	}
+
+	public void testTableDictionary() {
+		//
+		final TableMapEvent tme = new TableMapEvent(header(MySQLConstants.TABLE_MAP_EVENT));
+		tme.setTableId(42);
+		tme.setDatabaseName(StringColumn.valueOf("shop".getBytes()));
+		tme.setDatabaseNameLength(4);
+		tme.setTableName(StringColumn.valueOf("orders".getBytes()));
+		tme.setTableNameLength(6);
+		tme.setColumnCount(UnsignedLong.valueOf(2));
+		final byte[] types = {MySQLConstants.TYPE_LONG, (byte) MySQLConstants.TYPE_VARCHAR};
+		tme.setColumnTypes(types);
+		tme.setColumnMetadataCount(UnsignedLong.valueOf(2));
+		tme.setColumnMetadata(new Metadata(types, new int[] {0, 255}));
+		tme.setColumnNullabilities(BitColumn.valueOf(2, new byte[] {0x02}));
+		assertEquals(tme.toString(), roundTrip(tme).toString());
+
+		//
+		final UpdateRowsEventV2 event =
+				new UpdateRowsEventV2(header(MySQLConstants.UPDATE_ROWS_EVENT_V2));
+		event.setTableId(42);
+		event.setDatabaseName("shop");
+		event.setTableName("orders");
+		event.setExtraInfoLength(2);
+		event.setColumnCount(UnsignedLong.valueOf(2));
+		event.setUsedColumnsBefore(BitColumn.valueOf(2, new byte[] {0x03}));
+		event.setUsedColumnsAfter(BitColumn.valueOf(2, new byte[] {0x03}));
+		final Row before = new Row(Arrays.<Column>asList(LongColumn.valueOf(1), string("a")));
+		final Row after = new Row(Arrays.<Column>asList(LongColumn.valueOf(1), string("b")));
+		event.setRows(Arrays.asList(new Pair<Row>(before, after)));
+		final byte[] first = this.encoder.encode(event);
+		assertEquals(event.toString(), this.decoder.decode(first).toString());
+
+		// Known to both sides now, so the names are not repeated
+		assertEquals(first.length, this.encoder.encode(event).length);
+		event.setTableId(43);
+		assertTrue(this.encoder.encode(event).length > first.length);
+
+		// A decoder which missed the names
+		try {
+			new BinlogEventDecoder().decode(first);
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	public void testOtherEvents() {
+		//
+		final QueryEvent query = new QueryEvent(header(MySQLConstants.QUERY_EVENT));
+		query.setThreadId(7);
+		query.setElapsedTime(1);
+		query.setErrorCode(0);
+		query.setDatabaseName(StringColumn.valueOf("shop".getBytes()));
+		query.setDatabaseNameLength(4);
+		query.setSql(StringColumn.valueOf("BEGIN".getBytes()));
+		query.setStatusVariables(new ArrayList<com.google.code.or.binlog.StatusVariable>());
+		assertEquals(query.toString(), roundTrip(query).toString());
+
+		//
+		final XidEvent xid = new XidEvent(header(MySQLConstants.XID_EVENT));
+		xid.setXid(Long.MAX_VALUE);
+		assertEquals(xid.toString(), roundTrip(xid).toString());
+
+		final RotateEvent rotate = new RotateEvent(header(MySQLConstants.ROTATE_EVENT));
+		rotate.setBinlogPosition(4);
+		rotate.setBinlogFileName(StringColumn.valueOf("mysql-bin.000002".getBytes()));
+		assertEquals(rotate.toString(), roundTrip(rotate).toString());
+
+		final GtidEvent gtid = new GtidEvent(new byte[16], 23);
+		gtid.setHeader(header(MySQLConstants.GTID_LOG_EVENT));
+		gtid.setLastCommitted(5);
+		gtid.setSequenceNumber(6);
+		final GtidEvent r = (GtidEvent) roundTrip(gtid);
+		assertEquals(gtid.toString(), r.toString());
+		assertTrue(Arrays.equals(gtid.getSourceId(), r.getSourceId()));
+	}
+
+	public void testInvalidInput() {
+		final byte[] data = this.encoder.encode(roundTripXid());
+		data[0] = (byte) (BinlogEventCodec.VERSION + 1);
+		try {
+			this.decoder.decode(data);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			this.decoder.decode(data, 0, 3);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		// A row count beyond the remaining bytes, the rows come last
+		final WriteRowsEvent rows = new WriteRowsEvent(header(MySQLConstants.WRITE_ROWS_EVENT));
+		rows.setTableId(42);
+		rows.setDatabaseName("shop");
+		rows.setTableName("orders");
+		rows.setColumnCount(UnsignedLong.valueOf(1));
+		rows.setUsedColumns(BitColumn.valueOf(1, new byte[] {0x01}));
+		rows.setRows(new ArrayList<Row>());
+		final byte[] empty = this.encoder.encode(rows);
+		assertEquals(0, empty[empty.length - 1]);
+		final byte[] huge = Arrays.copyOf(empty, empty.length + 4);
+		System.arraycopy(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, 0,
+				huge, empty.length - 1, 5);
+		try {
+			new BinlogEventDecoder().decode(huge);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * 
+	 */
+	private BinlogEventV4 roundTrip(BinlogEventV4 event) {
+		return this.decoder.decode(this.encoder.encode(event));
+	}
+
+	private XidEvent roundTripXid() {
+		final XidEvent r = new XidEvent(header(MySQLConstants.XID_EVENT));
+		r.setXid(1);
+		return r;
+	}
+
+	private static BinlogEventV4HeaderImpl header(int type) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setTimestamp(1500000000000L);
+		r.setEventType(type);
+		r.setServerId(1);
+		r.setEventLength(100);
+		r.setNextPosition(4321);
+		r.setFlags(0);
+		r.setTimestampOfReceipt(1500000000500L);
+		return r;
+	}
+
+	private static StringColumn string(String value) {
+		return StringColumn.valueOf(value.getBytes());
+	}
+
+	private static void assertColumns(List<Column> expected, List<Column> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			final Column lhs = expected.get(i);
+			final Column rhs = actual.get(i);
+			if (lhs == null) {
+				assertNull(rhs);
+				continue;
+			}
+			assertEquals(lhs.getClass(), rhs.getClass());
+			if (lhs instanceof BitColumn) {
+				assertEquals(lhs.toString(), rhs.toString());
+			} else if (lhs.getValue() instanceof byte[]) {
+				assertTrue(Arrays.equals((byte[]) lhs.getValue(), (byte[]) rhs.getValue()));
+			} else {
+				assertEquals(lhs.getClass().getSimpleName(), lhs.getValue(), rhs.getValue());
+			}
+		}
+		final DecimalColumn d = (DecimalColumn) actual.get(5);
+		assertEquals(30, d.getPrecision());
+		assertEquals(4, d.getScale());
+		assertEquals(MySQLConstants.TYPE_VARCHAR, ((NullColumn) actual.get(12)).getType());
+	}
+}
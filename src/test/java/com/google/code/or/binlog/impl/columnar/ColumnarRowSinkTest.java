@@ -0,0 +1,203 @@
+package com.google.code.or.binlog.impl.columnar;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.NullColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class ColumnarRowSinkTest extends TestCase {
+	//
+	private File directory;
+	private ColumnarRowSink sink;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("columnar", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+		this.sink = new ColumnarRowSink(this.directory);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(this.directory);
+	}
+
+	public void testSegment() throws Exception {
+		this.sink.onEvents(rows(100, LongColumn.valueOf(1), StringColumn.valueOf("a".getBytes())));
+		this.sink.onEvents(rows(200, LongColumn.valueOf(-2), NullColumn.valueOf(0)));
+		this.sink.onEvents(rows(300, LongColumn.valueOf(3), StringColumn.valueOf("a".getBytes())));
+		assertEquals(0, segments().size());
+		this.sink.close();
+		assertEquals(1, segments().size());
+
+		//
+		final Segment segment = read(segments().get(0));
+		assertEquals("shop.users", segment.table);
+		assertEquals(3, segment.rows);
+		assertEquals(Arrays.asList("_op", "_timestamp", "_position", "@1", "@2"), segment.names);
+		assertEquals(Arrays.<Object>asList(0L, 0L, 0L), segment.values.get(0));
+		assertEquals(Arrays.<Object>asList(100L, 200L, 300L), segment.values.get(2));
+		assertEquals(Arrays.<Object>asList(1L, -2L, 3L), segment.values.get(3));
+		assertEquals(Arrays.<Object>asList("a", null, "a"), segment.values.get(4));
+	}
+
+	public void testMaxRows() throws Exception {
+		this.sink.setMaxRows(2);
+		for (int i = 1; i <= 5; i++) this.sink.onEvents(rows(i, LongColumn.valueOf(i)));
+		assertEquals(2, segments().size());
+		this.sink.flush();
+		final List<File> segments = segments();
+		assertEquals(3, segments.size());
+		assertEquals(Arrays.<Object>asList(1L, 2L), read(segments.get(0)).values.get(3));
+		assertEquals(Arrays.<Object>asList(5L), read(segments.get(2)).values.get(3));
+	}
+
+	public void testChangedKindFlushes() throws Exception {
+		this.sink.onEvents(rows(1, LongColumn.valueOf(1)));
+		this.sink.onEvents(rows(2, StringColumn.valueOf("b".getBytes())));
+		assertEquals(1, segments().size());
+		this.sink.flush();
+		assertEquals(Arrays.<Object>asList("b"), read(segments().get(1)).values.get(3));
+	}
+
+	public void testWriteFailureKeepsRows() throws Exception {
+		this.sink.setMaxRows(2);
+		this.sink.onEvents(rows(1, LongColumn.valueOf(1)));
+		delete(this.directory);
+		try {
+			this.sink.onEvents(rows(2, LongColumn.valueOf(2)));
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		// Written once the directory is back
+		this.directory.mkdirs();
+		this.sink.flush();
+		assertEquals(1, segments().size());
+		assertEquals(Arrays.<Object>asList(1L, 2L), read(segments().get(0)).values.get(3));
+	}
+
+	/**
+	 *
+	 */
+	private List<File> segments() {
+		final List<File> r = new ArrayList<File>();
+		for (File file : this.directory.listFiles()) if (file.getName().endsWith(".seg")) r.add(file);
+		Collections.sort(r);
+		return r;
+	}
+
+	private static WriteRowsEventV2 rows(long position, Column... columns) {
+		final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
+		header.setEventType(MySQLConstants.WRITE_ROWS_EVENT_V2);
+		header.setNextPosition(position);
+		final WriteRowsEventV2 r = new WriteRowsEventV2(header);
+		r.setTableId(42);
+		r.setDatabaseName("shop");
+		r.setTableName("users");
+		r.setColumnCount(UnsignedLong.valueOf(columns.length));
+		r.setUsedColumns(BitColumn.valueOf(columns.length, new byte[] {(byte) ((1 << columns.length) - 1)}));
+		r.setRows(Arrays.asList(new Row(Arrays.asList(columns))));
+		return r;
+	}
+
+	private static void delete(File file) {
+		final File[] files = file.listFiles();
+		if (files != null) for (File f : files) delete(f);
+		file.delete();
+	}
+
+	/**
+	 * Reads the LONG, TIMESTAMP and BYTES columns of a segment.
+	 */
+	private static Segment read(File file) throws IOException {
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try {
+			assertEquals(ColumnarRowSink.MAGIC, is.readInt());
+			assertEquals(ColumnarRowSink.VERSION, is.readInt());
+			final byte[] body = new byte[is.readInt()];
+			new DataInputStream(new InflaterInputStream(is)).readFully(body);
+			final InputStream in = new ByteArrayInputStream(body);
+			final Segment r = new Segment();
+			r.table = readString(in) + "." + readString(in);
+			r.rows = (int) readVarLong(in);
+			final int columns = (int) readVarLong(in);
+			for (int i = 0; i < columns; i++) {
+				r.names.add(readString(in));
+				final int kind = in.read();
+				final List<Object> values = new ArrayList<Object>();
+				r.values.add(values);
+				if (kind == ColumnVector.NULL) continue;
+				final byte[] nulls = new byte[(r.rows + 7) / 8];
+				in.read(nulls);
+				final List<byte[]> dictionary = new ArrayList<byte[]>();
+				if (kind == ColumnVector.BYTES) {
+					for (long n = readVarLong(in); n > 0; n--) dictionary.add(readBytes(in));
+				}
+				long previous = 0;
+				for (int j = 0; j < r.rows; j++) {
+					if ((nulls[j >> 3] & (1 << (j & 7))) != 0) {
+						values.add(null);
+					} else if (kind == ColumnVector.BYTES) {
+						values.add(new String(dictionary.get((int) readVarLong(in)), "UTF-8"));
+					} else {
+						final long v = readVarLong(in);
+						previous += (v >>> 1) ^ -(v & 1);
+						values.add(previous);
+					}
+				}
+			}
+			return r;
+		} finally {
+			is.close();
+		}
+	}
+
+	private static long readVarLong(InputStream in) throws IOException {
+		long r = 0;
+		for (int shift = 0;; shift += 7) {
+			final int b = in.read();
+			r |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return r;
+		}
+	}
+
+	private static byte[] readBytes(InputStream in) throws IOException {
+		final byte[] r = new byte[(int) readVarLong(in)];
+		in.read(r);
+		return r;
+	}
+
+	private static String readString(InputStream in) throws IOException {
+		return new String(readBytes(in), "UTF-8");
+	}
+
+	private static final class Segment {
+		private String table;
+		private int rows;
+		private final List<String> names = new ArrayList<String>();
+		private final List<List<Object>> values = new ArrayList<List<Object>>();
+	}
+}
@@ -0,0 +1,203 @@
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventBatchListener;
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class AsyncEventDispatcherTest extends TestCase {
+	//
+	private final AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(4);
+	private final List<Long> delivered = new CopyOnWriteArrayList<Long>();
+	private final List<Long> dispatched = new CopyOnWriteArrayList<Long>();
+	private final AsyncEventDispatcher.Callback callback = new AsyncEventDispatcher.Callback() {
+		public void onDispatched(BinlogEventV4 event, String binlogFileName) {
+			dispatched.add(((XidEvent) event).getXid());
+		}
+	};
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dispatcher.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.dispatcher.stop();
+	}
+
+	public void testDeliveredInOrder() throws Exception {
+		final BinlogEventListener listener = new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				delivered.add(((XidEvent) event).getXid());
+			}
+		};
+		for (int i = 1; i <= 100; i++) this.dispatcher.dispatch(listener, xid(i), null, this.callback);
+		this.dispatcher.drain();
+		assertEquals(100, this.delivered.size());
+		for (int i = 0; i < 100; i++) assertEquals(i + 1, this.delivered.get(i).longValue());
+		assertEquals(this.delivered, this.dispatched);
+		assertEquals(0, this.dispatcher.size());
+	}
+
+	public void testBatches() throws Exception {
+		final List<Integer> sizes = new CopyOnWriteArrayList<Integer>();
+		final BinlogEventBatchListener listener = new BinlogEventBatchListener() {
+			public void onEvents(List<BinlogEventV4> events) {
+				sizes.add(events.size());
+				for (BinlogEventV4 event : events) delivered.add(((XidEvent) event).getXid());
+			}
+
+			public void onEvents(BinlogEventV4 event) {
+				onEvents(Arrays.asList(event));
+			}
+		};
+		for (int i = 1; i <= 20; i++) this.dispatcher.dispatch(listener, xid(i), null, this.callback);
+		this.dispatcher.drain();
+		assertEquals(20, this.delivered.size());
+		for (int size : sizes) assertTrue(size <= this.dispatcher.getCapacity());
+	}
+
+	public void testListenerFailureLogged() throws Exception {
+		final BinlogEventListener listener = new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (((XidEvent) event).getXid() == 3) throw new IllegalStateException("apply failed");
+				delivered.add(((XidEvent) event).getXid());
+			}
+		};
+		for (int i = 1; i <= 4; i++) this.dispatcher.dispatch(listener, xid(i), null, this.callback);
+		this.dispatcher.drain();
+		assertNull(this.dispatcher.getFailure());
+		assertEquals(Arrays.asList(1L, 2L, 4L), this.delivered);
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), this.dispatched);
+	}
+
+	public void testListenerFailureStops() throws Exception {
+		final BinlogEventListener listener = new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (((XidEvent) event).getXid() == 3) throw new IllegalStateException("apply failed");
+				delivered.add(((XidEvent) event).getXid());
+			}
+		};
+		this.dispatcher.setStopOnListenerFailure(true);
+		for (int i = 1; i <= 3; i++) this.dispatcher.dispatch(listener, xid(i), null, this.callback);
+		try {
+			this.dispatcher.drain();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("apply failed", e.getCause().getMessage());
+		}
+		try {
+			this.dispatcher.dispatch(listener, xid(4), null, this.callback);
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(Arrays.asList(1L, 2L), this.delivered);
+		assertEquals(Arrays.asList(1L, 2L), this.dispatched); // Not past the failed event
+
+		// Until restarted
+		this.dispatcher.stop();
+		this.dispatcher.start();
+		this.dispatcher.dispatch(listener, xid(5), null, this.callback);
+		this.dispatcher.drain();
+		assertEquals(Arrays.asList(1L, 2L, 5L), this.dispatched);
+	}
+
+	public void testFullRingBlocks() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final BinlogEventListener listener = new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				delivered.add(((XidEvent) event).getXid());
+			}
+		};
+		final AtomicInteger count = new AtomicInteger();
+		final Thread parser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 1; i <= 10; i++) {
+						dispatcher.dispatch(listener, xid(i), null, callback);
+						count.incrementAndGet();
+					}
+				} catch (InterruptedException e) {
+					// NOP
+				}
+			}
+		};
+		parser.start();
+		Thread.sleep(200);
+		assertEquals(this.dispatcher.getCapacity(), count.get()); // Freed once the batch is delivered
+		release.countDown();
+		parser.join(10000);
+		this.dispatcher.drain();
+		assertEquals(10, this.delivered.size());
+	}
+
+	public void testWaitStrategies() throws Exception {
+		final WaitStrategy[] strategies = {new WaitStrategy.Blocking(), new WaitStrategy.Sleeping(),
+				new WaitStrategy.Yielding()}; // Busy spinning needs a core per thread
+		final BinlogEventListener listener = new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				delivered.add(((XidEvent) event).getXid());
+			}
+		};
+		for (WaitStrategy strategy : strategies) {
+			final AsyncEventDispatcher d = new AsyncEventDispatcher(16);
+			d.setWaitStrategy(strategy);
+			d.start();
+			try {
+				this.delivered.clear();
+				for (int i = 1; i <= 1000; i++) d.dispatch(listener, xid(i), null, null);
+				d.drain();
+			} finally {
+				d.stop();
+			}
+			assertEquals(1000, this.delivered.size());
+			for (int i = 0; i < 1000; i++) assertEquals(i + 1, this.delivered.get(i).longValue());
+		}
+	}
+
+	public void testDrainFromListener() throws Exception {
+		final BinlogEventListener listener = new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				try {
+					dispatcher.drain(); // Returns at once on the dispatcher thread
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				delivered.add(((XidEvent) event).getXid());
+			}
+		};
+		for (int i = 1; i <= 3; i++) this.dispatcher.dispatch(listener, xid(i), null, this.callback);
+		this.dispatcher.drain();
+		assertEquals(Arrays.asList(1L, 2L, 3L), this.delivered);
+	}
+
+	/**
+	 *
+	 */
+	private static XidEvent xid(long xid) {
+		final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
+		header.setEventType(MySQLConstants.XID_EVENT);
+		final XidEvent r = new XidEvent(header);
+		r.setXid(xid);
+		return r;
+	}
+}
@@ -0,0 +1,183 @@
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.FileBasedBinlogParser;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.binlog.impl.relay.RelayLogWriter;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class FanOutHubTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private File directory;
+	private RelayLogWriter writer;
+	private FanOutHub hub;
+	private byte[] binlog;
+	private final List<BinlogEventV4> events = new ArrayList<BinlogEventV4>();
+	private final List<Integer> offsets = new ArrayList<Integer>();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("relay", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+
+		// The decoded events and their raw bytes, as a master would send them
+		final BinlogBuilder builder = new BinlogBuilder();
+		for (int i = 1; i <= 20; i++) builder.transaction(1000 + i, i, "t1", i);
+		final File master = new File(this.directory, "master");
+		master.mkdirs();
+		builder.write(new File(master, NAME));
+		this.binlog = builder.toByteArray();
+		final FileBasedBinlogParser parser = BinlogParserFactory.createFileBinlogParser(4, 0, NAME,
+				master.getPath());
+		parser.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				events.add(event);
+			}
+		});
+		parser.start();
+		while (parser.isRunning()) Thread.sleep(10);
+		for (int offset = 4; offset < this.binlog.length; offset += length(offset)) {
+			this.offsets.add(offset);
+		}
+		assertEquals(this.offsets.size(), this.events.size());
+
+		//
+		this.writer = new RelayLogWriter(this.directory);
+		this.writer.setSyncInterval(0);
+		this.writer.open();
+		this.writer.rotate(NAME);
+		this.hub = new FanOutHub(8);
+		this.hub.setRelayLogWriter(this.writer);
+		this.hub.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.hub.stop();
+		this.writer.close();
+		for (File file : new File(this.directory, "master").listFiles()) file.delete();
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testOverrunFallsBackToRelayLogAndRejoins() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Long> positions = new CopyOnWriteArrayList<Long>();
+		final List<String> threads = new CopyOnWriteArrayList<String>();
+		final FanOutHub.Consumer consumer = this.hub.addConsumer("slow", new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event.getHeader().getNextPosition() <= 0) return; // Artificial
+				positions.add(event.getHeader().getPosition());
+				threads.add(Thread.currentThread().getName());
+				if (event instanceof XidEvent) hold(release);
+			}
+		}, null, FanOutHub.OverrunPolicy.RELAY_LOG);
+
+		// The first transaction holds the consumer back until the ring is overrun
+		this.hub.onEvents(fakeRotate());
+		for (int i = 0; i < 60; i++) publish(i);
+		release.countDown();
+		awaitPositions(positions, 60);
+		await(consumer, false);
+		assertFalse(consumer.isDetached());
+		assertTrue(threads.get(6).startsWith("binlog-fan-out-relay-slow")); // After the first XID
+		assertFalse(threads.get(59).startsWith("binlog-fan-out-relay-slow")); // Caught up
+
+		// Back on the ring
+		for (int i = 60; i < this.events.size(); i++) {
+			publish(i);
+			awaitPositions(positions, i + 1);
+		}
+		await(consumer, false);
+		assertFalse(threads.get(threads.size() - 1).startsWith("binlog-fan-out-relay-slow"));
+		final List<Long> expected = new ArrayList<Long>();
+		for (BinlogEventV4 event : this.events) expected.add(event.getHeader().getPosition());
+		assertEquals(expected, positions);
+		assertEquals(0, consumer.getLag());
+		assertEquals(this.binlog.length, consumer.getPosition().getPosition());
+	}
+
+	public void testOverrunDetachesWithoutRelayLog() throws Exception {
+		this.hub.setRelayLogWriter(null);
+		final CountDownLatch release = new CountDownLatch(1);
+		final FanOutHub.Consumer consumer = this.hub.addConsumer("slow", new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) hold(release);
+			}
+		}, null, FanOutHub.OverrunPolicy.RELAY_LOG);
+		this.hub.onEvents(fakeRotate());
+		for (int i = 0; i < 30; i++) publish(i);
+		release.countDown();
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (!consumer.isDetached() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertTrue(consumer.isDetached());
+		assertTrue(this.hub.getConsumers().isEmpty());
+	}
+
+	/**
+	 * The relay log is written before the hub gets the decoded event.
+	 */
+	private void publish(int index) throws Exception {
+		if (this.hub.getRelayLogWriter() != null) {
+			final int offset = this.offsets.get(index);
+			this.writer.append(this.binlog, offset, length(offset));
+			this.writer.flush();
+		}
+		this.hub.onEvents(this.events.get(index));
+	}
+
+	private static void hold(CountDownLatch release) {
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int length(int offset) {
+		return (this.binlog[offset + 9] & 0xFF) | (this.binlog[offset + 10] & 0xFF) << 8
+				| (this.binlog[offset + 11] & 0xFF) << 16 | (this.binlog[offset + 12] & 0xFF) << 24;
+	}
+
+	private static RotateEvent fakeRotate() {
+		final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
+		header.setEventType(MySQLConstants.ROTATE_EVENT);
+		final RotateEvent r = new RotateEvent(header);
+		r.setBinlogFileName(StringColumn.valueOf(NAME.getBytes()));
+		r.setBinlogPosition(MySQLConstants.BINLOG_MAGIC.length);
+		return r;
+	}
+
+	private static void awaitPositions(List<Long> positions, int count) throws Exception {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (positions.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		assertEquals(count, positions.size());
+	}
+
+	private static void await(FanOutHub.Consumer consumer, boolean tailing) throws Exception {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (consumer.isTailingRelayLog() != tailing && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(tailing, consumer.isTailingRelayLog());
+	}
+}
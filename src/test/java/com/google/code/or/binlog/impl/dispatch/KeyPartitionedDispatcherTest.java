@@ -0,0 +1,171 @@
+package com.google.code.or.binlog.impl.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class KeyPartitionedDispatcherTest extends TestCase {
+	//
+	private final KeyPartitionedDispatcher dispatcher = new KeyPartitionedDispatcher();
+	private final List<RowChange> changes = new CopyOnWriteArrayList<RowChange>();
+	private final List<BinlogEventV4> events = new CopyOnWriteArrayList<BinlogEventV4>();
+	private volatile int failing = -1; // The id the row change listener fails on
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dispatcher.getRowKeyHasher().setKeyColumns("shop.users", 0);
+		this.dispatcher.setRowChangeListener(new RowChangeListener() {
+			public void onRowChange(RowChange change) throws Exception {
+				if (id(change) == failing) throw new IllegalStateException("apply failed");
+				changes.add(change);
+			}
+		});
+		this.dispatcher.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				events.add(event);
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.dispatcher.stop();
+	}
+
+	public void testKeyOrderAndBarrier() throws Exception {
+		this.dispatcher.start();
+		this.dispatcher.onEvents(tme());
+		for (int i = 0; i < 100; i++) this.dispatcher.onEvents(rows(i % 8, i));
+		this.dispatcher.onEvents(xid()); // Waits for all lanes
+		assertEquals(100, this.changes.size());
+		assertTrue(this.events.get(this.events.size() - 1) instanceof XidEvent);
+
+		// In binlog order per key, on more than one lane
+		final Set<Integer> lanes = new HashSet<Integer>();
+		final List<List<Integer>> values = new ArrayList<List<Integer>>();
+		for (int i = 0; i < 8; i++) values.add(new ArrayList<Integer>());
+		for (RowChange change : this.changes) {
+			lanes.add(change.getLane());
+			values.get(id(change)).add(value(change));
+		}
+		for (int i = 0; i < 8; i++) {
+			for (int j = 1; j < values.get(i).size(); j++) {
+				assertTrue(values.get(i).get(j - 1) < values.get(i).get(j));
+			}
+		}
+		assertTrue(lanes.size() > 1);
+	}
+
+	public void testLaneFailureStopsBarrier() throws Exception {
+		this.dispatcher.start();
+		this.failing = 3;
+		this.dispatcher.onEvents(tme());
+		for (int i = 0; i < 8; i++) this.dispatcher.onEvents(rows(i, i));
+		try {
+			this.dispatcher.onEvents(xid());
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("apply failed", e.getCause().getMessage());
+		}
+		assertFalse(this.events.get(this.events.size() - 1) instanceof XidEvent);
+	}
+
+	public void testKeysClearedOnRotate() throws Exception {
+		this.dispatcher.start();
+		this.dispatcher.onEvents(tme());
+		this.dispatcher.onEvents(rotate());
+
+		// The table id is unknown in the next file, rows go to the lane of the table
+		for (int i = 0; i < 8; i++) this.dispatcher.onEvents(rows(i, i));
+		this.dispatcher.drain();
+		final Set<Integer> lanes = new HashSet<Integer>();
+		for (RowChange change : this.changes) lanes.add(change.getLane());
+		assertEquals(1, lanes.size());
+	}
+
+	public void testNotStarted() throws Exception {
+		try {
+			this.dispatcher.onEvents(rows(1, 1));
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			this.dispatcher.drain();
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static int id(RowChange change) {
+		return (Integer) change.getAfter().getColumns().get(0).getValue();
+	}
+
+	private static int value(RowChange change) {
+		return (Integer) change.getAfter().getColumns().get(1).getValue();
+	}
+
+	private static TableMapEvent tme() {
+		final TableMapEvent r = new TableMapEvent(header(MySQLConstants.TABLE_MAP_EVENT));
+		r.setTableId(42);
+		r.setDatabaseName(StringColumn.valueOf("shop".getBytes()));
+		r.setTableName(StringColumn.valueOf("users".getBytes()));
+		r.setColumnCount(UnsignedLong.valueOf(2));
+		r.setColumnTypes(new byte[] {MySQLConstants.TYPE_LONG, MySQLConstants.TYPE_LONG});
+		return r;
+	}
+
+	private static WriteRowsEventV2 rows(int id, int value) {
+		final WriteRowsEventV2 r = new WriteRowsEventV2(header(MySQLConstants.WRITE_ROWS_EVENT_V2));
+		r.setTableId(42);
+		r.setDatabaseName("shop");
+		r.setTableName("users");
+		r.setColumnCount(UnsignedLong.valueOf(2));
+		r.setUsedColumns(BitColumn.valueOf(2, new byte[] {0x03}));
+		final List<Column> columns = Arrays.<Column>asList(LongColumn.valueOf(id),
+				LongColumn.valueOf(value));
+		r.setRows(Arrays.asList(new Row(columns)));
+		return r;
+	}
+
+	private static RotateEvent rotate() {
+		final RotateEvent r = new RotateEvent(header(MySQLConstants.ROTATE_EVENT));
+		r.setBinlogFileName(StringColumn.valueOf("mysql-bin.000002".getBytes()));
+		r.setBinlogPosition(4);
+		return r;
+	}
+
+	private static XidEvent xid() {
+		return new XidEvent(header(MySQLConstants.XID_EVENT));
+	}
+
+	private static BinlogEventV4HeaderImpl header(int type) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setEventType(type);
+		return r;
+	}
+}
@@ -0,0 +1,154 @@
+package com.google.code.or.binlog.impl.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.FileBasedBinlogParser;
+import com.google.code.or.binlog.impl.parser.TableMapEventParser;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class BinlogIndexTest extends TestCase {
+	//
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.file = File.createTempFile("mysql-bin", ".000001");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		BinlogIndex.getIndexFile(this.file).delete();
+		this.file.delete();
+	}
+
+	public void testTransactionBoundaries() {
+		final List<Long> boundaries = new ArrayList<Long>();
+		final TransactionBoundaryTracker tracker = new TransactionBoundaryTracker(4,
+				new TransactionBoundaryTracker.Visitor() {
+					public boolean onBoundary(long position, long timestamp, byte[] sourceId,
+							long transactionId) {
+						boundaries.add(position);
+						return true;
+					}
+				});
+		tracker.onEvent(MySQLConstants.FORMAT_DESCRIPTION_EVENT, 4, 100, 0, null, null, 0);
+		tracker.onEvent(MySQLConstants.GTID_LOG_EVENT, 100, 150, 0, null, new byte[16], 1);
+		tracker.onEvent(MySQLConstants.QUERY_EVENT, 150, 200, 0, "BEGIN", null, 0);
+		tracker.onEvent(MySQLConstants.TABLE_MAP_EVENT, 200, 250, 0, null, null, 0);
+		tracker.onEvent(MySQLConstants.QUERY_EVENT, 250, 300, 0, "a long statement", null, 0);
+		tracker.onEvent(MySQLConstants.XID_EVENT, 300, 330, 0, null, null, 0);
+		tracker.onEvent(MySQLConstants.QUERY_EVENT, 330, 400, 0, "a long DDL statement", null, 0);
+		tracker.onEvent(MySQLConstants.QUERY_EVENT, 400, 450, 0, "BEGIN", null, 0);
+		tracker.onEvent(MySQLConstants.QUERY_EVENT, 450, 500, 0, "COMMIT", null, 0);
+		tracker.onEvent(MySQLConstants.ROTATE_EVENT, 500, 550, 0, null, null, 0);
+		assertEquals(Arrays.asList(100L, 330L, 400L), boundaries);
+	}
+
+	public void testSeek() throws Exception {
+		final BinlogBuilder binlog = new BinlogBuilder();
+		final long[] positions = new long[10];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = binlog.transaction(1000 + i * 10, i + 1, "t1", 0);
+		}
+		binlog.write(this.file);
+
+		//
+		for (int interval : new int[] {1, 300, BinlogIndex.DEFAULT_INTERVAL}) {
+			BinlogIndex.getIndexFile(this.file).delete();
+			assertEquals(positions[0], BinlogIndex.seekTimestamp(this.file, 0, interval));
+			assertEquals(positions[3], BinlogIndex.seekTimestamp(this.file, 1030000, interval));
+			assertEquals(positions[4], BinlogIndex.seekTimestamp(this.file, 1031000, interval));
+			final long end = BinlogIndex.seekTimestamp(this.file, 2000000, interval);
+			assertEquals(this.file.length(), end);
+			assertEquals(positions[0], BinlogIndex.seekGtid(this.file, BinlogBuilder.UUID, 1, interval));
+			assertEquals(positions[7], BinlogIndex.seekGtid(this.file, BinlogBuilder.UUID, 8, interval));
+			assertEquals(-1, BinlogIndex.seekGtid(this.file, BinlogBuilder.UUID, 11, interval));
+		}
+	}
+
+	public void testTables() throws Exception {
+		final BinlogBuilder binlog = new BinlogBuilder();
+		binlog.transaction(1000, 1, "t1", 0);
+		binlog.transaction(1001, 2, "t2", 0);
+		binlog.transaction(1002, 3, "t1", 0);
+		binlog.write(this.file);
+		BinlogIndex index = BinlogIndex.loadOrBuild(this.file, 1);
+		assertEquals(2, index.getTableStats("test", "t1").getEvents());
+		assertEquals(1, index.getTableStats("test", "t2").getEvents());
+		assertTrue(index.containsAny(Collections.singleton("test.t2")));
+		assertFalse(index.containsAny(Collections.singleton("test.t3")));
+
+		// Appended events are indexed on the next load, the others are not counted twice
+		binlog.transaction(1003, 4, "t3", 0);
+		binlog.write(this.file);
+		index = BinlogIndex.loadOrBuild(this.file, 1);
+		assertEquals(this.file.length(), index.getLength());
+		assertEquals(2, index.getTableStats("test", "t1").getEvents());
+		assertEquals(1, index.getTableStats("test", "t3").getEvents());
+		assertEquals(4, index.size());
+	}
+
+	public void testTableStatsSavedAndWhileParsing() throws Exception {
+		final BinlogBuilder binlog = new BinlogBuilder();
+		binlog.transaction(1000, 1, "t1", 0);
+		binlog.transaction(1001, 2, "t2", 0);
+		binlog.transaction(1002, 3, "t1", 0);
+		binlog.write(this.file);
+		final BinlogIndex scanned = BinlogIndex.loadOrBuild(this.file, 1);
+		final long length = 19 + 17; // Of a rows event with one INT column
+		assertEquals(2 * length, scanned.getTableStats("test", "t1").getBytes());
+		assertEquals(length, scanned.getTableStats("test", "t2").getBytes());
+
+		// Saved along with the entries
+		final BinlogIndex loaded = BinlogIndex.load(BinlogIndex.getIndexFile(this.file));
+		assertEquals(scanned.getTableNames(), loaded.getTableNames());
+		assertEquals(2, loaded.getTableStats("test", "t1").getEvents());
+		assertEquals(2 * length, loaded.getTableStats("test", "t1").getBytes());
+
+		// Counted the same from parsed events
+		final BinlogIndexBuilder builder = new BinlogIndexBuilder(new BinlogIndex(1), null);
+		final FileBasedBinlogParser parser = BinlogParserFactory.createFileBinlogParser(4, 0,
+				this.file.getName(), this.file.getParent());
+		parser.setEventListener(builder);
+		final TableMapEventParser tme =
+				(TableMapEventParser) parser.getEventParser(MySQLConstants.TABLE_MAP_EVENT);
+		tme.setReusePreviousEvent(false); // The builder maps both tables to the same table id
+		parser.start();
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (parser.isRunning() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		parser.stop(1, TimeUnit.SECONDS);
+		final BinlogIndex parsed = builder.getIndex();
+		assertEquals(Arrays.asList("test.t1", "test.t2"),
+				new ArrayList<String>(new TreeSet<String>(parsed.getTableNames())));
+		assertEquals(2, parsed.getTableStats("test", "t1").getEvents());
+		assertEquals(2 * length, parsed.getTableStats("test", "t1").getBytes());
+		assertEquals(1, parsed.getTableStats("test", "t2").getEvents());
+		assertEquals(scanned.size(), parsed.size());
+	}
+
+	public void testStaleIndex() throws Exception {
+		BinlogBuilder binlog = new BinlogBuilder();
+		binlog.transaction(1000, 1, "t1", 0);
+		binlog.write(this.file);
+		assertNotNull(BinlogIndex.loadOrBuild(this.file, 1).getTableStats("test", "t1"));
+
+		// Rewritten with the same length, e.g. after RESET MASTER
+		binlog = new BinlogBuilder();
+		binlog.transaction(2000, 1, "t2", 0);
+		binlog.write(this.file);
+		final BinlogIndex index = BinlogIndex.loadOrBuild(this.file, 1);
+		assertNull(index.getTableStats("test", "t1"));
+		assertNotNull(index.getTableStats("test", "t2"));
+		assertEquals(2000000, index.getLast().getTimestamp());
+	}
+}
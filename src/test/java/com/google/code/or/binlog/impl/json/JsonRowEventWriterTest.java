@@ -0,0 +1,106 @@
+package com.google.code.or.binlog.impl.json;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Metadata;
+import com.google.code.or.common.glossary.OptionalMetadata;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.BlobColumn;
+import com.google.code.or.common.glossary.column.LongLongColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.glossary.column.Time2Column;
+import com.google.code.or.common.glossary.column.TimeColumn;
+import com.google.code.or.common.glossary.column.TinyColumn;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.common.util.MySQLUtils;
+
+public class JsonRowEventWriterTest extends TestCase {
+	//
+	private static final byte[] TYPES = {(byte) MySQLConstants.TYPE_LONGLONG,
+			(byte) MySQLConstants.TYPE_TINY, (byte) MySQLConstants.TYPE_VARCHAR,
+			(byte) MySQLConstants.TYPE_BLOB, (byte) MySQLConstants.TYPE_BLOB};
+
+	/**
+	 * 
+	 */
+	public void testOptionalMetadata() throws Exception {
+		final byte[] optional = {OptionalMetadata.SIGNEDNESS, 1, (byte) 0x80, // Only the first
+				OptionalMetadata.COLUMN_CHARSET, 3, 8, 45, MySQLConstants.COLLATION_BINARY};
+		assertEquals("{\"database\":\"shop\",\"table\":\"t\",\"type\":\"insert\",\"timestamp\":0,"
+				+ "\"position\":0,\"data\":{\"@1\":18446744073709551615,\"@2\":-1,"
+				+ "\"@3\":\"\u00e9\",\"@4\":\"text\",\"@5\":\"AQI=\"}}\n",
+				new String(write(OptionalMetadata.valueOf(optional)), "UTF-8"));
+	}
+
+	public void testWithoutOptionalMetadata() throws Exception {
+		assertEquals("{\"database\":\"shop\",\"table\":\"t\",\"type\":\"insert\",\"timestamp\":0,"
+				+ "\"position\":0,\"data\":{\"@1\":-1,\"@2\":-1,\"@3\":\"\u00e9\","
+				+ "\"@4\":\"dGV4dA==\",\"@5\":\"AQI=\"}}\n", new String(write(null), "ISO-8859-1")); // Copied as is
+	}
+
+	public void testTime() throws Exception {
+		final byte[] types = {(byte) MySQLConstants.TYPE_TIME, (byte) MySQLConstants.TYPE_TIME,
+				(byte) MySQLConstants.TYPE_TIME2, (byte) MySQLConstants.TYPE_TIME2,
+				(byte) MySQLConstants.TYPE_TIME2};
+		final int[] metas = {0, 0, 2, 3, 0};
+		assertEquals("{\"database\":\"shop\",\"table\":\"t\",\"type\":\"insert\",\"timestamp\":0,"
+				+ "\"position\":0,\"data\":{\"@1\":\"-838:59:59\",\"@2\":\"25:30:00\","
+				+ "\"@3\":\"-00:00:01.100\",\"@4\":\"12:00:00.500\",\"@5\":\"30:00:00\"}}\n",
+				new String(write(types, metas, null,
+						TimeColumn.valueOf(MySQLUtils.toTime(-8385959 & 0xFFFFFF)),
+						TimeColumn.valueOf(MySQLUtils.toTime(253000)),
+						Time2Column.valueOf(MySQLUtils.toTime2(0x7FFFFE, 0xF6, 2)),
+						Time2Column.valueOf(MySQLUtils.toTime2(0x800000 + (12 << 12), 5000, 3)),
+						Time2Column.valueOf(MySQLUtils.toTime2(0x800000 + (30 << 12), 0, 0))), "UTF-8"));
+	}
+
+	/**
+	 * 
+	 */
+	private static byte[] write(OptionalMetadata optional) throws Exception {
+		return write(TYPES, new int[] {0, 0, 255, 2, 2}, optional, LongLongColumn.valueOf(-1),
+				TinyColumn.valueOf(-1), StringColumn.valueOf(new byte[] {(byte) 0xE9}),
+				BlobColumn.valueOf("text".getBytes("UTF-8")), BlobColumn.valueOf(new byte[] {1, 2}));
+	}
+
+	private static byte[] write(byte[] types, int[] metas, OptionalMetadata optional,
+			Column... columns) throws Exception {
+		final TableMapEvent tme = new TableMapEvent(header(MySQLConstants.TABLE_MAP_EVENT));
+		tme.setTableId(1);
+		tme.setDatabaseName(StringColumn.valueOf("shop".getBytes()));
+		tme.setTableName(StringColumn.valueOf("t".getBytes()));
+		tme.setColumnTypes(types);
+		tme.setColumnMetadata(new Metadata(types, metas));
+		tme.setOptionalMetadata(optional);
+		final WriteRowsEventV2 event =
+				new WriteRowsEventV2(header(MySQLConstants.WRITE_ROWS_EVENT_V2));
+		event.setTableId(1);
+		event.setDatabaseName("shop");
+		event.setTableName("t");
+		event.setColumnCount(UnsignedLong.valueOf(types.length));
+		event.setUsedColumns(BitColumn.valueOf(types.length, new byte[] {0x1F}));
+		event.setRows(Arrays.asList(new Row(Arrays.asList(columns))));
+
+		//
+		final JsonRowEventWriter writer = new JsonRowEventWriter();
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.write(tme, os);
+		writer.write(event, os);
+		return os.toByteArray();
+	}
+
+	private static BinlogEventV4HeaderImpl header(int type) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setEventType(type);
+		return r;
+	}
+}
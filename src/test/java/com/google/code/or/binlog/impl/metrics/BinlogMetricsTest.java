@@ -0,0 +1,48 @@
+package com.google.code.or.binlog.impl.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParserFactory;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.PacketTransport;
+import com.google.code.or.binlog.impl.ReplicationBasedBinlogParser;
+import com.google.code.or.binlog.impl.event.XidEvent;
+
+public class BinlogMetricsTest extends TestCase {
+
+	public void testReadBlockedTime() throws Exception {
+		final BinlogBuilder binlog = new BinlogBuilder();
+		binlog.transaction(1000, 1, "t1", 1);
+		binlog.transaction(1001, 2, "t1", 2);
+
+		// The master stalls in the middle of the first rows event
+		final int pauseAt = PacketTransport.offsetOf(binlog, -1, 4) + 10;
+		final PacketTransport transport = new PacketTransport(binlog, -1, pauseAt, 300);
+		final BinlogMetrics metrics = new BinlogMetrics("test");
+		final List<Long> xids = new CopyOnWriteArrayList<Long>();
+		final ReplicationBasedBinlogParser parser =
+				BinlogParserFactory.createReplicationBinlogParser(transport, "mysql-bin.000001");
+		parser.setMetrics(metrics);
+		parser.setEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+			}
+		});
+		parser.start();
+		try {
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (xids.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		} finally {
+			parser.stop(1, TimeUnit.SECONDS);
+		}
+		assertEquals(2, xids.size());
+		assertTrue(metrics.getReadBlockedTime() >= TimeUnit.MILLISECONDS.toNanos(300));
+		assertTrue(metrics.getDecodeTimeMax() < TimeUnit.MILLISECONDS.toNanos(100));
+	}
+}
@@ -0,0 +1,90 @@
+package com.google.code.or.binlog.impl.metrics;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.HeartbeatEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class LagTrackerTest extends TestCase {
+
+	public void testCompletedInOrder() {
+		final LagTracker tracker = new LagTracker("test", 4);
+		final long now = System.currentTimeMillis();
+		final BinlogEventV4 tme = new TableMapEvent(header(MySQLConstants.TABLE_MAP_EVENT, now));
+		final BinlogEventV4 xid = new XidEvent(header(MySQLConstants.XID_EVENT, now - 2000));
+		tracker.onDecoded(tme);
+		tracker.onDecoded(xid);
+		tracker.onDecoded(tme);
+		tracker.onDecoded(xid); // The same instance again
+		assertTrue(tracker.getCurrentLag() >= 2000);
+
+		//
+		tracker.onCompleted(tme);
+		tracker.onCompleted(xid);
+		assertEquals(1, tracker.getTransactionCount());
+		tracker.onCompleted(tme);
+		assertEquals(1, tracker.getTransactionCount());
+		tracker.onCompleted(xid);
+		assertEquals(2, tracker.getTransactionCount());
+		assertTrue(tracker.getLastCompleteLag() >= 2000);
+	}
+
+	public void testEvictsOldestWhenFull() {
+		final LagTracker tracker = new LagTracker("test", 3); // Rounded up to 4
+		final long now = System.currentTimeMillis();
+		final XidEvent[] xids = new XidEvent[6];
+		for (int i = 0; i < 6; i++) {
+			xids[i] = new XidEvent(header(MySQLConstants.XID_EVENT, now - 1000 * (10 - i)));
+			tracker.onDecoded(xids[i]);
+		}
+		assertEquals(2, tracker.getEvictedCount());
+		assertTrue(tracker.getCurrentLag() < 9000); // The 2 oldest are gone
+
+		//
+		for (int i = 0; i < 6; i++) tracker.onCompleted(xids[i]);
+		assertEquals(4, tracker.getTransactionCount());
+		assertEquals(2, tracker.getEvictedCount());
+		assertTrue(tracker.getLastCompleteLag() >= 5000);
+		assertTrue(tracker.getLastCompleteLag() < 6000);
+	}
+
+	public void testUncompletedTransaction() {
+		final LagTracker tracker = new LagTracker("test", 16);
+		final long now = System.currentTimeMillis();
+		final XidEvent failed = new XidEvent(header(MySQLConstants.XID_EVENT, now - 1500));
+		tracker.onDecoded(failed); // The event listener failed on it
+		for (int i = 0; i < 5; i++) {
+			final XidEvent xid = new XidEvent(header(MySQLConstants.XID_EVENT, now));
+			tracker.onDecoded(xid);
+			tracker.onCompleted(xid);
+		}
+		assertEquals(5, tracker.getTransactionCount());
+		assertEquals(1, tracker.getAbandonedCount());
+		assertTrue(tracker.getLastCompleteLag() < 1000); // Not credited to the earlier one
+		assertTrue(tracker.getCurrentLag() < 1000);
+		tracker.onHeartbeat(new HeartbeatEvent(header(MySQLConstants.HEARTBEAT_LOG_EVENT, now)));
+		assertEquals(0d, tracker.getCurrentLag()); // Idle
+
+		// The last one is never completed
+		tracker.onDecoded(new XidEvent(header(MySQLConstants.XID_EVENT, now - 1500)));
+		assertTrue(tracker.getCurrentLag() >= 1500);
+		tracker.reset();
+		assertEquals(2, tracker.getAbandonedCount());
+		tracker.onHeartbeat(new HeartbeatEvent(header(MySQLConstants.HEARTBEAT_LOG_EVENT, now)));
+		assertEquals(0d, tracker.getCurrentLag());
+	}
+
+	/**
+	 * 
+	 */
+	private static BinlogEventV4HeaderImpl header(int type, long timestamp) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setEventType(type);
+		r.setTimestamp(timestamp);
+		return r;
+	}
+}
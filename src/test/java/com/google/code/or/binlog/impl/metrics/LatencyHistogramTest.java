@@ -0,0 +1,29 @@
+package com.google.code.or.binlog.impl.metrics;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+	public void testBuckets() {
+		for (long v = 0; v < 1L << 40; v = v * 3 / 2 + 1) {
+			final int index = LatencyHistogram.getIndex(v);
+			assertTrue(v <= LatencyHistogram.getUpperBound(index));
+			assertTrue(index == 0 || v > LatencyHistogram.getUpperBound(index - 1));
+		}
+		final int last = LatencyHistogram.getIndex(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.getUpperBound(last));
+	}
+
+	public void testPercentiles() {
+		final LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getPercentile(99));
+		for (int i = 1; i <= 100000; i++) h.record(i);
+		assertEquals(100000, h.getCount());
+		assertEquals(100000, h.getMax());
+		assertEquals(50000, h.getMean());
+		assertEquals(50000, h.getPercentile(50), 50000 * 0.07);
+		assertEquals(99000, h.getPercentile(99), 99000 * 0.07);
+		h.reset();
+		assertEquals(0, h.getCount());
+	}
+}
@@ -0,0 +1,116 @@
+package com.google.code.or.binlog.impl.parser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParserContext;
+import com.google.code.or.binlog.ext.XChecksumCRC32Impl;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.parser.ext.GtidEventParserExt;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.io.impl.XInputStreamImpl;
+
+public class GtidEventParserTest extends TestCase {
+	//
+	private final List<BinlogEventV4> events = new ArrayList<BinlogEventV4>();
+	private final BinlogParserContext context = new BinlogParserContext() {
+		public String getBinlogFileName() {
+			return "mysql-bin.000001";
+		}
+
+		public BinlogEventListener getEventListener() {
+			return new BinlogEventListener() {
+				public void onEvents(BinlogEventV4 event) {
+					events.add(event);
+				}
+			};
+		}
+
+		public TableMapEvent getTableMapEvent(long tableId) {
+			return null;
+		}
+	};
+
+	/**
+	 * 
+	 */
+	public void testAnonymousGtid() throws Exception {
+		final byte[] body = body(new byte[16], 0, 7, 9, 1000);
+		final GtidEventParser parser = new GtidEventParser(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT);
+		assertEquals(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT, parser.getEventType());
+		parser.parse(stream(body), header(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT), this.context);
+
+		//
+		final GtidEvent event = (GtidEvent) this.events.get(0);
+		assertTrue(event.isAnonymous());
+		assertEquals(0, event.getTransactionId());
+		assertEquals(7, event.getLastCommitted());
+		assertEquals(9, event.getSequenceNumber());
+		assertEquals(1000, event.getImmediateCommitTimestamp());
+		assertEquals(1000, event.getOriginalCommitTimestamp());
+	}
+
+	public void testAnonymousGtidExt() throws Exception {
+		final byte[] body = body(new byte[16], 0, 3, 4, 0);
+		final byte[] withChecksum = new byte[body.length - 8 + 4]; // No commit time, CRC32
+		System.arraycopy(body, 0, withChecksum, 0, body.length - 8);
+		final XChecksumCRC32Impl checksum = new XChecksumCRC32Impl();
+		final GtidEventParserExt parser =
+				new GtidEventParserExt(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT, checksum);
+		parser.parse(stream(withChecksum), header(MySQLConstants.ANONYMOUS_GTID_LOG_EVENT),
+				this.context);
+
+		//
+		final GtidEvent event = (GtidEvent) this.events.get(0);
+		assertTrue(event.isAnonymous());
+		assertEquals(3, event.getLastCommitted());
+		assertEquals(4, event.getSequenceNumber());
+	}
+
+	public void testGtid() throws Exception {
+		final byte[] sourceId = new byte[16];
+		sourceId[0] = 0x3E;
+		new GtidEventParser().parse(stream(body(sourceId, 42, 1, 2, 0)),
+				header(MySQLConstants.GTID_LOG_EVENT), this.context);
+		final GtidEvent event = (GtidEvent) this.events.get(0);
+		assertFalse(event.isAnonymous());
+		assertEquals(0x3E, event.getSourceId()[0]);
+		assertEquals(42, event.getTransactionId());
+	}
+
+	/**
+	 * 
+	 */
+	private static byte[] body(byte[] sourceId, long gno, long lastCommitted, long sequenceNumber,
+			long commitTime) {
+		final ByteBuffer r = ByteBuffer.allocate(1 + 16 + 8 + 1 + 8 + 8 + 8);
+		r.order(ByteOrder.LITTLE_ENDIAN);
+		r.put((byte) 1).put(sourceId).putLong(gno);
+		r.put((byte) GtidEventParser.LOGICAL_TIMESTAMP_TYPECODE);
+		r.putLong(lastCommitted).putLong(sequenceNumber);
+		r.putLong(commitTime); // 7 bytes of commit time and a transaction length of 0
+		return r.array();
+	}
+
+	private static XInputStreamImpl stream(byte[] body) throws Exception {
+		final XInputStreamImpl r = new XInputStreamImpl(new ByteArrayInputStream(body));
+		r.setReadLimit(body.length);
+		return r;
+	}
+
+	private static BinlogEventV4HeaderImpl header(int type) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setEventType(type);
+		r.setEventLength(19 + 50);
+		return r;
+	}
+}
@@ -0,0 +1,122 @@
+package com.google.code.or.binlog.impl.parser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.BinlogParserContext;
+import com.google.code.or.binlog.ext.XChecksumCRC32Impl;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.HeartbeatEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.parser.ext.HeartbeatEventParserExt;
+import com.google.code.or.common.util.MySQLConstants;
+import com.google.code.or.io.impl.XInputStreamImpl;
+
+public class HeartbeatEventParserTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000002";
+
+	//
+	private final List<BinlogEventV4> events = new ArrayList<BinlogEventV4>();
+	private final BinlogParserContext context = new BinlogParserContext() {
+		public String getBinlogFileName() {
+			return "mysql-bin.000001";
+		}
+
+		public BinlogEventListener getEventListener() {
+			return new BinlogEventListener() {
+				public void onEvents(BinlogEventV4 event) {
+					events.add(event);
+				}
+			};
+		}
+
+		public TableMapEvent getTableMapEvent(long tableId) {
+			return null;
+		}
+	};
+
+	/**
+	 * The body is the master's current binlog file name, the position is in the header.
+	 */
+	public void testHeartbeat() throws Exception {
+		final byte[] body = NAME.getBytes("UTF-8");
+		final HeartbeatEventParser parser = new HeartbeatEventParser();
+		assertEquals(MySQLConstants.HEARTBEAT_LOG_EVENT, parser.getEventType());
+		parser.parse(stream(body), header(body.length, 1234), this.context);
+
+		//
+		final HeartbeatEvent event = (HeartbeatEvent) this.events.get(0);
+		assertEquals(NAME, event.getBinlogFileName().toString());
+		assertEquals(1234, event.getBinlogPosition());
+	}
+
+	public void testHeartbeatExt() throws Exception {
+		final byte[] body = NAME.getBytes("UTF-8");
+		final ValidatingChecksum checksum = new ValidatingChecksum();
+		new HeartbeatEventParserExt(checksum).parse(stream(withChecksum(body, 0)),
+				header(body.length + 4, 1234), this.context);
+
+		// The CRC32 is not part of the file name
+		final HeartbeatEvent event = (HeartbeatEvent) this.events.get(0);
+		assertEquals(NAME, event.getBinlogFileName().toString());
+		assertEquals(1234, event.getBinlogPosition());
+		assertEquals(1, checksum.validated);
+	}
+
+	public void testHeartbeatExtCorrupted() throws Exception {
+		final byte[] body = NAME.getBytes("UTF-8");
+		try {
+			new HeartbeatEventParserExt(new ValidatingChecksum()).parse(
+					stream(withChecksum(body, 1)), header(body.length + 4, 1234), this.context);
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(this.events.isEmpty());
+		}
+	}
+
+	/**
+	 * 
+	 */
+	private static final class ValidatingChecksum extends XChecksumCRC32Impl {
+		private int validated;
+
+		@Override
+		public void validateAndReset(int expected) {
+			if (expected != (int) getValue()) throw new IllegalStateException("crc mismatch");
+			this.validated++;
+			reset();
+		}
+	}
+
+	private static byte[] withChecksum(byte[] body, int corruption) {
+		final CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		final ByteBuffer r = ByteBuffer.allocate(body.length + 4);
+		r.order(ByteOrder.LITTLE_ENDIAN);
+		r.put(body).putInt((int) crc.getValue() + corruption);
+		return r.array();
+	}
+
+	private static XInputStreamImpl stream(byte[] body) throws Exception {
+		final XInputStreamImpl r = new XInputStreamImpl(new ByteArrayInputStream(body));
+		r.setReadLimit(body.length);
+		return r;
+	}
+
+	private static BinlogEventV4HeaderImpl header(int length, long nextPosition) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setEventType(MySQLConstants.HEARTBEAT_LOG_EVENT);
+		r.setEventLength(19 + length);
+		r.setNextPosition(nextPosition);
+		return r;
+	}
+}
@@ -0,0 +1,156 @@
+package com.google.code.or.binlog.impl.relay;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.OpenReplicator;
+import com.google.code.or.binlog.BinlogEventListener;
+import com.google.code.or.binlog.BinlogEventV4;
+import com.google.code.or.binlog.impl.BinlogBuilder;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.io.impl.SocketFactoryImpl;
+import com.google.code.or.net.TransportException;
+import com.google.code.or.net.impl.AuthenticatorImpl;
+import com.google.code.or.net.impl.QueryHelper;
+import com.google.code.or.net.impl.TransportImpl;
+
+public class RelayLogServerTest extends TestCase {
+	//
+	private static final String NAME = "mysql-bin.000001";
+
+	//
+	private File directory;
+	private RelayLogWriter writer;
+	private RelayLogServer server;
+	private final BinlogBuilder binlog = new BinlogBuilder();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("relay", "");
+		this.directory.delete();
+		this.writer = new RelayLogWriter(this.directory);
+		this.writer.setSyncInterval(0);
+		this.writer.open();
+		this.writer.rotate(NAME);
+		for (int i = 1; i <= 5; i++) this.binlog.transaction(1000 + i, i, "t1", i);
+		this.binlog.append(this.writer);
+		this.server = new RelayLogServer(this.writer);
+		this.server.setPort(0);
+		this.server.setUser("repl");
+		this.server.setPassword("secret");
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.stop(1, TimeUnit.SECONDS);
+		this.writer.close();
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testDump() throws Exception {
+		final List<Long> xids = new CopyOnWriteArrayList<Long>();
+		final List<Integer> values = new CopyOnWriteArrayList<Integer>();
+		final OpenReplicator or = new OpenReplicator();
+		or.setHost("127.0.0.1");
+		or.setPort(this.server.getPort());
+		or.setUser("repl");
+		or.setPassword("secret");
+		or.setServerId(2);
+		or.setBinlogFileName(NAME);
+		or.setBinlogPosition(4);
+		or.setBinlogEventListener(new BinlogEventListener() {
+			public void onEvents(BinlogEventV4 event) {
+				if (event instanceof XidEvent) xids.add(((XidEvent) event).getXid());
+				if (event instanceof WriteRowsEventV2) {
+					final WriteRowsEventV2 rows = (WriteRowsEventV2) event;
+					values.add((Integer) rows.getRows().get(0).getColumns().get(0).getValue());
+				}
+			}
+		});
+		or.start();
+		try {
+			await(xids, 5);
+
+			// Live events
+			this.binlog.transaction(2000, 6, "t1", 6);
+			this.binlog.append(this.writer);
+			await(xids, 6);
+		} finally {
+			or.stop(1, TimeUnit.SECONDS);
+		}
+		for (int i = 0; i < 6; i++) {
+			assertEquals(i + 1, xids.get(i).longValue());
+			assertEquals(i + 1, values.get(i).intValue());
+		}
+	}
+
+	public void testAccessDenied() throws Exception {
+		try {
+			connect("wrong");
+			fail();
+		} catch (TransportException e) {
+			assertEquals(RelayLogServer.ER_ACCESS_DENIED_ERROR, e.getErrorCode());
+		}
+	}
+
+	public void testShowVariablesLike() throws Exception {
+		this.server.setVariable("binlogXchecksum", "x");
+		this.server.setVariable("server.id", "y");
+		assertEquals("NONE", showVariables("binlog\\_checksum").get("binlog_checksum"));
+		assertEquals(1, showVariables("binlog\\_checksum").size());
+		assertEquals(2, showVariables("binlog_checksum").size());
+		assertEquals(1, showVariables("server.id").size());
+		assertEquals(3, showVariables("SERVER%").size()); // server_id, server_uuid and server.id
+		assertEquals(0, showVariables("server(%").size());
+	}
+
+	public void testToPattern() throws Exception {
+		assertTrue(RelayLogServer.toPattern("a\\_b%").matcher("A_bc").matches());
+		assertFalse(RelayLogServer.toPattern("a\\_b%").matcher("axbc").matches());
+		assertTrue(RelayLogServer.toPattern("a\\%").matcher("a%").matches());
+		assertFalse(RelayLogServer.toPattern("a\\%").matcher("ab").matches());
+		assertTrue(RelayLogServer.toPattern("a\\\\b").matcher("a\\b").matches());
+		assertFalse(RelayLogServer.toPattern("[a-z]+").matcher("abc").matches());
+		assertTrue(RelayLogServer.toPattern("[a-z]+").matcher("[A-Z]+").matches());
+	}
+
+	/**
+	 *
+	 */
+	private Map<String, String> showVariables(String like) throws Exception {
+		final TransportImpl transport = connect("secret");
+		try {
+			QueryHelper.writeQuery(transport, "SHOW GLOBAL VARIABLES LIKE '" + like + "'");
+			transport.getOutputStream().flush();
+			return QueryHelper.readVariables(transport);
+		} finally {
+			transport.disconnect();
+		}
+	}
+
+	private TransportImpl connect(String password) throws Exception {
+		final TransportImpl r = new TransportImpl();
+		final AuthenticatorImpl authenticator = new AuthenticatorImpl();
+		authenticator.setUser("repl");
+		authenticator.setPassword(password);
+		authenticator.setEncoding("utf-8");
+		r.setAuthenticator(authenticator);
+		r.setSocketFactory(new SocketFactoryImpl());
+		r.connect("127.0.0.1", this.server.getPort());
+		return r;
+	}
+
+	private static void await(List<Long> xids, int count) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (xids.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertEquals(count, xids.size());
+	}
+}
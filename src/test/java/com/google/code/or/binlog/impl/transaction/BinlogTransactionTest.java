@@ -0,0 +1,102 @@
+package com.google.code.or.binlog.impl.transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.impl.event.AbstractRowEvent;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class BinlogTransactionTest extends TestCase {
+	//
+	private File directory;
+	private final BinlogTransaction transaction = new BinlogTransaction();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("spill", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.transaction.clear();
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testSpillAndReadBack() throws Exception {
+		this.transaction.addRowEvent(rows("users", 1));
+		this.transaction.addRowEvent(rows("orders", 2));
+		this.transaction.spill(this.directory);
+		assertTrue(this.transaction.isSpilled());
+		assertEquals(2, this.directory.list().length); // One file per table
+		this.transaction.addRowEvent(rows("users", 3));
+		this.transaction.spill(this.directory);
+		this.transaction.addRowEvent(rows("users", 4)); // In memory
+		this.transaction.addRowEvent(rows("orders", 5));
+		assertEquals(2, this.directory.list().length);
+
+		//
+		assertEquals(5, this.transaction.getRowEventCount());
+		assertEquals(500, this.transaction.getSize());
+		assertEquals(Arrays.asList("shop.users", "shop.orders"), this.transaction.getTableNames());
+		assertEquals(Arrays.asList(1, 3, 4), values(this.transaction.getRowEvents("shop.users")));
+		assertEquals(Arrays.asList(2, 5), values(this.transaction.getRowEvents("shop.orders")));
+		final List<AbstractRowEvent> all = new ArrayList<AbstractRowEvent>();
+		this.transaction.visitRowEvents(new BinlogTransaction.Visitor() {
+			public void visit(AbstractRowEvent event) {
+				all.add(event);
+			}
+		});
+		assertEquals(Arrays.asList(1, 3, 4, 2, 5), values(all)); // Table by table
+		assertEquals(Arrays.asList(1, 3, 4), values(this.transaction.getRowEvents("shop.users"))); // Again
+
+		// Reused once cleared
+		this.transaction.clear();
+		assertEquals(0, this.directory.list().length);
+		assertTrue(this.transaction.isEmpty());
+		assertFalse(this.transaction.isSpilled());
+		this.transaction.addRowEvent(rows("orders", 6));
+		assertEquals(Arrays.asList("shop.orders"), this.transaction.getTableNames());
+		assertEquals(Arrays.asList(6), values(this.transaction.getRowEvents("shop.orders")));
+		assertEquals(0, this.transaction.getRowEvents("shop.users").size());
+	}
+
+	/**
+	 *
+	 */
+	static WriteRowsEventV2 rows(String table, int value) {
+		final BinlogEventV4HeaderImpl header = new BinlogEventV4HeaderImpl();
+		header.setEventType(MySQLConstants.WRITE_ROWS_EVENT_V2);
+		header.setEventLength(100);
+		final WriteRowsEventV2 r = new WriteRowsEventV2(header);
+		r.setTableId(42);
+		r.setDatabaseName("shop");
+		r.setTableName(table);
+		r.setColumnCount(UnsignedLong.valueOf(1));
+		r.setUsedColumns(BitColumn.valueOf(1, new byte[] {0x01}));
+		r.setRows(Arrays.asList(new Row(Arrays.<Column>asList(LongColumn.valueOf(value)))));
+		return r;
+	}
+
+	static List<Integer> values(List<AbstractRowEvent> events) {
+		final List<Integer> r = new ArrayList<Integer>();
+		for (AbstractRowEvent event : events) {
+			final Row row = ((WriteRowsEventV2) event).getRows().get(0);
+			r.add((Integer) row.getColumns().get(0).getValue());
+		}
+		return r;
+	}
+}
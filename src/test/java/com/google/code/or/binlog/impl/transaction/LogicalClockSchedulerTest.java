@@ -0,0 +1,97 @@
+package com.google.code.or.binlog.impl.transaction;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogTransactionListener;
+import com.google.code.or.common.glossary.BinlogPosition;
+
+public class LogicalClockSchedulerTest extends TestCase {
+	//
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<Long> applied = new CopyOnWriteArrayList<Long>();
+	private final LogicalClockScheduler scheduler = new LogicalClockScheduler();
+
+	/**
+	 * 
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		this.scheduler.setTransactionListener(new BinlogTransactionListener() {
+			public void onTransaction(BinlogTransaction transaction) throws Exception {
+				final long position = transaction.getCommitPosition().getPosition();
+				if (position == 100) release.await(10, TimeUnit.SECONDS); // Held back
+				applied.add(position);
+			}
+		});
+		this.scheduler.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.release.countDown();
+		this.scheduler.stop();
+	}
+
+	/**
+	 * 
+	 */
+	public void testLastCommittedOrdering() throws Exception {
+		this.scheduler.onTransaction(transaction(100, 0, 1));
+		this.scheduler.onTransaction(transaction(200, 0, 2)); // Same group as 1
+		this.scheduler.onTransaction(transaction(300, 1, 3)); // Waits for 1
+		this.scheduler.onTransaction(transaction(400, 0, 4)); // Committed along with 1
+		awaitApplied(400);
+		assertEquals(new HashSet<Long>(Arrays.asList(200L, 400L)), new HashSet<Long>(this.applied));
+		assertNull(this.scheduler.getCommittedPosition());
+
+		//
+		this.release.countDown();
+		this.scheduler.drain();
+		assertEquals(Arrays.asList(100L, 300L), this.applied.subList(2, 4));
+		assertEquals(400, this.scheduler.getCommittedPosition().getPosition());
+	}
+
+	public void testNewBinlogFileWaits() throws Exception {
+		this.scheduler.onTransaction(transaction(100, 0, 1));
+		this.scheduler.onTransaction(transaction(200, 0, 1)); // Sequence restarted, next file
+		awaitApplied(200);
+		assertTrue(this.applied.isEmpty());
+		this.release.countDown();
+		this.scheduler.drain();
+		assertEquals(Arrays.asList(100L, 200L), this.applied);
+	}
+
+	public void testWithoutLogicalClockWaits() throws Exception {
+		this.scheduler.onTransaction(transaction(100, 0, 1));
+		this.scheduler.onTransaction(transaction(200, 0, 0)); // Serial
+		this.scheduler.onTransaction(transaction(300, 0, 2)); // After the serial one
+		awaitApplied(300);
+		assertTrue(this.applied.isEmpty());
+		this.release.countDown();
+		this.scheduler.drain();
+		assertEquals(Arrays.asList(100L, 200L, 300L), this.applied);
+	}
+
+	/**
+	 * 
+	 */
+	private void awaitApplied(long position) throws InterruptedException {
+		for (int i = 0; i < 50 && !this.applied.contains(position); i++) Thread.sleep(10);
+		Thread.sleep(50); // Anything else that would run
+	}
+
+	private static BinlogTransaction transaction(long position, long lastCommitted,
+			long sequenceNumber) {
+		final BinlogTransaction r = new BinlogTransaction();
+		r.setLogicalClock(lastCommitted, sequenceNumber);
+		r.setCommitPosition(new BinlogPosition("mysql-bin.000001", position));
+		return r;
+	}
+}
@@ -0,0 +1,167 @@
+package com.google.code.or.binlog.impl.transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogTransactionListener;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.GtidEvent;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.RotateEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.GtidSet;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class TransactionAssemblerTest extends TestCase {
+	//
+	private static final String UUID = "3e11fa47-71ca-11e1-9e33-c80aa9429562";
+
+	//
+	private File directory;
+	private long position = 4;
+	private final List<BinlogTransaction> transactions = new ArrayList<BinlogTransaction>();
+	private final List<List<Integer>> values = new ArrayList<List<Integer>>();
+	private final List<Boolean> spilled = new ArrayList<Boolean>();
+	private final TransactionAssembler assembler = new TransactionAssembler();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("spill", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+		this.assembler.setSpillDirectory(this.directory);
+		this.assembler.setReuseTransactions(false);
+		this.assembler.setTransactionListener(new BinlogTransactionListener() {
+			public void onTransaction(BinlogTransaction transaction) throws Exception {
+				transactions.add(transaction);
+				spilled.add(transaction.isSpilled());
+				values.add(BinlogTransactionTest.values(transaction.getRowEvents("shop.users")));
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (BinlogTransaction transaction : this.transactions) transaction.clear();
+		for (File file : this.directory.listFiles()) file.delete();
+		this.directory.delete();
+	}
+
+	public void testTransactions() throws Exception {
+		this.assembler.onEvents(rotate("mysql-bin.000001"));
+		final long begin = this.position;
+		this.assembler.onEvents(gtid(7));
+		this.assembler.onEvents(query("BEGIN"));
+		this.assembler.onEvents(rows(1));
+		this.assembler.onEvents(rows(2));
+		this.assembler.onEvents(xid());
+
+		// Rolled back
+		this.assembler.onEvents(gtid(8));
+		this.assembler.onEvents(query("BEGIN"));
+		this.assembler.onEvents(rows(3));
+		this.assembler.onEvents(query("ROLLBACK"));
+
+		// A statement of its own
+		this.assembler.onEvents(gtid(9));
+		this.assembler.onEvents(query("CREATE TABLE t (id INT)"));
+		assertEquals(2, this.transactions.size());
+
+		//
+		final BinlogTransaction first = this.transactions.get(0);
+		assertEquals(GtidSet.toUuid(GtidSet.fromUuid(UUID)) + ":7", first.getGtid());
+		assertEquals(new BinlogPosition("mysql-bin.000001", begin), first.getBeginPosition());
+		assertEquals(new BinlogPosition("mysql-bin.000001", begin + 500), first.getCommitPosition());
+		assertEquals(Arrays.asList(1, 2), this.values.get(0));
+		assertFalse(first.isReused());
+		final BinlogTransaction second = this.transactions.get(1);
+		assertEquals(9, second.getTransactionId());
+		assertEquals(0, second.getRowEventCount());
+		assertEquals("CREATE TABLE t (id INT)", second.getQueryEvents().get(0).getSql().toString());
+	}
+
+	public void testSpill() throws Exception {
+		this.assembler.setSpillThreshold(250);
+		this.assembler.onEvents(gtid(1));
+		this.assembler.onEvents(query("BEGIN"));
+		for (int i = 1; i <= 10; i++) this.assembler.onEvents(rows(i));
+		assertEquals(1, this.directory.list().length);
+		this.assembler.onEvents(xid());
+		this.assembler.onEvents(gtid(2));
+		this.assembler.onEvents(query("BEGIN"));
+		this.assembler.onEvents(rows(11));
+		this.assembler.onEvents(xid());
+
+		//
+		assertEquals(Arrays.asList(true, false), this.spilled);
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), this.values.get(0));
+		assertEquals(Arrays.asList(11), this.values.get(1));
+		this.transactions.get(0).clear(); // Owned by the listener
+		assertEquals(0, this.directory.list().length);
+	}
+
+	public void testReusedTransactionCleared() throws Exception {
+		this.assembler.setReuseTransactions(true);
+		this.assembler.setSpillThreshold(0);
+		this.assembler.onEvents(gtid(1));
+		this.assembler.onEvents(query("BEGIN"));
+		this.assembler.onEvents(rows(1));
+		this.assembler.onEvents(xid());
+		this.assembler.onEvents(gtid(2));
+		this.assembler.onEvents(query("BEGIN"));
+		this.assembler.onEvents(rows(2));
+		this.assembler.onEvents(xid());
+		assertSame(this.transactions.get(0), this.transactions.get(1));
+		assertTrue(this.transactions.get(0).isEmpty());
+		assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2)), this.values);
+		assertEquals(0, this.directory.list().length); // Deleted once the listener returned
+	}
+
+	/**
+	 *
+	 */
+	private BinlogEventV4HeaderImpl header(int type, long length) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setEventType(type);
+		r.setEventLength(length);
+		r.setNextPosition(this.position += length);
+		return r;
+	}
+
+	private GtidEvent gtid(long transactionId) {
+		final GtidEvent r = new GtidEvent(GtidSet.fromUuid(UUID), transactionId);
+		r.setHeader(header(MySQLConstants.GTID_LOG_EVENT, 100));
+		return r;
+	}
+
+	private QueryEvent query(String sql) {
+		final QueryEvent r = new QueryEvent(header(MySQLConstants.QUERY_EVENT, 100));
+		r.setSql(StringColumn.valueOf(sql.getBytes()));
+		return r;
+	}
+
+	private WriteRowsEventV2 rows(int value) {
+		final WriteRowsEventV2 r = BinlogTransactionTest.rows("users", value);
+		r.setHeader(header(MySQLConstants.WRITE_ROWS_EVENT_V2, 100));
+		return r;
+	}
+
+	private XidEvent xid() {
+		return new XidEvent(header(MySQLConstants.XID_EVENT, 100));
+	}
+
+	private RotateEvent rotate(String name) {
+		final RotateEvent r = new RotateEvent(header(MySQLConstants.ROTATE_EVENT, 0));
+		r.setBinlogFileName(StringColumn.valueOf(name.getBytes()));
+		r.setBinlogPosition(4);
+		this.position = 4;
+		return r;
+	}
+}
@@ -0,0 +1,240 @@
+package com.google.code.or.binlog.impl.transaction;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.binlog.BinlogTransactionListener;
+import com.google.code.or.binlog.impl.event.BinlogEventV4HeaderImpl;
+import com.google.code.or.binlog.impl.event.QueryEvent;
+import com.google.code.or.binlog.impl.event.TableMapEvent;
+import com.google.code.or.binlog.impl.event.WriteRowsEventV2;
+import com.google.code.or.binlog.impl.event.XidEvent;
+import com.google.code.or.common.glossary.BinlogPosition;
+import com.google.code.or.common.glossary.Column;
+import com.google.code.or.common.glossary.Row;
+import com.google.code.or.common.glossary.UnsignedLong;
+import com.google.code.or.common.glossary.column.BitColumn;
+import com.google.code.or.common.glossary.column.LongColumn;
+import com.google.code.or.common.glossary.column.StringColumn;
+import com.google.code.or.common.util.MySQLConstants;
+
+public class WritesetSchedulerTest extends TestCase {
+	//
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<Long> applied = new CopyOnWriteArrayList<Long>();
+	private final WritesetScheduler scheduler = new WritesetScheduler();
+
+	/**
+	 * 
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		this.scheduler.getRowKeyHasher().setKeyColumns("shop.users", 0);
+		this.scheduler.setTransactionListener(new BinlogTransactionListener() {
+			public void onTransaction(BinlogTransaction transaction) throws Exception {
+				final long position = transaction.getCommitPosition().getPosition();
+				if (position == 100) release.await(10, TimeUnit.SECONDS); // Held back
+				if (position == 666) throw new IllegalStateException("apply failed");
+				applied.add(position);
+			}
+		});
+		this.scheduler.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.release.countDown();
+		this.scheduler.stop();
+	}
+
+	/**
+	 * 
+	 */
+	public void testConflictingKeysWait() throws Exception {
+		this.scheduler.onTransaction(transaction(100, 1, "a"));
+		this.scheduler.onTransaction(transaction(200, 1, "b")); // Same key
+		this.scheduler.onTransaction(transaction(300, 2, "c"));
+		awaitApplied(300);
+		assertEquals(Arrays.asList(300L), this.applied);
+		assertNull(this.scheduler.getCommittedPosition());
+
+		//
+		this.release.countDown();
+		this.scheduler.drain();
+		assertEquals(Arrays.asList(300L, 100L, 200L), this.applied);
+		assertEquals(300, this.scheduler.getCommittedPosition().getPosition());
+	}
+
+	public void testUniqueKeysConflict() throws Exception {
+		this.scheduler.getRowKeyHasher().addUniqueKeyColumns("shop.users", 1);
+		this.scheduler.onTransaction(transaction(100, 1, "a"));
+		this.scheduler.onTransaction(transaction(200, 2, "a")); // Same unique key
+		this.scheduler.onTransaction(transaction(300, 3, "c"));
+		awaitApplied(300);
+		assertEquals(Arrays.asList(300L), this.applied);
+		this.release.countDown();
+		this.scheduler.drain();
+		assertEquals(Arrays.asList(300L, 100L, 200L), this.applied);
+	}
+
+	public void testHistoryOverflow() throws Exception {
+		this.scheduler.setHistorySize(2);
+		this.scheduler.onTransaction(transaction(100, 1, "a"));
+		this.scheduler.onTransaction(transaction(200, 2, "b"));
+		this.scheduler.onTransaction(transaction(300, 3, "c")); // Clears the history
+		this.scheduler.onTransaction(transaction(400, 1, "d")); // Forgot that 100 wrote key 1
+		awaitApplied(200);
+		assertEquals(Arrays.asList(200L), this.applied);
+
+		//
+		this.release.countDown();
+		this.scheduler.drain();
+		assertEquals(Arrays.asList(200L, 100L, 300L, 400L), this.applied);
+	}
+
+	public void testFailureHoldsBackPosition() throws Exception {
+		this.scheduler.onTransaction(transaction(50, 9, "z"));
+		this.scheduler.drain();
+		this.scheduler.onTransaction(transaction(666, 1, "a"));
+		try {
+			this.scheduler.onTransaction(transaction(700, 1, "b")); // Rejected if the failure came first
+			this.scheduler.drain();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("apply failed", e.getCause().getMessage());
+		}
+		try {
+			this.scheduler.onTransaction(transaction(800, 5, "e"));
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(Arrays.asList(50L), this.applied);
+		assertEquals(50, this.scheduler.getCommittedPosition().getPosition());
+		assertNotNull(this.scheduler.getFailure());
+	}
+
+	public void testCommitFailureHoldsBackPosition() throws Exception {
+		assertCommitFailure(true);
+	}
+
+	public void testCommitFailureHoldsBackPositionUnordered() throws Exception {
+		assertCommitFailure(false);
+	}
+
+	public void testNotStarted() throws Exception {
+		final WritesetScheduler s = new WritesetScheduler();
+		try {
+			s.onTransaction(transaction(100, 1, "a"));
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			s.start();
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected, no transaction listener
+		}
+	}
+
+	public void testRejectsReusedTransactions() throws Exception {
+		final TransactionAssembler assembler = new TransactionAssembler(this.scheduler);
+		assembler.setBinlogFileName("mysql-bin.000001");
+		assembler.onEvents(query("BEGIN"));
+		try {
+			assembler.onEvents(xid(1000)); // Reused by default
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		assembler.setReuseTransactions(false);
+		assembler.onEvents(query("BEGIN"));
+		assembler.onEvents(xid(2000));
+		this.scheduler.drain();
+		assertEquals(Arrays.asList(2000L), this.applied);
+	}
+
+	/**
+	 * 
+	 */
+	private void assertCommitFailure(boolean preserveCommitOrder) throws Exception {
+		final List<Long> committed = new CopyOnWriteArrayList<Long>();
+		this.release.countDown();
+		this.scheduler.setPreserveCommitOrder(preserveCommitOrder);
+		this.scheduler.setCommitListener(new BinlogTransactionListener() {
+			public void onTransaction(BinlogTransaction transaction) throws Exception {
+				final long position = transaction.getCommitPosition().getPosition();
+				if (position == 200) throw new IllegalStateException("commit failed");
+				committed.add(position);
+			}
+		});
+		this.scheduler.onTransaction(transaction(100, 1, "a"));
+		this.scheduler.drain();
+		this.scheduler.onTransaction(transaction(200, 1, "b"));
+		try {
+			this.scheduler.drain();
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("commit failed", e.getCause().getMessage());
+		}
+		try {
+			this.scheduler.onTransaction(transaction(300, 2, "c"));
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(Arrays.asList(100L, 200L), this.applied);
+		assertEquals(Arrays.asList(100L), committed);
+		assertEquals(100, this.scheduler.getCommittedPosition().getPosition()); // Not skipped on restart
+	}
+
+	private void awaitApplied(long position) throws InterruptedException {
+		for (int i = 0; i < 1000 && !this.applied.contains(position); i++) Thread.sleep(10);
+		Thread.sleep(50); // Anything else that would run
+	}
+
+	private static BinlogTransaction transaction(long position, long id, String email) {
+		final TableMapEvent tme = new TableMapEvent(header(MySQLConstants.TABLE_MAP_EVENT));
+		tme.setTableId(42);
+		tme.setDatabaseName(StringColumn.valueOf("shop".getBytes()));
+		tme.setTableName(StringColumn.valueOf("users".getBytes()));
+		final WriteRowsEventV2 event = new WriteRowsEventV2(header(MySQLConstants.WRITE_ROWS_EVENT_V2));
+		event.setTableId(42);
+		event.setDatabaseName("shop");
+		event.setTableName("users");
+		event.setColumnCount(UnsignedLong.valueOf(2));
+		event.setUsedColumns(BitColumn.valueOf(2, new byte[] {0x03}));
+		final Column value = StringColumn.valueOf(email.getBytes());
+		event.setRows(Arrays.asList(new Row(Arrays.<Column>asList(LongColumn.valueOf((int) id), value))));
+		final BinlogTransaction r = new BinlogTransaction();
+		r.addTableMapEvent(tme);
+		r.addRowEvent(event);
+		r.setCommitPosition(new BinlogPosition("mysql-bin.000001", position));
+		return r;
+	}
+
+	private static QueryEvent query(String sql) {
+		final QueryEvent r = new QueryEvent(header(MySQLConstants.QUERY_EVENT));
+		r.setSql(StringColumn.valueOf(sql.getBytes()));
+		return r;
+	}
+
+	private static XidEvent xid(long nextPosition) {
+		final BinlogEventV4HeaderImpl header = header(MySQLConstants.XID_EVENT);
+		header.setNextPosition(nextPosition);
+		return new XidEvent(header);
+	}
+
+	private static BinlogEventV4HeaderImpl header(int type) {
+		final BinlogEventV4HeaderImpl r = new BinlogEventV4HeaderImpl();
+		r.setEventType(type);
+		r.setEventLength(100);
+		return r;
+	}
+}
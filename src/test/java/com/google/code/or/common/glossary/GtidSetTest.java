@@ -0,0 +1,65 @@
+package com.google.code.or.common.glossary;
+
+import junit.framework.TestCase;
+
+public class GtidSetTest extends TestCase {
+	//
+	private static final String A = "3e11fa47-71ca-11e1-9e33-c80aa9429562";
+	private static final String B = "4c5a1c2e-71ca-11e1-9e33-c80aa9429562";
+
+	public void testParse() {
+		final GtidSet set = GtidSet.valueOf(" " + A.toUpperCase() + ":1-5:7, " + B + ":3 ");
+		assertEquals(A + ":1-5:7," + B + ":3", set.toString());
+		assertEquals(set, GtidSet.valueOf(set.toString()));
+		assertEquals(set, GtidSet.valueOf(set.toByteArray()));
+		assertEquals(set.getEncodedLength(), set.toByteArray().length);
+		assertTrue(GtidSet.valueOf("").isEmpty());
+		assertTrue(GtidSet.valueOf((String) null).isEmpty());
+	}
+
+	public void testMerge() {
+		final GtidSet set = GtidSet.valueOf(A + ":1-3:7-9");
+		assertTrue(set.add(A, 4));
+		assertEquals(A + ":1-4:7-9", set.toString());
+		assertFalse(set.add(A, 8));
+		assertTrue(set.add(A, 5, 6)); // Bridges both intervals
+		assertEquals(A + ":1-9", set.toString());
+		assertTrue(set.add(A, 20, 30));
+		assertTrue(set.add(A, 1, 25)); // Swallows the intervals on the right
+		assertEquals(A + ":1-30", set.toString());
+
+		//
+		final GtidSet rhs = GtidSet.valueOf(A + ":31-32," + B + ":1");
+		set.addAll(rhs);
+		assertEquals(A + ":1-32," + B + ":1", set.toString());
+		assertEquals(A + ":31-32," + B + ":1", rhs.toString());
+		try {
+			set.add(A, 5, 4);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		try {
+			set.add(B, 0); // Transaction numbers start at 1
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	public void testContains() {
+		final GtidSet set = GtidSet.valueOf(A + ":1-5:10-12");
+		assertTrue(set.contains(A, 1));
+		assertTrue(set.contains(A.toUpperCase(), 12));
+		assertFalse(set.contains(A, 6));
+		assertFalse(set.contains(A, 13));
+		assertFalse(set.contains(B, 1));
+		assertTrue(set.contains(GtidSet.fromUuid(A), 11));
+
+		//
+		assertTrue(set.containsAll(GtidSet.valueOf(A + ":2-4:10")));
+		assertFalse(set.containsAll(GtidSet.valueOf(A + ":4-10")));
+		assertFalse(set.containsAll(GtidSet.valueOf(A + ":1," + B + ":1")));
+		assertTrue(set.containsAll(new GtidSet()));
+	}
+}
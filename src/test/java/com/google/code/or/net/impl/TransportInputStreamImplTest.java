@@ -0,0 +1,42 @@
+package com.google.code.or.net.impl;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.google.code.or.net.Packet;
+
+public class TransportInputStreamImplTest extends TestCase {
+
+	public void testUnreadPacket() throws Exception {
+		final byte[] stream = {3, 0, 0, 1, 10, 11, 12, 2, 0, 0, 2, 20, 21};
+		final TransportInputStreamImpl is = new TransportInputStreamImpl(new ByteArrayInputStream(stream) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 4)); // The packet spans two fills
+			}
+		}, 8);
+		final Packet first = is.readPacket();
+		assertTrue(Arrays.equals(new byte[] {10, 11, 12}, first.getPacketBody()));
+		is.unreadPacket(first);
+
+		// Read again before the rest of the stream
+		final Packet again = is.readPacket();
+		assertEquals(1, again.getSequence());
+		assertTrue(Arrays.equals(first.getPacketBody(), again.getPacketBody()));
+		final Packet second = is.readPacket();
+		assertEquals(2, second.getSequence());
+		assertTrue(Arrays.equals(new byte[] {20, 21}, second.getPacketBody()));
+	}
+
+	public void testUnreadOverflow() throws Exception {
+		final TransportInputStreamImpl is = new TransportInputStreamImpl(new ByteArrayInputStream(new byte[0]), 4);
+		try {
+			is.unread(new byte[5], 0, 5);
+			fail();
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+}